@@ -46,11 +46,14 @@ import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
 import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
 import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.sku.SkuResolver;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
+import org.onepf.opfiab.util.EventRouter.ThreadMode;
 import org.onepf.opfiab.verification.PurchaseVerifier;
 import org.onepf.opfutils.OPFChecks;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.OPFUtils;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -107,6 +110,37 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
         return UNKNOWN_ERROR;
     }
 
+    @NonNull
+    @Override
+    public EventHandler<?>[] getEventHandlers() {
+        final EventHandler<?>[] handlers = super.getEventHandlers();
+        final EventHandler<?>[] amazonHandlers = Arrays.copyOf(handlers, handlers.length + 3);
+        amazonHandlers[handlers.length] = new EventHandler<ProductDataResponse>(
+                ProductDataResponse.class, ThreadMode.ASYNC) {
+            @Override
+            public void onEvent(@NonNull final ProductDataResponse event) {
+                AmazonBillingProvider.this.onEventAsync(event);
+            }
+        };
+        amazonHandlers[handlers.length + 1] = new EventHandler<PurchaseUpdatesResponse>(
+                PurchaseUpdatesResponse.class, ThreadMode.ASYNC) {
+            @Override
+            public void onEvent(@NonNull final PurchaseUpdatesResponse event) {
+                AmazonBillingProvider.this.onEventAsync(event);
+            }
+        };
+        amazonHandlers[handlers.length + 2] =
+                new EventHandler<com.amazon.device.iap.model.PurchaseResponse>(
+                        com.amazon.device.iap.model.PurchaseResponse.class, ThreadMode.ASYNC) {
+                    @Override
+                    public void onEvent(
+                            @NonNull final com.amazon.device.iap.model.PurchaseResponse event) {
+                        AmazonBillingProvider.this.onEventAsync(event);
+                    }
+                };
+        return amazonHandlers;
+    }
+
     /**
      * Handles sku details response from Amazon.
      *
@@ -26,7 +26,7 @@ import com.amazon.device.iap.model.PurchaseUpdatesResponse;
 import com.amazon.device.iap.model.Receipt;
 
 import org.json.JSONException;
-import org.json.JSONObject;
+import org.onepf.opfiab.model.JsonFields;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.billing.SkuDetails;
 import org.onepf.opfiab.model.billing.SkuType;
@@ -57,10 +57,10 @@ public final class AmazonUtils {
 
     @SuppressWarnings("PMD.PreserveStackTrace")
     @NonNull
-    public static Date readDate(@NonNull final JSONObject jsonObject, @NonNull final String key)
+    public static Date readDate(@NonNull final JsonFields fields, @NonNull final String key)
             throws JSONException {
 
-        final String date = jsonObject.getString(key);
+        final String date = fields.getString(key);
         try {
             return DATE_FORMAT.get().parse(date);
         } catch (ParseException exception) {
@@ -30,7 +30,7 @@ abstract class AmazonModel extends JsonModel {
 
     public AmazonModel(@NonNull final String originalJson) throws JSONException {
         super(originalJson);
-        this.sku = jsonObject.getString(NAME_SKU);
+        this.sku = fields.getString(NAME_SKU);
     }
 
     @NonNull
@@ -28,8 +28,8 @@ import com.android.vending.billing.IInAppBillingService;
 
 import org.onepf.opfiab.billing.AidlBillingHelper;
 import org.onepf.opfiab.google.model.ItemType;
+import org.onepf.opfiab.util.StateStore;
 import org.onepf.opfutils.OPFLog;
-import org.onepf.opfutils.OPFPreferences;
 import org.onepf.opfutils.OPFUtils;
 
 import java.util.ArrayList;
@@ -55,7 +55,7 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
     @NonNull
     private final String packageName = context.getPackageName();
     @NonNull
-    private final OPFPreferences preferences = new OPFPreferences(context);
+    private final StateStore preferences = StateStore.getInstance(context);
 
     GoogleBillingHelper(@NonNull final Context context) {
         super(context, IInAppBillingService.class);
@@ -123,7 +123,8 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
      *
      * @param token Token of a purchase to consume.
      *
-     * @return Result of the operation. Can be null.
+     * @return Result of the operation, {@link Response#ERROR} if response code is unknown. Null if
+     * service couldn't be reached.
      */
     @Nullable
     Response consumePurchase(@NonNull final String token) {
@@ -136,7 +137,7 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
             final int code = service.consumePurchase(API, packageName, token);
             final Response response = Response.fromCode(code);
             OPFLog.d("Response: %s", response);
-            return response;
+            return response == null ? Response.ERROR : response;
         } catch (RemoteException exception) {
             OPFLog.e("consumePurchase request failed.", exception);
         }
@@ -231,7 +231,9 @@ public class GoogleBillingProvider extends BaseBillingProvider<TypedSkuResolver,
         final Response response = helper.consumePurchase(token);
         if (response != Response.OK) {
             OPFLog.e("Consume failed.");
-            postEmptyResponse(request, getStatus(response));
+            // No response means service couldn't be reached or binder call failed
+            postEmptyResponse(request, response == null
+                    ? Status.SERVICE_UNAVAILABLE : getStatus(response));
             return;
         }
 
@@ -246,7 +248,9 @@ public class GoogleBillingProvider extends BaseBillingProvider<TypedSkuResolver,
         //noinspection ConstantConditions
         if (response != Response.OK || result == null) {
             OPFLog.e("Failed to retrieve sku details.");
-            postEmptyResponse(request, getStatus(response));
+            // No result means service couldn't be reached or binder call failed
+            postEmptyResponse(request, result == null
+                    ? Status.SERVICE_UNAVAILABLE : getStatus(response));
             return;
         }
 
@@ -285,7 +289,9 @@ public class GoogleBillingProvider extends BaseBillingProvider<TypedSkuResolver,
         // noinspection ConstantConditions
         if (response != Response.OK || result == null) {
             OPFLog.e("Failed to retrieve purchase data.");
-            postEmptyResponse(request, getStatus(response));
+            // No result means service couldn't be reached or binder call failed
+            postEmptyResponse(request, result == null
+                    ? Status.SERVICE_UNAVAILABLE : getStatus(response));
             return;
         }
 
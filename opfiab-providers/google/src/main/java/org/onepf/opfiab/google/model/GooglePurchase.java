@@ -21,6 +21,8 @@ import android.support.annotation.Nullable;
 
 import org.json.JSONException;
 
+import java.util.Collection;
+
 /**
  * This model represents purchase made in Google Play.
  */
@@ -33,6 +35,9 @@ public class GooglePurchase extends GoogleModel {
     private static final String NAME_PURCHASE_TIME = "purchaseTime";
     private static final String NAME_DEVELOPER_PAYLOAD = "developerPayload";
     private static final String NAME_AUTO_RENEWING = "autoRenewing";
+    private static final Collection<String> NAMES = names(NAME_ORDER_ID, NAME_PACKAGE_NAME,
+            NAME_PURCHASE_TOKEN, NAME_PURCHASE_STATE, NAME_PURCHASE_TIME, NAME_DEVELOPER_PAYLOAD,
+            NAME_AUTO_RENEWING);
 
 
     @NonNull
@@ -50,15 +55,15 @@ public class GooglePurchase extends GoogleModel {
 
 
     public GooglePurchase(@NonNull final String originalJson) throws JSONException {
-        super(originalJson);
-        this.orderId = jsonObject.getString(NAME_ORDER_ID);
-        this.packageName = jsonObject.getString(NAME_PACKAGE_NAME);
-        this.purchaseToken = jsonObject.getString(NAME_PURCHASE_TOKEN);
-        this.developerPayload = jsonObject.optString(NAME_DEVELOPER_PAYLOAD, null);
-        this.purchaseTime = jsonObject.getLong(NAME_PURCHASE_TIME);
-        this.autoRenewing = jsonObject.optBoolean(NAME_AUTO_RENEWING, false);
-
-        final int purchaseStateCode = jsonObject.getInt(NAME_PURCHASE_STATE);
+        super(originalJson, NAMES);
+        this.orderId = fields.getString(NAME_ORDER_ID);
+        this.packageName = fields.getString(NAME_PACKAGE_NAME);
+        this.purchaseToken = fields.getString(NAME_PURCHASE_TOKEN);
+        this.developerPayload = fields.optString(NAME_DEVELOPER_PAYLOAD, null);
+        this.purchaseTime = fields.getLong(NAME_PURCHASE_TIME);
+        this.autoRenewing = fields.optBoolean(NAME_AUTO_RENEWING, false);
+
+        final int purchaseStateCode = fields.getInt(NAME_PURCHASE_STATE);
         final PurchaseState purchaseState = PurchaseState.fromCode(purchaseStateCode);
         if (purchaseState == null) {
             throw new JSONException("Unrecognized purchase state: " + purchaseStateCode);
@@ -20,6 +20,8 @@ import android.support.annotation.NonNull;
 
 import org.json.JSONException;
 
+import java.util.Collection;
+
 /**
  * This model represents product available in Google Play.
  */
@@ -31,6 +33,8 @@ public class GoogleSkuDetails extends GoogleModel {
     private static final String NAME_TITLE = "title";
     private static final String NAME_DESCRIPTION = "description";
     private static final String NAME_MICROS = "price_amount_micros";
+    private static final Collection<String> NAMES = names(NAME_TYPE, NAME_PRICE, NAME_CURRENCY,
+            NAME_TITLE, NAME_DESCRIPTION, NAME_MICROS);
 
     @NonNull
     private final ItemType itemType;
@@ -45,19 +49,19 @@ public class GoogleSkuDetails extends GoogleModel {
     private final long micros;
 
     public GoogleSkuDetails(@NonNull final String originalJson) throws JSONException {
-        super(originalJson);
-        final String itemTypeCode = jsonObject.getString(NAME_TYPE);
+        super(originalJson, NAMES);
+        final String itemTypeCode = fields.getString(NAME_TYPE);
         final ItemType itemType = ItemType.fromCode(itemTypeCode);
         if (itemType == null) {
             throw new JSONException("Unrecognized itemType: " + itemTypeCode);
         }
         this.itemType = itemType;
 
-        this.price = jsonObject.getString(NAME_PRICE);
-        this.micros = jsonObject.getLong(NAME_MICROS);
-        this.currency = jsonObject.getString(NAME_CURRENCY);
-        this.title = jsonObject.getString(NAME_TITLE);
-        this.description = jsonObject.getString(NAME_DESCRIPTION);
+        this.price = fields.getString(NAME_PRICE);
+        this.micros = fields.getLong(NAME_MICROS);
+        this.currency = fields.getString(NAME_CURRENCY);
+        this.title = fields.getString(NAME_TITLE);
+        this.description = fields.getString(NAME_DESCRIPTION);
     }
 
     /**
@@ -194,11 +194,17 @@ public class OpenStoreBillingHelper {
         return null;
     }
 
+    @Nullable
     public Response consumePurchase(@NonNull final String purchaseToken) {
         final IOpenInAppBillingService openInApp = openInAppHelper.getService();
+        if (openInApp == null) {
+            return null;
+        }
         try {
-            return openInApp == null ? null
-                    : Response.fromCode(openInApp.consumePurchase(API, packageName, purchaseToken));
+            final Response response =
+                    Response.fromCode(openInApp.consumePurchase(API, packageName, purchaseToken));
+            // Null is reserved for unreachable service
+            return response == null ? Response.ERROR : response;
         } catch (RemoteException exception) {
             OPFLog.e("", exception);
         }
@@ -47,6 +47,7 @@ import org.onepf.opfiab.openstore.model.OpenPurchase;
 import org.onepf.opfiab.openstore.model.OpenSkuDetails;
 import org.onepf.opfiab.sku.TypedSkuResolver;
 import org.onepf.opfiab.util.ActivityForResultLauncher;
+import org.onepf.opfiab.util.StateStore;
 import org.onepf.opfiab.verification.PurchaseVerifier;
 import org.onepf.opfutils.OPFChecks;
 import org.onepf.opfutils.OPFLog;
@@ -84,12 +85,23 @@ public class OpenStoreBillingProvider extends BaseBillingProvider<TypedSkuResolv
         this.helper = new OpenStoreBillingHelper(context, intentMaker);
     }
 
+    /**
+     * @deprecated Provider state is kept in {@link StateStore}, values written here directly can
+     * be overwritten by its pending mutations. Use {@link #getStateStore()} instead.
+     */
+    @Deprecated
     @NonNull
     protected final OPFPreferences getPreferences() {
         // Store name can't be null. If store is unavailable this method shouldn't be used.
         return new OPFPreferences(context, getName());
     }
 
+    @NonNull
+    protected final StateStore getStateStore() {
+        // Store name can't be null. If store is unavailable this method shouldn't be used.
+        return StateStore.getInstance(context, getName());
+    }
+
     /**
      * Picks proper response status for supplied response.
      *
@@ -203,7 +215,9 @@ public class OpenStoreBillingProvider extends BaseBillingProvider<TypedSkuResolv
         final Bundle result = helper.getSkuDetails(typeSkuMap);
         final Response response = OpenStoreUtils.getResponse(result);
         if (response != Response.OK) {
-            postEmptyResponse(request, getStatus(response));
+            // No result means service couldn't be reached or binder call failed
+            postEmptyResponse(request, result == null
+                    ? Status.SERVICE_UNAVAILABLE : getStatus(response));
             return;
         }
         final Collection<OpenSkuDetails> openSkusDetails = OpenStoreUtils.getSkusDetails(result);
@@ -232,7 +246,7 @@ public class OpenStoreBillingProvider extends BaseBillingProvider<TypedSkuResolv
     @Override
     protected void inventory(@NonNull final InventoryRequest request) {
         final boolean startOver = request.startOver();
-        final OPFPreferences preferences = getPreferences();
+        final StateStore preferences = getStateStore();
         final Map<ItemType, Bundle> resultMap = new HashMap<>();
         for (final SkuType skuType : SkuType.values()) {
             final ItemType itemType = ItemType.fromSkuType(skuType);
@@ -244,7 +258,9 @@ public class OpenStoreBillingProvider extends BaseBillingProvider<TypedSkuResolv
             final Bundle result = helper.getPurchases(itemType, token);
             final Response response = OpenStoreUtils.getResponse(result);
             if (response != Response.OK) {
-                postEmptyResponse(request, getStatus(response));
+                // No result means service couldn't be reached or binder call failed
+                postEmptyResponse(request, result == null
+                        ? Status.SERVICE_UNAVAILABLE : getStatus(response));
                 return;
             }
             resultMap.put(itemType, result);
@@ -291,7 +307,9 @@ public class OpenStoreBillingProvider extends BaseBillingProvider<TypedSkuResolv
         //noinspection ConstantConditions
         final Response response = helper.consumePurchase(token);
         if (response != Response.OK) {
-            postEmptyResponse(request, getStatus(response));
+            // No response means service couldn't be reached or binder call failed
+            postEmptyResponse(request, response == null
+                    ? Status.SERVICE_UNAVAILABLE : getStatus(response));
             return;
         }
 
@@ -21,17 +21,36 @@ import android.support.annotation.NonNull;
 import org.json.JSONException;
 import org.onepf.opfiab.model.JsonModel;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
 public class OpenBillingModel extends JsonModel {
 
     private static final String NAME_PRODUCT_ID = "productId";
 
+    /**
+     * Collects names of values required by subclass along with the ones required by this class.
+     *
+     * @param names Names of values used by subclass.
+     *
+     * @return Collection of value names to be passed to constructor.
+     */
+    @NonNull
+    protected static Collection<String> names(@NonNull final String... names) {
+        final Collection<String> collection = new HashSet<>(Arrays.asList(names));
+        collection.add(NAME_PRODUCT_ID);
+        return collection;
+    }
+
 
     @NonNull
     private final String productId;
 
-    protected OpenBillingModel(@NonNull final String originalJson) throws JSONException {
-        super(originalJson);
-        this.productId = jsonObject.getString(NAME_PRODUCT_ID);
+    protected OpenBillingModel(@NonNull final String originalJson,
+                               @NonNull final Collection<String> names) throws JSONException {
+        super(originalJson, names);
+        this.productId = fields.getString(NAME_PRODUCT_ID);
     }
 
     /**
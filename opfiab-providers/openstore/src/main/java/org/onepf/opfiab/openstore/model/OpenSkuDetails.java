@@ -20,12 +20,16 @@ import android.support.annotation.NonNull;
 
 import org.json.JSONException;
 
+import java.util.Collection;
+
 public class OpenSkuDetails extends OpenBillingModel {
 
     private static final String NAME_TYPE = "type";
     private static final String NAME_PRICE = "price";
     private static final String NAME_TITLE = "title";
     private static final String NAME_DESCRIPTION = "description";
+    private static final Collection<String> NAMES = names(NAME_TYPE, NAME_PRICE, NAME_TITLE,
+            NAME_DESCRIPTION);
 
     @NonNull
     private final ItemType itemType;
@@ -37,17 +41,17 @@ public class OpenSkuDetails extends OpenBillingModel {
     private final String description;
 
     public OpenSkuDetails(@NonNull final String originalJson) throws JSONException {
-        super(originalJson);
-        final String itemTypeCode = jsonObject.getString(NAME_TYPE);
+        super(originalJson, NAMES);
+        final String itemTypeCode = fields.getString(NAME_TYPE);
         final ItemType itemType = ItemType.fromCode(itemTypeCode);
         if (itemType == null) {
             throw new JSONException("Unrecognized itemType: " + itemTypeCode);
         }
         this.itemType = itemType;
 
-        this.price = jsonObject.getString(NAME_PRICE);
-        this.title = jsonObject.getString(NAME_TITLE);
-        this.description = jsonObject.getString(NAME_DESCRIPTION);
+        this.price = fields.getString(NAME_PRICE);
+        this.title = fields.getString(NAME_TITLE);
+        this.description = fields.getString(NAME_DESCRIPTION);
     }
 
     /**
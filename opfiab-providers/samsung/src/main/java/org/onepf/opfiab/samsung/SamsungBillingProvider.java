@@ -46,6 +46,7 @@ import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
 import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.samsung.model.SamsungPurchase;
 import org.onepf.opfiab.util.ActivityForResultLauncher;
+import org.onepf.opfiab.util.StateStore;
 import org.onepf.opfiab.util.SyncedReference;
 import org.onepf.opfiab.verification.PurchaseVerifier;
 import org.onepf.opfiab.verification.VerificationResult;
@@ -81,8 +82,20 @@ public class SamsungBillingProvider extends BaseBillingProvider<SamsungSkuResolv
     protected static final String KEY_LAST_ITEM = NAME + ".last_item";
 
 
+    /**
+     * @deprecated Provider state is kept in {@link StateStore}, values written here directly can
+     * be overwritten by its pending mutations.
+     */
+    @Deprecated
     protected final OPFPreferences preferences = new OPFPreferences(context);
+    /**
+     * @deprecated Provider state is kept in {@link StateStore}, values written here directly can
+     * be overwritten by its pending mutations.
+     */
+    @Deprecated
     protected final OPFPreferences consumablePurchases = new OPFPreferences(context, NAME);
+    private final StateStore stateStore = StateStore.getInstance(context);
+    private final StateStore consumableStore = StateStore.getInstance(context, NAME);
     @NonNull
     protected final SamsungBillingHelper helper;
     @Nullable
@@ -144,7 +157,8 @@ public class SamsungBillingProvider extends BaseBillingProvider<SamsungSkuResolv
                 final String token = purchase.getToken();
                 final String originalJson = purchase.getOriginalJson();
                 if (token != null && originalJson != null) {
-                    consumablePurchases.put(token, originalJson);
+                    // Purchase is lost if process dies before it reaches disk
+                    consumableStore.commit(token, originalJson);
                 }
             }
         } else if (type == BillingEventType.INVENTORY) {
@@ -154,8 +168,8 @@ public class SamsungBillingProvider extends BaseBillingProvider<SamsungSkuResolv
                 final VerificationResult result = entry.getValue();
                 final Purchase purchase = entry.getKey();
                 final String token = purchase.getToken();
-                if (token != null && result != ERROR && consumablePurchases.contains(token)) {
-                    consumablePurchases.remove(token);
+                if (token != null && result != ERROR && consumableStore.contains(token)) {
+                    consumableStore.remove(token);
                 }
             }
         }
@@ -205,7 +219,7 @@ public class SamsungBillingProvider extends BaseBillingProvider<SamsungSkuResolv
         }
 
         final boolean startOver = request.startOver();
-        final int start = startOver ? 1 : preferences.getInt(KEY_LAST_ITEM, 1);
+        final int start = startOver ? 1 : stateStore.getInt(KEY_LAST_ITEM, 1);
         final int end = start + BATCH_SIZE - 1;
         final Bundle bundle = helper.getItemsInbox(skuResolver.getGroupId(), start, end);
         final Status error = SamsungUtils.handleError(context, bundle);
@@ -217,14 +231,14 @@ public class SamsungBillingProvider extends BaseBillingProvider<SamsungSkuResolv
         final Collection loadedItems = SamsungUtils.getItems(bundle);
         final int loadedCount = loadedItems == null ? 0 : loadedItems.size();
         if (loadedCount > 0) {
-            preferences.put(KEY_LAST_ITEM, start + loadedCount);
+            stateStore.put(KEY_LAST_ITEM, start + loadedCount);
         }
 
         //TODO check if consumables should be loaded
         final Collection<Purchase> purchases = SamsungUtils.getPurchasedItems(bundle, false);
         if (purchases != null) {
             // Add all consumables that might be stored in SharedPreferences.
-            final Map<String, ?> all = consumablePurchases.getPreferences().getAll();
+            final Map<String, ?> all = consumableStore.getAll();
             for (final Map.Entry<String, ?> entry : all.entrySet()) {
                 final String value = (String) entry.getValue();
                 try {
@@ -234,7 +248,7 @@ public class SamsungBillingProvider extends BaseBillingProvider<SamsungSkuResolv
                     purchases.add(purchase);
                 } catch (JSONException exception) {
                     OPFLog.e("", exception);
-                    consumablePurchases.remove(entry.getKey());
+                    consumableStore.remove(entry.getKey());
                 }
             }
         }
@@ -275,7 +289,8 @@ public class SamsungBillingProvider extends BaseBillingProvider<SamsungSkuResolv
         }
         final Intent data = result.getData();
         final Bundle bundle = data == null ? null : data.getExtras();
-        final Status error = SamsungUtils.handleError(context, bundle);
+        final Status error = bundle == null ? UNKNOWN_ERROR
+                : SamsungUtils.handleError(context, bundle);
         final SamsungPurchase samsungPurchase = SamsungUtils.getPurchase(bundle);
         if (error != null || samsungPurchase == null) {
             postEmptyResponse(request, error != null ? error : UNKNOWN_ERROR);
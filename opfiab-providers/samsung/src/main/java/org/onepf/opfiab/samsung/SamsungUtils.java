@@ -30,6 +30,7 @@ import android.support.annotation.Nullable;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.onepf.opfiab.model.JsonFields;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.billing.SkuDetails;
 import org.onepf.opfiab.model.billing.SkuType;
@@ -119,7 +120,11 @@ public final class SamsungUtils {
         if (response == Response.ERROR_NONE) {
             return null;
         }
-        if (bundle == null || response == null) {
+        if (bundle == null) {
+            // Service couldn't be reached or binder call failed
+            return Status.SERVICE_UNAVAILABLE;
+        }
+        if (response == null) {
             return Status.UNKNOWN_ERROR;
         }
         OPFLog.e("Response %s: %s", response, getErrorString(bundle));
@@ -222,8 +227,8 @@ public final class SamsungUtils {
     }
 
     @NonNull
-    public static ItemType getItemType(@NonNull final JSONObject jsonObject) throws JSONException {
-        final String type = jsonObject.getString(KEY_TYPE);
+    public static ItemType getItemType(@NonNull final JsonFields fields) throws JSONException {
+        final String type = fields.getString(KEY_TYPE);
         final ItemType itemType = ItemType.fromCode(type);
         if (itemType == null) {
             throw new JSONException("Unrecognized item type: " + type);
@@ -231,6 +236,15 @@ public final class SamsungUtils {
         return itemType;
     }
 
+    /**
+     * @deprecated Use {@link #getItemType(JsonFields)}, it doesn't require JSON tree.
+     */
+    @Deprecated
+    @NonNull
+    public static ItemType getItemType(@NonNull final JSONObject jsonObject) throws JSONException {
+        return getItemType(JsonFields.from(jsonObject, Collections.singleton(KEY_TYPE)));
+    }
+
     @Nullable
     public static Response getResponse(@Nullable final Bundle bundle) {
         if (bundle != null && bundle.containsKey(KEY_STATUS_CODE)) {
@@ -22,10 +22,10 @@ abstract class SamsungBillingModel extends SamsungModel {
 
     public SamsungBillingModel(@NonNull final String originalJson) throws JSONException {
         super(originalJson);
-        this.purchaseId = jsonObject.getString(KEY_PURCHASE_ID);
-        this.paymentId = jsonObject.getString(KEY_PAYMENT_ID);
+        this.purchaseId = fields.getString(KEY_PURCHASE_ID);
+        this.paymentId = fields.getString(KEY_PAYMENT_ID);
 
-        final String dateString = jsonObject.getString(KEY_PURCHASE_DATE);
+        final String dateString = fields.getString(KEY_PURCHASE_DATE);
         final Date date = SamsungUtils.parseDate(dateString);
         if (date == null) {
             throw new JSONException("Invalid purchase date: " + dateString);
@@ -36,14 +36,14 @@ abstract class SamsungModel extends JsonModel {
 
     public SamsungModel(@NonNull final String originalJson) throws JSONException {
         super(originalJson);
-        this.itemId = jsonObject.getString(KEY_ITEM_ID);
-        this.name = jsonObject.getString(KEY_ITEM_NAME);
-        this.price = jsonObject.getDouble(KEY_PRICE);
-        this.priceString = jsonObject.getString(KEY_PRICE_STRING);
-        this.currency = jsonObject.getString(KEY_CURRENCY_UNIT);
-        this.description = jsonObject.getString(KEY_ITEM_DESC);
-        this.imageUrl = jsonObject.getString(KEY_IMAGE_URL);
-        this.downloadImageUrl = jsonObject.getString(KEY_ITEM_DOWNLOAD_URL);
+        this.itemId = fields.getString(KEY_ITEM_ID);
+        this.name = fields.getString(KEY_ITEM_NAME);
+        this.price = fields.getDouble(KEY_PRICE);
+        this.priceString = fields.getString(KEY_PRICE_STRING);
+        this.currency = fields.getString(KEY_CURRENCY_UNIT);
+        this.description = fields.getString(KEY_ITEM_DESC);
+        this.imageUrl = fields.getString(KEY_IMAGE_URL);
+        this.downloadImageUrl = fields.getString(KEY_ITEM_DOWNLOAD_URL);
     }
 
     @NonNull
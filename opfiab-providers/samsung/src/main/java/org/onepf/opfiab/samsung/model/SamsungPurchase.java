@@ -17,7 +17,7 @@ public class SamsungPurchase extends SamsungBillingModel {
 
     public SamsungPurchase(@NonNull final String originalJson) throws JSONException {
         super(originalJson);
-        this.verifyUrl = jsonObject.getString(KEY_VERIFY_URL);
+        this.verifyUrl = fields.getString(KEY_VERIFY_URL);
     }
 
     @NonNull
@@ -20,9 +20,9 @@ public class SamsungPurchasedItem extends SamsungBillingModel {
 
     public SamsungPurchasedItem(@NonNull final String originalJson) throws JSONException {
         super(originalJson);
-        this.itemType = SamsungUtils.getItemType(jsonObject);
+        this.itemType = SamsungUtils.getItemType(fields);
 
-        final String dateString = jsonObject.optString(KEY_SUBSCRIPTION_END_DATE);
+        final String dateString = fields.optString(KEY_SUBSCRIPTION_END_DATE);
         this.subscriptionEndDate = SamsungUtils.parseDate(dateString);
     }
 
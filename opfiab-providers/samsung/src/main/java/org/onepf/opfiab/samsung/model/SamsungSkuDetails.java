@@ -20,9 +20,9 @@ public class SamsungSkuDetails extends SamsungModel {
 
     public SamsungSkuDetails(@NonNull final String originalJson) throws JSONException {
         super(originalJson);
-        this.subscriptionUnit = jsonObject.getString(KEY_SUBSCRIPTION_UNIT);
-        this.subscriptionMultiplier = jsonObject.getString(KEY_SUBSCRIPTION_MULTIPLIER);
-        this.itemType = SamsungUtils.getItemType(jsonObject);
+        this.subscriptionUnit = fields.getString(KEY_SUBSCRIPTION_UNIT);
+        this.subscriptionMultiplier = fields.getString(KEY_SUBSCRIPTION_MULTIPLIER);
+        this.itemType = SamsungUtils.getItemType(fields);
     }
 
     @NonNull
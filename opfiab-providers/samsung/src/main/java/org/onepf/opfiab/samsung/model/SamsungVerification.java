@@ -55,14 +55,14 @@ public class SamsungVerification extends JsonModel {
     @SuppressWarnings("PMD.PreserveStackTrace")
     public SamsungVerification(@NonNull final String originalJson) throws JSONException {
         super(originalJson);
-        this.status = jsonObject.getBoolean(KEY_STATUS);
-        this.itemId = jsonObject.optString(KEY_ITEM_ID);
-        this.name = jsonObject.optString(KEY_ITEM_NAME);
-        this.description = jsonObject.optString(KEY_ITEM_DESC);
-        this.paymentId = jsonObject.optString(KEY_PAYMENT_ID);
-        this.paymentAmount = jsonObject.optString(KEY_PAYMENT_AMOUNT);
-
-        final String mode = jsonObject.optString(KEY_MODE);
+        this.status = fields.getBoolean(KEY_STATUS);
+        this.itemId = fields.optString(KEY_ITEM_ID);
+        this.name = fields.optString(KEY_ITEM_NAME);
+        this.description = fields.optString(KEY_ITEM_DESC);
+        this.paymentId = fields.optString(KEY_PAYMENT_ID);
+        this.paymentAmount = fields.optString(KEY_PAYMENT_AMOUNT);
+
+        final String mode = fields.optString(KEY_MODE);
         if (mode == null) {
             this.mode = null;
         } else if (mode.equals(MODE_TEST)) {
@@ -73,7 +73,7 @@ public class SamsungVerification extends JsonModel {
             throw new JSONException("Invalid billing mode: " + mode);
         }
 
-        final String dateString = jsonObject.getString(KEY_PURCHASE_DATE);
+        final String dateString = fields.getString(KEY_PURCHASE_DATE);
         final Date date;
         try {
             date = DATE_FORMAT.get().parse(dateString);
@@ -31,8 +31,14 @@ import org.onepf.opfiab.model.event.ActivityResultRequest;
 import org.onepf.opfiab.model.event.android.ActivityNewIntentEvent;
 import org.onepf.opfiab.model.event.android.ActivityResult;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.util.ActivityForResultLauncher;
 import org.onepf.opfiab.util.BillingUtils;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
+import org.onepf.opfiab.util.EventRouter.ThreadMode;
+import org.onepf.opfiab.util.StateStore;
 import org.onepf.opfiab.util.SyncedReference;
 import org.onepf.opfutils.OPFChecks;
 import org.onepf.opfutils.OPFLog;
@@ -56,7 +62,8 @@ import static org.onepf.opfiab.model.ComponentState.STOP;
  * <p>
  * Intended for internal use.
  */
-public final class ActivityMonitor implements Application.ActivityLifecycleCallbacks {
+public final class ActivityMonitor
+        implements Application.ActivityLifecycleCallbacks, EventRouter.TypedSubscriber {
 
     /**
      * Map of the existing activities lifecycle states.
@@ -130,6 +137,10 @@ public final class ActivityMonitor implements Application.ActivityLifecycleCallb
     @Nullable
     private volatile SyncedReference<ActivityResult> syncResult;
     private volatile int pendingRequestCode;
+    /**
+     * Id of the billing request which is waiting for activity result.
+     */
+    private volatile long pendingRequestId;
 
 
     private ActivityMonitor(final Context context) {
@@ -137,6 +148,12 @@ public final class ActivityMonitor implements Application.ActivityLifecycleCallb
         this.context = context;
     }
 
+    @Nullable
+    private static <E> E await(@NonNull final SyncedReference<E> syncedReference) {
+        final long timeout = OPFIab.getConfiguration().getRequestTimeout();
+        return timeout > 0 ? syncedReference.get(timeout) : syncedReference.get();
+    }
+
     @Nullable
     private Activity getResultHandlingActivity(
             @NonNull final BillingRequest billingRequest) {
@@ -148,7 +165,44 @@ public final class ActivityMonitor implements Application.ActivityLifecycleCallb
         this.syncActivity = newSyncActivity;
         OPFIabActivity.start(activity != null ? activity : context);
         OPFLog.d("Waiting for activity...");
-        return newSyncActivity.get();
+        final Activity activity = await(newSyncActivity);
+        if (activity == null) {
+            OPFLog.e("Activity wasn't started in time.");
+            this.syncActivity = null;
+        }
+        return activity;
+    }
+
+    @NonNull
+    @Override
+    public EventHandler<?>[] getEventHandlers() {
+        return new EventHandler<?>[]{
+                new EventHandler<ActivityResultRequest>(ActivityResultRequest.class) {
+                    @Override
+                    public void onEvent(@NonNull final ActivityResultRequest event) {
+                        ActivityMonitor.this.onEvent(event);
+                    }
+                },
+                new EventHandler<BillingResponse>(BillingResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final BillingResponse event) {
+                        ActivityMonitor.this.onEvent(event);
+                    }
+                },
+                new EventHandler<ActivityNewIntentEvent>(
+                        ActivityNewIntentEvent.class, ThreadMode.MAIN) {
+                    @Override
+                    public void onEvent(@NonNull final ActivityNewIntentEvent event) {
+                        ActivityMonitor.this.onEventMainThread(event);
+                    }
+                },
+                new EventHandler<ActivityResult>(ActivityResult.class, ThreadMode.MAIN) {
+                    @Override
+                    public void onEvent(@NonNull final ActivityResult event) {
+                        ActivityMonitor.this.onEventMainThread(event);
+                    }
+                },
+        };
     }
 
     public void onEvent(@NonNull final ActivityResultRequest resultRequest) {
@@ -159,8 +213,10 @@ public final class ActivityMonitor implements Application.ActivityLifecycleCallb
             syncResult.set(null);
         }
         final BillingRequest billingRequest = resultRequest.getRequest();
+        this.pendingRequestId = billingRequest.getRequestId();
         final Activity activity = getResultHandlingActivity(billingRequest);
         if (activity == null) {
+            syncResult.set(null);
             return;
         }
         final ActivityForResultLauncher launcher = resultRequest.getLauncher();
@@ -175,6 +231,27 @@ public final class ActivityMonitor implements Application.ActivityLifecycleCallb
         }
     }
 
+    /**
+     * Unblocks billing provider if request waiting for activity result was abandoned.
+     */
+    public void onEvent(@NonNull final BillingResponse billingResponse) {
+        final Status status = billingResponse.getStatus();
+        if ((status != Status.TIMEOUT && status != Status.CANCELED)
+                || billingResponse.getRequestId() != pendingRequestId) {
+            return;
+        }
+        final SyncedReference<Activity> syncActivity = this.syncActivity;
+        final SyncedReference<ActivityResult> syncResult = this.syncResult;
+        this.syncActivity = null;
+        this.syncResult = null;
+        if (syncActivity != null) {
+            syncActivity.set(null);
+        }
+        if (syncResult != null) {
+            syncResult.set(null);
+        }
+    }
+
     public void onEventMainThread(@NonNull final ActivityNewIntentEvent intentEvent) {
         final SyncedReference<Activity> syncActivity = this.syncActivity;
         final Activity activity = intentEvent.getActivity();
@@ -215,6 +292,8 @@ public final class ActivityMonitor implements Application.ActivityLifecycleCallb
     @Override
     public void onActivityPaused(final Activity activity) {
         setState(activity, PAUSE);
+        // Process might be killed any time after this point
+        StateStore.flushAllAsync();
     }
 
     @Override
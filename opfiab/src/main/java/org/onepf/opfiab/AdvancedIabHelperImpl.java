@@ -29,7 +29,9 @@ import org.onepf.opfiab.listener.OnSetupListener;
 import org.onepf.opfiab.listener.OnSkuDetailsListener;
 import org.onepf.opfiab.model.event.SetupResponse;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
-import org.onepf.opfutils.OPFChecks;
+import org.onepf.opfiab.util.MainThreadExecutor;
+
+import java.util.concurrent.Executor;
 
 /**
  * This implementation of {@link IabHelper} adds two main features:
@@ -39,15 +41,23 @@ import org.onepf.opfutils.OPFChecks;
  * Each helper instance has a separate queue.
  * <li> API to add listeners for specific billing events.
  * </ol>
+ * Requests can be sent from any thread, listeners are called using supplied {@link Executor}.
  */
 class AdvancedIabHelperImpl extends SimpleIabHelperImpl implements AdvancedIabHelper {
 
     private final BillingRequestScheduler scheduler = BillingRequestScheduler.getInstance();
     private final BillingEventDispatcher dispatcher = BillingEventDispatcher.getInstance();
     private final BillingListenerCompositor listenerCompositor = new BillingListenerCompositor();
+    @NonNull
+    private final Executor executor;
 
     AdvancedIabHelperImpl() {
+        this(MainThreadExecutor.getInstance());
+    }
+
+    AdvancedIabHelperImpl(@NonNull final Executor executor) {
         super();
+        this.executor = executor;
     }
 
     private void deliverLastSetupEvent(@NonNull final OnSetupListener setupListener) {
@@ -57,6 +67,12 @@ class AdvancedIabHelperImpl extends SimpleIabHelperImpl implements AdvancedIabHe
         }
     }
 
+    @NonNull
+    @Override
+    protected BillingListener getOrigin() {
+        return listenerCompositor;
+    }
+
     @Override
     protected void postRequest(@NonNull final BillingRequest billingRequest) {
         if (billingBase.getSetupResponse() == null) {
@@ -66,8 +82,8 @@ class AdvancedIabHelperImpl extends SimpleIabHelperImpl implements AdvancedIabHe
         } else if (!billingBase.isBusy()) {
             // No need to schedule anything
             super.postRequest(billingRequest);
-        } else if (!billingRequest.equals(billingBase.getPendingRequest())) {
-            // If request is not already being precessed, schedule it for later
+        } else if (!billingBase.attach(billingRequest, getOrigin())) {
+            // If identical request is not already being precessed, schedule it for later
             scheduler.schedule(this, billingRequest);
         }
     }
@@ -80,7 +96,6 @@ class AdvancedIabHelperImpl extends SimpleIabHelperImpl implements AdvancedIabHe
     @Override
     public void addSetupListener(@NonNull final OnSetupListener setupListener,
                                  final boolean deliverLast) {
-        OPFChecks.checkThread(true);
         listenerCompositor.addSetupListener(setupListener);
         if (deliverLast) {
             deliverLastSetupEvent(setupListener);
@@ -89,37 +104,37 @@ class AdvancedIabHelperImpl extends SimpleIabHelperImpl implements AdvancedIabHe
 
     @Override
     public void addPurchaseListener(@NonNull final OnPurchaseListener purchaseListener) {
-        OPFChecks.checkThread(true);
         listenerCompositor.addPurchaseListener(purchaseListener);
     }
 
     @Override
     public void addInventoryListener(@NonNull final OnInventoryListener inventoryListener) {
-        OPFChecks.checkThread(true);
         listenerCompositor.addInventoryListener(inventoryListener);
     }
 
     @Override
     public void addSkuDetailsListener(@NonNull final OnSkuDetailsListener skuInfoListener) {
-        OPFChecks.checkThread(true);
         listenerCompositor.addSkuDetailsListener(skuInfoListener);
     }
 
     @Override
     public void addConsumeListener(@NonNull final OnConsumeListener consumeListener) {
-        OPFChecks.checkThread(true);
         listenerCompositor.addConsumeListener(consumeListener);
     }
 
     @Override
     public void addBillingListener(@NonNull final BillingListener billingListener) {
-        OPFChecks.checkThread(true);
         listenerCompositor.addBillingListener(billingListener);
     }
 
     @Override
     public void register() {
-        dispatcher.register(listenerCompositor);
+        register(false);
+    }
+
+    @Override
+    public void register(final boolean broadcast) {
+        dispatcher.register(listenerCompositor, broadcast, executor);
     }
 
     @Override
@@ -132,4 +147,25 @@ class AdvancedIabHelperImpl extends SimpleIabHelperImpl implements AdvancedIabHe
     public void dropQueue() {
         scheduler.dropQueue(this);
     }
+
+    @Override
+    public void cancel() {
+        dropQueue();
+        for (final long requestId : dispatcher.getRequestIds(listenerCompositor)) {
+            billingBase.cancel(requestId);
+        }
+    }
+
+    /**
+     * Cancels single request sent by this helper.
+     *
+     * @param billingRequest Request to cancel.
+     *
+     * @see #cancel()
+     */
+    void cancel(@NonNull final BillingRequest billingRequest) {
+        if (!scheduler.remove(this, billingRequest)) {
+            billingBase.cancel(billingRequest.getRequestId());
+        }
+    }
 }
@@ -20,32 +20,56 @@ import android.app.Application;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import org.onepf.opfiab.billing.BaseBillingProvider;
 import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.listener.BillingListener;
 import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.SingleFlightPolicy;
 import org.onepf.opfiab.model.event.RequestHandledEvent;
 import org.onepf.opfiab.model.event.SetupResponse;
 import org.onepf.opfiab.model.event.SetupStartedEvent;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
 import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ResponseLinker;
+import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.util.BillingUtils;
-import org.onepf.opfutils.OPFChecks;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
+import org.onepf.opfiab.util.EventRouter.ThreadMode;
 import org.onepf.opfutils.OPFLog;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.onepf.opfiab.model.event.billing.Status.BILLING_UNAVAILABLE;
 import static org.onepf.opfiab.model.event.billing.Status.BUSY;
+import static org.onepf.opfiab.model.event.billing.Status.CANCELED;
 import static org.onepf.opfiab.model.event.billing.Status.NO_BILLING_PROVIDER;
+import static org.onepf.opfiab.model.event.billing.Status.SERVICE_UNAVAILABLE;
+import static org.onepf.opfiab.model.event.billing.Status.TIMEOUT;
 
 /**
  * This class is intended to be a single entry point for all {@link BillingRequest}s, it also holds
  * library state (current {@link BillingProvider}) and last {@link SetupResponse}.
+ * <p>
+ * Requests can be posted from any thread. Each request is abandoned if it's not handled within
+ * {@link Configuration#getRequestTimeout()}.
  */
-final class BillingBase {
+final class BillingBase implements EventRouter.TypedSubscriber {
 
     private static BillingBase instance;
+    /**
+     * Used to abandon requests which missed their deadline.
+     */
+    private static final ScheduledExecutorService DEADLINE_TIMER =
+            Executors.newSingleThreadScheduledExecutor();
 
-    @SuppressWarnings({"PMD.NonThreadSafeSingleton"})
-    static BillingBase getInstance() {
-        OPFChecks.checkThread(true);
+    static synchronized BillingBase getInstance() {
         if (instance == null) {
             instance = new BillingBase();
         }
@@ -58,26 +82,40 @@ final class BillingBase {
      *
      * @see OPFIab#init(Application, Configuration)
      */
-    private Configuration configuration;
+    private volatile Configuration configuration;
     /**
      * Last received setup response.
      *
      * @see OPFIab#setup()
      */
     @Nullable
-    private SetupResponse setupResponse;
+    private volatile SetupResponse setupResponse;
     /**
      * Currently used billing provider.
      */
     @Nullable
-    private BillingProvider currentProvider;
+    private volatile BillingProvider currentProvider;
     /**
      * Request being executed by {@link #currentProvider}.
      *
      * @see RequestHandledEvent
      */
+    private final AtomicReference<BillingRequest> pendingRequest = new AtomicReference<>();
+    /**
+     * Requests sent to {@link #currentProvider} still waiting for response, by request id.
+     * <p>
+     * Some providers respond asynchronously, so request might still be waiting for response after
+     * {@link #pendingRequest} was released.
+     */
+    private final Map<Long, BillingRequest> outstandingRequests = new ConcurrentHashMap<>();
+    /**
+     * Circuit breakers of the billing providers used so far, by provider name.
+     */
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    @Nullable
+    private volatile PurchaseJournal journal;
     @Nullable
-    private BillingRequest pendingRequest;
+    private volatile OfflineConsumeQueue offlineQueue;
 
     private BillingBase() {
         super();
@@ -96,6 +134,24 @@ final class BillingBase {
         this.currentProvider = null;
     }
 
+    /**
+     * Sets journal used to record purchases which are not yet consumed.
+     *
+     * @param journal Journal object to use.
+     */
+    void setJournal(@NonNull final PurchaseJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets queue used to defer consumption while device is offline.
+     *
+     * @param offlineQueue Queue object to use.
+     */
+    void setOfflineQueue(@NonNull final OfflineConsumeQueue offlineQueue) {
+        this.offlineQueue = offlineQueue;
+    }
+
     /**
      * Gets last setup response.
      *
@@ -103,7 +159,6 @@ final class BillingBase {
      */
     @Nullable
     SetupResponse getSetupResponse() {
-        OPFChecks.checkThread(true);
         return setupResponse;
     }
 
@@ -114,8 +169,7 @@ final class BillingBase {
      */
     @Nullable
     BillingRequest getPendingRequest() {
-        OPFChecks.checkThread(true);
-        return pendingRequest;
+        return pendingRequest.get();
     }
 
     /**
@@ -124,7 +178,6 @@ final class BillingBase {
      * @return True is BillingProvider is busy, false otherwise.
      */
     boolean isBusy() {
-        OPFChecks.checkThread(true);
         return getPendingRequest() != null;
     }
 
@@ -135,36 +188,228 @@ final class BillingBase {
      * instead corresponding response will be send immediately.
      *
      * @param billingRequest BillingRequest to execute.
+     * @param origin         Listener which should receive corresponding response, if null response
+     *                       will be delivered to all listeners.
      *
      * @see #isBusy()
      */
-    void postRequest(@NonNull final BillingRequest billingRequest) {
-        OPFChecks.checkThread(true);
+    void postRequest(@NonNull final BillingRequest billingRequest,
+                     @Nullable final BillingListener origin) {
+        final BillingEventDispatcher dispatcher = BillingEventDispatcher.getInstance();
         final SetupResponse setupResponse;
-        if (isBusy()) {
+        if (attach(billingRequest, origin)) {
+            // Identical request is already being executed
+            OPFLog.d("Request shares execution: %s", billingRequest);
+        } else if (isBusy()) {
             // Library is busy with another request
+            dispatcher.setOrigin(billingRequest, origin);
             OPFIab.post(BillingUtils.emptyResponse(null, billingRequest, BUSY));
         } else if ((setupResponse = getSetupResponse()) == null || !setupResponse.isSuccessful()) {
             // Setup was not started, is in progress or failed
+            dispatcher.setOrigin(billingRequest, origin);
             OPFIab.post(BillingUtils.emptyResponse(null, billingRequest, NO_BILLING_PROVIDER));
         } else if (configuration.skipStaleRequests() && BillingUtils.isStale(billingRequest)) {
             // Request is no longer relevant, try next one
-            OPFLog.d("Skipping stale request: " + billingRequest);
+            OPFLog.d("Skipping stale request: %s", billingRequest);
             BillingRequestScheduler.getInstance().handleNext();
+        } else if (!pendingRequest.compareAndSet(null, billingRequest)) {
+            // Another request was posted concurrently
+            dispatcher.setOrigin(billingRequest, origin);
+            OPFIab.post(BillingUtils.emptyResponse(null, billingRequest, BUSY));
         } else {
-            pendingRequest = billingRequest;
+            dispatcher.setOrigin(billingRequest, origin);
+            startDeadline(billingRequest);
             // Send request to be handled by BillingProvider
             OPFIab.post(billingRequest);
         }
     }
 
+    /**
+     * Checks if supplied request is still waiting for response.
+     *
+     * @param requestId Id of the request to check.
+     *
+     * @return True if request was sent for execution and wasn't handled yet.
+     */
+    boolean isOutstanding(final long requestId) {
+        return outstandingRequests.containsKey(requestId);
+    }
+
+    /**
+     * Tries to attach supplied request to identical one which is already being executed.
+     *
+     * @param billingRequest Request to attach.
+     * @param origin         Listener which sent request, can be null.
+     *
+     * @return True if request was attached and will receive response without being executed.
+     *
+     * @see Configuration#getSingleFlightPolicy()
+     */
+    boolean attach(@NonNull final BillingRequest billingRequest,
+                   @Nullable final BillingListener origin) {
+        final SingleFlightPolicy policy = configuration.getSingleFlightPolicy();
+        final BillingEventDispatcher dispatcher = BillingEventDispatcher.getInstance();
+        for (final BillingRequest runningRequest : outstandingRequests.values()) {
+            if (policy.matches(runningRequest, billingRequest)
+                    && dispatcher.attach(runningRequest, billingRequest, origin)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startDeadline(@NonNull final BillingRequest billingRequest) {
+        outstandingRequests.put(billingRequest.getRequestId(), billingRequest);
+        final long timeout = configuration.getRequestTimeout();
+        if (timeout > 0) {
+            DEADLINE_TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (abandon(billingRequest, TIMEOUT)) {
+                        OPFLog.e("Request timed out: %s", billingRequest);
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops waiting for response to supplied request and sends empty response with supplied
+     * status instead.
+     * <p>
+     * If request is still being executed, library is no longer considered busy with it.
+     *
+     * @param billingRequest Request to abandon.
+     * @param status         Status of the response to send.
+     *
+     * @return True if request was abandoned, false if it was already handled.
+     */
+    private boolean abandon(@NonNull final BillingRequest billingRequest,
+                            @NonNull final Status status) {
+        final long requestId = billingRequest.getRequestId();
+        // Whoever removes request first handles it, late provider response will be dropped
+        if (!outstandingRequests.remove(requestId, billingRequest)) {
+            // Response was received concurrently
+            return false;
+        }
+        final boolean released = pendingRequest.compareAndSet(billingRequest, null);
+        OPFIab.post(BillingUtils.emptyResponse(null, billingRequest, status));
+        if (released) {
+            // Provider might still be busy, but library can proceed with next request
+            OPFIab.post(new RequestHandledEvent(billingRequest));
+        }
+        return true;
+    }
+
+    /**
+     * Cancels supplied request if it's being executed or waits for response.
+     * <p>
+     * Response with {@link Status#CANCELED} status is sent on behalf of canceled request, all
+     * threads waiting on its behalf are unblocked.
+     *
+     * @param requestId Id of the request to cancel.
+     *
+     * @return True if request was canceled, false if it's unknown or was already handled.
+     */
+    boolean cancel(final long requestId) {
+        final BillingRequest billingRequest = outstandingRequests.get(requestId);
+        if (billingRequest != null) {
+            return abandon(billingRequest, CANCELED);
+        }
+        // Request might share execution with another one
+        final BillingRequest attachedRequest =
+                BillingEventDispatcher.getInstance().detach(requestId);
+        if (attachedRequest != null) {
+            OPFIab.post(BillingUtils.emptyResponse(null, attachedRequest, CANCELED));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether supplied response should be delivered to listeners, marking corresponding
+     * request as handled.
+     *
+     * @param billingResponse Response to check.
+     *
+     * @return False if response is a late one from billing provider for request which was
+     * abandoned or already handled, true otherwise.
+     */
+    boolean claimResponse(@NonNull final BillingResponse billingResponse) {
+        final long requestId = billingResponse.getRequestId();
+        if (outstandingRequests.remove(requestId) != null) {
+            return true;
+        }
+        // Unsolicited provider response or one sent by library itself
+        return requestId == 0L || billingResponse.getProviderName() == null;
+    }
+
+    /**
+     * Links response which billing provider sent without request id with the oldest outstanding
+     * request of the same type.
+     * <p>
+     * Only {@link BaseBillingProvider} links responses by itself, responses of other
+     * implementations would otherwise never mark their requests as handled.
+     *
+     * @param billingResponse Response to link.
+     */
+    private void link(@NonNull final BillingResponse billingResponse) {
+        BillingRequest oldestRequest = null;
+        for (final BillingRequest billingRequest : outstandingRequests.values()) {
+            if (billingRequest.getType() == billingResponse.getType()
+                    && (oldestRequest == null
+                    || billingRequest.getRequestId() < oldestRequest.getRequestId())) {
+                oldestRequest = billingRequest;
+            }
+        }
+        if (oldestRequest != null) {
+            ResponseLinker.link(billingResponse, oldestRequest.getRequestId());
+        }
+    }
+
+    @NonNull
+    @Override
+    public EventHandler<?>[] getEventHandlers() {
+        return new EventHandler<?>[]{
+                new EventHandler<SetupStartedEvent>(SetupStartedEvent.class) {
+                    @Override
+                    public void onEvent(@NonNull final SetupStartedEvent event) {
+                        BillingBase.this.onEvent(event);
+                    }
+                },
+                new EventHandler<SetupResponse>(SetupResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final SetupResponse event) {
+                        BillingBase.this.onEvent(event);
+                    }
+                },
+                new EventHandler<BillingRequest>(BillingRequest.class, ThreadMode.ASYNC) {
+                    @Override
+                    public void onEvent(@NonNull final BillingRequest event) {
+                        BillingBase.this.onEventAsync(event);
+                    }
+                },
+                new EventHandler<RequestHandledEvent>(RequestHandledEvent.class) {
+                    @Override
+                    public void onEvent(@NonNull final RequestHandledEvent event) {
+                        BillingBase.this.onEvent(event);
+                    }
+                },
+                new EventHandler<BillingResponse>(BillingResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final BillingResponse event) {
+                        BillingBase.this.onEvent(event);
+                    }
+                },
+        };
+    }
+
     public void onEvent(@NonNull final SetupStartedEvent event) {
-        OPFChecks.checkThread(true);
         this.currentProvider = null;
         this.setupResponse = null;
     }
 
-    public void onEventMainThread(@NonNull final SetupResponse setupResponse) {
+    public void onEvent(@NonNull final SetupResponse setupResponse) {
         // Called before any other SetupResponse handler
         this.setupResponse = setupResponse;
         if (setupResponse.isSuccessful()) {
@@ -175,28 +420,90 @@ final class BillingBase {
 
     public void onEventAsync(@NonNull final BillingRequest billingRequest) {
         final BillingProvider billingProvider = this.currentProvider;
+        final PurchaseJournal journal = this.journal;
+        final OfflineConsumeQueue offlineQueue = this.offlineQueue;
         if (billingProvider != null) {
-            billingProvider.onBillingRequest(billingRequest);
+            if (journal != null) {
+                // Consumption must be recorded before it can possibly happen
+                journal.journal(billingRequest);
+            }
+            if (journal == null || offlineQueue == null || !offlineQueue.defer(billingRequest)) {
+                billingProvider.onBillingRequest(billingRequest);
+            }
         }
         OPFIab.post(new RequestHandledEvent(billingRequest));
     }
 
-    public void onEventMainThread(@NonNull final RequestHandledEvent event) {
-        if (!event.getBillingRequest().equals(pendingRequest)) {
-            throw new IllegalStateException();
+    public void onEvent(@NonNull final RequestHandledEvent event) {
+        final BillingRequest billingRequest = pendingRequest.get();
+        if (billingRequest == null
+                || event.getBillingRequest().getRequestId() != billingRequest.getRequestId()
+                || !pendingRequest.compareAndSet(billingRequest, null)) {
+            // Request was already abandoned
+            OPFLog.d("Request is not pending anymore: %s", event.getBillingRequest());
         }
-        pendingRequest = null;
     }
 
-    public void onEventMainThread(@NonNull final BillingResponse billingResponse) {
-        // Current provider is set but is not available
-        if (currentProvider != null && billingResponse.getStatus() == BILLING_UNAVAILABLE
-                // However last setup attempt was successful
-                && setupResponse != null && setupResponse.isSuccessful()
-                // Auto-recovery is set
-                && configuration.autoRecover()) {
-            // Attempt to pick new billing provider
-            OPFIab.setup();
+    @NonNull
+    private CircuitBreaker getBreaker(@NonNull final BillingProvider billingProvider) {
+        final String name = billingProvider.getName();
+        CircuitBreaker breaker = breakers.get(name);
+        if (breaker == null) {
+            breaker = new CircuitBreaker();
+            final CircuitBreaker existing = breakers.putIfAbsent(name, breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Checks if supplied billing provider failed too often recently.
+     *
+     * @param billingProvider Provider to check.
+     *
+     * @return True if provider shouldn't be used at the moment.
+     */
+    boolean isTripped(@NonNull final BillingProvider billingProvider) {
+        final CircuitBreaker breaker = breakers.get(billingProvider.getName());
+        return breaker != null && breaker.isOpen();
+    }
+
+    public void onEvent(@NonNull final BillingResponse billingResponse) {
+        if (billingResponse.getRequestId() == 0L && billingResponse.getProviderName() != null) {
+            // Called before any other BillingResponse handler
+            link(billingResponse);
+        }
+        final PurchaseJournal journal = this.journal;
+        if (journal != null) {
+            // Called before any listener learns about new purchase, listeners wait for the record
+            journal.journalAsync(billingResponse);
+        }
+        final BillingProvider billingProvider = this.currentProvider;
+        final SetupResponse setupResponse = this.setupResponse;
+        if (billingProvider == null || setupResponse == null || !setupResponse.isSuccessful()) {
+            return;
+        }
+        final Status status = billingResponse.getStatus();
+        final String providerName = billingResponse.getProviderName();
+        // Library itself only reports timeouts on behalf of provider
+        if (providerName == null ? status != TIMEOUT
+                : !providerName.equals(billingProvider.getName())) {
+            return;
+        }
+        final CircuitBreaker breaker = getBreaker(billingProvider);
+        final boolean tripped;
+        if (status == BILLING_UNAVAILABLE) {
+            // Provider reports it can't handle billing at all
+            tripped = breaker.trip();
+        } else {
+            tripped = breaker.record(status == SERVICE_UNAVAILABLE || status == TIMEOUT);
+        }
+        if (tripped && configuration.autoRecover()) {
+            OPFLog.e("Provider failed too many times: %s", billingProvider);
+            // Attempt to switch to standby provider
+            OPFIab.recover(billingProvider);
         }
     }
 }
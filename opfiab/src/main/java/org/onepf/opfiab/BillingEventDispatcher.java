@@ -20,21 +20,33 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import org.onepf.opfiab.listener.BillingListener;
-import org.onepf.opfiab.listener.BillingListenerCompositor;
+import org.onepf.opfiab.model.SingleFlightPolicy;
 import org.onepf.opfiab.model.event.RequestHandledEvent;
 import org.onepf.opfiab.model.event.SetupResponse;
 import org.onepf.opfiab.model.event.SetupStartedEvent;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
 import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
 import org.onepf.opfiab.model.event.billing.ConsumeResponse;
 import org.onepf.opfiab.model.event.billing.InventoryResponse;
 import org.onepf.opfiab.model.event.billing.PurchaseResponse;
 import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
-import org.onepf.opfutils.OPFChecks;
+import org.onepf.opfiab.util.BillingUtils;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
+import org.onepf.opfiab.util.MainThreadExecutor;
 import org.onepf.opfutils.OPFLog;
 
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -42,182 +54,404 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  * This class helps to deliver all billing events to appropriate listeners.
  * <p>
  * It's intended to exist as singleton and allow to add and remove corresponding listeners by
- * {@link #register(BillingListener)} and {@link #unregister(BillingListener)} methods.
+ * {@link #register(BillingListener, boolean, Executor)} and {@link #unregister(BillingListener)}
+ * methods.
+ * <p>
+ * Each {@link BillingRequest} is sent on behalf of some origin listener, corresponding
+ * {@link BillingResponse} is delivered only to that listener, unless it's unknown or no longer
+ * registered. Listeners registered with broadcast flag receive all billing events.
+ * <p>
+ * Events are handled on the thread they were posted from, except billing responses which wait
+ * for {@link PurchaseJournal} in background. Each listener receives callbacks using its own
+ * {@link Executor}. Global listener from configuration is always called on the main thread.
  */
-final class BillingEventDispatcher extends BillingListenerCompositor {
+final class BillingEventDispatcher implements EventRouter.TypedSubscriber {
 
     @Nullable
     private static BillingEventDispatcher instance;
 
-    @SuppressWarnings({"PMD.NonThreadSafeSingleton"})
-    static BillingEventDispatcher getInstance() {
-        OPFChecks.checkThread(true);
+    static synchronized BillingEventDispatcher getInstance() {
         if (instance == null) {
             instance = new BillingEventDispatcher();
         }
         return instance;
     }
 
+    @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
+    private static void deliverResponse(@NonNull final BillingListener billingListener,
+                                        @NonNull final BillingResponse billingResponse) {
+        billingListener.onResponse(billingResponse);
+        switch (billingResponse.getType()) {
+            case PURCHASE:
+                billingListener.onPurchase((PurchaseResponse) billingResponse);
+                break;
+            case CONSUME:
+                billingListener.onConsume((ConsumeResponse) billingResponse);
+                break;
+            case INVENTORY:
+                billingListener.onInventory((InventoryResponse) billingResponse);
+                break;
+            case SKU_DETAILS:
+                billingListener.onSkuDetails((SkuDetailsResponse) billingResponse);
+                break;
+            case CONSUME_BATCH:
+                // Consume listeners are notified about each purchase separately
+                final ConsumeBatchResponse batchResponse = (ConsumeBatchResponse) billingResponse;
+                for (final ConsumeResponse consumeResponse : batchResponse.getResponses()) {
+                    billingListener.onConsume(consumeResponse);
+                }
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
 
+
+    /**
+     * Listeners which receive events related to requests from any origin.
+     */
+    private final Map<BillingListener, Executor> broadcastListeners = new ConcurrentHashMap<>();
+    /**
+     * Listeners which receive only events related to their own requests.
+     */
+    private final Map<BillingListener, Executor> targetedListeners = new ConcurrentHashMap<>();
+    /**
+     * Origins of requests still waiting for response, by request id.
+     */
+    private final Map<Long, BillingListener> origins = new ConcurrentHashMap<>();
     /**
      * Used to cache responses that are delivered while library is busy.
      *
      * @see RequestHandledEvent
      */
-    private final Deque<BillingResponse> responseQueue = new LinkedList<>();
+    private final Queue<RoutedResponse> responseQueue = new ConcurrentLinkedQueue<>();
+    /**
+     * Requests sharing execution of another request, by id of the executed one.
+     * <p>
+     * Must be accessed only while holding its lock.
+     *
+     * @see SingleFlightPolicy
+     */
+    private final Map<Long, Collection<BillingRequest>> followers = new HashMap<>();
 
     private BillingEventDispatcher() {
         super();
     }
 
     /**
-     * Registers listener to receive all billing events.
+     * Registers listener to receive billing events.
      *
      * @param billingListener Listener object to register.
+     * @param broadcast       If true, listener will receive responses for requests from any
+     *                        origin, otherwise only for requests it originated.
+     * @param executor        Executor used to call listener.
      */
-    void register(@NonNull final BillingListener billingListener) {
-        addBillingListener(billingListener);
+    void register(@NonNull final BillingListener billingListener, final boolean broadcast,
+                  @NonNull final Executor executor) {
+        if (broadcast) {
+            targetedListeners.remove(billingListener);
+            broadcastListeners.put(billingListener, executor);
+        } else {
+            broadcastListeners.remove(billingListener);
+            targetedListeners.put(billingListener, executor);
+        }
     }
 
     /**
      * Unregisters listener from receiving any billing events.
+     * <p>
+     * Callbacks already submitted to listener executor will be skipped.
      *
      * @param billingListener Listener object to unregister.
      */
     void unregister(@NonNull final BillingListener billingListener) {
-        removeBillingListener(billingListener);
+        broadcastListeners.remove(billingListener);
+        targetedListeners.remove(billingListener);
+        origins.values().removeAll(Collections.singleton(billingListener));
     }
 
-    protected void removeBillingListener(@NonNull final BillingListener billingListener) {
-        billingListeners.remove(billingListener);
-        setupListeners.remove(billingListener);
-        purchaseListeners.remove(billingListener);
-        consumeListeners.remove(billingListener);
-        inventoryListeners.remove(billingListener);
-        skuDetailsListeners.remove(billingListener);
-    }
-
-    public void onEventMainThread(@NonNull final SetupStartedEvent setupStartedEvent) {
-        onSetupStarted(setupStartedEvent);
+    /**
+     * Remembers origin of the request which is about to be handled.
+     *
+     * @param billingRequest Request sent for execution.
+     * @param origin         Listener which sent request, can be null.
+     */
+    void setOrigin(@NonNull final BillingRequest billingRequest,
+                   @Nullable final BillingListener origin) {
+        if (origin != null) {
+            origins.put(billingRequest.getRequestId(), origin);
+        }
     }
 
-    public void onEventMainThread(@NonNull final SetupResponse setupResponse) {
-        onSetupResponse(setupResponse);
+    /**
+     * Gets ids of the requests sent by supplied origin which are still waiting for response.
+     *
+     * @param origin Listener which sent requests.
+     *
+     * @return Collection of request ids.
+     */
+    @NonNull
+    Collection<Long> getRequestIds(@NonNull final BillingListener origin) {
+        final Collection<Long> requestIds = new ArrayList<>();
+        for (final Map.Entry<Long, BillingListener> entry : origins.entrySet()) {
+            if (entry.getValue() == origin) {
+                requestIds.add(entry.getKey());
+            }
+        }
+        return requestIds;
     }
 
-    public void onEventMainThread(@NonNull final BillingRequest billingRequest) {
-        onRequest(billingRequest);
+    /**
+     * Attaches request to another one which is being executed, so that it receives copy of the
+     * same response.
+     *
+     * @param runningRequest Request being executed.
+     * @param billingRequest Request to attach.
+     * @param origin         Listener which sent attached request, can be null.
+     *
+     * @return True if request was attached, false if running request was already handled.
+     */
+    boolean attach(@NonNull final BillingRequest runningRequest,
+                   @NonNull final BillingRequest billingRequest,
+                   @Nullable final BillingListener origin) {
+        final long runningId = runningRequest.getRequestId();
+        synchronized (followers) {
+            if (!BillingBase.getInstance().isOutstanding(runningId)) {
+                return false;
+            }
+            setOrigin(billingRequest, origin);
+            Collection<BillingRequest> requests = followers.get(runningId);
+            if (requests == null) {
+                followers.put(runningId, requests = new ArrayList<>());
+            }
+            requests.add(billingRequest);
+        }
+        return true;
     }
 
-    public void onEventMainThread(@NonNull final BillingResponse billingResponse) {
-        // Store response in a queue to handle it later
-        if (BillingBase.getInstance().isBusy()) {
-            responseQueue.addLast(billingResponse);
-        } else {
-            handleBillingResponse(billingResponse);
+    /**
+     * Detaches request from the one it shares execution with.
+     *
+     * @param requestId Id of the request to detach.
+     *
+     * @return Detached request, or null if there's no such request.
+     */
+    @Nullable
+    BillingRequest detach(final long requestId) {
+        synchronized (followers) {
+            for (final Collection<BillingRequest> requests : followers.values()) {
+                for (final Iterator<BillingRequest> iterator = requests.iterator();
+                     iterator.hasNext(); ) {
+                    final BillingRequest billingRequest = iterator.next();
+                    if (billingRequest.getRequestId() == requestId) {
+                        iterator.remove();
+                        return billingRequest;
+                    }
+                }
+            }
         }
+        return null;
     }
 
-    public void onEventMainThread(@NonNull final RequestHandledEvent event) {
-        while (!responseQueue.isEmpty()) {
-            handleBillingResponse(responseQueue.pollFirst());
-        }
+    private boolean isRegistered(@NonNull final BillingListener billingListener) {
+        return broadcastListeners.containsKey(billingListener)
+                || targetedListeners.containsKey(billingListener);
     }
 
-    @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
-    private void handleBillingResponse(@NonNull final BillingResponse billingResponse) {
-        onResponse(billingResponse);
-        switch (billingResponse.getType()) {
-            case PURCHASE:
-                onPurchase((PurchaseResponse) billingResponse);
-                break;
-            case CONSUME:
-                onConsume((ConsumeResponse) billingResponse);
-                break;
-            case INVENTORY:
-                onInventory((InventoryResponse) billingResponse);
-                break;
-            case SKU_DETAILS:
-                onSkuDetails((SkuDetailsResponse) billingResponse);
-                break;
-            default:
-                throw new IllegalStateException();
-        }
+    private void deliver(@NonNull final Executor executor,
+                         @NonNull final BillingListener billingListener,
+                         @NonNull final Callback callback,
+                         final boolean checkRegistered) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!checkRegistered || isRegistered(billingListener)) {
+                    callback.call(billingListener);
+                }
+            }
+        });
     }
 
-    @Override
-    public void onRequest(@NonNull final BillingRequest billingRequest) {
-        OPFLog.logMethod(billingRequest);
+    /**
+     * Delivers callback to global listener, all broadcast listeners and either origin listener or
+     * all targeted listeners if origin is unknown.
+     *
+     * @param origin   Origin of the request event is related to, can be null.
+     * @param callback Callback to deliver.
+     */
+    private void dispatch(@Nullable final BillingListener origin,
+                          @NonNull final Callback callback) {
         final BillingListener billingListener = OPFIab.getConfiguration().getBillingListener();
         if (billingListener != null) {
-            billingListener.onRequest(billingRequest);
+            deliver(MainThreadExecutor.getInstance(), billingListener, callback, false);
+        }
+        for (final Map.Entry<BillingListener, Executor> entry : broadcastListeners.entrySet()) {
+            deliver(entry.getValue(), entry.getKey(), callback, true);
+        }
+        final Executor executor = origin == null ? null : targetedListeners.get(origin);
+        if (executor != null) {
+            deliver(executor, origin, callback, true);
+            return;
+        }
+        for (final Map.Entry<BillingListener, Executor> entry : targetedListeners.entrySet()) {
+            deliver(entry.getValue(), entry.getKey(), callback, true);
         }
-        super.onRequest(billingRequest);
     }
 
-    @Override
-    public void onResponse(@NonNull final BillingResponse billingResponse) {
+    private void handleBillingResponse(@NonNull final RoutedResponse routedResponse) {
+        final BillingResponse billingResponse = routedResponse.billingResponse;
         OPFLog.logMethod(billingResponse);
-        final BillingListener billingListener = OPFIab.getConfiguration().getBillingListener();
-        if (billingListener != null) {
-            billingListener.onResponse(billingResponse);
+        // Listeners must not learn about purchase before it's journaled
+        PurchaseJournal.afterJournaled(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(routedResponse.origin, new Callback() {
+                    @Override
+                    public void call(@NonNull final BillingListener billingListener) {
+                        deliverResponse(billingListener, billingResponse);
+                    }
+                });
+            }
+        });
+    }
+
+    private void handleQueue() {
+        RoutedResponse routedResponse;
+        while ((routedResponse = responseQueue.poll()) != null) {
+            handleBillingResponse(routedResponse);
         }
-        super.onResponse(billingResponse);
     }
 
+    @NonNull
     @Override
-    public void onSetupStarted(@NonNull final SetupStartedEvent setupStartedEvent) {
+    public EventHandler<?>[] getEventHandlers() {
+        return new EventHandler<?>[]{
+                new EventHandler<SetupStartedEvent>(SetupStartedEvent.class) {
+                    @Override
+                    public void onEvent(@NonNull final SetupStartedEvent event) {
+                        BillingEventDispatcher.this.onEvent(event);
+                    }
+                },
+                new EventHandler<SetupResponse>(SetupResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final SetupResponse event) {
+                        BillingEventDispatcher.this.onEvent(event);
+                    }
+                },
+                new EventHandler<BillingRequest>(BillingRequest.class) {
+                    @Override
+                    public void onEvent(@NonNull final BillingRequest event) {
+                        BillingEventDispatcher.this.onEvent(event);
+                    }
+                },
+                new EventHandler<BillingResponse>(BillingResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final BillingResponse event) {
+                        BillingEventDispatcher.this.onEvent(event);
+                    }
+                },
+                new EventHandler<RequestHandledEvent>(RequestHandledEvent.class) {
+                    @Override
+                    public void onEvent(@NonNull final RequestHandledEvent event) {
+                        BillingEventDispatcher.this.onEvent(event);
+                    }
+                },
+        };
+    }
+
+    public void onEvent(@NonNull final SetupStartedEvent setupStartedEvent) {
         OPFLog.logMethod(setupStartedEvent);
-        final BillingListener billingListener = OPFIab.getConfiguration().getBillingListener();
-        if (billingListener != null) {
-            billingListener.onSetupStarted(setupStartedEvent);
-        }
-        super.onSetupStarted(setupStartedEvent);
+        dispatch(null, new Callback() {
+            @Override
+            public void call(@NonNull final BillingListener billingListener) {
+                billingListener.onSetupStarted(setupStartedEvent);
+            }
+        });
     }
 
-    @Override
-    public void onSetupResponse(@NonNull final SetupResponse setupResponse) {
+    public void onEvent(@NonNull final SetupResponse setupResponse) {
         OPFLog.logMethod(setupResponse);
-        final BillingListener billingListener = OPFIab.getConfiguration().getBillingListener();
-        if (billingListener != null) {
-            billingListener.onSetupResponse(setupResponse);
-        }
-        super.onSetupResponse(setupResponse);
+        dispatch(null, new Callback() {
+            @Override
+            public void call(@NonNull final BillingListener billingListener) {
+                billingListener.onSetupResponse(setupResponse);
+            }
+        });
     }
 
-    @Override
-    public void onPurchase(@NonNull final PurchaseResponse purchaseResponse) {
-        final BillingListener billingListener = OPFIab.getConfiguration().getBillingListener();
-        if (billingListener != null) {
-            billingListener.onPurchase(purchaseResponse);
-        }
-        super.onPurchase(purchaseResponse);
+    public void onEvent(@NonNull final BillingRequest billingRequest) {
+        OPFLog.logMethod(billingRequest);
+        dispatch(origins.get(billingRequest.getRequestId()), new Callback() {
+            @Override
+            public void call(@NonNull final BillingListener billingListener) {
+                billingListener.onRequest(billingRequest);
+            }
+        });
     }
 
-    @Override
-    public void onConsume(@NonNull final ConsumeResponse consumeResponse) {
-        final BillingListener billingListener = OPFIab.getConfiguration().getBillingListener();
-        if (billingListener != null) {
-            billingListener.onConsume(consumeResponse);
+    public void onEvent(@NonNull final BillingResponse billingResponse) {
+        final BillingBase billingBase = BillingBase.getInstance();
+        if (!billingBase.claimResponse(billingResponse)) {
+            // Response was already sent on behalf of abandoned request
+            OPFLog.d("Dropping late response: %s", billingResponse);
+            return;
+        }
+        final long requestId = billingResponse.getRequestId();
+        final Collection<BillingRequest> attachedRequests;
+        synchronized (followers) {
+            attachedRequests = followers.remove(requestId);
+        }
+        final Collection<RoutedResponse> routedResponses = new ArrayList<>();
+        routedResponses.add(new RoutedResponse(billingResponse, origins.remove(requestId)));
+        if (attachedRequests != null) {
+            // Requests which shared execution receive their own copies
+            for (final BillingRequest billingRequest : attachedRequests) {
+                final long attachedId = billingRequest.getRequestId();
+                final BillingResponse copy = BillingUtils.copy(billingResponse, attachedId);
+                routedResponses.add(new RoutedResponse(copy, origins.remove(attachedId)));
+            }
+        }
+        if (!billingBase.isBusy()) {
+            for (final RoutedResponse routedResponse : routedResponses) {
+                handleBillingResponse(routedResponse);
+            }
+            return;
+        }
+        // Store responses in a queue to handle them later
+        responseQueue.addAll(routedResponses);
+        if (!billingBase.isBusy()) {
+            // Request was handled while responses were being queued
+            handleQueue();
         }
-        super.onConsume(consumeResponse);
     }
 
-    @Override
-    public void onInventory(@NonNull final InventoryResponse inventoryResponse) {
-        final BillingListener billingListener = OPFIab.getConfiguration().getBillingListener();
-        if (billingListener != null) {
-            billingListener.onInventory(inventoryResponse);
-        }
-        super.onInventory(inventoryResponse);
+    @SuppressWarnings("UnusedParameters")
+    public void onEvent(@NonNull final RequestHandledEvent event) {
+        handleQueue();
     }
 
-    @Override
-    public void onSkuDetails(@NonNull final SkuDetailsResponse skuDetailsResponse) {
-        final BillingListener billingListener = OPFIab.getConfiguration().getBillingListener();
-        if (billingListener != null) {
-            billingListener.onSkuDetails(skuDetailsResponse);
+    /**
+     * Single listener callback.
+     */
+    private interface Callback {
+
+        void call(@NonNull final BillingListener billingListener);
+    }
+
+    /**
+     * Billing response paired with origin of the corresponding request.
+     */
+    private static final class RoutedResponse {
+
+        @NonNull
+        private final BillingResponse billingResponse;
+        @Nullable
+        private final BillingListener origin;
+
+        RoutedResponse(@NonNull final BillingResponse billingResponse,
+                       @Nullable final BillingListener origin) {
+            this.billingResponse = billingResponse;
+            this.origin = origin;
         }
-        super.onSkuDetails(skuDetailsResponse);
     }
 }
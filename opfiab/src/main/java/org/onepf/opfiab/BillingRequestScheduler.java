@@ -20,70 +20,217 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import org.onepf.opfiab.api.IabHelper;
+import org.onepf.opfiab.model.QueuePolicy;
+import org.onepf.opfiab.model.SingleFlightPolicy;
 import org.onepf.opfiab.model.event.RequestHandledEvent;
 import org.onepf.opfiab.model.event.SetupResponse;
+import org.onepf.opfiab.model.event.billing.BillingEventType;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.util.BillingUtils;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
 import org.onepf.opfiab.util.OPFIabUtils;
-import org.onepf.opfutils.OPFChecks;
+import org.onepf.opfutils.OPFLog;
 
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is responsible for pending {@link BillingRequest}s execution. It monitors {@link
  * BillingBase} state changes and notifies known {@link IabHelper}s when next request can be
  * handled.
+ * <p>
+ * Requests can be scheduled from any thread.
  */
-final class BillingRequestScheduler {
+final class BillingRequestScheduler implements EventRouter.TypedSubscriber {
 
     @Nullable
     private static BillingRequestScheduler instance;
 
-    @SuppressWarnings({"PMD.NonThreadSafeSingleton"})
-    static BillingRequestScheduler getInstance() {
-        OPFChecks.checkThread(true);
+    static synchronized BillingRequestScheduler getInstance() {
         if (instance == null) {
             instance = new BillingRequestScheduler();
         }
         return instance;
     }
 
+    /**
+     * Removes supplied request from queue.
+     * <p>
+     * Requests are compared by identity, {@link BillingRequest#equals(Object)} considers all
+     * requests of the same type equal.
+     *
+     * @param queue   Queue to remove request from.
+     * @param request Request to remove.
+     *
+     * @return True if request was found in queue, false otherwise.
+     */
+    private static boolean removeRequest(@NonNull final Collection<BillingRequest> queue,
+                                         @NonNull final BillingRequest request) {
+        final Iterator<BillingRequest> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == request) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
 
     /**
      * Collection of helpers potentially having pending requests.
+     * <p>
+     * Must be accessed only while holding its lock.
      */
-    private final Map<IabHelperImpl, Collection<BillingRequest>> helpers = Collections
-            .synchronizedMap(new HashMap<IabHelperImpl, Collection<BillingRequest>>());
+    private final Map<IabHelperImpl, Collection<BillingRequest>> helpers = new LinkedHashMap<>();
+    /**
+     * Number of requests dropped due to queue overflow, by request type.
+     */
+    private final Map<BillingEventType, AtomicLong> droppedCounts =
+            new EnumMap<>(BillingEventType.class);
 
     private BillingRequestScheduler() {
         super();
+        for (final BillingEventType type : BillingEventType.values()) {
+            droppedCounts.put(type, new AtomicLong());
+        }
     }
 
     /**
-     * Checks if supplied request is present in any known helpers queue. If not it will be enqueued
-     * for later execution and skipped otherwise.
+     * Enqueues supplied request for later execution.
+     * <p>
+     * Identical requests from different helpers are kept separately, each of them will receive its
+     * own response once one of them is executed.
+     * <p>
+     * If queue is full, one of the requests is dropped according to {@link QueuePolicy} and
+     * receives {@link Status#BUSY} response.
      *
      * @param helper  Helper initially responsible for supplied request.
-     * @param request Request object to try to add to queue.
+     * @param request Request object to add to queue.
+     *
+     * @see #handleNext()
      */
     void schedule(@NonNull final IabHelperImpl helper, @NonNull final BillingRequest request) {
-        for (final Collection<BillingRequest> requests : helpers.values()) {
-            if (requests.contains(request)) {
-                // Request is already in queue.
-                return;
+        final QueuePolicy policy = OPFIab.getConfiguration().getQueuePolicy();
+        final Collection<Map.Entry<IabHelperImpl, BillingRequest>> dropped = new ArrayList<>();
+        synchronized (helpers) {
+            Collection<BillingRequest> queue = helpers.get(helper);
+            if (queue == null) {
+                helpers.put(helper, queue = new ArrayDeque<>());
+            }
+            for (final BillingRequest billingRequest : queue) {
+                if (billingRequest == request) {
+                    // Request is already in queue.
+                    return;
+                }
             }
+            if (queue.size() >= policy.getHelperLimit()) {
+                dropped.add(drop(helper, policy.pickVictim(queue, request), request));
+            }
+            if (dropped.isEmpty() && size() >= policy.getGlobalLimit()) {
+                final IabHelperImpl longest = getLongest(helper);
+                if (policy.getOverflow() == QueuePolicy.Overflow.DROP_NEWEST) {
+                    // Newly arrived request belongs to supplied helper, whoever hogs the queue
+                    dropped.add(drop(helper, request, request));
+                } else if (longest == helper) {
+                    dropped.add(drop(helper, policy.pickVictim(queue, request), request));
+                } else {
+                    // Someone else is hogging the queue
+                    dropped.add(drop(longest, helpers.get(longest).iterator().next(), request));
+                }
+            }
+            if (dropped.isEmpty() || dropped.iterator().next().getValue() != request) {
+                queue.add(request);
+            }
+        }
+        final BillingEventDispatcher dispatcher = BillingEventDispatcher.getInstance();
+        for (final Map.Entry<IabHelperImpl, BillingRequest> entry : dropped) {
+            final BillingRequest billingRequest = entry.getValue();
+            OPFLog.d("Queue is full, dropping request: %s", billingRequest);
+            droppedCounts.get(billingRequest.getType()).incrementAndGet();
+            dispatcher.setOrigin(billingRequest, entry.getKey().getOrigin());
+            OPFIab.post(BillingUtils.emptyResponse(null, billingRequest, Status.BUSY));
         }
+    }
 
-        final Collection<BillingRequest> queue;
-        if (!helpers.containsKey(helper)) {
-            helpers.put(helper, queue = new ConcurrentLinkedQueue<>());
-        } else {
-            queue = helpers.get(helper);
+    /**
+     * Removes request dropped due to queue overflow.
+     * <p>
+     * Must be called only while holding {@link #helpers} lock.
+     *
+     * @param helper  Helper owning the dropped request.
+     * @param victim  Request to drop.
+     * @param request Newly arrived request, not present in any queue yet.
+     *
+     * @return Dropped request along with its helper.
+     */
+    @NonNull
+    private Map.Entry<IabHelperImpl, BillingRequest> drop(@NonNull final IabHelperImpl helper,
+                                                          @NonNull final BillingRequest victim,
+                                                          @NonNull final BillingRequest request) {
+        if (victim != request) {
+            removeRequest(helpers.get(helper), victim);
         }
-        queue.add(request);
+        return new AbstractMap.SimpleImmutableEntry<>(helper, victim);
+    }
+
+    /**
+     * Counts all queued requests.
+     * <p>
+     * Must be called only while holding {@link #helpers} lock.
+     *
+     * @return Total number of queued requests.
+     */
+    private int size() {
+        int size = 0;
+        for (final Collection<BillingRequest> queue : helpers.values()) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    /**
+     * Looks for helper with the longest queue.
+     * <p>
+     * Must be called only while holding {@link #helpers} lock.
+     *
+     * @param helper Helper to prefer in case of a tie.
+     *
+     * @return Helper with the longest queue.
+     */
+    @NonNull
+    private IabHelperImpl getLongest(@NonNull final IabHelperImpl helper) {
+        IabHelperImpl longest = helper;
+        int longestSize = helpers.get(helper).size();
+        for (final Map.Entry<IabHelperImpl, Collection<BillingRequest>> entry
+                : helpers.entrySet()) {
+            final int size = entry.getValue().size();
+            if (size > longestSize) {
+                longest = entry.getKey();
+                longestSize = size;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Gets number of requests dropped due to queue overflow since library was loaded.
+     *
+     * @param type Type of requests to count.
+     *
+     * @return Number of dropped requests.
+     */
+    long getDroppedCount(@NonNull final BillingEventType type) {
+        return droppedCounts.get(type).get();
     }
 
     /**
@@ -92,40 +239,132 @@ final class BillingRequestScheduler {
      * @param iabHelper Helper which request queue should be dismissed.
      */
     void dropQueue(@NonNull final AdvancedIabHelperImpl iabHelper) {
-        helpers.remove(iabHelper);
+        synchronized (helpers) {
+            helpers.remove(iabHelper);
+        }
+    }
+
+    /**
+     * Dismisses single pending request associated with the supplied helper.
+     *
+     * @param iabHelper Helper which request should be dismissed.
+     * @param request   Request to dismiss.
+     *
+     * @return True if request was found in the helper queue, false otherwise.
+     */
+    boolean remove(@NonNull final IabHelperImpl iabHelper, @NonNull final BillingRequest request) {
+        synchronized (helpers) {
+            final Collection<BillingRequest> requests = helpers.get(iabHelper);
+            return requests != null && removeRequest(requests, request);
+        }
     }
 
     /**
      * Dismisses all pending requests for all known helpers.
      */
     void dropQueue() {
-        helpers.clear();
+        synchronized (helpers) {
+            helpers.clear();
+        }
     }
 
+    /**
+     * Sends next pending request for execution, if library is not busy.
+     * <p>
+     * Pending requests identical to the sent one are dequeued as well and share its execution.
+     *
+     * @see SingleFlightPolicy
+     */
     void handleNext() {
-        // Iterate through registered helpers looking for pending request
-        for (final Map.Entry<IabHelperImpl, Collection<BillingRequest>> entry : helpers.entrySet()) {
-            final IabHelperImpl helper = entry.getKey();
-            if (helper.billingBase.isBusy()) {
-                // Library is busy, pending requests will have to wait some more.
-                return;
+        final BillingBase billingBase = BillingBase.getInstance();
+        if (billingBase.isBusy()) {
+            // Library is busy, pending requests will have to wait some more.
+            return;
+        }
+        IabHelperImpl helper = null;
+        BillingRequest request = null;
+        final Collection<Map.Entry<IabHelperImpl, BillingRequest>> duplicates = new ArrayList<>();
+        synchronized (helpers) {
+            // Iterate through registered helpers looking for pending request
+            for (final Map.Entry<IabHelperImpl, Collection<BillingRequest>> entry
+                    : helpers.entrySet()) {
+                request = OPFIabUtils.poll(entry.getValue());
+                if (request != null) {
+                    helper = entry.getKey();
+                    break;
+                }
             }
-            final BillingRequest request = OPFIabUtils.poll(entry.getValue());
             if (request != null) {
-                // Send request for execution
-                entry.getKey().postRequest(request);
-                return;
+                collectDuplicates(request, duplicates);
+            }
+        }
+        if (helper == null) {
+            return;
+        }
+        // Send request for execution, helper will schedule it again if library became busy
+        helper.postRequest(request);
+        for (final Map.Entry<IabHelperImpl, BillingRequest> entry : duplicates) {
+            final IabHelperImpl duplicateHelper = entry.getKey();
+            final BillingRequest duplicate = entry.getValue();
+            if (!billingBase.attach(duplicate, duplicateHelper.getOrigin())) {
+                // Sent request didn't make it to execution, handle duplicate on its own
+                duplicateHelper.postRequest(duplicate);
+            }
+        }
+    }
+
+    /**
+     * Removes all pending requests which can share execution of the supplied one.
+     * <p>
+     * Must be called only while holding {@link #helpers} lock.
+     *
+     * @param request    Request which is about to be executed.
+     * @param duplicates Collection to put removed requests to, along with their helpers.
+     */
+    private void collectDuplicates(
+            @NonNull final BillingRequest request,
+            @NonNull final Collection<Map.Entry<IabHelperImpl, BillingRequest>> duplicates) {
+        final SingleFlightPolicy policy = OPFIab.getConfiguration().getSingleFlightPolicy();
+        for (final Map.Entry<IabHelperImpl, Collection<BillingRequest>> entry
+                : helpers.entrySet()) {
+            final Iterator<BillingRequest> iterator = entry.getValue().iterator();
+            while (iterator.hasNext()) {
+                final BillingRequest billingRequest = iterator.next();
+                if (policy.matches(request, billingRequest)) {
+                    iterator.remove();
+                    duplicates.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(),
+                                                                          billingRequest));
+                }
             }
         }
     }
 
+    @NonNull
+    @Override
+    public EventHandler<?>[] getEventHandlers() {
+        return new EventHandler<?>[]{
+                new EventHandler<RequestHandledEvent>(RequestHandledEvent.class) {
+                    @Override
+                    public void onEvent(@NonNull final RequestHandledEvent event) {
+                        BillingRequestScheduler.this.onEvent(event);
+                    }
+                },
+                new EventHandler<SetupResponse>(SetupResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final SetupResponse event) {
+                        BillingRequestScheduler.this.onEvent(event);
+                    }
+                },
+        };
+    }
+
     @SuppressWarnings("UnusedParameters")
-    public void onEventMainThread(@NonNull final RequestHandledEvent event) {
+    public void onEvent(@NonNull final RequestHandledEvent event) {
         handleNext();
     }
 
     @SuppressWarnings("UnusedParameters")
-    public void onEventMainThread(@NonNull final SetupResponse setupResponse) {
+    public void onEvent(@NonNull final SetupResponse setupResponse) {
         handleNext();
     }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.os.SystemClock;
+
+import org.onepf.opfiab.billing.BillingProvider;
+
+/**
+ * Tracks failure rate of a single {@link BillingProvider}.
+ * <p>
+ * Breaker trips when too many of the recent requests fail. Tripped breaker stays open for a while,
+ * after that provider is given another chance.
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+final class CircuitBreaker {
+
+    /**
+     * Number of recent requests to consider.
+     */
+    private static final int WINDOW = 10;
+    /**
+     * Number of failures among recent requests which trips the breaker.
+     */
+    private static final int THRESHOLD = 5;
+    /**
+     * How long tripped breaker stays open.
+     */
+    private static final long OPEN_DURATION = 60000L; // 1 minute
+
+
+    /**
+     * How long tripped breaker stays open, in milliseconds.
+     */
+    private final long openDuration;
+    /**
+     * Outcomes of recent requests, true for failure.
+     */
+    private final boolean[] outcomes = new boolean[WINDOW];
+    private int position;
+    private int failures;
+    /**
+     * Time when breaker was tripped, 0 if it's closed.
+     */
+    private long openedAt;
+
+    CircuitBreaker() {
+        this(OPEN_DURATION);
+    }
+
+    CircuitBreaker(final long openDuration) {
+        super();
+        this.openDuration = openDuration;
+    }
+
+    private void reset() {
+        for (int i = 0; i < WINDOW; i++) {
+            outcomes[i] = false;
+        }
+        failures = 0;
+        openedAt = 0;
+    }
+
+    /**
+     * Records outcome of a single request.
+     *
+     * @param failure True if request failed.
+     *
+     * @return True if this failure tripped the breaker.
+     */
+    synchronized boolean record(final boolean failure) {
+        if (openedAt != 0) {
+            return false;
+        }
+        if (outcomes[position]) {
+            failures--;
+        }
+        outcomes[position] = failure;
+        position = (position + 1) % WINDOW;
+        if (failure && ++failures >= THRESHOLD) {
+            openedAt = SystemClock.elapsedRealtime();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Trips the breaker regardless of recent failure rate.
+     *
+     * @return True if breaker was closed before this call.
+     */
+    synchronized boolean trip() {
+        if (openedAt != 0) {
+            return false;
+        }
+        openedAt = SystemClock.elapsedRealtime();
+        return true;
+    }
+
+    /**
+     * Checks if breaker is tripped.
+     * <p>
+     * Breaker which stayed open long enough is closed again.
+     *
+     * @return True if provider shouldn't be used.
+     */
+    synchronized boolean isOpen() {
+        if (openedAt != 0 && SystemClock.elapsedRealtime() - openedAt >= openDuration) {
+            reset();
+        }
+        return openedAt != 0;
+    }
+}
@@ -29,6 +29,9 @@ import org.onepf.opfiab.api.IabHelper;
 import org.onepf.opfiab.model.ComponentState;
 import org.onepf.opfiab.model.event.android.FragmentLifecycleEvent;
 import org.onepf.opfiab.model.event.android.SupportFragmentLifecycleEvent;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
+import org.onepf.opfiab.util.EventRouter.ThreadMode;
 import org.onepf.opfutils.OPFLog;
 
 /**
@@ -38,7 +41,8 @@ import org.onepf.opfutils.OPFLog;
  * Helper attempts to attach instance of {@link OPFIabFragment} to supplied fragment manager.
  * Fragment will monitor component lifecycle and report it to the library.
  */
-abstract class ComponentIabHelper extends AdvancedIabHelperImpl {
+abstract class ComponentIabHelper extends AdvancedIabHelperImpl
+        implements EventRouter.TypedSubscriber {
 
     protected static final String FRAGMENT_TAG = "OPFIabFragment";
 
@@ -112,6 +116,27 @@ abstract class ComponentIabHelper extends AdvancedIabHelperImpl {
      */
     protected abstract void handleState(@NonNull final ComponentState type);
 
+    @NonNull
+    @Override
+    public EventHandler<?>[] getEventHandlers() {
+        return new EventHandler<?>[]{
+                new EventHandler<FragmentLifecycleEvent>(
+                        FragmentLifecycleEvent.class, ThreadMode.MAIN) {
+                    @Override
+                    public void onEvent(@NonNull final FragmentLifecycleEvent event) {
+                        ComponentIabHelper.this.onEventMainThread(event);
+                    }
+                },
+                new EventHandler<SupportFragmentLifecycleEvent>(
+                        SupportFragmentLifecycleEvent.class, ThreadMode.MAIN) {
+                    @Override
+                    public void onEvent(@NonNull final SupportFragmentLifecycleEvent event) {
+                        ComponentIabHelper.this.onEventMainThread(event);
+                    }
+                },
+        };
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
     public void onEventMainThread(@NonNull final FragmentLifecycleEvent event) {
         if (opfFragment == event.getFragment()) {
@@ -0,0 +1,479 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.billing.Inventory;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.model.event.SetupResponse;
+import org.onepf.opfiab.model.event.billing.BillingEventType;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryRequest;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
+import org.onepf.opfiab.verification.VerificationResult;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Index of purchases user is currently entitled to, grouped by SKU.
+ * <p>
+ * Index is updated from inventory, purchase and consume responses of current
+ * {@link BillingProvider} before any listener is notified. Only verified purchases are indexed,
+ * canceled purchases revoke entitlement.
+ * <p>
+ * Every update publishes new immutable snapshot, so queries can be made from any thread, take
+ * constant time and don't allocate memory. Updates themselves are serialized.
+ * <p>
+ * Purchase counts are saved in {@link EntitlementSnapshot} in background and restored on the next
+ * launch. Only the latest index is saved if updates come faster than saves.
+ * Restored entitlements are provisional, they are replaced once complete inventory is loaded from
+ * the same provider.
+ *
+ * @see OPFIab#getEntitlements()
+ */
+public final class EntitlementIndex implements EventRouter.TypedSubscriber {
+
+    private static final Purchase[] NO_PURCHASES = new Purchase[0];
+    /**
+     * Used to save snapshots off the posting thread.
+     */
+    private static final Executor SAVE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Nullable
+    private static EntitlementIndex instance;
+
+    static synchronized EntitlementIndex getInstance() {
+        if (instance == null) {
+            instance = new EntitlementIndex();
+        }
+        return instance;
+    }
+
+    private static boolean isActive(@NonNull final Purchase purchase,
+                                    @Nullable final VerificationResult verificationResult) {
+        return verificationResult == VerificationResult.SUCCESS && !purchase.isCanceled();
+    }
+
+    /**
+     * Adds purchase to supplied index, replacing the same purchase if it's already there.
+     */
+    private static void add(@NonNull final Map<String, Purchase[]> index,
+                            @NonNull final Purchase purchase) {
+        final String sku = purchase.getSku();
+        final Purchase[] purchases = index.get(sku);
+        if (purchases == null) {
+            index.put(sku, new Purchase[]{purchase});
+            return;
+        }
+        final int position = Arrays.asList(purchases).indexOf(purchase);
+        final Purchase[] newPurchases;
+        if (position < 0) {
+            newPurchases = Arrays.copyOf(purchases, purchases.length + 1);
+            newPurchases[purchases.length] = purchase;
+        } else {
+            newPurchases = purchases.clone();
+            newPurchases[position] = purchase;
+        }
+        index.put(sku, newPurchases);
+    }
+
+    /**
+     * Removes purchase from supplied index.
+     *
+     * @return True if purchase was removed, false if there was no such purchase.
+     */
+    private static boolean remove(@NonNull final Map<String, Purchase[]> index,
+                                  @NonNull final Purchase purchase) {
+        final String sku = purchase.getSku();
+        final Purchase[] purchases = index.get(sku);
+        final int position = purchases == null ? -1 : Arrays.asList(purchases).indexOf(purchase);
+        if (position < 0) {
+            return false;
+        }
+        if (purchases.length == 1) {
+            index.remove(sku);
+            return true;
+        }
+        final Purchase[] newPurchases = new Purchase[purchases.length - 1];
+        System.arraycopy(purchases, 0, newPurchases, 0, position);
+        System.arraycopy(purchases, position + 1, newPurchases, position,
+                         newPurchases.length - position);
+        index.put(sku, newPurchases);
+        return true;
+    }
+
+
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            save();
+        }
+    };
+    /**
+     * Published snapshot, maps SKUs to active purchases. Neither map nor arrays are ever modified.
+     */
+    @NonNull
+    private volatile Map<String, Purchase[]> snapshot = Collections.emptyMap();
+    /**
+     * Guards all updates, fields below are accessed only while holding it, except for
+     * {@link #restored} reads.
+     */
+    private final Object writeLock = new Object();
+    /**
+     * Purchases collected from inventory pages loaded so far, replaces snapshot once the last
+     * page is loaded.
+     */
+    private final Map<String, Purchase[]> loading = new HashMap<>();
+    /**
+     * Purchase counts restored from {@link EntitlementSnapshot}, null once reconciled with
+     * inventory.
+     */
+    @Nullable
+    private volatile Map<String, Integer> restored;
+    @Nullable
+    private String restoredProviderName;
+    @Nullable
+    private EntitlementSnapshot store;
+    /**
+     * Name of the provider purchases belong to.
+     */
+    @Nullable
+    private String providerName;
+    private boolean inventoryLoaded = true;
+    /**
+     * Indicates whether index reflects complete inventory of current provider.
+     */
+    private boolean reconciled;
+    /**
+     * Latest index waiting to be saved, null if save is not scheduled.
+     */
+    @Nullable
+    private Map<String, Purchase[]> unsaved;
+    @Nullable
+    private String unsavedProviderName;
+
+    EntitlementIndex() {
+    }
+
+    private void reset(@Nullable final String providerName) {
+        this.providerName = providerName;
+        snapshot = Collections.emptyMap();
+        loading.clear();
+        inventoryLoaded = true;
+        reconciled = false;
+        if (restored != null && !TextUtils.equals(restoredProviderName, providerName)) {
+            // Restored purchases belong to another provider
+            restored = null;
+        }
+    }
+
+    private void publish(@NonNull final Map<String, Purchase[]> index) {
+        final Map<String, Purchase[]> published = Collections.unmodifiableMap(index);
+        snapshot = published;
+        if (reconciled && store != null && providerName != null) {
+            final boolean scheduled = unsaved != null;
+            // Replaces index which wasn't saved yet, if any
+            unsaved = published;
+            unsavedProviderName = providerName;
+            if (!scheduled) {
+                SAVE_EXECUTOR.execute(saveTask);
+            }
+        }
+    }
+
+    private void save() {
+        final EntitlementSnapshot store;
+        final String providerName;
+        final Map<String, Purchase[]> index;
+        synchronized (writeLock) {
+            store = this.store;
+            providerName = unsavedProviderName;
+            index = unsaved;
+            unsaved = null;
+            unsavedProviderName = null;
+        }
+        if (store != null && providerName != null && index != null) {
+            store.save(providerName, index);
+        }
+    }
+
+    private void update(@NonNull final Purchase purchase, final boolean active) {
+        final Map<String, Purchase[]> index = new HashMap<>(snapshot);
+        final boolean changed;
+        if (active) {
+            add(index, purchase);
+            changed = true;
+        } else {
+            changed = remove(index, purchase);
+        }
+        if (!inventoryLoaded) {
+            // Keep purchase state consistent with pages yet to be loaded
+            if (active) {
+                add(loading, purchase);
+            } else {
+                remove(loading, purchase);
+            }
+        }
+        if (changed) {
+            publish(index);
+        }
+    }
+
+    private void updateInventory(@NonNull final InventoryResponse inventoryResponse) {
+        if (inventoryLoaded) {
+            loading.clear();
+        }
+        final Inventory inventory = inventoryResponse.getInventoryTable();
+        final Map<String, Purchase[]> index = new HashMap<>(snapshot);
+        for (int i = 0; i < inventory.size(); i++) {
+            final Purchase purchase = inventory.getPurchase(i);
+            if (isActive(purchase, inventory.getVerificationResult(i))) {
+                add(loading, purchase);
+                // Don't wait for the last page to grant entitlement
+                add(index, purchase);
+            } else {
+                remove(loading, purchase);
+                remove(index, purchase);
+            }
+        }
+        inventoryLoaded = !inventoryResponse.hasMore();
+        if (inventoryLoaded) {
+            reconciled = true;
+            restored = null;
+            // Purchases missing from complete inventory are no longer owned
+            publish(new HashMap<>(loading));
+        } else {
+            publish(index);
+        }
+    }
+
+    private void updateConsume(@NonNull final ConsumeResponse consumeResponse) {
+        final Status status = consumeResponse.getStatus();
+        if (status == Status.SUCCESS || status == Status.ITEM_UNAVAILABLE) {
+            update(consumeResponse.getPurchase(), false);
+        }
+    }
+
+    /**
+     * Restores purchase counts saved by previous launch and saves them from now on.
+     * <p>
+     * Must be called before index receives any event.
+     *
+     * @param entitlementSnapshot Snapshot to restore from and save to.
+     */
+    void restore(@NonNull final EntitlementSnapshot entitlementSnapshot) {
+        final boolean loaded = entitlementSnapshot.load();
+        synchronized (writeLock) {
+            this.store = entitlementSnapshot;
+            if (loaded) {
+                restoredProviderName = entitlementSnapshot.getProviderName();
+                restored = entitlementSnapshot.getCounts();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether some entitlements were restored from previous launch and weren't yet
+     * confirmed by billing provider.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @return True if index is provisional, false otherwise.
+     */
+    public boolean isProvisional() {
+        return restored != null;
+    }
+
+    /**
+     * Checks if user is entitled to supplied SKU.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @param sku SKU to check.
+     *
+     * @return True if there's at least one verified purchase of supplied SKU which wasn't canceled
+     * or consumed, false otherwise.
+     */
+    public boolean isEntitled(@NonNull final String sku) {
+        final Map<String, Integer> restored = this.restored;
+        return snapshot.containsKey(sku) || restored != null && restored.containsKey(sku);
+    }
+
+    /**
+     * Gets purchase which entitles user to supplied SKU.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @param sku SKU to look for.
+     *
+     * @return The earliest indexed purchase of supplied SKU, null if user isn't entitled to it or
+     * entitlement was restored from previous launch.
+     */
+    @Nullable
+    public Purchase getPurchase(@NonNull final String sku) {
+        final Purchase[] purchases = snapshot.get(sku);
+        return purchases == null ? null : purchases[0];
+    }
+
+    /**
+     * Gets number of owned purchases of supplied SKU. Mostly useful for
+     * {@link SkuType#CONSUMABLE} SKUs, which can be purchased several times before they are
+     * consumed.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @param sku SKU to count.
+     *
+     * @return Number of verified purchases which weren't canceled or consumed.
+     */
+    public int getCount(@NonNull final String sku) {
+        final Purchase[] purchases = snapshot.get(sku);
+        if (purchases != null) {
+            return purchases.length;
+        }
+        final Map<String, Integer> restored = this.restored;
+        final Integer count = restored == null ? null : restored.get(sku);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Gets all SKUs user is entitled to.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @return Unmodifiable set of SKUs, can't be null.
+     */
+    @NonNull
+    public Set<String> getSkus() {
+        final Map<String, Integer> restored = this.restored;
+        if (restored == null) {
+            return snapshot.keySet();
+        }
+        final Set<String> skus = new HashSet<>(restored.keySet());
+        skus.addAll(snapshot.keySet());
+        return Collections.unmodifiableSet(skus);
+    }
+
+    /**
+     * Gets purchases of supplied SKU user is entitled to.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @param sku SKU to look for.
+     *
+     * @return Purchases in order they were indexed, empty if user isn't entitled to supplied SKU.
+     */
+    @NonNull
+    public Purchase[] getPurchases(@NonNull final String sku) {
+        final Purchase[] purchases = snapshot.get(sku);
+        return purchases == null ? NO_PURCHASES : purchases.clone();
+    }
+
+    @NonNull
+    @Override
+    public EventHandler<?>[] getEventHandlers() {
+        return new EventHandler<?>[]{
+                new EventHandler<SetupResponse>(SetupResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final SetupResponse event) {
+                        EntitlementIndex.this.onEvent(event);
+                    }
+                },
+                new EventHandler<BillingRequest>(BillingRequest.class) {
+                    @Override
+                    public void onEvent(@NonNull final BillingRequest event) {
+                        EntitlementIndex.this.onEvent(event);
+                    }
+                },
+                new EventHandler<BillingResponse>(BillingResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final BillingResponse event) {
+                        EntitlementIndex.this.onEvent(event);
+                    }
+                },
+        };
+    }
+
+    public void onEvent(@NonNull final SetupResponse setupResponse) {
+        final BillingProvider billingProvider = setupResponse.getBillingProvider();
+        final String name = setupResponse.isSuccessful() && billingProvider != null
+                ? billingProvider.getName() : null;
+        synchronized (writeLock) {
+            if (name != null && !name.equals(providerName)) {
+                // Purchases of other providers are not available anymore
+                reset(name);
+            }
+        }
+    }
+
+    public void onEvent(@NonNull final BillingRequest billingRequest) {
+        if (billingRequest.getType() == BillingEventType.INVENTORY
+                && ((InventoryRequest) billingRequest).startOver()) {
+            synchronized (writeLock) {
+                inventoryLoaded = true;
+            }
+        }
+    }
+
+    public void onEvent(@NonNull final BillingResponse billingResponse) {
+        final String name = billingResponse.getProviderName();
+        final BillingEventType type = billingResponse.getType();
+        final boolean successful = billingResponse.isSuccessful();
+        synchronized (writeLock) {
+            if (name == null || !name.equals(providerName)) {
+                // Library responses and responses of other providers are irrelevant
+                return;
+            }
+            if (type == BillingEventType.INVENTORY && successful) {
+                updateInventory((InventoryResponse) billingResponse);
+            } else if (type == BillingEventType.PURCHASE && successful) {
+                final PurchaseResponse purchaseResponse = (PurchaseResponse) billingResponse;
+                final Purchase purchase = purchaseResponse.getPurchase();
+                if (purchase != null) {
+                    update(purchase,
+                           isActive(purchase, purchaseResponse.getVerificationResult()));
+                }
+            } else if (type == BillingEventType.CONSUME) {
+                updateConsume((ConsumeResponse) billingResponse);
+            } else if (type == BillingEventType.CONSUME_BATCH) {
+                for (final ConsumeResponse response
+                        : ((ConsumeBatchResponse) billingResponse).getResponses()) {
+                    updateConsume(response);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfutils.OPFLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact copy of {@link EntitlementIndex} kept on disk between launches.
+ * <p>
+ * Snapshot only holds provider name and number of owned purchases of each SKU. File is memory
+ * mapped and guarded with checksum, so it can be read synchronously during application start up.
+ * <p>
+ * File layout: magic, version, provider name, number of SKUs, SKUs with their purchase counts and
+ * CRC32 of everything before it. Strings are prefixed with their UTF-8 length.
+ */
+final class EntitlementSnapshot {
+
+    private static final String FILE_NAME = "org.onepf.opfiab.entitlements";
+    private static final int MAGIC = 0x4F454E54; // "OENT"
+    private static final int VERSION = 1;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+    private static final int CHECKSUM_SIZE = 8;
+    /**
+     * Sanity limit, real snapshots are a few kilobytes at most.
+     */
+    private static final long MAX_FILE_SIZE = 1024L * 1024L;
+
+    @Nullable
+    private static EntitlementSnapshot instance;
+
+    static synchronized EntitlementSnapshot getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            instance = new EntitlementSnapshot(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    private static void close(@Nullable final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException exception) {
+                OPFLog.e("", exception);
+            }
+        }
+    }
+
+    @NonNull
+    private static String readString(@NonNull final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & MAX_STRING_LENGTH];
+        buffer.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static void writeString(@NonNull final DataOutputStream output,
+                                    @NonNull final String string) throws IOException {
+        final byte[] bytes = string.getBytes(CHARSET);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IOException("String is too long: " + string);
+        }
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private static long checksum(@NonNull final ByteBuffer buffer, final int length) {
+        final CRC32 crc32 = new CRC32();
+        for (int i = 0; i < length; i++) {
+            crc32.update(buffer.get(i));
+        }
+        return crc32.getValue();
+    }
+
+
+    @NonNull
+    private final File file;
+    @Nullable
+    private String providerName;
+    @NonNull
+    private Map<String, Integer> counts = Collections.emptyMap();
+
+    private EntitlementSnapshot(@NonNull final File file) {
+        this.file = file;
+    }
+
+    private void parse(@NonNull final ByteBuffer buffer) throws IOException {
+        final int length = buffer.limit() - CHECKSUM_SIZE;
+        if (length < 0 || buffer.getLong(length) != checksum(buffer, length)) {
+            throw new IOException("Checksum mismatch.");
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not an entitlement snapshot.");
+        }
+        final int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version: " + version);
+        }
+        final String name = readString(buffer);
+        final int size = buffer.getInt();
+        if (size < 0) {
+            throw new IOException("Malformed entitlement snapshot.");
+        }
+        final Map<String, Integer> newCounts = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            final String sku = readString(buffer);
+            final int count = buffer.getInt();
+            if (count <= 0) {
+                throw new IOException("Malformed entitlement snapshot.");
+            }
+            newCounts.put(sku, count);
+        }
+        if (buffer.position() != length) {
+            throw new IOException("Malformed entitlement snapshot.");
+        }
+        providerName = name;
+        counts = Collections.unmodifiableMap(newCounts);
+    }
+
+    /**
+     * Reads snapshot saved by previous launch.
+     * <p>
+     * Cheap enough to be called from main thread.
+     *
+     * @return True if valid snapshot was read, false otherwise.
+     */
+    synchronized boolean load() {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            final FileChannel channel = randomAccessFile.getChannel();
+            final long size = channel.size();
+            if (size > MAX_FILE_SIZE) {
+                throw new IOException("Snapshot is too large: " + size);
+            }
+            parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            return true;
+        } catch (FileNotFoundException ignore) {
+            // Nothing was saved yet
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException exception) {
+            OPFLog.e("Failed to read entitlement snapshot.", exception);
+        } finally {
+            close(randomAccessFile);
+        }
+        return false;
+    }
+
+    /**
+     * Gets name of the provider loaded snapshot belongs to.
+     *
+     * @return Provider name, null if nothing was loaded.
+     */
+    @Nullable
+    synchronized String getProviderName() {
+        return providerName;
+    }
+
+    /**
+     * Gets loaded purchase counts.
+     *
+     * @return Unmodifiable map of SKUs to number of owned purchases.
+     */
+    @NonNull
+    synchronized Map<String, Integer> getCounts() {
+        return counts;
+    }
+
+    /**
+     * Replaces saved snapshot.
+     * <p>
+     * Blocking call, shouldn't be used from main thread.
+     *
+     * @param providerName Name of the provider purchases belong to.
+     * @param entitlements Owned purchases grouped by SKU.
+     */
+    synchronized void save(@NonNull final String providerName,
+                           @NonNull final Map<String, Purchase[]> entitlements) {
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(byteStream);
+        final File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = null;
+        try {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            writeString(output, providerName);
+            output.writeInt(entitlements.size());
+            for (final Map.Entry<String, Purchase[]> entry : entitlements.entrySet()) {
+                writeString(output, entry.getKey());
+                output.writeInt(entry.getValue().length);
+            }
+            final byte[] data = byteStream.toByteArray();
+            final CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            output.writeLong(crc32.getValue());
+
+            outputStream = new FileOutputStream(temp);
+            byteStream.writeTo(outputStream);
+            outputStream.flush();
+            outputStream.getFD().sync();
+        } catch (IOException exception) {
+            OPFLog.e("Failed to write entitlement snapshot.", exception);
+            return;
+        } finally {
+            close(outputStream);
+        }
+        if (!temp.renameTo(file)) {
+            OPFLog.e("Failed to replace entitlement snapshot.");
+        }
+    }
+}
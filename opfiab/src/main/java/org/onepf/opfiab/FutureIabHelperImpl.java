@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.api.FutureIabHelper;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryRequest;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseRequest;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
+import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+import org.onepf.opfiab.util.BillingFuture;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link FutureIabHelper} implementation backed by {@link AdvancedIabHelperImpl}.
+ * <p>
+ * Underlying helper is registered only while there are futures waiting for responses.
+ */
+final class FutureIabHelperImpl implements FutureIabHelper {
+
+    /**
+     * Completes futures away from the library threads.
+     * <p>
+     * Listeners and continuations are free to block, e.g. on another future, each of them gets its
+     * own thread if needed.
+     */
+    private static final Executor COMPLETION_EXECUTOR = Executors.newCachedThreadPool();
+
+
+    private final AdvancedIabHelperImpl helper = new AdvancedIabHelperImpl(COMPLETION_EXECUTOR);
+    /**
+     * Futures waiting for responses, by request id.
+     * <p>
+     * Responses of providers which don't set request ids are linked with requests by
+     * {@link BillingBase} before they reach any listener.
+     */
+    private final Map<Long, PendingFuture<?>> futures = new HashMap<>();
+
+    FutureIabHelperImpl() {
+        super();
+        helper.addBillingListener(new SimpleBillingListener() {
+            @Override
+            public void onResponse(@NonNull final BillingResponse billingResponse) {
+                final PendingFuture<?> pendingFuture = remove(billingResponse.getRequestId());
+                if (pendingFuture != null) {
+                    pendingFuture.complete(billingResponse);
+                }
+            }
+        });
+    }
+
+    private PendingFuture<?> remove(final long requestId) {
+        synchronized (futures) {
+            final PendingFuture<?> pendingFuture = futures.remove(requestId);
+            if (pendingFuture != null && futures.isEmpty()) {
+                helper.unregister();
+            }
+            return pendingFuture;
+        }
+    }
+
+    @NonNull
+    private <R extends BillingResponse> BillingFuture<R> post(
+            @NonNull final BillingRequest billingRequest,
+            @NonNull final Class<R> responseClass) {
+        final long requestId = billingRequest.getRequestId();
+        final BillingFuture<R> future = new BillingFuture<>();
+        synchronized (futures) {
+            if (futures.isEmpty()) {
+                // Futures are matched by request id, responses to other helpers are of no use
+                helper.register(false);
+            }
+            futures.put(requestId, new PendingFuture<>(future, responseClass));
+        }
+        future.addListener(new BillingFuture.Listener<R>() {
+            @Override
+            public void onComplete(@NonNull final BillingFuture<R> future) {
+                final boolean pending;
+                synchronized (futures) {
+                    pending = futures.containsKey(requestId);
+                }
+                if (pending) {
+                    // Future was cancelled or timed out, nobody is waiting for response anymore
+                    helper.cancel(billingRequest);
+                    remove(requestId);
+                }
+            }
+        });
+        helper.postRequest(billingRequest);
+        return future;
+    }
+
+    @NonNull
+    @Override
+    public BillingFuture<PurchaseResponse> purchase(@NonNull final String sku) {
+        return post(new PurchaseRequest(sku), PurchaseResponse.class);
+    }
+
+    @NonNull
+    @Override
+    public BillingFuture<ConsumeResponse> consume(@NonNull final Purchase purchase) {
+        return post(new ConsumeRequest(purchase), ConsumeResponse.class);
+    }
+
+    @NonNull
+    @Override
+    public BillingFuture<ConsumeBatchResponse> consume(
+            @NonNull final Collection<Purchase> purchases) {
+        return post(new ConsumeBatchRequest(purchases), ConsumeBatchResponse.class);
+    }
+
+    @NonNull
+    @Override
+    public BillingFuture<InventoryResponse> inventory(final boolean startOver) {
+        return post(new InventoryRequest(startOver), InventoryResponse.class);
+    }
+
+    @NonNull
+    @Override
+    public BillingFuture<SkuDetailsResponse> skuDetails(@NonNull final Set<String> skus) {
+        return post(new SkuDetailsRequest(skus), SkuDetailsResponse.class);
+    }
+
+    @NonNull
+    @Override
+    public BillingFuture<SkuDetailsResponse> skuDetails(@NonNull final String... skus) {
+        return skuDetails(new HashSet<>(Arrays.asList(skus)));
+    }
+
+    /**
+     * Future paired with expected response type.
+     */
+    private static final class PendingFuture<R extends BillingResponse> {
+
+        @NonNull
+        private final BillingFuture<R> future;
+        @NonNull
+        private final Class<R> responseClass;
+
+        PendingFuture(@NonNull final BillingFuture<R> future,
+                      @NonNull final Class<R> responseClass) {
+            this.future = future;
+            this.responseClass = responseClass;
+        }
+
+        void complete(@NonNull final BillingResponse billingResponse) {
+            if (responseClass.isInstance(billingResponse)) {
+                future.complete(responseClass.cast(billingResponse));
+            } else {
+                future.fail(new IllegalStateException("Unexpected response: " + billingResponse));
+            }
+        }
+    }
+}
@@ -17,16 +17,20 @@
 package org.onepf.opfiab;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import org.onepf.opfiab.api.IabHelper;
+import org.onepf.opfiab.listener.BillingListener;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchRequest;
 import org.onepf.opfiab.model.event.billing.ConsumeRequest;
 import org.onepf.opfiab.model.event.billing.InventoryRequest;
 import org.onepf.opfiab.model.event.billing.PurchaseRequest;
 import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -43,6 +47,16 @@ class IabHelperImpl implements IabHelper {
         super();
     }
 
+    /**
+     * Gets listener which should receive responses to requests sent by this helper.
+     *
+     * @return BillingListener object, or null if responses should be delivered to all listeners.
+     */
+    @Nullable
+    protected BillingListener getOrigin() {
+        return null;
+    }
+
     /**
      * Sends supplied billing request for execution.
      *
@@ -50,7 +64,7 @@ class IabHelperImpl implements IabHelper {
      * @see BillingBase
      */
     protected void postRequest(@NonNull final BillingRequest billingRequest) {
-        billingBase.postRequest(billingRequest);
+        billingBase.postRequest(billingRequest, getOrigin());
     }
 
     @Override
@@ -63,6 +77,11 @@ class IabHelperImpl implements IabHelper {
         postRequest(new ConsumeRequest(purchase));
     }
 
+    @Override
+    public void consume(@NonNull final Collection<Purchase> purchases) {
+        postRequest(new ConsumeBatchRequest(purchases));
+    }
+
     @Override
     public void inventory(final boolean startOver) {
         postRequest(new InventoryRequest(startOver));
@@ -28,19 +28,28 @@ import android.support.v4.app.FragmentActivity;
 import org.onepf.opfiab.api.ActivityIabHelper;
 import org.onepf.opfiab.api.AdvancedIabHelper;
 import org.onepf.opfiab.api.FragmentIabHelper;
+import org.onepf.opfiab.api.FutureIabHelper;
 import org.onepf.opfiab.api.IabHelper;
 import org.onepf.opfiab.api.SimpleIabHelper;
+import org.onepf.opfiab.api.SyncIabHelper;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.StringPool;
+import org.onepf.opfiab.model.event.billing.BillingEventType;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.util.BillingFuture;
+import org.onepf.opfiab.util.EventRouter;
 import org.onepf.opfutils.OPFChecks;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.exception.InitException;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
-import de.greenrobot.event.EventBus;
-import de.greenrobot.event.EventBusException;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 /**
@@ -57,6 +66,8 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  *
  * @see #getSimpleHelper()
  * @see #getAdvancedHelper()
+ * @see #getFutureHelper()
+ * @see #getSyncHelper(long)
  * @see #getFragmentHelper(android.support.v4.app.Fragment)
  * @see #getFragmentHelper(android.app.Fragment)
  * @see #getActivityHelper(android.support.v4.app.FragmentActivity)
@@ -65,44 +76,29 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 @SuppressWarnings("TypeMayBeWeakened")
 public final class OPFIab {
 
-    private static final EventBus EVENT_BUS = EventBus.builder()
-            // Must use only one background thread
-            .executorService(Executors.newSingleThreadExecutor())
-            .throwSubscriberException(true)
-            .eventInheritance(true)
-            .logSubscriberExceptions(OPFLog.isEnabled())
-            .build();
+    // Must use only one background thread
+    private static final EventRouter EVENT_BUS = new EventRouter(
+            Executors.newSingleThreadExecutor(), OPFLog.isEnabled());
 
-    private static Context context;
-    private static Configuration configuration;
+    private static volatile Context context;
+    private static volatile Configuration configuration;
 
     private static void checkInit() {
-        OPFChecks.checkThread(true);
         if (configuration == null) {
             throw new InitException(false);
         }
     }
 
     static void register(@NonNull final Object subscriber) {
-        if (!EVENT_BUS.isRegistered(subscriber)) {
-            try {
-                EVENT_BUS.register(subscriber);
-            } catch (EventBusException exception) {
-                OPFLog.d("", exception);
-            }
-        }
+        EVENT_BUS.register(subscriber);
     }
 
     static void register(@NonNull final Object subscriber, final int priority) {
-        if (!EVENT_BUS.isRegistered(subscriber)) {
-            EVENT_BUS.register(subscriber, priority);
-        }
+        EVENT_BUS.register(subscriber, priority);
     }
 
     static void unregister(@NonNull final Object subscriber) {
-        if (EVENT_BUS.isRegistered(subscriber)) {
-            EVENT_BUS.unregister(subscriber);
-        }
+        EVENT_BUS.unregister(subscriber);
     }
 
     /**
@@ -147,6 +143,55 @@ public final class OPFIab {
         return new AdvancedIabHelperImpl();
     }
 
+    /**
+     * Same as {@link #getAdvancedHelper()}, but listeners added to helper will be called using
+     * supplied executor instead of the main thread.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @param executor Executor to use for listener callbacks.
+     *
+     * @return Feature reach version of {@link SimpleIabHelper}.
+     */
+    @SuppressWarnings("TypeMayBeWeakened")
+    @NonNull
+    public static AdvancedIabHelper getAdvancedHelper(@NonNull final Executor executor) {
+        checkInit();
+        return new AdvancedIabHelperImpl(executor);
+    }
+
+    /**
+     * Instantiates helper which returns {@link BillingFuture} for each request.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @return Future-based version of {@link IabHelper}.
+     *
+     * @see FutureIabHelper
+     */
+    @NonNull
+    public static FutureIabHelper getFutureHelper() {
+        checkInit();
+        return new FutureIabHelperImpl();
+    }
+
+    /**
+     * Instantiates helper which blocks calling thread until response is received.
+     * <p>
+     * Can be called from any thread, but helper itself can't be used from the main thread.
+     *
+     * @param timeout Maximum time in milliseconds to wait for each response.
+     *
+     * @return Blocking version of {@link IabHelper}.
+     *
+     * @see SyncIabHelper
+     */
+    @NonNull
+    public static SyncIabHelper getSyncHelper(final long timeout) {
+        checkInit();
+        return new SyncIabHelperImpl(timeout);
+    }
+
 
     /**
      * Support version of {@link #getActivityHelper(Activity)}.
@@ -154,6 +199,7 @@ public final class OPFIab {
     @NonNull
     public static ActivityIabHelper getActivityHelper(
             @NonNull final FragmentActivity fragmentActivity) {
+        OPFChecks.checkThread(true);
         checkInit();
         return new ActivityIabHelperImpl(fragmentActivity, null);
     }
@@ -174,6 +220,7 @@ public final class OPFIab {
      */
     @NonNull
     public static ActivityIabHelper getActivityHelper(@NonNull final Activity activity) {
+        OPFChecks.checkThread(true);
         checkInit();
         return new ActivityIabHelperImpl(null, activity);
     }
@@ -184,6 +231,7 @@ public final class OPFIab {
     @NonNull
     public static FragmentIabHelper getFragmentHelper(
             @NonNull final android.support.v4.app.Fragment fragment) {
+        OPFChecks.checkThread(true);
         checkInit();
         return new FragmentIabHelperImpl(fragment, null);
     }
@@ -208,6 +256,7 @@ public final class OPFIab {
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
     public static FragmentIabHelper getFragmentHelper(
             @NonNull final android.app.Fragment fragment) {
+        OPFChecks.checkThread(true);
         checkInit();
         return new FragmentIabHelperImpl(null, fragment);
     }
@@ -243,10 +292,18 @@ public final class OPFIab {
             // first init
             final ActivityMonitor activityMonitor = ActivityMonitor.getInstance(context);
             application.registerActivityLifecycleCallbacks(activityMonitor);
+            final OfflineConsumeQueue offlineQueue = OfflineConsumeQueue.getInstance(context);
+            billingBase.setJournal(PurchaseJournal.getInstance(context));
+            billingBase.setOfflineQueue(offlineQueue);
             register(billingBase, Integer.MAX_VALUE);
+            final EntitlementIndex entitlementIndex = EntitlementIndex.getInstance();
+            entitlementIndex.restore(EntitlementSnapshot.getInstance(context));
+            // Must be updated before listeners are notified
+            register(entitlementIndex, Integer.MAX_VALUE - 1);
             register(SetupManager.getInstance(application));
             register(scheduler);
             register(activityMonitor);
+            register(offlineQueue);
             register(BillingEventDispatcher.getInstance());
         } else {
             for (final BillingProvider provider : OPFIab.configuration.getProviders()) {
@@ -254,6 +311,7 @@ public final class OPFIab {
             }
         }
         OPFIab.configuration = configuration;
+        StringPool.setCapacity(configuration.getStringPoolSize());
 
         for (final BillingProvider provider : providers) {
             provider.checkManifest();
@@ -269,13 +327,75 @@ public final class OPFIab {
      * <p>
      * {@link #init(Application, Configuration)} must be called prior to this method.
      * <p>
-     * Subsequent calls are supported.
+     * Subsequent calls are supported. Can be called from any thread.
      */
     public static void setup() {
         checkInit();
         SetupManager.getInstance(context).startSetup(configuration);
     }
 
+    /**
+     * Gets consumable purchases which were made or sent for consumption, but weren't confirmed
+     * to be consumed.
+     * <p>
+     * Purchases are journaled on disk, so this list survives process death. Reconciling it, e.g.
+     * with {@link IabHelper#consume(Collection)}, is much cheaper than scanning whole inventory.
+     * <p>
+     * {@link #init(Application, Configuration)} must be called prior to this method. Blocking
+     * call, shouldn't be used from main thread.
+     *
+     * @return List of purchases, in order they were made.
+     */
+    @NonNull
+    public static List<Purchase> getUnconfirmedPurchases() {
+        checkInit();
+        return PurchaseJournal.getInstance(context).getPending();
+    }
+
+    /**
+     * Gets index of purchases user is entitled to.
+     * <p>
+     * Index is maintained by library itself, it's intended to replace manual scans of
+     * {@link InventoryResponse}. Entitlements saved by previous launch are available right after
+     * {@link #init(Application, Configuration)}, until inventory is loaded.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @return Index of purchases of current billing provider, can't be null.
+     */
+    @NonNull
+    public static EntitlementIndex getEntitlements() {
+        return EntitlementIndex.getInstance();
+    }
+
+    /**
+     * Gets number of requests dropped because too many requests were waiting for execution.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @param type Type of requests to count.
+     *
+     * @return Number of requests dropped since library was loaded.
+     *
+     * @see Configuration#getQueuePolicy()
+     */
+    public static long getDroppedRequestsCount(@NonNull final BillingEventType type) {
+        return BillingRequestScheduler.getInstance().getDroppedCount(type);
+    }
+
+    /**
+     * Replaces failing billing provider with the next suitable one from the last setup, or starts
+     * new setup if there's none.
+     * <p>
+     * Replacement is picked asynchronously.
+     *
+     * @param billingProvider Provider which failed.
+     */
+    static void recover(@NonNull final BillingProvider billingProvider) {
+        checkInit();
+        SetupManager.getInstance(context).recover(configuration, billingProvider);
+    }
+
 
     private OPFIab() {
         throw new UnsupportedOperationException();
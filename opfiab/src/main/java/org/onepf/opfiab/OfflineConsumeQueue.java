@@ -0,0 +1,227 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.event.SetupResponse;
+import org.onepf.opfiab.model.event.billing.BillingEventType;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.util.BillingUtils;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
+import org.onepf.opfiab.util.OPFIabUtils;
+import org.onepf.opfutils.OPFChecks;
+import org.onepf.opfutils.OPFLog;
+import org.onepf.opfutils.OPFUtils;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static android.Manifest.permission.ACCESS_NETWORK_STATE;
+
+/**
+ * Defers consumption while device is offline.
+ * <p>
+ * Consume requests sent without connectivity don't reach {@link BillingProvider}, instead they are
+ * answered with {@link Status#PENDING}. Deferred purchases are marked in {@link PurchaseJournal}, so
+ * they survive process death. Once connectivity is back they are consumed in batches. Purchases
+ * which did reach billing provider are never sent again, even if consumption wasn't confirmed.
+ * <p>
+ * Requires {@link android.Manifest.permission#ACCESS_NETWORK_STATE}, without it requests are never
+ * deferred.
+ */
+class OfflineConsumeQueue implements EventRouter.TypedSubscriber {
+
+    /**
+     * Maximum number of purchases consumed by a single request.
+     */
+    private static final int BATCH_SIZE = 20;
+    /**
+     * Used to flush queue without blocking main thread.
+     */
+    private static final Executor FLUSH_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Nullable
+    private static OfflineConsumeQueue instance;
+
+    static synchronized OfflineConsumeQueue getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            instance = new OfflineConsumeQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+
+    private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            if (!isOffline()) {
+                flushAsync();
+            }
+        }
+    };
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final PurchaseJournal journal;
+    /**
+     * False if connectivity can't be checked.
+     */
+    private final boolean canCheckConnectivity;
+    /**
+     * Sends deferred requests, lazily created.
+     */
+    @Nullable
+    private IabHelperImpl helper;
+    private boolean listening;
+
+    OfflineConsumeQueue(@NonNull final Context context, @NonNull final PurchaseJournal journal) {
+        this.context = context;
+        this.journal = journal;
+        this.canCheckConnectivity = OPFChecks.hasPermission(context, ACCESS_NETWORK_STATE);
+        if (!canCheckConnectivity) {
+            OPFLog.e("Consumption won't be deferred while offline, permission is missing: "
+                             + ACCESS_NETWORK_STATE);
+        }
+    }
+
+    private OfflineConsumeQueue(@NonNull final Context context) {
+        this(context, PurchaseJournal.getInstance(context));
+    }
+
+    private synchronized void listen(final boolean listen) {
+        if (listening == listen) {
+            return;
+        }
+        listening = listen;
+        if (listen) {
+            final IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+            context.registerReceiver(connectivityReceiver, filter);
+        } else {
+            context.unregisterReceiver(connectivityReceiver);
+        }
+    }
+
+    /**
+     * Checks whether device is known to be offline.
+     *
+     * @return True if device is offline, false if it's online or connectivity can't be checked.
+     */
+    boolean isOffline() {
+        return canCheckConnectivity && !OPFUtils.isConnected(context);
+    }
+
+    private void flushAsync() {
+        FLUSH_EXECUTOR.execute(flushTask);
+    }
+
+    /**
+     * Sends deferred purchases of current billing provider for consumption.
+     * <p>
+     * Blocking call, shouldn't be used from main thread.
+     */
+    void flush() {
+        final SetupResponse setupResponse = BillingBase.getInstance().getSetupResponse();
+        final BillingProvider provider = setupResponse == null || !setupResponse.isSuccessful()
+                ? null : setupResponse.getBillingProvider();
+        if (provider == null) {
+            return;
+        }
+        if (isOffline()) {
+            if (!journal.getDeferred().isEmpty()) {
+                listen(true);
+            }
+            return;
+        }
+        listen(false);
+        // Other providers can't consume these purchases anyway
+        final List<Purchase> purchases = journal.takeDeferred(provider.getName());
+        if (purchases.isEmpty()) {
+            return;
+        }
+        OPFLog.d("Consuming deferred purchases: %d", purchases.size());
+        final IabHelperImpl iabHelper;
+        synchronized (this) {
+            if (helper == null) {
+                helper = new AdvancedIabHelperImpl();
+            }
+            iabHelper = helper;
+        }
+        for (final List<Purchase> batch : OPFIabUtils.partition(purchases, BATCH_SIZE)) {
+            iabHelper.consume(batch);
+        }
+    }
+
+    /**
+     * Defers supplied request if it's a consume request and device is offline.
+     * <p>
+     * Request must be already journaled, it's marked as deferred in journal.
+     *
+     * @param billingRequest Request which is about to be sent to billing provider.
+     *
+     * @return True if request was deferred and must not be executed, false otherwise.
+     */
+    boolean defer(@NonNull final BillingRequest billingRequest) {
+        final BillingEventType type = billingRequest.getType();
+        if (type != BillingEventType.CONSUME && type != BillingEventType.CONSUME_BATCH
+                || !isOffline()) {
+            return false;
+        }
+        OPFLog.d("Device is offline, deferring: %s", billingRequest);
+        journal.defer(billingRequest);
+        OPFIab.post(BillingUtils.emptyResponse(null, billingRequest, Status.PENDING));
+        listen(true);
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public EventHandler<?>[] getEventHandlers() {
+        return new EventHandler<?>[]{
+                new EventHandler<SetupResponse>(SetupResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final SetupResponse event) {
+                        OfflineConsumeQueue.this.onEvent(event);
+                    }
+                },
+        };
+    }
+
+    public void onEvent(@NonNull final SetupResponse setupResponse) {
+        if (setupResponse.isSuccessful()) {
+            // Purchases might have been deferred before process was restarted
+            flushAsync();
+        }
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Base64;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SignedPurchase;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.model.event.billing.BillingEventType;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.util.BillingCodec;
+import org.onepf.opfutils.OPFLog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Write-ahead journal of purchases which are not yet known to be consumed.
+ * <p>
+ * Consumable purchase is recorded as soon as it's reported by billing provider, before any
+ * listener is notified. Responses are recorded in background, listeners are notified only after
+ * that with {@link #afterJournaled(Runnable)}. Consumption is recorded before consume request
+ * reaches billing provider.
+ * Record is closed once consumption is confirmed. If process dies in between, purchases left in
+ * journal are the only ones that need to be reconciled on the next launch.
+ * <p>
+ * Consumption which was put off, e.g. while device is offline, is marked as deferred, only such
+ * purchases are safe to be sent for consumption again.
+ * <p>
+ * Journal is an append-only file, one record per line. Purchases are stored with
+ * {@link BillingCodec}, so that {@link SignedPurchase} keeps its signature. It's compacted once
+ * closed records outnumber open ones.
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+final class PurchaseJournal {
+
+    private static final String FILE_NAME = "org.onepf.opfiab.journal";
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final char SEPARATOR = '\t';
+    private static final char LINE_END = '\n';
+    private static final int BUFFER_SIZE = 4096;
+    /**
+     * Number of closed records journal can hold before it's compacted.
+     */
+    private static final int COMPACTION_THRESHOLD = 32;
+    /**
+     * Used to record responses off the posting thread, which often is the main one.
+     */
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static final String OP_PURCHASED = "P";
+    private static final String OP_CONSUMING = "C";
+    private static final String OP_DONE = "D";
+    private static final String OP_DEFERRED = "F";
+
+    /**
+     * Purchases used to be stored as JSON objects.
+     */
+    private static final String LEGACY_RECORD_PREFIX = "{";
+    private static final String NAME_SKU = "sku";
+    private static final String NAME_TYPE = "type";
+    private static final String NAME_PROVIDER_NAME = "provider_name";
+    private static final String NAME_ORIGINAL_JSON = "original_json";
+    private static final String NAME_TOKEN = "token";
+    private static final String NAME_PURCHASE_TIME = "purchaseTime";
+    private static final String NAME_CANCELED = "canceled";
+
+    @Nullable
+    private static PurchaseJournal instance;
+
+    static synchronized PurchaseJournal getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            instance = new PurchaseJournal(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    /**
+     * Runs supplied task once all responses passed to {@link #journalAsync(BillingResponse)} so far
+     * are recorded.
+     *
+     * @param task Task to run.
+     */
+    static void afterJournaled(@NonNull final Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    private static void close(@Nullable final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException exception) {
+                OPFLog.e("", exception);
+            }
+        }
+    }
+
+    @Nullable
+    private static Purchase readPurchase(@NonNull final String data) {
+        if (data.startsWith(LEGACY_RECORD_PREFIX)) {
+            return readJsonPurchase(data);
+        }
+        try {
+            return BillingCodec.decode(Base64.decode(data, Base64.NO_WRAP), Purchase.class);
+        } catch (IOException | IllegalArgumentException exception) {
+            OPFLog.e("Malformed journal record.", exception);
+        }
+        return null;
+    }
+
+    /**
+     * Reads purchase from record written before journal switched to {@link BillingCodec}.
+     */
+    @Nullable
+    private static Purchase readJsonPurchase(@NonNull final String json) {
+        try {
+            final JSONObject jsonObject = new JSONObject(json);
+            final String type = jsonObject.optString(NAME_TYPE, null);
+            final JSONObject originalJson = jsonObject.optJSONObject(NAME_ORIGINAL_JSON);
+            return new Purchase.Builder(jsonObject.getString(NAME_SKU))
+                    .setType(type == null ? null : SkuType.valueOf(type))
+                    .setProviderName(jsonObject.optString(NAME_PROVIDER_NAME, null))
+                    .setOriginalJson(originalJson == null ? null : originalJson.toString())
+                    .setToken(jsonObject.optString(NAME_TOKEN, null))
+                    .setPurchaseTime(jsonObject.optLong(NAME_PURCHASE_TIME, -1L))
+                    .setCanceled(jsonObject.optBoolean(NAME_CANCELED))
+                    .build();
+        } catch (JSONException | IllegalArgumentException exception) {
+            OPFLog.e("Malformed journal record.", exception);
+        }
+        return null;
+    }
+
+    /**
+     * Writes records to file and waits for them to reach disk.
+     *
+     * @param lines  Records to write.
+     * @param append True to append to existing file, false to replace it.
+     * @param target File to write to.
+     *
+     * @return True if records were written, false otherwise.
+     */
+    private static boolean write(@NonNull final Iterable<String> lines, final boolean append,
+                                 @NonNull final File target) {
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(target, append);
+            final StringBuilder builder = new StringBuilder();
+            for (final String line : lines) {
+                builder.append(line).append(LINE_END);
+            }
+            outputStream.write(builder.toString().getBytes(CHARSET));
+            outputStream.flush();
+            outputStream.getFD().sync();
+            return true;
+        } catch (IOException exception) {
+            OPFLog.e("Failed to write purchase journal.", exception);
+        } finally {
+            close(outputStream);
+        }
+        return false;
+    }
+
+    @NonNull
+    private static String record(@NonNull final String op, @NonNull final String token,
+                                 @Nullable final Purchase purchase) {
+        final StringBuilder builder = new StringBuilder(op).append(SEPARATOR).append(token);
+        if (purchase != null) {
+            final byte[] data = BillingCodec.encode(purchase);
+            builder.append(SEPARATOR).append(Base64.encodeToString(data, Base64.NO_WRAP));
+        }
+        return builder.toString();
+    }
+
+
+    @NonNull
+    private final File file;
+    /**
+     * Purchases which are not yet known to be consumed, by token.
+     */
+    private final Map<String, Purchase> pending = new LinkedHashMap<>();
+    /**
+     * Tokens of pending purchases which were sent for consumption.
+     */
+    private final Set<String> consuming = new HashSet<>();
+    /**
+     * Tokens of consuming purchases which didn't reach billing provider.
+     */
+    private final Set<String> deferred = new HashSet<>();
+    /**
+     * Number of records in journal file.
+     */
+    private int records;
+    private boolean loaded;
+
+    PurchaseJournal(@NonNull final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads whole journal file.
+     *
+     * @return File content, empty if there's no journal yet.
+     */
+    @NonNull
+    private String read() {
+        final StringBuilder builder = new StringBuilder();
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), CHARSET);
+            final char[] buffer = new char[BUFFER_SIZE];
+            for (int count = reader.read(buffer); count >= 0; count = reader.read(buffer)) {
+                builder.append(buffer, 0, count);
+            }
+        } catch (FileNotFoundException ignore) {
+            // Nothing was journaled yet
+        } catch (IOException exception) {
+            OPFLog.e("Failed to read purchase journal.", exception);
+        } finally {
+            close(reader);
+        }
+        return builder.toString();
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        final String[] lines = read().split(String.valueOf(LINE_END), -1);
+        // Last element is empty unless process died while record was being written
+        boolean intact = lines[lines.length - 1].isEmpty();
+        for (int i = 0; i < lines.length - 1; i++) {
+            intact &= replay(lines[i]);
+            records++;
+        }
+        if (!intact) {
+            // Make sure new records won't be glued to the broken one
+            compact();
+        }
+        if (!pending.isEmpty()) {
+            OPFLog.d("Unconfirmed purchases in journal: %d", pending.size());
+        }
+    }
+
+    /**
+     * Applies single journal record.
+     *
+     * @param line Record to apply.
+     *
+     * @return False if record is malformed, true otherwise.
+     */
+    private boolean replay(@NonNull final String line) {
+        final int first = line.indexOf(SEPARATOR);
+        if (first < 0) {
+            return false;
+        }
+        final int second = line.indexOf(SEPARATOR, first + 1);
+        final String op = line.substring(0, first);
+        final String token = second < 0
+                ? line.substring(first + 1)
+                : line.substring(first + 1, second);
+        if (OP_DONE.equals(op)) {
+            pending.remove(token);
+            consuming.remove(token);
+            deferred.remove(token);
+            return true;
+        }
+        if (OP_DEFERRED.equals(op)) {
+            if (consuming.contains(token)) {
+                deferred.add(token);
+            }
+            return true;
+        }
+        if (second < 0) {
+            return false;
+        }
+        final Purchase purchase = readPurchase(line.substring(second + 1));
+        if (purchase == null) {
+            return false;
+        }
+        if (!pending.containsKey(token)) {
+            pending.put(token, purchase);
+        }
+        if (OP_CONSUMING.equals(op)) {
+            consuming.add(token);
+            deferred.remove(token);
+        }
+        return true;
+    }
+
+    private void append(@NonNull final String line) {
+        if (write(Collections.singletonList(line), true, file)) {
+            records++;
+        }
+    }
+
+    /**
+     * Rewrites journal file leaving only open records.
+     */
+    private void compact() {
+        final List<String> lines = new ArrayList<>(pending.size());
+        for (final Map.Entry<String, Purchase> entry : pending.entrySet()) {
+            final String token = entry.getKey();
+            final String op = consuming.contains(token) ? OP_CONSUMING : OP_PURCHASED;
+            lines.add(record(op, token, entry.getValue()));
+            if (deferred.contains(token)) {
+                lines.add(record(OP_DEFERRED, token, null));
+            }
+        }
+        final File compacted = new File(file.getPath() + ".tmp");
+        if (write(lines, false, compacted) && compacted.renameTo(file)) {
+            records = lines.size();
+        } else {
+            OPFLog.e("Failed to compact purchase journal.");
+        }
+    }
+
+    private void open(@NonNull final String op, @NonNull final Purchase purchase) {
+        final String token = purchase.getToken();
+        if (TextUtils.isEmpty(token)) {
+            return;
+        }
+        load();
+        final boolean consume = OP_CONSUMING.equals(op);
+        if (pending.containsKey(token)
+                && (!consume || consuming.contains(token) && !deferred.contains(token))) {
+            // Nothing new to record
+            return;
+        }
+        append(record(op, token, purchase));
+        if (!pending.containsKey(token)) {
+            pending.put(token, purchase);
+        }
+        if (consume) {
+            // Deferred consumption is no longer deferred once it's sent again
+            consuming.add(token);
+            deferred.remove(token);
+        }
+    }
+
+    private void settle(@NonNull final Purchase purchase) {
+        final String token = purchase.getToken();
+        if (TextUtils.isEmpty(token)) {
+            return;
+        }
+        load();
+        if (pending.remove(token) != null) {
+            consuming.remove(token);
+            deferred.remove(token);
+            append(record(OP_DONE, token, null));
+            if (records - pending.size() > COMPACTION_THRESHOLD + pending.size()) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Records consumption which is about to start.
+     * <p>
+     * Blocking call, shouldn't be used from main thread.
+     *
+     * @param billingRequest Request which is about to be sent to billing provider.
+     */
+    synchronized void journal(@NonNull final BillingRequest billingRequest) {
+        final BillingEventType type = billingRequest.getType();
+        if (type == BillingEventType.CONSUME) {
+            open(OP_CONSUMING, ((ConsumeRequest) billingRequest).getPurchase());
+        } else if (type == BillingEventType.CONSUME_BATCH) {
+            for (final Purchase purchase : ((ConsumeBatchRequest) billingRequest).getPurchases()) {
+                open(OP_CONSUMING, purchase);
+            }
+        }
+    }
+
+    /**
+     * Records that consumption requested by supplied request didn't reach billing provider.
+     * <p>
+     * Request must be already journaled. Blocking call, shouldn't be used from main thread.
+     *
+     * @param billingRequest Request which was put off.
+     *
+     * @see #takeDeferred(String)
+     */
+    synchronized void defer(@NonNull final BillingRequest billingRequest) {
+        final BillingEventType type = billingRequest.getType();
+        if (type == BillingEventType.CONSUME) {
+            defer(((ConsumeRequest) billingRequest).getPurchase());
+        } else if (type == BillingEventType.CONSUME_BATCH) {
+            for (final Purchase purchase : ((ConsumeBatchRequest) billingRequest).getPurchases()) {
+                defer(purchase);
+            }
+        }
+    }
+
+    private void defer(@NonNull final Purchase purchase) {
+        final String token = purchase.getToken();
+        if (TextUtils.isEmpty(token)) {
+            return;
+        }
+        load();
+        if (consuming.contains(token) && deferred.add(token)) {
+            append(record(OP_DEFERRED, token, null));
+        }
+    }
+
+    /**
+     * Records new consumable purchase or confirmed consumption.
+     * <p>
+     * Blocking call, shouldn't be used from main thread.
+     *
+     * @param billingResponse Response from billing provider.
+     */
+    synchronized void journal(@NonNull final BillingResponse billingResponse) {
+        if (billingResponse.getProviderName() == null) {
+            // Library responses don't tell anything about purchase state
+            return;
+        }
+        final BillingEventType type = billingResponse.getType();
+        if (type == BillingEventType.PURCHASE && billingResponse.isSuccessful()) {
+            final Purchase purchase = ((PurchaseResponse) billingResponse).getPurchase();
+            if (purchase != null && purchase.getType() == SkuType.CONSUMABLE) {
+                open(OP_PURCHASED, purchase);
+            }
+        } else if (type == BillingEventType.CONSUME) {
+            journalConsume((ConsumeResponse) billingResponse);
+        } else if (type == BillingEventType.CONSUME_BATCH) {
+            for (final ConsumeResponse response
+                    : ((ConsumeBatchResponse) billingResponse).getResponses()) {
+                journalConsume(response);
+            }
+        }
+    }
+
+    /**
+     * Records new consumable purchase or confirmed consumption in background.
+     *
+     * @param billingResponse Response from billing provider.
+     *
+     * @see #afterJournaled(Runnable)
+     */
+    void journalAsync(@NonNull final BillingResponse billingResponse) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                journal(billingResponse);
+            }
+        });
+    }
+
+    private void journalConsume(@NonNull final ConsumeResponse consumeResponse) {
+        final Purchase purchase = consumeResponse.getPurchase();
+        final Status status = consumeResponse.getStatus();
+        // Purchase is gone if its own provider says so
+        if (status == Status.SUCCESS || status == Status.ITEM_UNAVAILABLE
+                && TextUtils.equals(purchase.getProviderName(),
+                                    consumeResponse.getProviderName())) {
+            settle(purchase);
+        }
+    }
+
+    /**
+     * Gets purchases which are not yet known to be consumed.
+     * <p>
+     * Blocking call on first use, shouldn't be used from main thread.
+     *
+     * @return List of purchases, in order they were journaled.
+     */
+    @NonNull
+    synchronized List<Purchase> getPending() {
+        load();
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Gets purchases which were sent for consumption, but weren't confirmed to be consumed.
+     * <p>
+     * Blocking call on first use, shouldn't be used from main thread.
+     *
+     * @return List of purchases, in order they were journaled.
+     */
+    @NonNull
+    synchronized List<Purchase> getConsuming() {
+        load();
+        final List<Purchase> purchases = new ArrayList<>(consuming.size());
+        for (final Map.Entry<String, Purchase> entry : pending.entrySet()) {
+            if (consuming.contains(entry.getKey())) {
+                purchases.add(entry.getValue());
+            }
+        }
+        return purchases;
+    }
+
+    /**
+     * Gets purchases which consumption was deferred.
+     * <p>
+     * Blocking call on first use, shouldn't be used from main thread.
+     *
+     * @return List of purchases, in order they were journaled.
+     */
+    @NonNull
+    synchronized List<Purchase> getDeferred() {
+        load();
+        final List<Purchase> purchases = new ArrayList<>(deferred.size());
+        for (final Map.Entry<String, Purchase> entry : pending.entrySet()) {
+            if (deferred.contains(entry.getKey())) {
+                purchases.add(entry.getValue());
+            }
+        }
+        return purchases;
+    }
+
+    /**
+     * Takes deferred purchases of supplied billing provider, so that they can be sent for
+     * consumption again.
+     * <p>
+     * Taken purchases are no longer deferred, they are considered to be consuming. Blocking call,
+     * shouldn't be used from main thread.
+     *
+     * @param providerName Name of the provider purchases belong to.
+     *
+     * @return List of purchases, in order they were journaled.
+     */
+    @NonNull
+    synchronized List<Purchase> takeDeferred(@NonNull final String providerName) {
+        final List<Purchase> purchases = new ArrayList<>();
+        for (final Purchase purchase : getDeferred()) {
+            if (TextUtils.equals(providerName, purchase.getProviderName())) {
+                open(OP_CONSUMING, purchase);
+                purchases.add(purchase);
+            }
+        }
+        return purchases;
+    }
+}
@@ -26,12 +26,17 @@ import org.onepf.opfiab.model.Configuration;
 import org.onepf.opfiab.model.Configuration.Builder;
 import org.onepf.opfiab.model.event.SetupResponse;
 import org.onepf.opfiab.model.event.SetupStartedEvent;
-import org.onepf.opfutils.OPFChecks;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
+import org.onepf.opfiab.util.EventRouter.ThreadMode;
+import org.onepf.opfiab.util.StateStore;
 import org.onepf.opfutils.OPFLog;
-import org.onepf.opfutils.OPFPreferences;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 
 import static org.onepf.opfiab.model.event.SetupResponse.Status.FAILED;
 import static org.onepf.opfiab.model.event.SetupResponse.Status.PROVIDER_CHANGED;
@@ -50,17 +55,21 @@ import static org.onepf.opfiab.model.event.SetupResponse.Status.SUCCESS;
  * <li> First suitable provider will be picked according to order it was added in
  * {@link Builder#addBillingProvider(BillingProvider)}.
  * </ul>
+ * After setup all remaining suitable providers are ranked by the same rules and kept as standby.
+ * If picked provider keeps failing, it's replaced with the first healthy standby provider, while
+ * standby list is refreshed in background.
+ * <p>
+ * Providers are only probed from the library thread, the same one billing requests are executed
+ * on, so probing never runs concurrently with provider calls or blocks the main thread.
  */
 @SuppressWarnings({"PMD.ModifiedCyclomaticComplexity", "PMD.StdCyclomaticComplexity"})
-final class SetupManager {
+final class SetupManager implements EventRouter.TypedSubscriber {
 
     private static final String KEY_LAST_PROVIDER = SetupManager.class.getName() + ".last_provider";
 
     private static SetupManager instance;
 
-    @SuppressWarnings({"PMD.NonThreadSafeSingleton"})
-    static SetupManager getInstance(@NonNull final Context context) {
-        OPFChecks.checkThread(true);
+    static synchronized SetupManager getInstance(@NonNull final Context context) {
         if (instance == null) {
             instance = new SetupManager(context);
         }
@@ -68,7 +77,7 @@ final class SetupManager {
     }
 
 
-    private final OPFPreferences preferences;
+    private final StateStore preferences;
     /**
      * Flag indicating whether setup process is happening at the moment.
      */
@@ -80,10 +89,20 @@ final class SetupManager {
      */
     @Nullable
     private Configuration lastConfiguration;
+    /**
+     * Suitable providers which can replace current one, most preferable first.
+     */
+    @NonNull
+    private List<BillingProvider> standbyProviders = Collections.emptyList();
+    /**
+     * Configuration {@link #standbyProviders} were picked from.
+     */
+    @Nullable
+    private Configuration standbyConfiguration;
 
     private SetupManager(@NonNull final Context context) {
         super();
-        preferences = new OPFPreferences(context);
+        preferences = StateStore.getInstance(context);
     }
 
     /**
@@ -105,6 +124,133 @@ final class SetupManager {
         return availableProviders;
     }
 
+    /**
+     * Ranks all suitable providers from supplied configuration according to setup rules.
+     *
+     * @param configuration Configuration to pick providers from.
+     * @param exclude       Provider to leave out, typically the one currently in use.
+     *
+     * @return Ranked list of providers, most preferable first.
+     */
+    @NonNull
+    private List<BillingProvider> rank(@NonNull final Configuration configuration,
+                                       @Nullable final BillingProvider exclude) {
+        final String lastProvider = preferences.getString(KEY_LAST_PROVIDER, "");
+        final List<BillingProvider> ranked = new ArrayList<>();
+        final Collection<BillingProvider> compatible = new ArrayList<>();
+        for (final BillingProvider provider : getAvailable(configuration.getProviders())) {
+            if (provider.equals(exclude)) {
+                continue;
+            }
+            final Compatibility compatibility = provider.checkCompatibility();
+            if (compatibility == Compatibility.INCOMPATIBLE) {
+                continue;
+            }
+            if (lastProvider.equals(provider.getName())) {
+                ranked.add(0, provider);
+            } else if (compatibility == Compatibility.PREFERRED) {
+                ranked.add(provider);
+            } else {
+                compatible.add(provider);
+            }
+        }
+        ranked.addAll(compatible);
+        return ranked;
+    }
+
+    /**
+     * Refreshes standby providers on the library thread.
+     *
+     * @param configuration Configuration to pick providers from.
+     * @param current       Provider currently in use.
+     */
+    private void probeStandby(@NonNull final Configuration configuration,
+                              @NonNull final BillingProvider current) {
+        OPFIab.post(new ProbeEvent(configuration, current));
+    }
+
+    /**
+     * Ranks standby providers.
+     * <p>
+     * Must be called only from the library thread.
+     *
+     * @param configuration Configuration to pick providers from.
+     * @param current       Provider currently in use.
+     */
+    private void refreshStandby(@NonNull final Configuration configuration,
+                                @NonNull final BillingProvider current) {
+        final List<BillingProvider> ranked = rank(configuration, current);
+        OPFLog.d("Standby providers: %s", ranked);
+        synchronized (this) {
+            if (standbyConfiguration == configuration) {
+                standbyProviders = ranked;
+            }
+        }
+    }
+
+    /**
+     * Replaces failing provider with the first healthy standby provider, or starts new setup if
+     * there's none.
+     * <p>
+     * Replacement is picked on the library thread, can be called from any thread.
+     *
+     * @param configuration   Configuration failing provider was picked from.
+     * @param failingProvider Provider to replace.
+     */
+    void recover(@NonNull final Configuration configuration,
+                 @NonNull final BillingProvider failingProvider) {
+        OPFIab.post(new FailoverEvent(configuration, failingProvider));
+    }
+
+    /**
+     * Replaces failing provider with the first healthy standby provider.
+     * <p>
+     * Must be called only from the library thread.
+     *
+     * @param configuration   Configuration failing provider was picked from.
+     * @param failingProvider Provider to replace.
+     *
+     * @return True if replacement was found, false if new setup is required.
+     */
+    private boolean failover(@NonNull final Configuration configuration,
+                             @NonNull final BillingProvider failingProvider) {
+        final List<BillingProvider> candidates;
+        synchronized (this) {
+            if (setupInProgress || standbyConfiguration != configuration) {
+                return false;
+            }
+            candidates = standbyProviders;
+        }
+        // Providers are probed without holding the lock, standby list can only change here or
+        // in refreshStandby(), both happen on the library thread
+        final BillingBase billingBase = BillingBase.getInstance();
+        BillingProvider replacement = null;
+        for (final BillingProvider provider : candidates) {
+            if (!billingBase.isTripped(provider) && provider.isAvailable()) {
+                replacement = provider;
+                break;
+            }
+        }
+        if (replacement == null) {
+            return false;
+        }
+        synchronized (this) {
+            if (setupInProgress || standbyConfiguration != configuration) {
+                return false;
+            }
+            final List<BillingProvider> providers = new ArrayList<>(standbyProviders);
+            providers.remove(replacement);
+            // Failing provider might recover later
+            providers.add(failingProvider);
+            standbyProviders = providers;
+        }
+        OPFLog.d("Switching from %s to %s", failingProvider, replacement);
+        preferences.put(KEY_LAST_PROVIDER, replacement.getName());
+        OPFIab.post(new SetupResponse(configuration, PROVIDER_CHANGED, replacement));
+        probeStandby(configuration, replacement);
+        return true;
+    }
+
     @SuppressWarnings({"PMD.NPathComplexity", "PMD.AvoidDeeplyNestedIfStmts"})
     @NonNull
     private SetupResponse newResponse(@NonNull final SetupStartedEvent setupStartedEvent) {
@@ -164,20 +310,25 @@ final class SetupManager {
      *
      * @see OPFIab#setup()
      */
-    void startSetup(@NonNull final Configuration configuration) {
-        OPFChecks.checkThread(true);
+    synchronized void startSetup(@NonNull final Configuration configuration) {
         lastConfiguration = configuration;
         if (setupInProgress) {
             return;
         }
 
         setupInProgress = true;
+        standbyProviders = Collections.emptyList();
+        standbyConfiguration = null;
         OPFIab.post(new SetupStartedEvent(configuration));
     }
 
-    @SuppressWarnings("UnusedParameters")
-    public void onEventMainThread(@NonNull final SetupResponse setupResponse) {
+    public synchronized void onEvent(@NonNull final SetupResponse setupResponse) {
         setupInProgress = false;
+        final BillingProvider billingProvider = setupResponse.getBillingProvider();
+        if (standbyConfiguration == null && billingProvider != null) {
+            standbyConfiguration = setupResponse.getConfiguration();
+            probeStandby(standbyConfiguration, billingProvider);
+        }
         if (lastConfiguration != null && lastConfiguration != setupResponse.getConfiguration()) {
             // If another setup was requested with different configuration
             startSetup(lastConfiguration);
@@ -186,6 +337,39 @@ final class SetupManager {
         }
     }
 
+    @NonNull
+    @Override
+    public EventHandler<?>[] getEventHandlers() {
+        return new EventHandler<?>[]{
+                new EventHandler<SetupResponse>(SetupResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final SetupResponse event) {
+                        SetupManager.this.onEvent(event);
+                    }
+                },
+                new EventHandler<SetupStartedEvent>(SetupStartedEvent.class, ThreadMode.ASYNC) {
+                    @Override
+                    public void onEvent(@NonNull final SetupStartedEvent event) {
+                        SetupManager.this.onEventAsync(event);
+                    }
+                },
+                new EventHandler<ProbeEvent>(ProbeEvent.class, ThreadMode.ASYNC) {
+                    @Override
+                    public void onEvent(@NonNull final ProbeEvent event) {
+                        refreshStandby(event.configuration, event.provider);
+                    }
+                },
+                new EventHandler<FailoverEvent>(FailoverEvent.class, ThreadMode.ASYNC) {
+                    @Override
+                    public void onEvent(@NonNull final FailoverEvent event) {
+                        if (!failover(event.configuration, event.provider)) {
+                            OPFIab.setup();
+                        }
+                    }
+                },
+        };
+    }
+
     public void onEventAsync(@NonNull final SetupStartedEvent setupStartedEvent) {
         final SetupResponse setupResponse = newResponse(setupStartedEvent);
         if (setupResponse.isSuccessful()) {
@@ -195,4 +379,44 @@ final class SetupManager {
         }
         OPFIab.post(setupResponse);
     }
+
+    /**
+     * Asks to refresh standby providers.
+     */
+    private static final class ProbeEvent {
+
+        @NonNull
+        private final Configuration configuration;
+        /**
+         * Provider currently in use.
+         */
+        @NonNull
+        private final BillingProvider provider;
+
+        ProbeEvent(@NonNull final Configuration configuration,
+                   @NonNull final BillingProvider provider) {
+            this.configuration = configuration;
+            this.provider = provider;
+        }
+    }
+
+    /**
+     * Asks to replace failing provider.
+     */
+    private static final class FailoverEvent {
+
+        @NonNull
+        private final Configuration configuration;
+        /**
+         * Provider to replace.
+         */
+        @NonNull
+        private final BillingProvider provider;
+
+        FailoverEvent(@NonNull final Configuration configuration,
+                      @NonNull final BillingProvider provider) {
+            this.configuration = configuration;
+            this.provider = provider;
+        }
+    }
 }
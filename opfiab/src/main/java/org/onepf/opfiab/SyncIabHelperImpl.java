@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.api.SyncIabHelper;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+import org.onepf.opfiab.util.BillingFuture;
+import org.onepf.opfutils.OPFChecks;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link SyncIabHelper} implementation which waits for futures supplied by
+ * {@link FutureIabHelperImpl}.
+ */
+final class SyncIabHelperImpl implements SyncIabHelper {
+
+    private final FutureIabHelperImpl helper = new FutureIabHelperImpl();
+    /**
+     * Maximum time to wait for a single response, in milliseconds.
+     */
+    private final long timeout;
+
+    SyncIabHelperImpl(final long timeout) {
+        super();
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive.");
+        }
+        this.timeout = timeout;
+    }
+
+    @NonNull
+    private <R extends BillingResponse> R await(@NonNull final BillingFuture<R> future)
+            throws TimeoutException, InterruptedException {
+        try {
+            final R response = future.get(timeout, TimeUnit.MILLISECONDS);
+            if (response == null) {
+                throw new IllegalStateException("Future completed without response.");
+            }
+            return response;
+        } catch (ExecutionException exception) {
+            throw new IllegalStateException(exception.getCause());
+        } catch (TimeoutException | InterruptedException exception) {
+            // Nobody is going to wait for this response anymore
+            future.cancel(false);
+            throw exception;
+        }
+    }
+
+    @NonNull
+    @Override
+    public PurchaseResponse purchase(@NonNull final String sku)
+            throws TimeoutException, InterruptedException {
+        OPFChecks.checkThread(false);
+        return await(helper.purchase(sku));
+    }
+
+    @NonNull
+    @Override
+    public ConsumeResponse consume(@NonNull final Purchase purchase)
+            throws TimeoutException, InterruptedException {
+        OPFChecks.checkThread(false);
+        return await(helper.consume(purchase));
+    }
+
+    @NonNull
+    @Override
+    public ConsumeBatchResponse consume(@NonNull final Collection<Purchase> purchases)
+            throws TimeoutException, InterruptedException {
+        OPFChecks.checkThread(false);
+        return await(helper.consume(purchases));
+    }
+
+    @NonNull
+    @Override
+    public InventoryResponse inventory(final boolean startOver)
+            throws TimeoutException, InterruptedException {
+        OPFChecks.checkThread(false);
+        return await(helper.inventory(startOver));
+    }
+
+    @NonNull
+    @Override
+    public SkuDetailsResponse skuDetails(@NonNull final Set<String> skus)
+            throws TimeoutException, InterruptedException {
+        OPFChecks.checkThread(false);
+        return await(helper.skuDetails(skus));
+    }
+
+    @NonNull
+    @Override
+    public SkuDetailsResponse skuDetails(@NonNull final String... skus)
+            throws TimeoutException, InterruptedException {
+        OPFChecks.checkThread(false);
+        return await(helper.skuDetails(skus));
+    }
+}
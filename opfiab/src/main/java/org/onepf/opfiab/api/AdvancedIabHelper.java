@@ -55,6 +55,10 @@ public interface AdvancedIabHelper extends SimpleIabHelper, ListenersSupport {
     /**
      * Registers all listeners associated with this helper to receive appropriate callbacks.
      * <p>
+     * Only responses to requests sent by this helper will be delivered, same as
+     * {@code register(false)}. Responses to requests sent by other helpers used to be delivered
+     * as well, helpers relying on that must be registered with {@code register(true)}.
+     * <p>
      * In case of activity best called from {@link Activity#onCreate(Bundle)}
      * <p>
      * In case of fragment best called from {@link Fragment#onCreateView(LayoutInflater, ViewGroup, Bundle)}
@@ -63,6 +67,20 @@ public interface AdvancedIabHelper extends SimpleIabHelper, ListenersSupport {
      */
     void register();
 
+    /**
+     * Registers all listeners associated with this helper to receive appropriate callbacks.
+     * <p>
+     * Helpers which need to observe requests sent by others can opt in to broadcast delivery by
+     * passing true. Targeted delivery spares dispatching responses to listeners which would
+     * ignore them.
+     *
+     * @param broadcast If true, responses to requests sent by any helper will be delivered,
+     *                  otherwise only responses to requests sent by this helper.
+     *
+     * @see #register()
+     */
+    void register(boolean broadcast);
+
     /**
      * Unregisters all listeners associated with this helpers from receiving any callbacks.
      * <p>
@@ -77,4 +95,12 @@ public interface AdvancedIabHelper extends SimpleIabHelper, ListenersSupport {
     void unregister();
 
     void dropQueue();
+
+    /**
+     * Cancels all requests sent by this helper.
+     * <p>
+     * Pending requests are dropped, requests which are already being executed receive response
+     * with {@link org.onepf.opfiab.model.event.billing.Status#CANCELED} status.
+     */
+    void cancel();
 }
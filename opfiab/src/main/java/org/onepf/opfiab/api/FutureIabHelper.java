@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.api;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+import org.onepf.opfiab.util.BillingFuture;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Version of {@link IabHelper} which returns {@link BillingFuture} for each request instead of
+ * delivering responses to listeners.
+ * <p>
+ * Each future is completed with the response to its own request. Cancelling future or letting it
+ * time out cancels corresponding request.
+ * <p>
+ * Requests are queued the same way as in {@link AdvancedIabHelper}, lazy setup is supported.
+ * All methods can be called from any thread. Futures are completed from a background thread, so
+ * their listeners and continuations may block, e.g. by calling {@link BillingFuture#get()}.
+ */
+public interface FutureIabHelper {
+
+    /**
+     * Sends purchase request to current {@link BillingProvider}.
+     *
+     * @param sku Stock Keeping Unit - unique product ID to purchase.
+     *
+     * @return Future completed with the corresponding response.
+     * @see IabHelper#purchase(String)
+     */
+    @NonNull
+    BillingFuture<PurchaseResponse> purchase(@NonNull final String sku);
+
+    /**
+     * Sends consume request to current {@link BillingProvider}.
+     *
+     * @param purchase Purchase object to consume.
+     *
+     * @return Future completed with the corresponding response.
+     * @see IabHelper#consume(Purchase)
+     */
+    @NonNull
+    BillingFuture<ConsumeResponse> consume(@NonNull final Purchase purchase);
+
+    /**
+     * Sends batch consume request to current {@link BillingProvider}.
+     *
+     * @param purchases Purchase objects to consume.
+     *
+     * @return Future completed with the corresponding response.
+     * @see IabHelper#consume(Collection)
+     */
+    @NonNull
+    BillingFuture<ConsumeBatchResponse> consume(@NonNull final Collection<Purchase> purchases);
+
+    /**
+     * Sends inventory request to current {@link BillingProvider}.
+     *
+     * @param startOver Flag indicating weather library should load inventory from the start.
+     *
+     * @return Future completed with the corresponding response.
+     * @see IabHelper#inventory(boolean)
+     */
+    @NonNull
+    BillingFuture<InventoryResponse> inventory(final boolean startOver);
+
+    /**
+     * Sends SKU details request to current {@link BillingProvider}.
+     *
+     * @param skus Stock Keeping Units - unique product IDs to query details for.
+     *
+     * @return Future completed with the corresponding response.
+     * @see IabHelper#skuDetails(Set)
+     */
+    @NonNull
+    BillingFuture<SkuDetailsResponse> skuDetails(@NonNull final Set<String> skus);
+
+    /**
+     * Same as {@link #skuDetails(Set)}.
+     */
+    @NonNull
+    BillingFuture<SkuDetailsResponse> skuDetails(@NonNull final String... skus);
+}
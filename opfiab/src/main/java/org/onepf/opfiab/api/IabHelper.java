@@ -21,6 +21,8 @@ import android.support.annotation.NonNull;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
 import org.onepf.opfiab.model.event.billing.ConsumeRequest;
 import org.onepf.opfiab.model.event.billing.InventoryRequest;
 import org.onepf.opfiab.model.event.billing.InventoryResponse;
@@ -29,6 +31,7 @@ import org.onepf.opfiab.model.event.billing.PurchaseResponse;
 import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
 import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
 
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -53,6 +56,17 @@ public interface IabHelper {
      */
     void consume(@NonNull final Purchase purchase);
 
+    /**
+     * Sends {@link ConsumeBatchRequest} to current {@link BillingProvider}.
+     * <p>
+     * All purchases are consumed within a single request, which is much cheaper than consuming
+     * them one by one. Each purchase is reported separately to consume listeners.
+     *
+     * @param purchases Purchase objects to consume.
+     * @see ConsumeBatchResponse
+     */
+    void consume(@NonNull final Collection<Purchase> purchases);
+
     /**
      * Sends {@link InventoryRequest} to current {@link BillingProvider}.
      * <p>
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.api;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Blocking version of {@link IabHelper} intended for background workers.
+ * <p>
+ * Each method blocks calling thread until corresponding response is received or helper deadline
+ * is exceeded. Request is abandoned if waiting thread is interrupted or deadline is exceeded.
+ * <p>
+ * None of the methods can be called from the main thread.
+ */
+public interface SyncIabHelper {
+
+    /**
+     * Sends purchase request to current {@link BillingProvider} and waits for response.
+     *
+     * @param sku Stock Keeping Unit - unique product ID to purchase.
+     *
+     * @return Response to the request.
+     * @throws TimeoutException     If response wasn't received within deadline.
+     * @throws InterruptedException If calling thread was interrupted while waiting.
+     * @see IabHelper#purchase(String)
+     */
+    @NonNull
+    PurchaseResponse purchase(@NonNull final String sku)
+            throws TimeoutException, InterruptedException;
+
+    /**
+     * Sends consume request to current {@link BillingProvider} and waits for response.
+     *
+     * @param purchase Purchase object to consume.
+     *
+     * @return Response to the request.
+     * @throws TimeoutException     If response wasn't received within deadline.
+     * @throws InterruptedException If calling thread was interrupted while waiting.
+     * @see IabHelper#consume(Purchase)
+     */
+    @NonNull
+    ConsumeResponse consume(@NonNull final Purchase purchase)
+            throws TimeoutException, InterruptedException;
+
+    /**
+     * Sends batch consume request to current {@link BillingProvider} and waits for response.
+     *
+     * @param purchases Purchase objects to consume.
+     *
+     * @return Response to the request.
+     * @throws TimeoutException     If response wasn't received within deadline.
+     * @throws InterruptedException If calling thread was interrupted while waiting.
+     * @see IabHelper#consume(Collection)
+     */
+    @NonNull
+    ConsumeBatchResponse consume(@NonNull final Collection<Purchase> purchases)
+            throws TimeoutException, InterruptedException;
+
+    /**
+     * Sends inventory request to current {@link BillingProvider} and waits for response.
+     *
+     * @param startOver Flag indicating weather library should load inventory from the start.
+     *
+     * @return Response to the request.
+     * @throws TimeoutException     If response wasn't received within deadline.
+     * @throws InterruptedException If calling thread was interrupted while waiting.
+     * @see IabHelper#inventory(boolean)
+     */
+    @NonNull
+    InventoryResponse inventory(final boolean startOver)
+            throws TimeoutException, InterruptedException;
+
+    /**
+     * Sends SKU details request to current {@link BillingProvider} and waits for response.
+     *
+     * @param skus Stock Keeping Units - unique product IDs to query details for.
+     *
+     * @return Response to the request.
+     * @throws TimeoutException     If response wasn't received within deadline.
+     * @throws InterruptedException If calling thread was interrupted while waiting.
+     * @see IabHelper#skuDetails(Set)
+     */
+    @NonNull
+    SkuDetailsResponse skuDetails(@NonNull final Set<String> skus)
+            throws TimeoutException, InterruptedException;
+
+    /**
+     * Same as {@link #skuDetails(Set)}.
+     */
+    @NonNull
+    SkuDetailsResponse skuDetails(@NonNull final String... skus)
+            throws TimeoutException, InterruptedException;
+}
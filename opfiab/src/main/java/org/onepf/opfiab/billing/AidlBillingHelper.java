@@ -31,6 +31,8 @@ import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import org.onepf.opfiab.OPFIab;
+import org.onepf.opfiab.model.Configuration;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.OPFUtils;
 
@@ -159,12 +161,18 @@ public abstract class AidlBillingHelper<AIDL extends IInterface> implements Serv
 
     /**
      * Same as {@link #getService(long)} but with default timeout.
+     * <p>
+     * Timeout never exceeds request deadline from current configuration.
      *
      * @see #CONNECTION_TIMEOUT
+     * @see Configuration#getRequestTimeout()
      */
     @Nullable
     public AIDL getService() {
-        return getService(CONNECTION_TIMEOUT);
+        final long requestTimeout = OPFIab.getConfiguration().getRequestTimeout();
+        return getService(requestTimeout > 0
+                ? Math.min(CONNECTION_TIMEOUT, requestTimeout)
+                : CONNECTION_TIMEOUT);
     }
 
     @CallSuper
@@ -18,45 +18,75 @@ package org.onepf.opfiab.billing;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import org.onepf.opfiab.OPFIab;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.RetryPolicy;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.billing.SkuType;
 import org.onepf.opfiab.model.event.ActivityResultRequest;
 import org.onepf.opfiab.model.event.android.ActivityResult;
+import org.onepf.opfiab.model.event.billing.BillingEventType;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
 import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
 import org.onepf.opfiab.model.event.billing.ConsumeRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
 import org.onepf.opfiab.model.event.billing.InventoryRequest;
 import org.onepf.opfiab.model.event.billing.PurchaseRequest;
+import org.onepf.opfiab.model.event.billing.ResponseLinker;
 import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
 import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.sku.SkuResolver;
 import org.onepf.opfiab.util.ActivityForResultLauncher;
 import org.onepf.opfiab.util.BillingUtils;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
 import org.onepf.opfiab.util.SyncedReference;
 import org.onepf.opfiab.verification.PurchaseVerifier;
 import org.onepf.opfutils.OPFLog;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import static org.onepf.opfiab.model.event.billing.Status.BILLING_UNAVAILABLE;
 import static org.onepf.opfiab.model.event.billing.Status.ITEM_UNAVAILABLE;
+import static org.onepf.opfiab.model.event.billing.Status.UNKNOWN_ERROR;
 
 /**
  * Base implementation of {@link BillingProvider}.
  * <p>
  * Most implementations should extend this one unless implementation from scratch is absolutely necessary.
+ * <p>
+ * Provider receives library events through {@link #getEventHandlers()}, handler methods declared
+ * by subclasses are ignored. Subclasses handling additional events must override it and include
+ * handlers of the super class.
  *
  * @param <R> {@link SkuResolver} subclass to use with this BillingProvider.
  * @param <V> {@link PurchaseVerifier} subclass to use with this BillingProvider.
  */
 public abstract class BaseBillingProvider<R extends SkuResolver, V extends PurchaseVerifier>
-        implements BillingProvider {
+        implements BillingProvider, EventRouter.TypedSubscriber {
 
     protected static final int DEFAULT_REQUEST_CODE = 4232;
+    /**
+     * Limit of requests of each type waiting for asynchronous response.
+     */
+    private static final int MAX_AWAITING_REQUESTS = 8;
 
 
     @NonNull
@@ -65,6 +95,38 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
     protected final R skuResolver;
     @NonNull
     protected final V purchaseVerifier;
+    /**
+     * Request which is currently executed on this thread, used to link synchronous responses with
+     * requests.
+     */
+    private final ThreadLocal<BillingRequest> executingRequests = new ThreadLocal<>();
+    /**
+     * Requests still waiting for response, by type, in order of execution.
+     * <p>
+     * Responses of each type arrive in the order requests were made, so asynchronous response is
+     * linked with the oldest request of its type. Late response to abandoned request keeps id of
+     * that request and is dropped by library, instead of being attributed to a newer one.
+     */
+    private final Map<BillingEventType, Queue<BillingRequest>> awaitingRequests =
+            new EnumMap<>(BillingEventType.class);
+    /**
+     * Attempt to handle request which is currently made on this thread, if it can be retried.
+     *
+     * @see RetryPolicy
+     */
+    private final ThreadLocal<Attempt> attempts = new ThreadLocal<>();
+    /**
+     * Set when request being retried is abandoned, by request id.
+     *
+     * @see #handleRequestWithRetries(BillingRequest)
+     */
+    private final Map<Long, CountDownLatch> abandonSignals = new ConcurrentHashMap<>();
+    /**
+     * Responses collected while batch of consume requests is handled on this thread.
+     *
+     * @see #consume(ConsumeBatchRequest)
+     */
+    private final ThreadLocal<List<ConsumeResponse>> batchResponses = new ThreadLocal<>();
 
     protected BaseBillingProvider(@NonNull final Context context,
                                   @NonNull final R skuResolver,
@@ -101,14 +163,44 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
      */
     protected abstract void consume(@NonNull final ConsumeRequest request);
 
+    /**
+     * Consumes several Purchases at once and reports outcome for each of them with a single
+     * {@link ConsumeBatchResponse}.
+     * <p>
+     * Default implementation consumes purchases one by one with {@link #consume(ConsumeRequest)},
+     * which must respond synchronously. Providers supporting bulk consumption should override it.
+     */
+    protected void consume(@NonNull final ConsumeBatchRequest request) {
+        final List<ConsumeResponse> responses = new ArrayList<>();
+        batchResponses.set(responses);
+        try {
+            for (final Purchase purchase : request.getPurchases()) {
+                final int count = responses.size();
+                handleConsume(new ConsumeRequest(purchase));
+                if (responses.size() == count) {
+                    OPFLog.e("No synchronous response for consume request: %s", purchase);
+                    responses.add(new ConsumeResponse(UNKNOWN_ERROR, getName(), purchase));
+                }
+            }
+        } finally {
+            batchResponses.remove();
+        }
+        postResponse(new ConsumeBatchResponse(getName(), responses));
+    }
+
     @Nullable
     protected ActivityResult requestActivityResult(
             @NonNull final BillingRequest billingRequest,
             @NonNull final ActivityForResultLauncher launcher) {
+        // Activity result is linked with the original request, not the one with resolved SKUs
+        final BillingRequest originalRequest = executingRequests.get();
+        final BillingRequest request = originalRequest == null ? billingRequest : originalRequest;
         final SyncedReference<ActivityResult> syncResult = new SyncedReference<>();
-        OPFIab.post(new ActivityResultRequest(billingRequest, launcher, syncResult));
+        OPFIab.post(new ActivityResultRequest(request, launcher, syncResult));
         OPFLog.d("Waiting for ActivityResult");
-        return syncResult.get();
+        // Waiting is interrupted if request is abandoned
+        final long timeout = OPFIab.getConfiguration().getRequestTimeout();
+        return timeout > 0 ? syncResult.get(timeout) : syncResult.get();
     }
 
     /**
@@ -123,17 +215,11 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
         final BillingRequest resolvedRequest = BillingUtils.resolve(skuResolver, billingRequest);
         switch (resolvedRequest.getType()) {
             case CONSUME:
-                final ConsumeRequest consumeRequest = (ConsumeRequest) resolvedRequest;
-                final Purchase purchase = consumeRequest.getPurchase();
-                final String purchaseProviderName = purchase.getProviderName();
-                final String providerName = getName();
-                if (!providerName.equals(purchaseProviderName)) {
-                    OPFLog.e("Attempt to consume purchase from wrong provider: %s.\n"
-                            + "Current provider: %s", purchaseProviderName, providerName);
-                    postEmptyResponse(resolvedRequest, ITEM_UNAVAILABLE);
-                    break;
-                }
-                consume(consumeRequest);
+                handleConsume((ConsumeRequest) resolvedRequest);
+                break;
+            case CONSUME_BATCH:
+                final ConsumeBatchRequest batchRequest = (ConsumeBatchRequest) resolvedRequest;
+                consume(batchRequest);
                 break;
             case PURCHASE:
                 final PurchaseRequest purchaseRequest = (PurchaseRequest) resolvedRequest;
@@ -152,16 +238,180 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
         }
     }
 
+    private void handleConsume(@NonNull final ConsumeRequest consumeRequest) {
+        final Purchase purchase = consumeRequest.getPurchase();
+        final String purchaseProviderName = purchase.getProviderName();
+        final String providerName = getName();
+        if (!providerName.equals(purchaseProviderName)) {
+            OPFLog.e("Attempt to consume purchase from wrong provider: %s.\n"
+                    + "Current provider: %s", purchaseProviderName, providerName);
+            postEmptyResponse(consumeRequest, ITEM_UNAVAILABLE);
+            return;
+        }
+        consume(consumeRequest);
+    }
+
+    /**
+     * Handles supplied request, retrying it according to {@link RetryPolicy} from current
+     * configuration.
+     * <p>
+     * Responses with transient errors are held back while there are attempts left. Synchronous
+     * responses are the only ones that can be retried, since request is still considered being
+     * executed at that point. Waiting for the next attempt stops as soon as request is canceled or
+     * times out.
+     *
+     * @param billingRequest Request to handle.
+     */
+    protected void handleRequestWithRetries(@NonNull final BillingRequest billingRequest) {
+        final Configuration configuration = OPFIab.getConfiguration();
+        final RetryPolicy retryPolicy = configuration.getRetryPolicy();
+        if (!retryPolicy.isRetriable(billingRequest.getType())) {
+            handleRequest(billingRequest);
+            return;
+        }
+        final long requestId = billingRequest.getRequestId();
+        final CountDownLatch abandonSignal = new CountDownLatch(1);
+        abandonSignals.put(requestId, abandonSignal);
+        try {
+            handleRequestWithRetries(billingRequest, retryPolicy, configuration.getRequestTimeout(),
+                                     abandonSignal);
+        } finally {
+            abandonSignals.remove(requestId);
+        }
+    }
+
+    private void handleRequestWithRetries(
+            @NonNull final BillingRequest billingRequest,
+            @NonNull final RetryPolicy retryPolicy,
+            final long timeout,
+            @NonNull final CountDownLatch abandonSignal) {
+        final long start = SystemClock.elapsedRealtime();
+        final int maxAttempts = retryPolicy.getMaxAttempts();
+        int attemptNumber = 1;
+        long delay = retryPolicy.getDelay(attemptNumber);
+        while (true) {
+            // Don't let retries outlive request deadline
+            final long elapsed = SystemClock.elapsedRealtime() - start;
+            final boolean last = attemptNumber >= maxAttempts
+                    || timeout > 0 && elapsed + delay >= timeout;
+            final Attempt attempt = last ? null : new Attempt(retryPolicy);
+            attempts.set(attempt);
+            try {
+                handleRequest(billingRequest);
+            } finally {
+                attempts.remove();
+            }
+            final BillingResponse failedResponse = attempt == null ? null : attempt.response;
+            if (failedResponse == null) {
+                return;
+            }
+            OPFLog.d("Retrying request in %d ms: %s", delay, billingRequest);
+            try {
+                if (abandonSignal.await(delay, TimeUnit.MILLISECONDS)) {
+                    // Library already responded on behalf of this request
+                    OPFLog.d("Request abandoned, dropping retries: %s", billingRequest);
+                    return;
+                }
+            } catch (InterruptedException exception) {
+                OPFLog.e("", exception);
+                postResponse(failedResponse);
+                return;
+            }
+            delay = retryPolicy.getDelay(++attemptNumber);
+        }
+    }
+
     @Override
     public void onBillingRequest(@NonNull final BillingRequest billingRequest) {
-        if (!isAvailable()) {
-            postEmptyResponse(billingRequest, BILLING_UNAVAILABLE);
-        } else {
-            handleRequest(billingRequest);
+        // Response might arrive asynchronously before handling is finished
+        synchronized (awaitingRequests) {
+            Queue<BillingRequest> queue = awaitingRequests.get(billingRequest.getType());
+            if (queue == null) {
+                queue = new LinkedList<>();
+                awaitingRequests.put(billingRequest.getType(), queue);
+            }
+            if (queue.size() >= MAX_AWAITING_REQUESTS) {
+                OPFLog.e("No response for request: %s", queue.poll());
+            }
+            queue.add(billingRequest);
+        }
+        executingRequests.set(billingRequest);
+        try {
+            if (!isAvailable()) {
+                postEmptyResponse(billingRequest, BILLING_UNAVAILABLE);
+            } else {
+                handleRequestWithRetries(billingRequest);
+            }
+        } finally {
+            executingRequests.remove();
+        }
+    }
+
+    /**
+     * Picks request supplied response should be linked with.
+     * <p>
+     * Synchronous response belongs to request executed on current thread, asynchronous one to the
+     * oldest request of the same type still waiting for response.
+     *
+     * @param billingResponse Response which is about to be sent.
+     *
+     * @return Original request, or null if there's no request waiting for such response.
+     */
+    @Nullable
+    private BillingRequest claimRequest(@NonNull final BillingResponse billingResponse) {
+        final BillingRequest executingRequest = executingRequests.get();
+        synchronized (awaitingRequests) {
+            if (executingRequest == null) {
+                final Queue<BillingRequest> queue = awaitingRequests.get(billingResponse.getType());
+                return queue == null ? null : queue.poll();
+            }
+            final Queue<BillingRequest> queue = awaitingRequests.get(executingRequest.getType());
+            if (queue != null) {
+                // BillingEvent.equals() compares only types
+                final Iterator<BillingRequest> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next() == executingRequest) {
+                        iterator.remove();
+                        break;
+                    }
+                }
+            }
+            return executingRequest;
         }
     }
 
 
+    @NonNull
+    @Override
+    public EventHandler<?>[] getEventHandlers() {
+        return new EventHandler<?>[]{
+                new EventHandler<BillingResponse>(BillingResponse.class) {
+                    @Override
+                    public void onEvent(@NonNull final BillingResponse event) {
+                        BaseBillingProvider.this.onEvent(event);
+                    }
+                },
+        };
+    }
+
+    /**
+     * Stops waiting for the next attempt of request which was canceled or timed out.
+     *
+     * @param billingResponse Response which might be sent by library on behalf of abandoned
+     *                        request.
+     */
+    public void onEvent(@NonNull final BillingResponse billingResponse) {
+        final Status status = billingResponse.getStatus();
+        if (billingResponse.getProviderName() != null
+                || status != Status.TIMEOUT && status != Status.CANCELED) {
+            return;
+        }
+        final CountDownLatch abandonSignal = abandonSignals.get(billingResponse.getRequestId());
+        if (abandonSignal != null) {
+            abandonSignal.countDown();
+        }
+    }
+
     protected BillingResponse verify(@NonNull final BillingResponse response) {
         return BillingUtils.verify(purchaseVerifier, response);
     }
@@ -176,6 +426,26 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
      * @param billingResponse BillingResponse object to send to library.
      */
     protected void postResponse(@NonNull final BillingResponse billingResponse) {
+        final List<ConsumeResponse> batch = batchResponses.get();
+        if (batch != null && billingResponse.getType() == BillingEventType.CONSUME) {
+            // Part of the batch, will be sent along with the rest of it
+            batch.add((ConsumeResponse) billingResponse);
+            return;
+        }
+        final Attempt attempt = attempts.get();
+        if (attempt != null && attempt.hold(billingResponse)) {
+            // Request will be retried
+            return;
+        }
+        // Responses are linked with the original request, not the one with resolved SKUs
+        final BillingRequest billingRequest = claimRequest(billingResponse);
+        if (billingRequest == null) {
+            // Unsolicited response, e.g. purchase update pushed by store
+            OPFLog.d("No matching request for response: %s", billingResponse);
+            ResponseLinker.link(billingResponse, 0L);
+        } else {
+            ResponseLinker.link(billingResponse, billingRequest.getRequestId());
+        }
         final BillingResponse verifiedResponse = verify(billingResponse);
         final BillingResponse revertedResponse = revertSku(verifiedResponse);
         OPFIab.post(revertedResponse);
@@ -211,6 +481,34 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
         return null;
     }
 
+    /**
+     * Single attempt to handle request which can be retried.
+     */
+    private static final class Attempt {
+
+        @NonNull
+        private final RetryPolicy retryPolicy;
+        @Nullable
+        private BillingResponse response;
+
+        Attempt(@NonNull final RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+        }
+
+        /**
+         * Holds back supplied response if it indicates transient error.
+         *
+         * @return True if response was held back, false if it should be sent.
+         */
+        boolean hold(@NonNull final BillingResponse billingResponse) {
+            if (response != null || !retryPolicy.isRetriable(billingResponse.getStatus())) {
+                return false;
+            }
+            response = billingResponse;
+            return true;
+        }
+    }
+
     //CHECKSTYLE:OFF
     @SuppressWarnings({"PMD", "TypeMayBeWeakened", "RedundantIfStatement"})
     @Override
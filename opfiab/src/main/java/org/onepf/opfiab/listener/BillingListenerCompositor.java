@@ -28,21 +28,23 @@ import org.onepf.opfiab.model.event.billing.PurchaseResponse;
 import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
 
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Handy implementation of {@link BillingListener} interface which aggregates multiple listener
  * objects.
+ * <p>
+ * Listeners can be added from any thread.
  */
 public class BillingListenerCompositor implements BillingListener {
 
-    protected final Collection<BillingListener> billingListeners = new HashSet<>();
+    protected final Collection<BillingListener> billingListeners = new CopyOnWriteArraySet<>();
 
-    protected final Collection<OnSetupListener> setupListeners = new HashSet<>();
-    protected final Collection<OnPurchaseListener> purchaseListeners = new HashSet<>();
-    protected final Collection<OnInventoryListener> inventoryListeners = new HashSet<>();
-    protected final Collection<OnSkuDetailsListener> skuDetailsListeners = new HashSet<>();
-    protected final Collection<OnConsumeListener> consumeListeners = new HashSet<>();
+    protected final Collection<OnSetupListener> setupListeners = new CopyOnWriteArraySet<>();
+    protected final Collection<OnPurchaseListener> purchaseListeners = new CopyOnWriteArraySet<>();
+    protected final Collection<OnInventoryListener> inventoryListeners = new CopyOnWriteArraySet<>();
+    protected final Collection<OnSkuDetailsListener> skuDetailsListeners = new CopyOnWriteArraySet<>();
+    protected final Collection<OnConsumeListener> consumeListeners = new CopyOnWriteArraySet<>();
 
     public BillingListenerCompositor() {
         super();
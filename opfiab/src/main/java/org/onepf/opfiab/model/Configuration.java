@@ -23,10 +23,12 @@ import org.onepf.opfiab.OPFIab;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.listener.BillingListener;
 import org.onepf.opfiab.listener.DefaultBillingListener;
+import org.onepf.opfiab.model.billing.StringPool;
 
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Model class representing library configuration.
@@ -36,19 +38,48 @@ import java.util.Set;
 @SuppressWarnings("PMD.MissingStaticMethodInNonInstantiatableClass")
 public final class Configuration {
 
+    /**
+     * Default deadline for a single billing request, in milliseconds.
+     * <p>
+     * Purchase flow involves user interaction, so it's quite generous.
+     */
+    public static final long DEFAULT_REQUEST_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * Default maximum number of distinct SKUs and provider names shared across billing models.
+     */
+    public static final int DEFAULT_STRING_POOL_SIZE = 1024;
+
     @NonNull
     private final Set<BillingProvider> providers;
     @Nullable
     private final BillingListener billingListener;
     private final boolean skipStaleRequests;
     private final boolean autoRecover;
+    private final long requestTimeout;
+    @NonNull
+    private final RetryPolicy retryPolicy;
+    @NonNull
+    private final SingleFlightPolicy singleFlightPolicy;
+    @NonNull
+    private final QueuePolicy queuePolicy;
+    private final int stringPoolSize;
 
     Configuration(@NonNull final Set<BillingProvider> providers,
                   @Nullable final BillingListener billingListener,
                   final boolean skipStaleRequests,
-                  final boolean autoRecover) {
+                  final boolean autoRecover,
+                  final long requestTimeout,
+                  @NonNull final RetryPolicy retryPolicy,
+                  @NonNull final SingleFlightPolicy singleFlightPolicy,
+                  @NonNull final QueuePolicy queuePolicy,
+                  final int stringPoolSize) {
         this.skipStaleRequests = skipStaleRequests;
         this.autoRecover = autoRecover;
+        this.requestTimeout = requestTimeout;
+        this.retryPolicy = retryPolicy;
+        this.singleFlightPolicy = singleFlightPolicy;
+        this.queuePolicy = queuePolicy;
+        this.stringPoolSize = stringPoolSize;
         this.providers = Collections.unmodifiableSet(providers);
         this.billingListener = billingListener;
     }
@@ -88,6 +119,61 @@ public final class Configuration {
         return autoRecover;
     }
 
+    /**
+     * Gets deadline for a single billing request.
+     * <p>
+     * If request is not handled in time, it's abandoned and response with
+     * {@link org.onepf.opfiab.model.event.billing.Status#TIMEOUT} status is sent instead.
+     *
+     * @return Request deadline in milliseconds, 0 if requests never time out.
+     */
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Gets policy used to retry requests which failed due to transient errors.
+     * <p>
+     * Retries happen within a single request execution, without releasing the library.
+     *
+     * @return RetryPolicy object.
+     */
+    @NonNull
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Gets policy used to decide which requests can share single execution.
+     *
+     * @return SingleFlightPolicy object.
+     */
+    @NonNull
+    public SingleFlightPolicy getSingleFlightPolicy() {
+        return singleFlightPolicy;
+    }
+
+    /**
+     * Gets policy used to limit number of requests waiting for execution.
+     *
+     * @return QueuePolicy object.
+     */
+    @NonNull
+    public QueuePolicy getQueuePolicy() {
+        return queuePolicy;
+    }
+
+    /**
+     * Gets maximum number of distinct SKUs and provider names shared across billing models.
+     *
+     * @return Size of the string pool.
+     *
+     * @see StringPool
+     */
+    public int getStringPoolSize() {
+        return stringPoolSize;
+    }
+
     /**
      * Builder class for {@link Configuration} object.
      */
@@ -99,6 +185,14 @@ public final class Configuration {
         private BillingListener billingListener;
         private boolean skipStaleRequests = true;
         private boolean autoRecover;
+        private long requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+        @NonNull
+        private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+        @NonNull
+        private SingleFlightPolicy singleFlightPolicy = SingleFlightPolicy.DEFAULT;
+        @NonNull
+        private QueuePolicy queuePolicy = QueuePolicy.DEFAULT;
+        private int stringPoolSize = DEFAULT_STRING_POOL_SIZE;
 
         /**
          * Adds supported billing provider.
@@ -150,13 +244,97 @@ public final class Configuration {
             return this;
         }
 
+        /**
+         * Sets deadline for a single billing request.
+         *
+         * @param requestTimeout Deadline in milliseconds, 0 to disable request timeouts.
+         *
+         * @return this object.
+         *
+         * @see #DEFAULT_REQUEST_TIMEOUT
+         */
+        public Builder setRequestTimeout(final long requestTimeout) {
+            if (requestTimeout < 0) {
+                throw new IllegalArgumentException("Timeout can't be negative.");
+            }
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /**
+         * Sets policy to retry requests which failed due to transient errors.
+         *
+         * @param retryPolicy RetryPolicy object to use.
+         *
+         * @return this object.
+         *
+         * @see RetryPolicy#DEFAULT
+         * @see RetryPolicy#NONE
+         */
+        public Builder setRetryPolicy(@NonNull final RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Sets policy to decide which requests can share single execution.
+         *
+         * @param singleFlightPolicy SingleFlightPolicy object to use.
+         *
+         * @return this object.
+         *
+         * @see SingleFlightPolicy#DEFAULT
+         * @see SingleFlightPolicy#NONE
+         */
+        public Builder setSingleFlightPolicy(
+                @NonNull final SingleFlightPolicy singleFlightPolicy) {
+            this.singleFlightPolicy = singleFlightPolicy;
+            return this;
+        }
+
+        /**
+         * Sets policy to limit number of requests waiting for execution.
+         *
+         * @param queuePolicy QueuePolicy object to use.
+         *
+         * @return this object.
+         *
+         * @see QueuePolicy#DEFAULT
+         * @see QueuePolicy#UNBOUNDED
+         */
+        public Builder setQueuePolicy(@NonNull final QueuePolicy queuePolicy) {
+            this.queuePolicy = queuePolicy;
+            return this;
+        }
+
+        /**
+         * Sets maximum number of distinct SKUs and provider names shared across billing models.
+         * <p>
+         * Should be comparable to the number of SKUs application works with.
+         *
+         * @param stringPoolSize Size of the string pool, must be positive.
+         *
+         * @return this object.
+         *
+         * @see #DEFAULT_STRING_POOL_SIZE
+         */
+        public Builder setStringPoolSize(final int stringPoolSize) {
+            if (stringPoolSize <= 0) {
+                throw new IllegalArgumentException("Pool size must be positive.");
+            }
+            this.stringPoolSize = stringPoolSize;
+            return this;
+        }
+
         /**
          * Constructs new Configuration object.
          *
          * @return Newly constructed Configuration instance.
          */
         public Configuration build() {
-            return new Configuration(providers, billingListener, skipStaleRequests, autoRecover);
+            return new Configuration(providers, billingListener, skipStaleRequests, autoRecover,
+                                     requestTimeout, retryPolicy, singleFlightPolicy,
+                                     queuePolicy, stringPoolSize);
         }
     }
 }
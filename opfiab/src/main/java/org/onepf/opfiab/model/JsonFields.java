@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.model;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Top-level scalar values of a JSON object, pulled with streaming parser.
+ * <p>
+ * Unlike {@link JSONObject} no tree is built: nested objects and arrays are skipped, as well as
+ * values which weren't asked for. Accessors mirror ones of {@link JSONObject}, JSON null is
+ * treated as a missing value.
+ */
+public final class JsonFields {
+
+    /**
+     * Parses supplied JSON object.
+     *
+     * @param json  JSON object string.
+     * @param names Names of values to keep, null to keep all top-level scalar values.
+     *
+     * @return Parsed values, can't be null.
+     * @throws JSONException If supplied string is not a valid JSON object.
+     */
+    @NonNull
+    public static JsonFields parse(@NonNull final String json,
+                                   @Nullable final Collection<String> names)
+            throws JSONException {
+        final Map<String, String> values = new HashMap<>();
+        final JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                final JsonToken token = reader.peek();
+                if (names != null && !names.contains(name)) {
+                    reader.skipValue();
+                } else if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                    // Numbers are kept as is and parsed on demand
+                    values.put(name, reader.nextString());
+                } else if (token == JsonToken.BOOLEAN) {
+                    values.put(name, String.valueOf(reader.nextBoolean()));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException exception) {
+            final JSONException jsonException = new JSONException("Malformed JSON: " + json);
+            jsonException.initCause(exception);
+            throw jsonException;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignore) {
+                // StringReader can't fail
+            }
+        }
+        return new JsonFields(values);
+    }
+
+    /**
+     * Pulls values from already parsed JSON object.
+     *
+     * @param jsonObject JSON object to pull values from.
+     * @param names      Names of values to keep, null to keep all top-level scalar values.
+     *
+     * @return Pulled values, can't be null.
+     */
+    @NonNull
+    public static JsonFields from(@NonNull final JSONObject jsonObject,
+                                  @Nullable final Collection<String> names) {
+        final Map<String, String> values = new HashMap<>();
+        final Iterator<String> keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            final String name = keys.next();
+            final Object value = jsonObject.opt(name);
+            if ((names == null || names.contains(name))
+                    && (value instanceof String || value instanceof Number
+                    || value instanceof Boolean)) {
+                values.put(name, value.toString());
+            }
+        }
+        return new JsonFields(values);
+    }
+
+
+    @NonNull
+    private final Map<String, String> values;
+
+    private JsonFields(@NonNull final Map<String, String> values) {
+        this.values = values;
+    }
+
+    @NonNull
+    private String get(@NonNull final String name) throws JSONException {
+        final String value = values.get(name);
+        if (value == null) {
+            throw new JSONException("No value for " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Checks if value with supplied name is present.
+     *
+     * @param name Name of the value.
+     *
+     * @return True if value is present and is not JSON null.
+     */
+    public boolean has(@NonNull final String name) {
+        return values.containsKey(name);
+    }
+
+    @NonNull
+    public String getString(@NonNull final String name) throws JSONException {
+        return get(name);
+    }
+
+    @NonNull
+    public String optString(@NonNull final String name) {
+        return optString(name, "");
+    }
+
+    public String optString(@NonNull final String name, final String fallback) {
+        final String value = values.get(name);
+        return value == null ? fallback : value;
+    }
+
+    public long getLong(@NonNull final String name) throws JSONException {
+        final String value = get(name);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ignore) {
+            return (long) getDouble(name);
+        }
+    }
+
+    public int getInt(@NonNull final String name) throws JSONException {
+        return (int) getLong(name);
+    }
+
+    public double getDouble(@NonNull final String name) throws JSONException {
+        final String value = get(name);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException exception) {
+            throw new JSONException("Value " + value + " at " + name + " is not a number.");
+        }
+    }
+
+    public boolean getBoolean(@NonNull final String name) throws JSONException {
+        final String value = get(name);
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        throw new JSONException("Value " + value + " at " + name + " is not a boolean.");
+    }
+
+    public boolean optBoolean(@NonNull final String name, final boolean fallback) {
+        try {
+            return has(name) ? getBoolean(name) : fallback;
+        } catch (JSONException ignore) {
+            return fallback;
+        }
+    }
+
+    public boolean optBoolean(@NonNull final String name) {
+        return optBoolean(name, false);
+    }
+}
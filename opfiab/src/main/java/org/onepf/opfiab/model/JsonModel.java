@@ -27,9 +27,12 @@ import org.onepf.opfutils.OPFLog;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
 
 /**
  * Simple model class that represents java object created from JSON.
+ * <p>
+ * Values are pulled from JSON with streaming parser, JSON tree is built only on demand.
  */
 public abstract class JsonModel implements JsonCompatible {
 
@@ -47,20 +50,50 @@ public abstract class JsonModel implements JsonCompatible {
     }
 
 
+    /**
+     * Values parsed from {@link #getOriginalJson()}.
+     */
     @NonNull
-    protected final JSONObject jsonObject;
+    protected final JsonFields fields;
     @NonNull
     private final String originalJson;
+    /**
+     * Lazily built JSON tree.
+     *
+     * @see #getJsonObject()
+     */
+    @Nullable
+    private transient volatile JSONObject jsonObject;
+    /**
+     * Lazily rendered {@link #toString()} value.
+     */
+    @Nullable
+    private transient volatile String rendered;
 
     public JsonModel(@NonNull final String originalJson)
             throws JSONException {
-        this.jsonObject = new JSONObject(originalJson);
+        this(originalJson, null);
+    }
+
+    /**
+     * Constructs model from supplied JSON, pulling only values with supplied names.
+     *
+     * @param originalJson JSON object string.
+     * @param names        Names of values used by model, null to parse all top-level values.
+     *
+     * @throws JSONException If supplied string is not a valid JSON object.
+     */
+    protected JsonModel(@NonNull final String originalJson,
+                        @Nullable final Collection<String> names)
+            throws JSONException {
+        this.fields = JsonFields.parse(originalJson, names);
         this.originalJson = originalJson;
     }
 
     public JsonModel(@NonNull final JSONObject jsonObject) {
-        this.jsonObject = jsonObject;
+        this.fields = JsonFields.from(jsonObject, null);
         this.originalJson = jsonObject.toString();
+        this.jsonObject = jsonObject;
     }
 
     /**
@@ -73,14 +106,50 @@ public abstract class JsonModel implements JsonCompatible {
         return originalJson;
     }
 
+    /**
+     * Gets JSON tree of {@link #getOriginalJson()}, it's built on first call.
+     * <p>
+     * Replaces protected {@code jsonObject} field, which had to be populated for every model.
+     *
+     * @return JSONObject shared by all callers.
+     * @deprecated Use {@link #fields} to read values or {@link #toJson()} to get a copy.
+     */
+    @Deprecated
+    @NonNull
+    protected JSONObject getJsonObject() {
+        JSONObject result = jsonObject;
+        if (result == null) {
+            result = toJson();
+            jsonObject = result;
+        }
+        return result;
+    }
+
+    /**
+     * Builds JSON object from {@link #getOriginalJson()}.
+     * <p>
+     * Object is built anew on each call, parsed values are used by model itself.
+     *
+     * @return Newly constructed JSONObject.
+     */
     @NonNull
     @Override
     public JSONObject toJson() {
-        return jsonObject;
+        try {
+            return new JSONObject(originalJson);
+        } catch (JSONException exception) {
+            OPFLog.e("", exception);
+        }
+        return new JSONObject();
     }
 
     @Override
     public String toString() {
-        return OPFIabUtils.toString(this);
+        String result = rendered;
+        if (result == null) {
+            result = OPFIabUtils.toString(this);
+            rendered = result;
+        }
+        return result;
     }
 }
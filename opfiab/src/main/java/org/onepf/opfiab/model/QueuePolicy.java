@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.model;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.api.AdvancedIabHelper;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.Status;
+
+/**
+ * Model class describing how many requests can wait for execution and what to do when there are
+ * too many of them.
+ * <p>
+ * Requests are queued by {@link AdvancedIabHelper}s while library is busy. Each helper queue is
+ * bounded, as well as total number of queued requests. Requests dropped due to overflow receive
+ * response with {@link Status#BUSY} status.
+ *
+ * @see Configuration#getQueuePolicy()
+ */
+@SuppressWarnings("PMD.MissingStaticMethodInNonInstantiatableClass")
+public final class QueuePolicy {
+
+    /**
+     * Decides which request is dropped when queue is full.
+     */
+    public enum Overflow {
+
+        /**
+         * The longest waiting request is dropped.
+         */
+        DROP_OLDEST,
+        /**
+         * Newly arrived request is dropped.
+         */
+        DROP_NEWEST,
+        /**
+         * Newly arrived request replaces pending request of the same type from the same helper.
+         * If there's no such request, the longest waiting one is dropped.
+         */
+        COALESCE,
+    }
+
+    /**
+     * Policy which doesn't limit number of queued requests.
+     */
+    public static final QueuePolicy UNBOUNDED = new Builder()
+            .setLimits(Integer.MAX_VALUE, Integer.MAX_VALUE)
+            .build();
+    /**
+     * Policy used by default: up to 32 requests per helper, up to 128 in total, requests of the
+     * same type are coalesced.
+     */
+    public static final QueuePolicy DEFAULT = new Builder().build();
+
+
+    private final int helperLimit;
+    private final int globalLimit;
+    @NonNull
+    private final Overflow overflow;
+
+    QueuePolicy(final int helperLimit, final int globalLimit, @NonNull final Overflow overflow) {
+        this.helperLimit = helperLimit;
+        this.globalLimit = globalLimit;
+        this.overflow = overflow;
+    }
+
+    /**
+     * Gets maximum number of requests queued by a single helper.
+     *
+     * @return Number of requests.
+     */
+    public int getHelperLimit() {
+        return helperLimit;
+    }
+
+    /**
+     * Gets maximum number of requests queued by all helpers together.
+     *
+     * @return Number of requests.
+     */
+    public int getGlobalLimit() {
+        return globalLimit;
+    }
+
+    /**
+     * Gets policy used to pick request to drop when queue is full.
+     *
+     * @return Overflow policy.
+     */
+    @NonNull
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * Picks queued request to drop in favor of the newly arrived one.
+     *
+     * @param queue   Queue which has to shrink, oldest request first.
+     * @param request Newly arrived request.
+     *
+     * @return Request to drop, may be the newly arrived one.
+     */
+    @NonNull
+    public BillingRequest pickVictim(@NonNull final Iterable<BillingRequest> queue,
+                                     @NonNull final BillingRequest request) {
+        if (overflow == Overflow.DROP_NEWEST) {
+            return request;
+        }
+        BillingRequest oldest = null;
+        BillingRequest sameType = null;
+        for (final BillingRequest billingRequest : queue) {
+            if (oldest == null) {
+                oldest = billingRequest;
+            }
+            if (billingRequest.getType() == request.getType()) {
+                sameType = billingRequest;
+            }
+        }
+        if (overflow == Overflow.COALESCE && sameType != null) {
+            return sameType;
+        }
+        return oldest == null ? request : oldest;
+    }
+
+    @Override
+    public String toString() {
+        return "QueuePolicy{helperLimit=" + helperLimit
+                + ", globalLimit=" + globalLimit
+                + ", overflow=" + overflow
+                + '}';
+    }
+
+    /**
+     * Builder class for {@link QueuePolicy} object.
+     */
+    public static class Builder {
+
+        private static final int DEFAULT_HELPER_LIMIT = 32;
+        private static final int DEFAULT_GLOBAL_LIMIT = 128;
+
+        private int helperLimit = DEFAULT_HELPER_LIMIT;
+        private int globalLimit = DEFAULT_GLOBAL_LIMIT;
+        @NonNull
+        private Overflow overflow = Overflow.COALESCE;
+
+        /**
+         * Sets limits for number of queued requests.
+         *
+         * @param helperLimit Maximum number of requests queued by a single helper.
+         * @param globalLimit Maximum number of requests queued by all helpers together.
+         *
+         * @return this object.
+         */
+        public Builder setLimits(final int helperLimit, final int globalLimit) {
+            if (helperLimit < 1 || globalLimit < 1) {
+                throw new IllegalArgumentException("Limits must be positive.");
+            }
+            this.helperLimit = helperLimit;
+            this.globalLimit = globalLimit;
+            return this;
+        }
+
+        /**
+         * Sets policy to pick request to drop when queue is full.
+         *
+         * @param overflow Overflow policy to use.
+         *
+         * @return this object.
+         */
+        public Builder setOverflow(@NonNull final Overflow overflow) {
+            this.overflow = overflow;
+            return this;
+        }
+
+        /**
+         * Constructs new QueuePolicy object.
+         *
+         * @return Newly constructed QueuePolicy instance.
+         */
+        public QueuePolicy build() {
+            return new QueuePolicy(helperLimit, globalLimit, overflow);
+        }
+    }
+}
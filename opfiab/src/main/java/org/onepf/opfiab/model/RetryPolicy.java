@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.model;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.event.billing.BillingEventType;
+import org.onepf.opfiab.model.event.billing.Status;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Model class describing how {@link BillingProvider} should retry requests which failed due to
+ * transient errors, such as {@link Status#SERVICE_UNAVAILABLE}.
+ * <p>
+ * Delay before each retry grows exponentially and is randomized to avoid synchronized retries.
+ * {@link BillingEventType#PURCHASE} requests are never retried.
+ *
+ * @see Configuration#getRetryPolicy()
+ */
+@SuppressWarnings("PMD.MissingStaticMethodInNonInstantiatableClass")
+public final class RetryPolicy {
+
+    /**
+     * Policy which never retries requests.
+     */
+    public static final RetryPolicy NONE = new Builder().setMaxAttempts(1).build();
+    /**
+     * Policy used by default: up to 3 attempts, 0.5 to 4 seconds between them.
+     */
+    public static final RetryPolicy DEFAULT = new Builder().build();
+
+    private static final Random RANDOM = new Random();
+    /**
+     * Prevents delay overflow.
+     */
+    private static final int MAX_SHIFT = 30;
+
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final long maxDelay;
+    @NonNull
+    private final Set<BillingEventType> types;
+
+    RetryPolicy(final int maxAttempts, final long initialDelay, final long maxDelay,
+                @NonNull final Set<BillingEventType> types) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.types = Collections.unmodifiableSet(types);
+    }
+
+    /**
+     * Gets maximum number of attempts to handle a single request, including the first one.
+     *
+     * @return Number of attempts, 1 if requests are never retried.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Checks if requests of supplied type can be retried.
+     *
+     * @param type Type of the request.
+     *
+     * @return True if requests can be retried, false otherwise.
+     */
+    public boolean isRetriable(@NonNull final BillingEventType type) {
+        return maxAttempts > 1 && type != BillingEventType.PURCHASE && types.contains(type);
+    }
+
+    /**
+     * Checks if request resulted in response with supplied status should be retried.
+     *
+     * @param status Status of the response.
+     *
+     * @return True if status indicates transient error.
+     */
+    public boolean isRetriable(@NonNull final Status status) {
+        return status == Status.SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * Picks delay before next attempt.
+     *
+     * @param attempt Number of failed attempts so far, starting from 1.
+     *
+     * @return Delay in milliseconds.
+     */
+    public long getDelay(final int attempt) {
+        final int shift = Math.min(Math.max(attempt - 1, 0), MAX_SHIFT);
+        final long delay = Math.min(maxDelay, initialDelay << shift);
+        // Keep at least half of the delay, randomize the rest
+        final long half = delay / 2;
+        return half + (long) (RANDOM.nextDouble() * (delay - half));
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxAttempts=" + maxAttempts
+                + ", initialDelay=" + initialDelay
+                + ", maxDelay=" + maxDelay
+                + ", types=" + types
+                + '}';
+    }
+
+    /**
+     * Builder class for {@link RetryPolicy} object.
+     */
+    public static class Builder {
+
+        private static final int DEFAULT_MAX_ATTEMPTS = 3;
+        private static final long DEFAULT_INITIAL_DELAY = 500L;
+        private static final long DEFAULT_MAX_DELAY = 4000L;
+
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private long initialDelay = DEFAULT_INITIAL_DELAY;
+        private long maxDelay = DEFAULT_MAX_DELAY;
+        @NonNull
+        private Set<BillingEventType> types = EnumSet.of(BillingEventType.CONSUME,
+                                                         BillingEventType.INVENTORY,
+                                                         BillingEventType.SKU_DETAILS);
+
+        /**
+         * Sets maximum number of attempts to handle a single request.
+         *
+         * @param maxAttempts Number of attempts including the first one, 1 to disable retries.
+         *
+         * @return this object.
+         */
+        public Builder setMaxAttempts(final int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("There must be at least one attempt.");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets delays between attempts.
+         *
+         * @param initialDelay Delay before the first retry, in milliseconds.
+         * @param maxDelay     Upper bound for any delay, in milliseconds.
+         *
+         * @return this object.
+         */
+        public Builder setDelay(final long initialDelay, final long maxDelay) {
+            if (initialDelay < 0 || maxDelay < initialDelay) {
+                throw new IllegalArgumentException("Illegal delays.");
+            }
+            this.initialDelay = initialDelay;
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * Sets types of requests which can be retried.
+         * <p>
+         * {@link BillingEventType#PURCHASE} is ignored, since purchase can't be safely repeated.
+         *
+         * @param types Types of requests to retry.
+         *
+         * @return this object.
+         */
+        public Builder setRetriableTypes(@NonNull final BillingEventType... types) {
+            this.types = types.length == 0
+                    ? EnumSet.noneOf(BillingEventType.class)
+                    : EnumSet.copyOf(Arrays.asList(types));
+            this.types.remove(BillingEventType.PURCHASE);
+            return this;
+        }
+
+        /**
+         * Constructs new RetryPolicy object.
+         *
+         * @return Newly constructed RetryPolicy instance.
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(maxAttempts, initialDelay, maxDelay, EnumSet.copyOf(types));
+        }
+    }
+}
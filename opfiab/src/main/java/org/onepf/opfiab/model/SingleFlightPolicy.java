@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.model;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.model.event.billing.BillingEventType;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Model class describing which requests can share single execution.
+ * <p>
+ * Request identical to the one which is already being executed is not executed again, instead it
+ * receives copy of the same response. Requests are compared with {@link Matcher} picked by request
+ * type, requests of types without matcher are always executed.
+ *
+ * @see Configuration#getSingleFlightPolicy()
+ */
+@SuppressWarnings("PMD.MissingStaticMethodInNonInstantiatableClass")
+public final class SingleFlightPolicy {
+
+    /**
+     * Decides whether two requests of the same type are identical.
+     */
+    public interface Matcher {
+
+        /**
+         * Checks if supplied request can share execution of the running one.
+         *
+         * @param runningRequest Request which is being executed.
+         * @param billingRequest Newly arrived request.
+         *
+         * @return True if requests are identical.
+         */
+        boolean matches(@NonNull final BillingRequest runningRequest,
+                        @NonNull final BillingRequest billingRequest);
+    }
+
+    /**
+     * Matcher which relies on {@link BillingRequest#equals(Object)}.
+     */
+    public static final Matcher EQUALS = new Matcher() {
+        @Override
+        public boolean matches(@NonNull final BillingRequest runningRequest,
+                               @NonNull final BillingRequest billingRequest) {
+            return runningRequest.equals(billingRequest);
+        }
+    };
+
+    /**
+     * Policy which always executes every request.
+     */
+    public static final SingleFlightPolicy NONE = new Builder()
+            .setMatcher(BillingEventType.CONSUME, null)
+            .setMatcher(BillingEventType.INVENTORY, null)
+            .setMatcher(BillingEventType.SKU_DETAILS, null)
+            .build();
+    /**
+     * Policy used by default: equal consume, inventory and SKU details requests share execution,
+     * purchases are always executed.
+     */
+    public static final SingleFlightPolicy DEFAULT = new Builder().build();
+
+
+    @NonNull
+    private final Map<BillingEventType, Matcher> matchers;
+
+    SingleFlightPolicy(@NonNull final Map<BillingEventType, Matcher> matchers) {
+        this.matchers = matchers;
+    }
+
+    /**
+     * Checks if supplied request can share execution of the running one.
+     *
+     * @param runningRequest Request which is being executed.
+     * @param billingRequest Newly arrived request.
+     *
+     * @return True if requests are identical according to this policy.
+     */
+    public boolean matches(@NonNull final BillingRequest runningRequest,
+                           @NonNull final BillingRequest billingRequest) {
+        final BillingEventType type = billingRequest.getType();
+        final Matcher matcher = matchers.get(type);
+        return matcher != null
+                && runningRequest.getType() == type
+                && runningRequest.getRequestId() != billingRequest.getRequestId()
+                && matcher.matches(runningRequest, billingRequest);
+    }
+
+    /**
+     * Builder class for {@link SingleFlightPolicy} object.
+     */
+    public static class Builder {
+
+        @NonNull
+        private final Map<BillingEventType, Matcher> matchers =
+                new EnumMap<>(BillingEventType.class);
+
+        public Builder() {
+            matchers.put(BillingEventType.CONSUME, EQUALS);
+            matchers.put(BillingEventType.INVENTORY, EQUALS);
+            matchers.put(BillingEventType.SKU_DETAILS, EQUALS);
+        }
+
+        /**
+         * Sets matcher for requests of supplied type.
+         *
+         * @param type    Type of requests.
+         * @param matcher Matcher to use, null to always execute requests of this type.
+         *
+         * @return this object.
+         */
+        public Builder setMatcher(@NonNull final BillingEventType type,
+                                  @Nullable final Matcher matcher) {
+            if (matcher == null) {
+                matchers.remove(type);
+            } else {
+                matchers.put(type, matcher);
+            }
+            return this;
+        }
+
+        /**
+         * Constructs new SingleFlightPolicy object.
+         *
+         * @return Newly constructed SingleFlightPolicy instance.
+         */
+        public SingleFlightPolicy build() {
+            return new SingleFlightPolicy(new EnumMap<>(matchers));
+        }
+    }
+}
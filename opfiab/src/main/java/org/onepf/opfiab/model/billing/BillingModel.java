@@ -16,6 +16,8 @@
 
 package org.onepf.opfiab.model.billing;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -23,6 +25,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.model.JsonCompatible;
+import org.onepf.opfiab.util.BillingCodec;
 import org.onepf.opfiab.util.OPFIabUtils;
 import org.onepf.opfutils.OPFLog;
 
@@ -32,8 +35,10 @@ import static org.json.JSONObject.NULL;
 
 /**
  * Parent class for all billing models.
+ * <p>
+ * Models are written to {@link Parcel} with {@link BillingCodec}.
  */
-public abstract class BillingModel implements JsonCompatible, Serializable {
+public abstract class BillingModel implements JsonCompatible, Serializable, Parcelable {
 
     private static final String NAME_SKU = "sku";
     private static final String NAME_TYPE = "type";
@@ -49,14 +54,28 @@ public abstract class BillingModel implements JsonCompatible, Serializable {
     private final String providerName;
     @Nullable
     private final String originalJson;
+    /**
+     * Lazily rendered {@link #toString()} value.
+     */
+    @Nullable
+    private transient volatile String rendered;
+    /**
+     * Lazily parsed {@link #originalJson}, shared by all {@link #toJson()} results.
+     */
+    @Nullable
+    private transient volatile JSONObject originalJsonObject;
+    /**
+     * Lazily computed {@link #hashCode()} value, 0 if it wasn't computed yet.
+     */
+    private transient int hash;
 
     protected BillingModel(@NonNull final String sku,
                            @Nullable final SkuType type,
                            @Nullable final String providerName,
                            @Nullable final String originalJson) {
-        this.sku = sku;
+        this.sku = StringPool.intern(sku);
         this.type = type == null ? SkuType.UNKNOWN : type;
-        this.providerName = providerName;
+        this.providerName = providerName == null ? null : StringPool.intern(providerName);
         this.originalJson = originalJson;
     }
 
@@ -107,6 +126,24 @@ public abstract class BillingModel implements JsonCompatible, Serializable {
         return originalJson;
     }
 
+    @NonNull
+    private Object parseOriginalJson() throws JSONException {
+        if (originalJson == null) {
+            return NULL;
+        }
+        JSONObject result = originalJsonObject;
+        if (result == null) {
+            result = new JSONObject(originalJson);
+            originalJsonObject = result;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Original JSON is parsed only once, its object is shared and must not be modified.
+     */
     @NonNull
     @Override
     public JSONObject toJson() {
@@ -115,14 +152,23 @@ public abstract class BillingModel implements JsonCompatible, Serializable {
             jsonObject.put(NAME_SKU, sku);
             jsonObject.put(NAME_TYPE, type);
             jsonObject.put(NAME_PROVIDER_NAME, providerName == null ? NULL : providerName);
-            jsonObject.put(NAME_ORIGINAL_JSON,
-                           originalJson == null ? NULL : new JSONObject(originalJson));
+            jsonObject.put(NAME_ORIGINAL_JSON, parseOriginalJson());
         } catch (JSONException exception) {
             OPFLog.e("", exception);
         }
         return jsonObject;
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(final Parcel dest, final int flags) {
+        BillingCodec.writeToParcel(dest, this);
+    }
+
     //CHECKSTYLE:OFF
     @SuppressWarnings({"PMD", "RedundantIfStatement", "SimplifiableIfStatement"})
     @Override
@@ -132,6 +178,7 @@ public abstract class BillingModel implements JsonCompatible, Serializable {
 
         final BillingModel that = (BillingModel) o;
 
+        if (hashCode() != that.hashCode()) return false;
         if (!getSku().equals(that.getSku())) return false;
         if (getType() != that.getType()) return false;
         if (getProviderName() != null ? !getProviderName().equals(
@@ -143,6 +190,20 @@ public abstract class BillingModel implements JsonCompatible, Serializable {
 
     @Override
     public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            result = computeHashCode();
+            hash = result;
+        }
+        return result;
+    }
+
+    /**
+     * Computes hash code of this model, result is cached by {@link #hashCode()}.
+     *
+     * @return Hash code of this model.
+     */
+    protected int computeHashCode() {
         int result = getSku().hashCode();
         result = 31 * result + getType().hashCode();
         result = 31 * result + (getProviderName() != null ? getProviderName().hashCode() : 0);
@@ -152,7 +213,12 @@ public abstract class BillingModel implements JsonCompatible, Serializable {
 
     @Override
     public String toString() {
-        return OPFIabUtils.toString(this);
+        String result = rendered;
+        if (result == null) {
+            result = OPFIabUtils.toString(this);
+            rendered = result;
+        }
+        return result;
     }
     //CHECKSTYLE:ON
 
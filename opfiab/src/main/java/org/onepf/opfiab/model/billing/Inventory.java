@@ -0,0 +1,270 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.model.billing;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.verification.VerificationResult;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map of purchases to their verification results.
+ * <p>
+ * Purchases and results are kept in parallel arrays, lookup index is built only when it's needed.
+ * Unlike regular map, inventory can be passed between processing stages as is and stages can
+ * replace purchases or results without rebuilding it.
+ */
+@SuppressWarnings("PMD.MissingStaticMethodInNonInstantiatableClass")
+public final class Inventory extends AbstractMap<Purchase, VerificationResult>
+        implements Serializable {
+
+    private static final Inventory EMPTY =
+            new Inventory(new Purchase[0], new VerificationResult[0]);
+
+    /**
+     * Gets inventory with no purchases.
+     *
+     * @return Empty inventory, can't be null.
+     */
+    @NonNull
+    public static Inventory empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Gets inventory with contents of supplied map.
+     *
+     * @param map Purchases mapped to their verification results, can be null.
+     *
+     * @return Supplied object if it's already an inventory, new inventory otherwise.
+     */
+    @NonNull
+    public static Inventory of(@Nullable final Map<Purchase, VerificationResult> map) {
+        if (map instanceof Inventory) {
+            return (Inventory) map;
+        }
+        if (map == null || map.isEmpty()) {
+            return EMPTY;
+        }
+        final int size = map.size();
+        final Purchase[] purchases = new Purchase[size];
+        final VerificationResult[] results = new VerificationResult[size];
+        int index = 0;
+        for (final Map.Entry<Purchase, VerificationResult> entry : map.entrySet()) {
+            purchases[index] = entry.getKey();
+            results[index] = entry.getValue();
+            index++;
+        }
+        return new Inventory(purchases, results);
+    }
+
+    /**
+     * Gets inventory with supplied unverified purchases.
+     *
+     * @param purchases Purchases to put in inventory, duplicates are ignored. Can be null.
+     *
+     * @return Newly constructed inventory with null verification results.
+     */
+    @NonNull
+    public static Inventory of(@Nullable final Iterable<Purchase> purchases) {
+        if (purchases == null) {
+            return EMPTY;
+        }
+        final Set<Purchase> set = new LinkedHashSet<>();
+        for (final Purchase purchase : purchases) {
+            set.add(purchase);
+        }
+        if (set.isEmpty()) {
+            return EMPTY;
+        }
+        final int size = set.size();
+        return new Inventory(set.toArray(new Purchase[size]), new VerificationResult[size]);
+    }
+
+
+    @NonNull
+    private final Purchase[] purchases;
+    @NonNull
+    private final VerificationResult[] results;
+    /**
+     * Maps purchases to their positions, built on first lookup.
+     */
+    @Nullable
+    private transient volatile Map<Purchase, Integer> index;
+    @Nullable
+    private transient Set<Map.Entry<Purchase, VerificationResult>> entrySet;
+
+    private Inventory(@NonNull final Purchase[] purchases,
+                      @NonNull final VerificationResult[] results) {
+        super();
+        this.purchases = purchases;
+        this.results = results;
+    }
+
+    @NonNull
+    private Map<Purchase, Integer> getIndex() {
+        Map<Purchase, Integer> result = index;
+        if (result == null) {
+            result = new HashMap<>(purchases.length * 2);
+            for (int i = 0; i < purchases.length; i++) {
+                result.put(purchases[i], i);
+            }
+            index = result;
+        }
+        return result;
+    }
+
+    private int indexOf(@Nullable final Object purchase) {
+        if (purchases.length == 0 || !(purchase instanceof Purchase)) {
+            return -1;
+        }
+        final Integer position = getIndex().get(purchase);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Gets purchase at supplied position.
+     *
+     * @param position Position of the purchase, from 0 to {@link #size()} exclusive.
+     *
+     * @return Purchase object, can't be null.
+     */
+    @NonNull
+    public Purchase getPurchase(final int position) {
+        return purchases[position];
+    }
+
+    /**
+     * Gets verification result of the purchase at supplied position.
+     *
+     * @param position Position of the purchase, from 0 to {@link #size()} exclusive.
+     *
+     * @return Verification result, null if purchase wasn't verified.
+     */
+    @Nullable
+    public VerificationResult getVerificationResult(final int position) {
+        return results[position];
+    }
+
+    /**
+     * Makes copy of this inventory with different verification results.
+     * <p>
+     * Purchases are shared with this inventory.
+     *
+     * @param verificationResults Results for each purchase, in order of their positions.
+     *
+     * @return Newly constructed inventory.
+     */
+    @NonNull
+    public Inventory withVerificationResults(
+            @NonNull final VerificationResult[] verificationResults) {
+        if (verificationResults.length != results.length) {
+            throw new IllegalArgumentException("Results count doesn't match purchases count.");
+        }
+        final Inventory inventory = new Inventory(purchases, verificationResults.clone());
+        inventory.index = index;
+        return inventory;
+    }
+
+    /**
+     * Makes copy of this inventory with different purchases, e.g. with substituted SKUs.
+     * <p>
+     * Verification results are shared with this inventory.
+     *
+     * @param newPurchases Purchases to replace existing ones, in order of their positions. Must
+     *                     not contain duplicates.
+     *
+     * @return Newly constructed inventory.
+     */
+    @NonNull
+    public Inventory withPurchases(@NonNull final Purchase[] newPurchases) {
+        if (newPurchases.length != purchases.length) {
+            throw new IllegalArgumentException("Purchases count doesn't match results count.");
+        }
+        return new Inventory(newPurchases.clone(), results);
+    }
+
+    @Override
+    public int size() {
+        return purchases.length;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public VerificationResult get(final Object key) {
+        final int position = indexOf(key);
+        return position < 0 ? null : results[position];
+    }
+
+    @NonNull
+    @Override
+    public Set<Map.Entry<Purchase, VerificationResult>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<Purchase, VerificationResult>> {
+
+        @Override
+        public Iterator<Map.Entry<Purchase, VerificationResult>> iterator() {
+            return new Iterator<Map.Entry<Purchase, VerificationResult>>() {
+
+                private int position;
+
+                @Override
+                public boolean hasNext() {
+                    return position < purchases.length;
+                }
+
+                @Override
+                public Map.Entry<Purchase, VerificationResult> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final int current = position++;
+                    return new SimpleImmutableEntry<>(purchases[current], results[current]);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return purchases.length;
+        }
+    }
+}
@@ -18,9 +18,11 @@ package org.onepf.opfiab.model.billing;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.onepf.opfiab.util.BillingCodec;
 import org.onepf.opfutils.OPFLog;
 
 import static org.json.JSONObject.NULL;
@@ -30,6 +32,8 @@ import static org.json.JSONObject.NULL;
  */
 public class Purchase extends BillingModel {
 
+    public static final Creator<Purchase> CREATOR = BillingCodec.creator(Purchase.class);
+
     private static final String NAME_TOKEN = "token";
     private static final String NAME_PURCHASE_TIME = "purchaseTime";
     private static final String NAME_CANCELED = "canceled";
@@ -107,6 +111,49 @@ public class Purchase extends BillingModel {
         return jsonObject;
     }
 
+    /**
+     * Purchases with tokens are identified by SKU, type, provider, token and cancellation state,
+     * original JSON of the same purchase can differ between queries.
+     */
+    //CHECKSTYLE:OFF
+    @SuppressWarnings({"PMD", "SimplifiableIfStatement"})
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Purchase)) return super.equals(o);
+
+        final Purchase that = (Purchase) o;
+
+        if (canceled != that.canceled) return false;
+        if (token == null && that.token == null) return super.equals(o);
+        if (hashCode() != that.hashCode()) return false;
+        return token != null && token.equals(that.token)
+                && getSku().equals(that.getSku())
+                && getType() == that.getType()
+                && TextUtils.equals(getProviderName(), that.getProviderName());
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result;
+        if (token == null) {
+            result = super.computeHashCode();
+        } else {
+            result = getSku().hashCode();
+            result = 31 * result + getType().hashCode();
+            result = 31 * result + (getProviderName() != null ? getProviderName().hashCode() : 0);
+            result = 31 * result + token.hashCode();
+        }
+        result = 31 * result + (canceled ? 1 : 0);
+        return result;
+    }
+    //CHECKSTYLE:ON
+
     /**
      * Builder class for {@link Purchase} object.
      */
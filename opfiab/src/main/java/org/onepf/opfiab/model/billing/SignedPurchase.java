@@ -21,6 +21,7 @@ import android.support.annotation.Nullable;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.onepf.opfiab.util.BillingCodec;
 import org.onepf.opfutils.OPFLog;
 
 import static org.json.JSONObject.NULL;
@@ -31,6 +32,9 @@ import static org.json.JSONObject.NULL;
  */
 public class SignedPurchase extends Purchase {
 
+    public static final Creator<SignedPurchase> CREATOR =
+            BillingCodec.creator(SignedPurchase.class);
+
     private static final String NAME_SIGNATURE = "signature";
 
 
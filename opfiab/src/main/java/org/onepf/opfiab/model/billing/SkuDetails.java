@@ -23,6 +23,7 @@ import android.text.TextUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.util.BillingCodec;
 import org.onepf.opfutils.OPFLog;
 
 import static org.json.JSONObject.NULL;
@@ -32,6 +33,8 @@ import static org.json.JSONObject.NULL;
  */
 public class SkuDetails extends BillingModel {
 
+    public static final Creator<SkuDetails> CREATOR = BillingCodec.creator(SkuDetails.class);
+
     private static final String NAME_PRICE = "price";
     private static final String NAME_TITLE = "title";
     private static final String NAME_DESCRIPTION = "description";
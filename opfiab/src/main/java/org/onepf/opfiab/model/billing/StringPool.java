@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.model.billing;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.model.Configuration;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded table of canonical instances of strings repeated across billing models, such as SKUs
+ * and provider names.
+ * <p>
+ * Table is direct-mapped and lock-free: each string has a single slot picked by its hash, value
+ * in that slot is replaced by a colliding one. Size of the table is set by
+ * {@link Configuration.Builder#setStringPoolSize(int)}.
+ */
+public final class StringPool {
+
+    /**
+     * Largest supported table size.
+     */
+    private static final int MAX_SIZE = 1 << 30;
+
+    @NonNull
+    private static volatile AtomicReferenceArray<String> table =
+            new AtomicReferenceArray<>(tableSize(Configuration.DEFAULT_STRING_POOL_SIZE));
+
+
+    private StringPool() {
+        throw new UnsupportedOperationException();
+    }
+
+    private static int tableSize(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive.");
+        }
+        int size = 1;
+        while (size < capacity && size < MAX_SIZE) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Sets maximum number of distinct values kept, rounded up to a power of two.
+     * <p>
+     * Previously kept values are dropped if size changes.
+     *
+     * @param capacity Maximum number of values, must be positive.
+     */
+    public static void setCapacity(final int capacity) {
+        final int size = tableSize(capacity);
+        if (table.length() != size) {
+            table = new AtomicReferenceArray<>(size);
+        }
+    }
+
+    /**
+     * Gets canonical instance of supplied string.
+     *
+     * @param value String to look up.
+     *
+     * @return String equal to supplied one.
+     */
+    @NonNull
+    static String intern(@NonNull final String value) {
+        final AtomicReferenceArray<String> table = StringPool.table;
+        final int hash = value.hashCode();
+        // Spread higher bits, lower ones pick the slot
+        final int index = (hash ^ hash >>> 16) & table.length() - 1;
+        final String canonical = table.get(index);
+        if (value.equals(canonical)) {
+            return canonical;
+        }
+        // Racing writers just replace each other, any of them is a fine canonical instance
+        table.lazySet(index, value);
+        return value;
+    }
+
+    /**
+     * Counts values currently kept.
+     *
+     * @return Number of kept values.
+     */
+    static int size() {
+        final AtomicReferenceArray<String> table = StringPool.table;
+        int size = 0;
+        for (int i = 0; i < table.length(); i++) {
+            if (table.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+}
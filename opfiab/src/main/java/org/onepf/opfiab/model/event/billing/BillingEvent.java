@@ -17,6 +17,7 @@
 package org.onepf.opfiab.model.event.billing;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -32,10 +33,17 @@ import java.io.Serializable;
 abstract class BillingEvent implements JsonCompatible, Serializable {
 
     private static final String NAME_TYPE = "type";
+    private static final String NAME_REQUEST_ID = "request_id";
 
 
     @NonNull
     private final BillingEventType type;
+    private long requestId;
+    /**
+     * Lazily rendered {@link #toString()} value.
+     */
+    @Nullable
+    private transient volatile String rendered;
 
     protected BillingEvent(@NonNull final BillingEventType type) {
         this.type = type;
@@ -51,12 +59,29 @@ abstract class BillingEvent implements JsonCompatible, Serializable {
         return type;
     }
 
+    /**
+     * Gets identifier of the {@link BillingRequest} this event is related to.
+     * <p>
+     * Identifiers are assigned to requests in order of creation.
+     *
+     * @return Request identifier, or 0 if it's unknown.
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
+    void setRequestId(final long requestId) {
+        this.requestId = requestId;
+        this.rendered = null;
+    }
+
     @NonNull
     @Override
     public JSONObject toJson() {
         final JSONObject jsonObject = new JSONObject();
         try {
             jsonObject.put(NAME_TYPE, type);
+            jsonObject.put(NAME_REQUEST_ID, requestId);
         } catch (JSONException exception) {
             OPFLog.e("", exception);
         }
@@ -65,7 +90,12 @@ abstract class BillingEvent implements JsonCompatible, Serializable {
 
     @Override
     public String toString() {
-        return OPFIabUtils.toString(this);
+        String result = rendered;
+        if (result == null) {
+            result = OPFIabUtils.toString(this);
+            rendered = result;
+        }
+        return result;
     }
 
     //CHECKSTYLE:OFF
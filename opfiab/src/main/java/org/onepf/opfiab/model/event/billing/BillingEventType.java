@@ -25,4 +25,5 @@ public enum BillingEventType {
     PURCHASE,
     SKU_DETAILS,
     INVENTORY,
+    CONSUME_BATCH,
 }
@@ -25,6 +25,7 @@ import org.onepf.opfiab.billing.BillingProvider;
 
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -36,6 +37,8 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  */
 public abstract class BillingRequest extends BillingEvent {
 
+    private static final AtomicLong LAST_REQUEST_ID = new AtomicLong();
+
     @SuppressFBWarnings({"NFF_NON_FUNCTIONAL_FIELD"})
     @Nullable
     private final transient Reference<Activity> activityReference;
@@ -48,6 +51,7 @@ public abstract class BillingRequest extends BillingEvent {
         if (activity == null && activityHandlesResult) {
             throw new IllegalArgumentException();
         }
+        setRequestId(LAST_REQUEST_ID.incrementAndGet());
         this.activityReference = activity == null ? null : new WeakReference<>(activity);
         this.activityHandlesResult = activityHandlesResult;
     }
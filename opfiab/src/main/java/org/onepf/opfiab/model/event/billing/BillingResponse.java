@@ -16,6 +16,8 @@
 
 package org.onepf.opfiab.model.event.billing;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -23,6 +25,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.model.billing.BillingModel;
+import org.onepf.opfiab.util.BillingCodec;
 import org.onepf.opfutils.OPFLog;
 
 import java.util.Arrays;
@@ -36,7 +39,7 @@ import static org.onepf.opfiab.model.event.billing.Status.SUCCESS;
  * Model class that represents response from {@link BillingProvider} for
  * corresponding {@link BillingRequest}.
  */
-public abstract class BillingResponse extends BillingEvent {
+public abstract class BillingResponse extends BillingEvent implements Parcelable {
 
     private static final String NAME_PROVIDER_NAME = "provider_info";
     private static final String NAME_STATUS = "status";
@@ -102,6 +105,16 @@ public abstract class BillingResponse extends BillingEvent {
         return jsonObject;
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(final Parcel dest, final int flags) {
+        BillingCodec.writeToParcel(dest, this);
+    }
+
     //CHECKSTYLE:OFF
     @SuppressWarnings({"PMD", "RedundantIfStatement"})
     @Override
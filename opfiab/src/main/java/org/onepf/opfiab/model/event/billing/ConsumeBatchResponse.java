@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.model.event.billing;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.util.BillingCodec;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Response from {@link BillingProvider} for corresponding {@link ConsumeBatchRequest}.
+ * <p>
+ * Status of the whole batch is {@link Status#SUCCESS} only if every purchase was consumed,
+ * otherwise it's the status of the first failed consumption.
+ */
+public class ConsumeBatchResponse extends BillingResponse {
+
+    public static final Creator<ConsumeBatchResponse> CREATOR =
+            BillingCodec.creator(ConsumeBatchResponse.class);
+
+    private static final String NAME_RESPONSES = "responses";
+
+
+    @NonNull
+    private final List<ConsumeResponse> responses;
+
+    public ConsumeBatchResponse(@NonNull final Status status,
+                                @Nullable final String providerName,
+                                @NonNull final Collection<ConsumeResponse> responses) {
+        super(BillingEventType.CONSUME_BATCH, status, providerName);
+        this.responses = Collections.unmodifiableList(new ArrayList<>(responses));
+    }
+
+    public ConsumeBatchResponse(@Nullable final String providerName,
+                                @NonNull final Collection<ConsumeResponse> responses) {
+        this(getStatus(responses), providerName, responses);
+    }
+
+    @NonNull
+    private static Status getStatus(@NonNull final Iterable<ConsumeResponse> responses) {
+        for (final ConsumeResponse response : responses) {
+            if (response.getStatus() != Status.SUCCESS) {
+                return response.getStatus();
+            }
+        }
+        return Status.SUCCESS;
+    }
+
+    /**
+     * Gets outcome of consumption for each purchase from corresponding request.
+     *
+     * @return List of ConsumeResponse objects, in the same order as purchases in the request.
+     */
+    @NonNull
+    public List<ConsumeResponse> getResponses() {
+        return responses;
+    }
+
+    /**
+     * Gets status of consumption for supplied purchase.
+     *
+     * @param purchase Purchase from corresponding request.
+     *
+     * @return Status of consumption, or null if purchase wasn't a part of this batch.
+     */
+    @Nullable
+    public Status getStatus(@NonNull final Purchase purchase) {
+        for (final ConsumeResponse response : responses) {
+            if (purchase.equals(response.getPurchase())) {
+                return response.getStatus();
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    @Override
+    public JSONObject toJson() {
+        final JSONObject jsonObject = super.toJson();
+        try {
+            final JSONArray jsonArray = new JSONArray();
+            for (final ConsumeResponse response : responses) {
+                jsonArray.put(response.toJson());
+            }
+            jsonObject.put(NAME_RESPONSES, jsonArray);
+        } catch (JSONException exception) {
+            OPFLog.e("", exception);
+        }
+        return jsonObject;
+    }
+}
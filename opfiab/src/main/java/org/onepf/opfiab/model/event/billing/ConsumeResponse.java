@@ -23,6 +23,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.util.BillingCodec;
 import org.onepf.opfutils.OPFLog;
 
 /**
@@ -30,6 +31,9 @@ import org.onepf.opfutils.OPFLog;
  */
 public class ConsumeResponse extends BillingResponse {
 
+    public static final Creator<ConsumeResponse> CREATOR =
+            BillingCodec.creator(ConsumeResponse.class);
+
     private static final String NAME_PURCHASE = "purchase";
 
     @NonNull
@@ -23,12 +23,12 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.billing.Inventory;
 import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.util.BillingCodec;
 import org.onepf.opfiab.verification.VerificationResult;
 import org.onepf.opfutils.OPFLog;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -36,6 +36,9 @@ import java.util.Map;
  */
 public class InventoryResponse extends BillingResponse {
 
+    public static final Creator<InventoryResponse> CREATOR =
+            BillingCodec.creator(InventoryResponse.class);
+
     private static final String NAME_INVENTORY = "inventory";
     private static final String NAME_PURCHASE = "purchase";
     private static final String NAME_VERIFICATION_RESULT = "verification_result";
@@ -43,7 +46,7 @@ public class InventoryResponse extends BillingResponse {
 
 
     @NonNull
-    private final Map<Purchase, VerificationResult> inventory = new HashMap<>();
+    private final Inventory inventory;
     private final boolean hasMore;
 
     public InventoryResponse(@NonNull final Status status,
@@ -51,9 +54,7 @@ public class InventoryResponse extends BillingResponse {
                              @Nullable final Map<Purchase, VerificationResult> inventory,
                              final boolean hasMore) {
         super(BillingEventType.INVENTORY, status, providerName);
-        if (inventory != null) {
-            this.inventory.putAll(inventory);
-        }
+        this.inventory = Inventory.of(inventory);
         this.hasMore = hasMore;
     }
 
@@ -61,14 +62,7 @@ public class InventoryResponse extends BillingResponse {
                              @Nullable final String providerName,
                              @Nullable final Iterable<Purchase> inventory,
                              final boolean hasMore) {
-        this(status, providerName,
-                inventory == null ? null : new HashMap<Purchase, VerificationResult>() {
-                    {
-                        for (final Purchase purchase : inventory) {
-                            put(purchase, null);
-                        }
-                    }
-                }, hasMore);
+        this(status, providerName, Inventory.of(inventory), hasMore);
     }
 
     public InventoryResponse(@NonNull final Status status,
@@ -85,7 +79,17 @@ public class InventoryResponse extends BillingResponse {
      */
     @NonNull
     public Map<Purchase, VerificationResult> getInventory() {
-        return Collections.unmodifiableMap(inventory);
+        return inventory;
+    }
+
+    /**
+     * Gets items owned by user in compact indexed form.
+     *
+     * @return Same purchases as {@link #getInventory()}, in order they were reported.
+     */
+    @NonNull
+    public Inventory getInventoryTable() {
+        return inventory;
     }
 
     /**
@@ -106,10 +110,10 @@ public class InventoryResponse extends BillingResponse {
         try {
             jsonObject.put(NAME_HAS_MORE, hasMore);
             final JSONArray jsonArray = new JSONArray();
-            for (final Map.Entry<Purchase, VerificationResult> entry : inventory.entrySet()) {
+            for (int i = 0; i < inventory.size(); i++) {
                 final JSONObject item = new JSONObject();
-                item.put(NAME_PURCHASE, entry.getKey().toJson());
-                item.put(NAME_VERIFICATION_RESULT, entry.getValue());
+                item.put(NAME_PURCHASE, inventory.getPurchase(i).toJson());
+                item.put(NAME_VERIFICATION_RESULT, inventory.getVerificationResult(i));
                 jsonArray.put(item);
             }
             jsonObject.put(NAME_INVENTORY, jsonArray);
@@ -23,6 +23,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.util.BillingCodec;
 import org.onepf.opfiab.verification.PurchaseVerifier;
 import org.onepf.opfiab.verification.VerificationResult;
 import org.onepf.opfutils.OPFLog;
@@ -34,6 +35,9 @@ import static org.json.JSONObject.NULL;
  */
 public class PurchaseResponse extends BillingResponse {
 
+    public static final Creator<PurchaseResponse> CREATOR =
+            BillingCodec.creator(PurchaseResponse.class);
+
     private static final String NAME_PURCHASE = "purchase";
     private static final String NAME_VERIFICATION_RESULT = "verification_result";
 
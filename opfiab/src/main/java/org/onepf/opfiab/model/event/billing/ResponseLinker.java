@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.model.event.billing;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Links billing responses with corresponding requests.
+ * <p>
+ * Intended for library internals only, {@link BillingResponse} itself doesn't expose a way to
+ * change request it belongs to once it's published.
+ *
+ * @see BillingEvent#getRequestId()
+ */
+public final class ResponseLinker {
+
+    private ResponseLinker() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Links supplied response with request with supplied id.
+     *
+     * @param billingResponse Response to link.
+     * @param requestId       Identifier of the request response is made for.
+     */
+    public static void link(@NonNull final BillingResponse billingResponse, final long requestId) {
+        billingResponse.setRequestId(requestId);
+    }
+}
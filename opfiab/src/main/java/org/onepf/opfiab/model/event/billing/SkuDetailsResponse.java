@@ -24,6 +24,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfiab.util.BillingCodec;
 import org.onepf.opfutils.OPFLog;
 
 import java.util.ArrayList;
@@ -35,6 +36,9 @@ import java.util.Collections;
  */
 public class SkuDetailsResponse extends BillingResponse {
 
+    public static final Creator<SkuDetailsResponse> CREATOR =
+            BillingCodec.creator(SkuDetailsResponse.class);
+
     private static final String NAME_SKUS_DETAILS = "skus_details";
 
 
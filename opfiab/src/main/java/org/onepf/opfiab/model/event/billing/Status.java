@@ -42,6 +42,16 @@ public enum Status {
      * User canceled billing request.
      */
     USER_CANCELED,
+    /**
+     * Request wasn't handled within deadline.
+     *
+     * @see org.onepf.opfiab.model.Configuration#getRequestTimeout()
+     */
+    TIMEOUT,
+    /**
+     * Request was canceled by application.
+     */
+    CANCELED,
     /**
      * {@link BillingProvider} reported that it can't handle billing.
      */
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.sku;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.model.billing.SkuType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link TypedSkuResolver} backed by SKU mapping table compiled ahead of time.
+ * <p>
+ * Table is supposed to be built with {@link Compiler} as part of the build and shipped as an
+ * asset, one per provider. It contains hash tables for both directions, so loading it only
+ * involves reading SKU strings, while every lookup takes constant time.
+ *
+ * @see #fromAsset(Context, String)
+ */
+public final class CompiledSkuResolver implements TypedSkuResolver {
+
+    private static final int MAGIC = 0x4F534B55; // "OSKU"
+    private static final int VERSION = 2;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Loads compiled table from application assets.
+     *
+     * @param context   Context to get assets from.
+     * @param assetName Name of the asset written by {@link Compiler#write(OutputStream)}.
+     *
+     * @return Newly constructed resolver, can't be null.
+     * @throws IOException If asset can't be read or is malformed.
+     */
+    @NonNull
+    public static CompiledSkuResolver fromAsset(@NonNull final Context context,
+                                                @NonNull final String assetName)
+            throws IOException {
+        final InputStream inputStream = context.getAssets().open(assetName);
+        try {
+            return read(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads compiled table from supplied stream.
+     *
+     * @param inputStream Stream to read from, it's not closed by this method.
+     *
+     * @return Newly constructed resolver, can't be null.
+     * @throws IOException If stream can't be read or contains malformed table.
+     */
+    @NonNull
+    public static CompiledSkuResolver read(@NonNull final InputStream inputStream)
+            throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(BUFFER_SIZE);
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        try {
+            return read(ByteBuffer.wrap(outputStream.toByteArray()));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException exception) {
+            throw new IOException("Malformed SKU table.", exception);
+        }
+    }
+
+    @NonNull
+    private static CompiledSkuResolver read(@NonNull final ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a SKU table.");
+        }
+        final int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported SKU table version: " + version);
+        }
+        final int count = buffer.getInt();
+        final int capacity = buffer.getInt();
+        if (count < 0 || capacity < count || Integer.bitCount(capacity) > 1) {
+            throw new IOException("Malformed SKU table.");
+        }
+        final String[] skus = new String[count];
+        final String[] resolvedSkus = new String[count];
+        final SkuType[] types = new SkuType[count];
+        for (int i = 0; i < count; i++) {
+            skus[i] = readString(buffer);
+            resolvedSkus[i] = readString(buffer);
+            final String type = readString(buffer);
+            try {
+                types[i] = SkuType.valueOf(type);
+            } catch (IllegalArgumentException exception) {
+                throw new IOException("Unknown SKU type: " + type, exception);
+            }
+        }
+        final int[] direct = new int[capacity];
+        final int[] reverse = new int[capacity];
+        buffer.asIntBuffer().get(direct);
+        buffer.position(buffer.position() + capacity * 4);
+        buffer.asIntBuffer().get(reverse);
+        checkTable(direct, count);
+        checkTable(reverse, count);
+        return new CompiledSkuResolver(skus, resolvedSkus, types, direct, reverse);
+    }
+
+    /**
+     * Checks that hash table only references existing entries and has at least one empty slot, so
+     * lookups are guaranteed to terminate.
+     */
+    private static void checkTable(@NonNull final int[] table, final int count)
+            throws IOException {
+        boolean hasEmptySlot = table.length == 0;
+        for (final int value : table) {
+            if (value < 0 || value > count) {
+                throw new IOException("Malformed SKU table.");
+            }
+            hasEmptySlot |= value == 0;
+        }
+        if (!hasEmptySlot) {
+            throw new IOException("Malformed SKU table, no empty slots.");
+        }
+    }
+
+    @NonNull
+    private static String readString(@NonNull final ByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xFFFF;
+        final String string = new String(buffer.array(), buffer.position(), length, CHARSET);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    private static int slot(@NonNull final String key, final int mask) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Looks up index of entry with supplied key.
+     *
+     * @return Index of entry, -1 if there's none.
+     */
+    private static int find(@NonNull final int[] table,
+                            @NonNull final String[] keys,
+                            @NonNull final String key) {
+        final int mask = table.length - 1;
+        if (mask < 0) {
+            return -1;
+        }
+        for (int slot = slot(key, mask); table[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = table[slot] - 1;
+            if (key.equals(keys[index])) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+
+    @NonNull
+    private final String[] skus;
+    @NonNull
+    private final String[] resolvedSkus;
+    @NonNull
+    private final SkuType[] types;
+    /**
+     * Open addressing hash table of indices of entries plus one, keyed by original SKUs.
+     */
+    @NonNull
+    private final int[] direct;
+    /**
+     * Same as {@link #direct}, keyed by resolved SKUs.
+     */
+    @NonNull
+    private final int[] reverse;
+
+    private CompiledSkuResolver(@NonNull final String[] skus,
+                                @NonNull final String[] resolvedSkus,
+                                @NonNull final SkuType[] types,
+                                @NonNull final int[] direct,
+                                @NonNull final int[] reverse) {
+        this.skus = skus;
+        this.resolvedSkus = resolvedSkus;
+        this.types = types;
+        this.direct = direct;
+        this.reverse = reverse;
+    }
+
+    /**
+     * Gets number of SKUs in this table.
+     *
+     * @return Number of SKUs.
+     */
+    public int size() {
+        return skus.length;
+    }
+
+    @NonNull
+    @Override
+    public String resolve(@NonNull final String sku) {
+        final int index = find(direct, skus, sku);
+        return index < 0 ? DEFAULT.resolve(sku) : resolvedSkus[index];
+    }
+
+    @NonNull
+    @Override
+    public String revert(@NonNull final String resolvedSku) {
+        final int index = find(reverse, resolvedSkus, resolvedSku);
+        return index < 0 ? DEFAULT.revert(resolvedSku) : skus[index];
+    }
+
+    @NonNull
+    @Override
+    public SkuType resolveType(@NonNull final String sku) {
+        int index = find(direct, skus, sku);
+        if (index < 0) {
+            index = find(reverse, resolvedSkus, sku);
+        }
+        return index < 0 ? SkuType.UNKNOWN : types[index];
+    }
+
+    /**
+     * Builds SKU table to be loaded with {@link CompiledSkuResolver}.
+     * <p>
+     * Intended to be run at build time, doesn't depend on Android framework.
+     */
+    public static final class Compiler {
+
+        private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+        private final List<String> skus = new ArrayList<>();
+        private final List<String> resolvedSkus = new ArrayList<>();
+        private final List<SkuType> types = new ArrayList<>();
+        private final Set<String> addedSkus = new HashSet<>();
+        private final Set<String> addedResolvedSkus = new HashSet<>();
+
+        /**
+         * Adds SKU mapping with corresponding SKU type.
+         *
+         * @param sku         Original SKU.
+         * @param resolvedSku Provider specific SKU. Can be null if there's no need in mapping.
+         * @param skuType     Type of the mapped SKU.
+         *
+         * @return this object.
+         * @throws IllegalArgumentException If either SKU was already added.
+         */
+        public Compiler add(@NonNull final String sku,
+                            @Nullable final String resolvedSku,
+                            @NonNull final SkuType skuType) {
+            final String mappedSku = resolvedSku == null || resolvedSku.isEmpty()
+                    ? sku : resolvedSku;
+            if (!addedSkus.add(sku)) {
+                throw new IllegalArgumentException("Duplicate SKU: " + sku);
+            }
+            if (!addedResolvedSkus.add(mappedSku)) {
+                throw new IllegalArgumentException("Duplicate resolved SKU: " + mappedSku);
+            }
+            skus.add(sku);
+            resolvedSkus.add(mappedSku);
+            types.add(skuType);
+            return this;
+        }
+
+        /**
+         * Writes compiled table.
+         *
+         * @param outputStream Stream to write to, it's not closed by this method.
+         *
+         * @throws IOException If stream failed.
+         */
+        public void write(@NonNull final OutputStream outputStream) throws IOException {
+            final int count = skus.size();
+            final int capacity = count == 0 ? 0 : Integer.highestOneBit(count * 2 - 1) << 1;
+            final DataOutputStream output = new DataOutputStream(outputStream);
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(count);
+            output.writeInt(capacity);
+            for (int i = 0; i < count; i++) {
+                writeString(output, skus.get(i));
+                writeString(output, resolvedSkus.get(i));
+                // Stored by name, so reordering of SkuType doesn't break compiled tables
+                writeString(output, types.get(i).name());
+            }
+            writeTable(output, skus, capacity);
+            writeTable(output, resolvedSkus, capacity);
+            output.flush();
+        }
+
+        private void writeString(@NonNull final DataOutputStream output,
+                                 @NonNull final String string) throws IOException {
+            final byte[] bytes = string.getBytes(CHARSET);
+            if (bytes.length > MAX_STRING_LENGTH) {
+                throw new IllegalArgumentException("SKU is too long: " + string);
+            }
+            output.writeShort(bytes.length);
+            output.write(bytes);
+        }
+
+        private void writeTable(@NonNull final DataOutputStream output,
+                                @NonNull final List<String> keys,
+                                final int capacity) throws IOException {
+            final int[] table = new int[capacity];
+            final int mask = capacity - 1;
+            for (int i = 0; i < keys.size(); i++) {
+                int slot = slot(keys.get(i), mask);
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i + 1;
+            }
+            for (final int value : table) {
+                output.writeInt(value);
+            }
+        }
+    }
+}
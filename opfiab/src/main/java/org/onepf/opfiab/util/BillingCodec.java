@@ -0,0 +1,672 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.util;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.model.billing.BillingModel;
+import org.onepf.opfiab.model.billing.Inventory;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SignedPurchase;
+import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.ResponseLinker;
+import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.verification.VerificationResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary codec for billing models and responses.
+ * <p>
+ * Same layout is used for {@link Parcel} and for plain {@link DataOutput}, the latter is prefixed
+ * with {@link #VERSION} and can be stored or sent outside of Android. Supported types are
+ * {@link Purchase}, {@link SignedPurchase}, {@link SkuDetails} and all {@link BillingResponse}
+ * subclasses.
+ */
+@SuppressWarnings({"PMD.GodClass", "PMD.CyclomaticComplexity", "PMD.TooManyMethods"})
+public final class BillingCodec {
+
+    /**
+     * Version of binary layout, must be increased on any incompatible change.
+     */
+    public static final int VERSION = 1;
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_PURCHASE = 1;
+    private static final int TAG_SIGNED_PURCHASE = 2;
+    private static final int TAG_SKU_DETAILS = 3;
+    private static final int TAG_PURCHASE_RESPONSE = 16;
+    private static final int TAG_CONSUME_RESPONSE = 17;
+    private static final int TAG_INVENTORY_RESPONSE = 18;
+    private static final int TAG_SKU_DETAILS_RESPONSE = 19;
+    private static final int TAG_CONSUME_BATCH_RESPONSE = 20;
+
+
+    private BillingCodec() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Writes supplied model to a byte array.
+     *
+     * @param billingModel Model to encode.
+     *
+     * @return Encoded model, can't be null.
+     * @throws IllegalArgumentException If model type is not supported.
+     */
+    @NonNull
+    public static byte[] encode(@NonNull final BillingModel billingModel) {
+        return toBytes(billingModel);
+    }
+
+    /**
+     * Writes supplied response to a byte array.
+     *
+     * @param billingResponse Response to encode.
+     *
+     * @return Encoded response, can't be null.
+     * @throws IllegalArgumentException If response type is not supported.
+     */
+    @NonNull
+    public static byte[] encode(@NonNull final BillingResponse billingResponse) {
+        return toBytes(billingResponse);
+    }
+
+    /**
+     * Reads object previously encoded with one of the {@code encode()} methods.
+     *
+     * @param data  Encoded object.
+     * @param clazz Expected type of the object.
+     *
+     * @return Decoded object, can't be null.
+     * @throws IOException If data is malformed, was written by another version of the codec or
+     *                     doesn't contain object of expected type.
+     */
+    @NonNull
+    public static <T> T decode(@NonNull final byte[] data, @NonNull final Class<T> clazz)
+            throws IOException {
+        final Object value = read(new DataInputStream(new ByteArrayInputStream(data)));
+        if (!clazz.isInstance(value)) {
+            throw new IOException("Unexpected value: " + value);
+        }
+        return clazz.cast(value);
+    }
+
+    /**
+     * Writes versioned representation of supplied object.
+     *
+     * @param output Output to write to.
+     * @param value  Model or response to write.
+     *
+     * @throws IOException              If output failed.
+     * @throws IllegalArgumentException If value type is not supported.
+     */
+    public static void write(@NonNull final DataOutput output, @NonNull final Object value)
+            throws IOException {
+        output.writeByte(VERSION);
+        writeValue(new StreamOutput(output), value);
+    }
+
+    /**
+     * Reads object written with {@link #write(DataOutput, Object)}.
+     *
+     * @param input Input to read from.
+     *
+     * @return Decoded object, can't be null.
+     * @throws IOException If data is malformed or was written by another version of the codec.
+     */
+    @NonNull
+    public static Object read(@NonNull final DataInput input) throws IOException {
+        final int version = input.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version: " + version);
+        }
+        final Object value = readValue(new StreamInput(input));
+        if (value == null) {
+            throw new IOException("Missing value.");
+        }
+        return value;
+    }
+
+    /**
+     * Writes supplied object to parcel.
+     * <p>
+     * Intended to be used by {@link Parcelable#writeToParcel(Parcel, int)} implementations.
+     *
+     * @param parcel Parcel to write to.
+     * @param value  Model or response to write.
+     */
+    public static void writeToParcel(@NonNull final Parcel parcel, @NonNull final Object value) {
+        try {
+            writeValue(new ParcelOutput(parcel), value);
+        } catch (IOException exception) {
+            // Parcel doesn't throw IOException
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Creates {@link Parcelable.Creator} for supplied model or response class.
+     *
+     * @param clazz Class of objects to create.
+     *
+     * @return Newly created Creator instance.
+     */
+    @NonNull
+    public static <T> Parcelable.Creator<T> creator(@NonNull final Class<T> clazz) {
+        return new Parcelable.Creator<T>() {
+            @Override
+            public T createFromParcel(final Parcel source) {
+                try {
+                    return clazz.cast(readValue(new ParcelInput(source)));
+                } catch (IOException exception) {
+                    throw new IllegalStateException(exception);
+                }
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public T[] newArray(final int size) {
+                return (T[]) Array.newInstance(clazz, size);
+            }
+        };
+    }
+
+    @NonNull
+    private static byte[] toBytes(@NonNull final Object value) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            write(new DataOutputStream(outputStream), value);
+        } catch (IOException exception) {
+            // ByteArrayOutputStream doesn't throw IOException
+            throw new IllegalStateException(exception);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @SuppressWarnings("PMD.ConfusingTernary")
+    private static void writeValue(@NonNull final Output output, @Nullable final Object value)
+            throws IOException {
+        if (value == null) {
+            output.writeInt(TAG_NULL);
+        } else if (value instanceof SignedPurchase) {
+            output.writeInt(TAG_SIGNED_PURCHASE);
+            writePurchase(output, (Purchase) value);
+            output.writeString(((SignedPurchase) value).getSignature());
+        } else if (value instanceof Purchase) {
+            output.writeInt(TAG_PURCHASE);
+            writePurchase(output, (Purchase) value);
+        } else if (value instanceof SkuDetails) {
+            output.writeInt(TAG_SKU_DETAILS);
+            writeSkuDetails(output, (SkuDetails) value);
+        } else if (value instanceof BillingResponse) {
+            writeResponse(output, (BillingResponse) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported value: " + value.getClass());
+        }
+    }
+
+    private static void writeModel(@NonNull final Output output,
+                                   @NonNull final BillingModel billingModel) throws IOException {
+        output.writeString(billingModel.getSku());
+        output.writeString(billingModel.getType().name());
+        output.writeString(billingModel.getProviderName());
+        output.writeString(billingModel.getOriginalJson());
+    }
+
+    private static void writePurchase(@NonNull final Output output,
+                                      @NonNull final Purchase purchase) throws IOException {
+        writeModel(output, purchase);
+        output.writeString(purchase.getToken());
+        output.writeLong(purchase.getPurchaseTime());
+        output.writeBoolean(purchase.isCanceled());
+    }
+
+    private static void writeSkuDetails(@NonNull final Output output,
+                                        @NonNull final SkuDetails skuDetails) throws IOException {
+        writeModel(output, skuDetails);
+        output.writeString(skuDetails.getPrice());
+        output.writeString(skuDetails.getTitle());
+        output.writeString(skuDetails.getDescription());
+    }
+
+    @SuppressWarnings("PMD.NPathComplexity")
+    private static void writeResponse(@NonNull final Output output,
+                                      @NonNull final BillingResponse billingResponse)
+            throws IOException {
+        switch (billingResponse.getType()) {
+            case PURCHASE:
+                output.writeInt(TAG_PURCHASE_RESPONSE);
+                break;
+            case CONSUME:
+                output.writeInt(TAG_CONSUME_RESPONSE);
+                break;
+            case INVENTORY:
+                output.writeInt(TAG_INVENTORY_RESPONSE);
+                break;
+            case SKU_DETAILS:
+                output.writeInt(TAG_SKU_DETAILS_RESPONSE);
+                break;
+            case CONSUME_BATCH:
+                output.writeInt(TAG_CONSUME_BATCH_RESPONSE);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported value: " + billingResponse);
+        }
+        output.writeLong(billingResponse.getRequestId());
+        output.writeString(billingResponse.getStatus().name());
+        output.writeString(billingResponse.getProviderName());
+
+        if (billingResponse instanceof PurchaseResponse) {
+            final PurchaseResponse purchaseResponse = (PurchaseResponse) billingResponse;
+            writeValue(output, purchaseResponse.getPurchase());
+            writeEnum(output, purchaseResponse.getVerificationResult());
+        } else if (billingResponse instanceof ConsumeResponse) {
+            writeValue(output, ((ConsumeResponse) billingResponse).getPurchase());
+        } else if (billingResponse instanceof InventoryResponse) {
+            final InventoryResponse inventoryResponse = (InventoryResponse) billingResponse;
+            final Inventory inventory = inventoryResponse.getInventoryTable();
+            output.writeBoolean(inventoryResponse.hasMore());
+            output.writeInt(inventory.size());
+            for (int i = 0; i < inventory.size(); i++) {
+                writeValue(output, inventory.getPurchase(i));
+                writeEnum(output, inventory.getVerificationResult(i));
+            }
+        } else if (billingResponse instanceof SkuDetailsResponse) {
+            final Collection<SkuDetails> skusDetails =
+                    ((SkuDetailsResponse) billingResponse).getSkusDetails();
+            output.writeInt(skusDetails.size());
+            for (final SkuDetails skuDetails : skusDetails) {
+                writeValue(output, skuDetails);
+            }
+        } else if (billingResponse instanceof ConsumeBatchResponse) {
+            final List<ConsumeResponse> responses =
+                    ((ConsumeBatchResponse) billingResponse).getResponses();
+            output.writeInt(responses.size());
+            for (final ConsumeResponse response : responses) {
+                writeValue(output, response);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value: " + billingResponse);
+        }
+    }
+
+    private static void writeEnum(@NonNull final Output output, @Nullable final Enum<?> value)
+            throws IOException {
+        output.writeString(value == null ? null : value.name());
+    }
+
+    @SuppressWarnings("PMD.NPathComplexity")
+    @Nullable
+    private static Object readValue(@NonNull final Input input) throws IOException {
+        final int tag = input.readInt();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_PURCHASE:
+            case TAG_SIGNED_PURCHASE:
+                return readPurchase(input, tag == TAG_SIGNED_PURCHASE);
+            case TAG_SKU_DETAILS:
+                return readSkuDetails(input);
+            default:
+                break;
+        }
+
+        final long requestId = input.readLong();
+        final Status status = readEnum(input, Status.class);
+        final String providerName = input.readString();
+        if (status == null) {
+            throw new IOException("Missing status.");
+        }
+        final BillingResponse billingResponse;
+        switch (tag) {
+            case TAG_PURCHASE_RESPONSE:
+                billingResponse = new PurchaseResponse(status, providerName,
+                                                       readValue(input, Purchase.class),
+                                                       readEnum(input, VerificationResult.class));
+                break;
+            case TAG_CONSUME_RESPONSE:
+                billingResponse = new ConsumeResponse(status, providerName,
+                                                      readNonNull(input, Purchase.class));
+                break;
+            case TAG_INVENTORY_RESPONSE:
+                final boolean hasMore = input.readBoolean();
+                final int inventorySize = readSize(input);
+                final Map<Purchase, VerificationResult> inventory =
+                        new LinkedHashMap<>(inventorySize);
+                for (int i = 0; i < inventorySize; i++) {
+                    inventory.put(readNonNull(input, Purchase.class),
+                                  readEnum(input, VerificationResult.class));
+                }
+                billingResponse = new InventoryResponse(status, providerName, inventory, hasMore);
+                break;
+            case TAG_SKU_DETAILS_RESPONSE:
+                final int skusSize = readSize(input);
+                final Collection<SkuDetails> skusDetails = new ArrayList<>(skusSize);
+                for (int i = 0; i < skusSize; i++) {
+                    skusDetails.add(readNonNull(input, SkuDetails.class));
+                }
+                billingResponse = new SkuDetailsResponse(status, providerName, skusDetails);
+                break;
+            case TAG_CONSUME_BATCH_RESPONSE:
+                final int responsesSize = readSize(input);
+                final Collection<ConsumeResponse> responses = new ArrayList<>(responsesSize);
+                for (int i = 0; i < responsesSize; i++) {
+                    responses.add(readNonNull(input, ConsumeResponse.class));
+                }
+                billingResponse = new ConsumeBatchResponse(status, providerName, responses);
+                break;
+            default:
+                throw new IOException("Unknown tag: " + tag);
+        }
+        ResponseLinker.link(billingResponse, requestId);
+        return billingResponse;
+    }
+
+    @Nullable
+    private static <T> T readValue(@NonNull final Input input, @NonNull final Class<T> clazz)
+            throws IOException {
+        final Object value = readValue(input);
+        if (value != null && !clazz.isInstance(value)) {
+            throw new IOException("Unexpected value: " + value);
+        }
+        return clazz.cast(value);
+    }
+
+    @NonNull
+    private static <T> T readNonNull(@NonNull final Input input, @NonNull final Class<T> clazz)
+            throws IOException {
+        final T value = readValue(input, clazz);
+        if (value == null) {
+            throw new IOException("Missing " + clazz.getSimpleName());
+        }
+        return value;
+    }
+
+    @NonNull
+    private static Purchase readPurchase(@NonNull final Input input, final boolean signed)
+            throws IOException {
+        final String sku = readSku(input);
+        final SkuType type = readEnum(input, SkuType.class);
+        final String providerName = input.readString();
+        final String originalJson = input.readString();
+        final String token = input.readString();
+        final long purchaseTime = input.readLong();
+        final boolean canceled = input.readBoolean();
+        if (signed) {
+            return new SignedPurchase.Builder(sku)
+                    .setType(type)
+                    .setProviderName(providerName)
+                    .setOriginalJson(originalJson)
+                    .setToken(token)
+                    .setPurchaseTime(purchaseTime)
+                    .setCanceled(canceled)
+                    .setSignature(input.readString())
+                    .build();
+        }
+        return new Purchase.Builder(sku)
+                .setType(type)
+                .setProviderName(providerName)
+                .setOriginalJson(originalJson)
+                .setToken(token)
+                .setPurchaseTime(purchaseTime)
+                .setCanceled(canceled)
+                .build();
+    }
+
+    @NonNull
+    private static SkuDetails readSkuDetails(@NonNull final Input input) throws IOException {
+        return new SkuDetails.Builder(readSku(input))
+                .setType(readEnum(input, SkuType.class))
+                .setProviderName(input.readString())
+                .setOriginalJson(input.readString())
+                .setPrice(input.readString())
+                .setTitle(input.readString())
+                .setDescription(input.readString())
+                .build();
+    }
+
+    @NonNull
+    private static String readSku(@NonNull final Input input) throws IOException {
+        final String sku = input.readString();
+        if (sku == null) {
+            throw new IOException("Missing SKU.");
+        }
+        return sku;
+    }
+
+    @Nullable
+    private static <E extends Enum<E>> E readEnum(@NonNull final Input input,
+                                                  @NonNull final Class<E> clazz)
+            throws IOException {
+        final String name = input.readString();
+        try {
+            return name == null ? null : Enum.valueOf(clazz, name);
+        } catch (IllegalArgumentException exception) {
+            throw new IOException("Unknown " + clazz.getSimpleName() + ": " + name, exception);
+        }
+    }
+
+    private static int readSize(@NonNull final Input input) throws IOException {
+        final int size = input.readInt();
+        if (size < 0) {
+            throw new IOException("Illegal size: " + size);
+        }
+        return size;
+    }
+
+    private interface Output {
+
+        void writeInt(int value) throws IOException;
+
+        void writeLong(long value) throws IOException;
+
+        void writeBoolean(boolean value) throws IOException;
+
+        void writeString(@Nullable String value) throws IOException;
+    }
+
+    private interface Input {
+
+        int readInt() throws IOException;
+
+        long readLong() throws IOException;
+
+        boolean readBoolean() throws IOException;
+
+        @Nullable
+        String readString() throws IOException;
+    }
+
+    private static final class ParcelOutput implements Output {
+
+        @NonNull
+        private final Parcel parcel;
+
+        ParcelOutput(@NonNull final Parcel parcel) {
+            this.parcel = parcel;
+        }
+
+        @Override
+        public void writeInt(final int value) {
+            parcel.writeInt(value);
+        }
+
+        @Override
+        public void writeLong(final long value) {
+            parcel.writeLong(value);
+        }
+
+        @Override
+        public void writeBoolean(final boolean value) {
+            parcel.writeInt(value ? 1 : 0);
+        }
+
+        @Override
+        public void writeString(@Nullable final String value) {
+            parcel.writeString(value);
+        }
+    }
+
+    private static final class ParcelInput implements Input {
+
+        @NonNull
+        private final Parcel parcel;
+
+        ParcelInput(@NonNull final Parcel parcel) {
+            this.parcel = parcel;
+        }
+
+        @Override
+        public int readInt() {
+            return parcel.readInt();
+        }
+
+        @Override
+        public long readLong() {
+            return parcel.readLong();
+        }
+
+        @Override
+        public boolean readBoolean() {
+            return parcel.readInt() != 0;
+        }
+
+        @Nullable
+        @Override
+        public String readString() {
+            return parcel.readString();
+        }
+    }
+
+    /**
+     * Writes integers as variable-length quantities and strings as UTF-8 bytes prefixed with their
+     * length plus one, 0 stands for null.
+     */
+    private static final class StreamOutput implements Output {
+
+        @NonNull
+        private final DataOutput output;
+
+        StreamOutput(@NonNull final DataOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void writeInt(final int value) throws IOException {
+            int remaining = value;
+            while ((remaining & ~0x7F) != 0) {
+                output.writeByte(remaining & 0x7F | 0x80);
+                remaining >>>= 7;
+            }
+            output.writeByte(remaining);
+        }
+
+        @Override
+        public void writeLong(final long value) throws IOException {
+            output.writeLong(value);
+        }
+
+        @Override
+        public void writeBoolean(final boolean value) throws IOException {
+            output.writeBoolean(value);
+        }
+
+        @Override
+        public void writeString(@Nullable final String value) throws IOException {
+            if (value == null) {
+                writeInt(0);
+                return;
+            }
+            final byte[] bytes = value.getBytes(CHARSET);
+            writeInt(bytes.length + 1);
+            output.write(bytes);
+        }
+    }
+
+    private static final class StreamInput implements Input {
+
+        private static final int MAX_SHIFT = 28;
+
+        @NonNull
+        private final DataInput input;
+
+        StreamInput(@NonNull final DataInput input) {
+            this.input = input;
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift <= MAX_SHIFT; shift += 7) {
+                final int b = input.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed integer.");
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            return input.readLong();
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return input.readBoolean();
+        }
+
+        @Nullable
+        @Override
+        public String readString() throws IOException {
+            final int length = readInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            final byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return new String(bytes, CHARSET);
+        }
+    }
+}
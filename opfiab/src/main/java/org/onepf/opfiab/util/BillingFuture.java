@@ -0,0 +1,375 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfutils.OPFChecks;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result of asynchronous billing operation.
+ * <p>
+ * Future can be completed only once, either with a result, a failure or by cancellation.
+ * Blocking {@link #get()} methods can't be called from the main thread, use
+ * {@link #then(Continuation)} or {@link #addListener(Listener)} instead.
+ *
+ * @param <V> Type of the result.
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+public class BillingFuture<V> implements Future<V> {
+
+    /**
+     * Used to fail futures which took too long to complete.
+     */
+    private static final ScheduledExecutorService TIMER =
+            Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Callback notified when future is completed.
+     *
+     * @param <V> Type of the result.
+     */
+    public interface Listener<V> {
+
+        /**
+         * Called exactly once, from the thread which completed the future.
+         *
+         * @param future Completed future.
+         */
+        void onComplete(@NonNull final BillingFuture<V> future);
+    }
+
+    /**
+     * Next step of asynchronous operation.
+     *
+     * @param <V> Type of the result of the previous step.
+     * @param <T> Type of the result of this step.
+     */
+    public interface Continuation<V, T> {
+
+        /**
+         * Starts next asynchronous operation.
+         *
+         * @param result Result of the previous step.
+         *
+         * @return Future representing result of this step.
+         */
+        @NonNull
+        BillingFuture<T> then(@Nullable final V result);
+    }
+
+    /**
+     * Creates future which is completed when all supplied futures are completed.
+     * <p>
+     * Failure or cancellation of any supplied future fails returned future.
+     *
+     * @param futures Futures to wait for.
+     *
+     * @return Future holding results of supplied futures in the same order.
+     */
+    @NonNull
+    public static <V> BillingFuture<List<V>> all(
+            @NonNull final Collection<? extends BillingFuture<? extends V>> futures) {
+        final BillingFuture<List<V>> allFuture = new BillingFuture<>();
+        final List<BillingFuture<? extends V>> list = new ArrayList<>(futures);
+        if (list.isEmpty()) {
+            allFuture.complete(new ArrayList<V>());
+            return allFuture;
+        }
+        final AtomicInteger remaining = new AtomicInteger(list.size());
+        for (final BillingFuture<? extends V> future : list) {
+            future.addCompletion(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isCancelled()) {
+                        allFuture.fail(new CancellationException());
+                    } else if (future.failure != null) {
+                        allFuture.fail(future.failure);
+                    } else if (remaining.decrementAndGet() == 0) {
+                        final List<V> results = new ArrayList<>(list.size());
+                        for (final BillingFuture<? extends V> item : list) {
+                            results.add(item.result);
+                        }
+                        allFuture.complete(results);
+                    }
+                }
+            });
+        }
+        return allFuture;
+    }
+
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final List<Runnable> completions = new ArrayList<>();
+    @Nullable
+    private volatile V result;
+    @Nullable
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+    private boolean done;
+
+    public BillingFuture() {
+        super();
+    }
+
+    private boolean setDone() {
+        final List<Runnable> runnables;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            runnables = new ArrayList<>(completions);
+            completions.clear();
+        }
+        latch.countDown();
+        for (final Runnable runnable : runnables) {
+            runnable.run();
+        }
+        return true;
+    }
+
+    private void addCompletion(@NonNull final Runnable runnable) {
+        synchronized (this) {
+            if (!done) {
+                completions.add(runnable);
+                return;
+            }
+        }
+        runnable.run();
+    }
+
+    /**
+     * Completes this future with supplied result.
+     *
+     * @param result Result of the operation.
+     *
+     * @return True if future was completed by this call, false if it was already completed.
+     */
+    public boolean complete(@Nullable final V result) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.result = result;
+        }
+        return setDone();
+    }
+
+    /**
+     * Completes this future with supplied failure.
+     *
+     * @param failure Cause of the failure.
+     *
+     * @return True if future was completed by this call, false if it was already completed.
+     */
+    public boolean fail(@NonNull final Throwable failure) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.failure = failure;
+        }
+        return setDone();
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+        }
+        return setDone();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Nullable
+    private V getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        OPFChecks.checkThread(false);
+        latch.await();
+        return getResult();
+    }
+
+    @Nullable
+    @Override
+    public V get(final long timeout, @NonNull final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        OPFChecks.checkThread(false);
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    /**
+     * Adds listener to be notified when this future is completed.
+     * <p>
+     * If future is already completed, listener is called immediately.
+     *
+     * @param listener Listener to add.
+     *
+     * @return This future.
+     */
+    @NonNull
+    public BillingFuture<V> addListener(@NonNull final Listener<V> listener) {
+        addCompletion(new Runnable() {
+            @Override
+            public void run() {
+                listener.onComplete(BillingFuture.this);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Chains next asynchronous operation after this one.
+     * <p>
+     * Continuation is started only if this future completes successfully, otherwise failure or
+     * cancellation is propagated to returned future. Cancelling returned future cancels
+     * currently running step.
+     *
+     * @param continuation Next step to start with the result of this future.
+     *
+     * @return Future representing result of the next step.
+     */
+    @NonNull
+    public <T> BillingFuture<T> then(@NonNull final Continuation<? super V, T> continuation) {
+        final BillingFuture<T> nextFuture = new BillingFuture<>();
+        nextFuture.addCompletion(new Runnable() {
+            @Override
+            public void run() {
+                if (nextFuture.isCancelled()) {
+                    cancel(false);
+                }
+            }
+        });
+        addCompletion(new Runnable() {
+            @Override
+            @SuppressWarnings("PMD.AvoidCatchingGenericException")
+            public void run() {
+                if (cancelled) {
+                    nextFuture.cancel(false);
+                    return;
+                }
+                final Throwable throwable = failure;
+                if (throwable != null) {
+                    nextFuture.fail(throwable);
+                    return;
+                }
+                final BillingFuture<T> future;
+                try {
+                    future = continuation.then(result);
+                } catch (RuntimeException exception) {
+                    OPFLog.e("Continuation failed.", exception);
+                    nextFuture.fail(exception);
+                    return;
+                }
+                nextFuture.propagateTo(future);
+            }
+        });
+        return nextFuture;
+    }
+
+    /**
+     * Makes this future mirror supplied one, cancellation of this future cancels supplied one.
+     */
+    private void propagateTo(@NonNull final BillingFuture<V> future) {
+        addCompletion(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled) {
+                    future.cancel(false);
+                }
+            }
+        });
+        future.addCompletion(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    cancel(false);
+                } else if (future.failure != null) {
+                    fail(future.failure);
+                } else {
+                    complete(future.result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fails this future with {@link TimeoutException} if it's not completed within supplied time.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit    Time unit of the timeout argument.
+     *
+     * @return This future.
+     */
+    @NonNull
+    public BillingFuture<V> timeout(final long timeout, @NonNull final TimeUnit unit) {
+        final Future<?> timer = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fail(new TimeoutException());
+            }
+        }, timeout, unit);
+        addCompletion(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+            }
+        });
+        return this;
+    }
+}
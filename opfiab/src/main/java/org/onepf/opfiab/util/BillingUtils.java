@@ -22,16 +22,20 @@ import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import org.onepf.opfiab.ActivityMonitor;
+import org.onepf.opfiab.model.billing.Inventory;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.billing.SkuDetails;
 import org.onepf.opfiab.model.event.billing.BillingEventType;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
 import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
 import org.onepf.opfiab.model.event.billing.ConsumeRequest;
 import org.onepf.opfiab.model.event.billing.ConsumeResponse;
 import org.onepf.opfiab.model.event.billing.InventoryResponse;
 import org.onepf.opfiab.model.event.billing.PurchaseRequest;
 import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.ResponseLinker;
 import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
 import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
 import org.onepf.opfiab.model.event.billing.Status;
@@ -44,6 +48,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -87,12 +93,78 @@ public final class BillingUtils {
             case INVENTORY:
                 billingResponse = new InventoryResponse(status, providerName);
                 break;
+            case CONSUME_BATCH:
+                final ConsumeBatchRequest batchRequest = (ConsumeBatchRequest) billingRequest;
+                final Collection<ConsumeResponse> responses = new ArrayList<>();
+                for (final Purchase batchPurchase : batchRequest.getPurchases()) {
+                    responses.add(new ConsumeResponse(status, providerName, batchPurchase));
+                }
+                billingResponse = new ConsumeBatchResponse(status, providerName, responses);
+                break;
             default:
                 throw new IllegalArgumentException();
         }
+        ResponseLinker.link(billingResponse, billingRequest.getRequestId());
         return billingResponse;
     }
 
+    /**
+     * Copies supplied response, linking copy with another request.
+     *
+     * @param billingResponse Response to copy.
+     * @param requestId       Id of the request to link copy with.
+     *
+     * @return Newly constructed response.
+     */
+    @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
+    @NonNull
+    public static BillingResponse copy(@NonNull final BillingResponse billingResponse,
+                                       final long requestId) {
+        final Status status = billingResponse.getStatus();
+        final String name = billingResponse.getProviderName();
+        final BillingResponse copy;
+        switch (billingResponse.getType()) {
+            case CONSUME:
+                final ConsumeResponse consumeResponse = (ConsumeResponse) billingResponse;
+                copy = new ConsumeResponse(status, name, consumeResponse.getPurchase());
+                break;
+            case PURCHASE:
+                final PurchaseResponse purchaseResponse = (PurchaseResponse) billingResponse;
+                copy = new PurchaseResponse(status, name, purchaseResponse.getPurchase(),
+                                            purchaseResponse.getVerificationResult());
+                break;
+            case SKU_DETAILS:
+                final SkuDetailsResponse skuDetailsResponse = (SkuDetailsResponse) billingResponse;
+                copy = new SkuDetailsResponse(status, name, skuDetailsResponse.getSkusDetails());
+                break;
+            case INVENTORY:
+                final InventoryResponse inventoryResponse = (InventoryResponse) billingResponse;
+                copy = new InventoryResponse(status, name, inventoryResponse.getInventoryTable(),
+                                             inventoryResponse.hasMore());
+                break;
+            case CONSUME_BATCH:
+                final ConsumeBatchResponse batchResponse = (ConsumeBatchResponse) billingResponse;
+                copy = new ConsumeBatchResponse(status, name, batchResponse.getResponses());
+                break;
+            default:
+                throw new IllegalArgumentException();
+        }
+        ResponseLinker.link(copy, requestId);
+        return copy;
+    }
+
+    /**
+     * Links newly constructed response with the same request as the original one.
+     *
+     * @return Supplied new response.
+     */
+    @NonNull
+    private static BillingResponse copyRequestId(@NonNull final BillingResponse original,
+                                                 @NonNull final BillingResponse response) {
+        ResponseLinker.link(response, original.getRequestId());
+        return response;
+    }
+
     @Nullable
     public static Activity getActivity(@NonNull final BillingRequest request) {
         final Reference<Activity> reference = request.getActivity();
@@ -108,15 +180,16 @@ public final class BillingUtils {
         if (type == BillingEventType.PURCHASE) {
             final Purchase purchase = ((PurchaseResponse) response).getPurchase();
             if (purchase != null) {
-                return new PurchaseResponse(status, name, purchase, verifier.verify(purchase));
+                return copyRequestId(response,
+                        new PurchaseResponse(status, name, purchase, verifier.verify(purchase)));
             }
         } else if (type == BillingEventType.INVENTORY) {
             final InventoryResponse inventoryResponse = (InventoryResponse) response;
-            final Map<Purchase, VerificationResult> inventory = inventoryResponse.getInventory();
-            final Collection<Purchase> purchases = inventory.keySet();
-            if (!purchases.isEmpty()) {
+            final Inventory inventory = inventoryResponse.getInventoryTable();
+            if (!inventory.isEmpty()) {
                 final boolean hasMore = inventoryResponse.hasMore();
-                return new InventoryResponse(status, name, verify(verifier, purchases), hasMore);
+                return copyRequestId(response, new InventoryResponse(status, name,
+                        verify(verifier, inventory), hasMore));
             }
         }
         return response;
@@ -133,6 +206,24 @@ public final class BillingUtils {
         return verifiedPurchases;
     }
 
+    /**
+     * Verifies every purchase from supplied inventory.
+     *
+     * @param verifier  Verifier to use.
+     * @param inventory Inventory to verify.
+     *
+     * @return Inventory with the same purchases and new verification results.
+     */
+    @NonNull
+    public static Inventory verify(@NonNull final PurchaseVerifier verifier,
+                                   @NonNull final Inventory inventory) {
+        final VerificationResult[] results = new VerificationResult[inventory.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = verifier.verify(inventory.getPurchase(i));
+        }
+        return inventory.withVerificationResults(results);
+    }
+
     @NonNull
     public static SkuDetails substituteSku(@NonNull final SkuDetails skuDetails,
                                            @NonNull final String sku) {
@@ -151,9 +242,23 @@ public final class BillingUtils {
         return purchase.copyWithSku(sku);
     }
 
+    /**
+     * Makes copy of supplied request with SKUs resolved by supplied resolver.
+     * <p>
+     * Original request is returned if resolver doesn't change any SKU.
+     *
+     * @param resolver Resolver to use.
+     * @param request  Request to resolve.
+     *
+     * @return Request with resolved SKUs, can't be null.
+     */
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
     @NonNull
     public static BillingRequest resolve(@NonNull final SkuResolver resolver,
                                          @NonNull final BillingRequest request) {
+        if (resolver == SkuResolver.DEFAULT) {
+            return request;
+        }
         final BillingEventType type = request.getType();
         final Activity activity = getActivity(request);
         final boolean handlesResult = request.isActivityHandlesResult();
@@ -161,26 +266,61 @@ public final class BillingUtils {
             final PurchaseRequest purchaseRequest = (PurchaseRequest) request;
             final String sku = purchaseRequest.getSku();
             final String newSku = resolver.resolve(sku);
-            return new PurchaseRequest(activity, handlesResult, newSku);
+            if (!sku.equals(newSku)) {
+                return new PurchaseRequest(activity, handlesResult, newSku);
+            }
         } else if (type == BillingEventType.CONSUME) {
             final ConsumeRequest consumeRequest = (ConsumeRequest) request;
             final Purchase purchase = consumeRequest.getPurchase();
-            final String sku = purchase.getSku();
-            final String newSku = resolver.resolve(sku);
-            final Purchase newPurchase = substituteSku(purchase, newSku);
-            return new ConsumeRequest(activity, handlesResult, newPurchase);
+            final Purchase newPurchase = resolve(resolver, purchase);
+            if (newPurchase != purchase) {
+                return new ConsumeRequest(activity, handlesResult, newPurchase);
+            }
         } else if (type == BillingEventType.SKU_DETAILS) {
             final SkuDetailsRequest skuDetailsRequest = (SkuDetailsRequest) request;
-            final Collection<String> skus = skuDetailsRequest.getSkus();
+            final Set<String> skus = skuDetailsRequest.getSkus();
             final Set<String> newSkus = resolve(resolver, skus);
-            return new SkuDetailsRequest(activity, handlesResult, newSkus);
+            if (newSkus != skus) {
+                return new SkuDetailsRequest(activity, handlesResult, newSkus);
+            }
+        } else if (type == BillingEventType.CONSUME_BATCH) {
+            final ConsumeBatchRequest batchRequest = (ConsumeBatchRequest) request;
+            final List<Purchase> purchases = batchRequest.getPurchases();
+            List<Purchase> newPurchases = null;
+            for (int i = 0; i < purchases.size(); i++) {
+                final Purchase purchase = purchases.get(i);
+                final Purchase newPurchase = resolve(resolver, purchase);
+                if (newPurchases == null && newPurchase != purchase) {
+                    newPurchases = new ArrayList<>(purchases.subList(0, i));
+                }
+                if (newPurchases != null) {
+                    newPurchases.add(newPurchase);
+                }
+            }
+            if (newPurchases != null) {
+                return new ConsumeBatchRequest(newPurchases);
+            }
         }
         return request;
     }
 
+    /**
+     * Makes copy of supplied response with SKUs reverted by supplied resolver.
+     * <p>
+     * Original response is returned if resolver doesn't change any SKU.
+     *
+     * @param resolver Resolver to use.
+     * @param response Response to revert.
+     *
+     * @return Response with reverted SKUs, can't be null.
+     */
+    @SuppressWarnings({"PMD.CompareObjectsWithEquals", "PMD.NPathComplexity"})
     @NonNull
     public static BillingResponse revert(@NonNull final SkuResolver resolver,
                                          @NonNull final BillingResponse response) {
+        if (resolver == SkuResolver.DEFAULT) {
+            return response;
+        }
         final Status status = response.getStatus();
         final BillingEventType type = response.getType();
         final String name = response.getProviderName();
@@ -188,23 +328,53 @@ public final class BillingUtils {
             final PurchaseResponse purchaseResponse = (PurchaseResponse) response;
             final Purchase purchase = purchaseResponse.getPurchase();
             final VerificationResult verification = purchaseResponse.getVerificationResult();
-            if (purchase != null) {
-                final Purchase newPurchase = revert(resolver, purchase);
-                return new PurchaseResponse(status, name, newPurchase, verification);
+            final Purchase newPurchase = purchase == null ? null : revert(resolver, purchase);
+            if (newPurchase != purchase) {
+                return copyRequestId(response,
+                        new PurchaseResponse(status, name, newPurchase, verification));
             }
         } else if (type == BillingEventType.CONSUME) {
             final ConsumeResponse consumeResponse = (ConsumeResponse) response;
-            final Purchase newPurchase = revert(resolver, consumeResponse.getPurchase());
-            return new ConsumeResponse(status, name, newPurchase);
+            final Purchase purchase = consumeResponse.getPurchase();
+            final Purchase newPurchase = revert(resolver, purchase);
+            if (newPurchase != purchase) {
+                return copyRequestId(response, new ConsumeResponse(status, name, newPurchase));
+            }
         } else if (type == BillingEventType.SKU_DETAILS) {
             final SkuDetailsResponse skuDetailsResponse = (SkuDetailsResponse) response;
             final Collection<SkuDetails> skusDetails = skuDetailsResponse.getSkusDetails();
-            return new SkuDetailsResponse(status, name, revert(resolver, skusDetails));
+            final Collection<SkuDetails> newSkusDetails = revert(resolver, skusDetails);
+            if (newSkusDetails != skusDetails) {
+                return copyRequestId(response,
+                        new SkuDetailsResponse(status, name, newSkusDetails));
+            }
         } else if (type == BillingEventType.INVENTORY) {
             final InventoryResponse inventoryResponse = (InventoryResponse) response;
-            final Map<Purchase, VerificationResult> inventory = inventoryResponse.getInventory();
-            final boolean hasMore = inventoryResponse.hasMore();
-            return new InventoryResponse(status, name, revert(resolver, inventory), hasMore);
+            final Inventory inventory = inventoryResponse.getInventoryTable();
+            final Inventory newInventory = revert(resolver, inventory);
+            if (newInventory != inventory) {
+                final boolean hasMore = inventoryResponse.hasMore();
+                return copyRequestId(response,
+                        new InventoryResponse(status, name, newInventory, hasMore));
+            }
+        } else if (type == BillingEventType.CONSUME_BATCH) {
+            final ConsumeBatchResponse batchResponse = (ConsumeBatchResponse) response;
+            final List<ConsumeResponse> responses = batchResponse.getResponses();
+            List<ConsumeResponse> newResponses = null;
+            for (int i = 0; i < responses.size(); i++) {
+                final ConsumeResponse consumeResponse = responses.get(i);
+                final BillingResponse newResponse = revert(resolver, consumeResponse);
+                if (newResponses == null && newResponse != consumeResponse) {
+                    newResponses = new ArrayList<>(responses.subList(0, i));
+                }
+                if (newResponses != null) {
+                    newResponses.add((ConsumeResponse) newResponse);
+                }
+            }
+            if (newResponses != null) {
+                return copyRequestId(response,
+                        new ConsumeBatchResponse(status, name, newResponses));
+            }
         }
         return response;
     }
@@ -223,6 +393,36 @@ public final class BillingUtils {
         return substituteSku(purchase, resolvedSku);
     }
 
+    /**
+     * Resolves supplied SKUs.
+     *
+     * @param resolver Resolver to use.
+     * @param skus     SKUs to resolve.
+     *
+     * @return Supplied set if no SKU was changed, newly constructed set otherwise.
+     */
+    @NonNull
+    public static Set<String> resolve(@NonNull final SkuResolver resolver,
+                                      @NonNull final Set<String> skus) {
+        Set<String> resolvedSkus = null;
+        for (final String sku : skus) {
+            final String resolvedSku = resolver.resolve(sku);
+            if (resolvedSkus == null && !sku.equals(resolvedSku)) {
+                resolvedSkus = new HashSet<>(skus.size());
+                for (final String previousSku : skus) {
+                    if (previousSku.equals(sku)) {
+                        break;
+                    }
+                    resolvedSkus.add(previousSku);
+                }
+            }
+            if (resolvedSkus != null) {
+                resolvedSkus.add(resolvedSku);
+            }
+        }
+        return resolvedSkus == null ? skus : resolvedSkus;
+    }
+
     @NonNull
     public static Set<String> resolve(@NonNull final SkuResolver resolver,
                                       @NonNull final Iterable<String> skus) {
@@ -247,29 +447,83 @@ public final class BillingUtils {
         return substituteSku(purchase, resolvedSku);
     }
 
+    /**
+     * Reverts SKUs of supplied SKU details.
+     *
+     * @param resolver    Resolver to use.
+     * @param skusDetails SKU details to revert.
+     *
+     * @return Supplied collection if no SKU was changed, newly constructed collection otherwise.
+     */
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
     @NonNull
     public static Collection<SkuDetails> revert(@NonNull final SkuResolver resolver,
-                                                @NonNull final Iterable<SkuDetails> skusDetails) {
-        final Collection<SkuDetails> newSkusDetails = new ArrayList<>();
+                                                @NonNull final Collection<SkuDetails> skusDetails) {
+        Collection<SkuDetails> newSkusDetails = null;
+        int index = 0;
         for (final SkuDetails skuDetails : skusDetails) {
-            newSkusDetails.add(revert(resolver, skuDetails));
+            final SkuDetails newSkuDetails = revert(resolver, skuDetails);
+            if (newSkusDetails == null && newSkuDetails != skuDetails) {
+                newSkusDetails = new ArrayList<>(skusDetails.size());
+                final Iterator<SkuDetails> iterator = skusDetails.iterator();
+                for (int i = 0; i < index; i++) {
+                    newSkusDetails.add(iterator.next());
+                }
+            }
+            if (newSkusDetails != null) {
+                newSkusDetails.add(newSkuDetails);
+            }
+            index++;
         }
-        return newSkusDetails;
+        return newSkusDetails == null ? skusDetails : newSkusDetails;
     }
 
+    /**
+     * Reverts SKUs of supplied inventory.
+     *
+     * @param resolver  Resolver to use.
+     * @param inventory Inventory to revert.
+     *
+     * @return Supplied inventory if no SKU was changed, newly constructed one otherwise.
+     */
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    @NonNull
+    public static Inventory revert(@NonNull final SkuResolver resolver,
+                                   @NonNull final Inventory inventory) {
+        Purchase[] newPurchases = null;
+        for (int i = 0; i < inventory.size(); i++) {
+            final Purchase purchase = inventory.getPurchase(i);
+            final Purchase newPurchase = revert(resolver, purchase);
+            if (newPurchases == null && newPurchase != purchase) {
+                newPurchases = new Purchase[inventory.size()];
+                for (int j = 0; j < i; j++) {
+                    newPurchases[j] = inventory.getPurchase(j);
+                }
+            }
+            if (newPurchases != null) {
+                newPurchases[i] = newPurchase;
+            }
+        }
+        return newPurchases == null ? inventory : inventory.withPurchases(newPurchases);
+    }
 
+    /**
+     * Reverts SKUs of supplied map of purchases.
+     *
+     * @param resolver  Resolver to use.
+     * @param inventory Purchases mapped to their verification results.
+     *
+     * @return Supplied map if no SKU was changed, newly constructed inventory otherwise.
+     * @see #revert(SkuResolver, Inventory)
+     */
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
     @NonNull
     public static Map<Purchase, VerificationResult> revert(
             @NonNull final SkuResolver resolver,
             @NonNull final Map<Purchase, VerificationResult> inventory) {
-        if (inventory.isEmpty()) {
-            return inventory;
-        }
-        final Map<Purchase, VerificationResult> newInventory = new HashMap<>();
-        for (final Map.Entry<Purchase, VerificationResult> entry : inventory.entrySet()) {
-            newInventory.put(revert(resolver, entry.getKey()), entry.getValue());
-        }
-        return newInventory;
+        final Inventory source = Inventory.of(inventory);
+        final Inventory newInventory = revert(resolver, source);
+        return newInventory == source ? inventory : newInventory;
     }
 
     private BillingUtils() {
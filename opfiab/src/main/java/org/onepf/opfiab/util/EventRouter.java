@@ -0,0 +1,501 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfutils.OPFLog;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Routes events to subscribers using precomputed dispatch table.
+ * <p>
+ * Subscribers declare handlers following naming convention:
+ * <ul>
+ * <li>{@code onEvent(E)} - called from the posting thread.</li>
+ * <li>{@code onEventMainThread(E)} - called from the main thread.</li>
+ * <li>{@code onEventBackgroundThread(E)} - called from background thread, same as posting thread if
+ * it's not main.</li>
+ * <li>{@code onEventAsync(E)} - always called from background thread.</li>
+ * </ul>
+ * Handler receives all events assignable to its parameter type.
+ * <p>
+ * Subscribers implementing {@link TypedSubscriber} supply their handlers directly, such handlers
+ * are called without reflection. Handler methods of other subscribers are looked up once per
+ * subscriber class. List of handlers ordered by subscriber priority is computed once per event
+ * class and kept until next {@link #register(Object, int)} or {@link #unregister(Object)} call.
+ */
+public final class EventRouter {
+
+    private static final String PREFIX = "onEvent";
+
+    /**
+     * Handler methods found in subscriber classes.
+     */
+    private static final Map<Class<?>, HandlerMethod[]> METHOD_CACHE = new HashMap<>();
+
+    /**
+     * Thread event handler is called from.
+     */
+    public enum ThreadMode {
+
+        /**
+         * Same as {@code onEvent(E)}.
+         */
+        POSTING,
+        /**
+         * Same as {@code onEventMainThread(E)}.
+         */
+        MAIN,
+        /**
+         * Same as {@code onEventBackgroundThread(E)}.
+         */
+        BACKGROUND,
+        /**
+         * Same as {@code onEventAsync(E)}.
+         */
+        ASYNC,
+    }
+
+    /**
+     * Subscriber which supplies its event handlers instead of declaring handler methods.
+     * <p>
+     * Intended for internal use.
+     */
+    public interface TypedSubscriber {
+
+        /**
+         * Gets all event handlers of this subscriber. Handler methods of such subscribers are
+         * ignored.
+         *
+         * @return Array of handlers, can't be null.
+         */
+        @NonNull
+        EventHandler<?>[] getEventHandlers();
+    }
+
+    /**
+     * Handles events of a single type.
+     *
+     * @param <E> Type of handled events.
+     */
+    public abstract static class EventHandler<E> {
+
+        @NonNull
+        private final Class<? extends E> eventType;
+        @NonNull
+        private final ThreadMode threadMode;
+
+        protected EventHandler(@NonNull final Class<? extends E> eventType,
+                               @NonNull final ThreadMode threadMode) {
+            this.eventType = eventType;
+            this.threadMode = threadMode;
+        }
+
+        protected EventHandler(@NonNull final Class<? extends E> eventType) {
+            this(eventType, ThreadMode.POSTING);
+        }
+
+        /**
+         * Handles event.
+         *
+         * @param event Event object, assignable to handler event type.
+         */
+        public abstract void onEvent(@NonNull E event);
+
+        @Override
+        public String toString() {
+            return "EventHandler{" + eventType.getSimpleName() + ", " + threadMode + '}';
+        }
+    }
+
+    private static final class HandlerMethod {
+
+        @NonNull
+        private final Method method;
+        @NonNull
+        private final ThreadMode threadMode;
+
+        HandlerMethod(@NonNull final Method method, @NonNull final ThreadMode threadMode) {
+            this.method = method;
+            this.threadMode = threadMode;
+        }
+    }
+
+    /**
+     * Calls handler method found with reflection.
+     */
+    private static final class MethodHandler extends EventHandler<Object> {
+
+        @NonNull
+        private final Object subscriber;
+        @NonNull
+        private final Method method;
+
+        MethodHandler(@NonNull final Object subscriber,
+                      @NonNull final HandlerMethod handlerMethod) {
+            super(handlerMethod.method.getParameterTypes()[0], handlerMethod.threadMode);
+            this.subscriber = subscriber;
+            this.method = handlerMethod.method;
+        }
+
+        @Override
+        public void onEvent(@NonNull final Object event) {
+            try {
+                method.invoke(subscriber, event);
+            } catch (InvocationTargetException exception) {
+                final Throwable cause = exception.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            } catch (IllegalAccessException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    private static final class Subscription {
+
+        @NonNull
+        private final EventHandler<Object> handler;
+        private final int priority;
+        /**
+         * Unregistered subscriptions must not receive events already queued for delivery.
+         */
+        private volatile boolean active = true;
+
+        @SuppressWarnings("unchecked")
+        Subscription(@NonNull final EventHandler<?> handler, final int priority) {
+            // Handler only receives events assignable to its type
+            this.handler = (EventHandler<Object>) handler;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Events posted from the same thread are delivered in order, events posted from handlers are
+     * delivered after current event is delivered to all subscribers.
+     */
+    private static final class PostingState {
+
+        private final Queue<Object> queue = new LinkedList<>();
+        private boolean posting;
+    }
+
+    @Nullable
+    private static ThreadMode threadMode(@NonNull final String methodName) {
+        switch (methodName) {
+            case PREFIX:
+                return ThreadMode.POSTING;
+            case PREFIX + "MainThread":
+                return ThreadMode.MAIN;
+            case PREFIX + "BackgroundThread":
+                return ThreadMode.BACKGROUND;
+            case PREFIX + "Async":
+                return ThreadMode.ASYNC;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isSystemClass(@NonNull final Class<?> clazz) {
+        final String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("android.");
+    }
+
+    @NonNull
+    private static HandlerMethod[] findHandlerMethods(@NonNull final Class<?> subscriberClass) {
+        synchronized (METHOD_CACHE) {
+            final HandlerMethod[] cached = METHOD_CACHE.get(subscriberClass);
+            if (cached != null) {
+                return cached;
+            }
+            final Collection<HandlerMethod> handlerMethods = new ArrayList<>();
+            // Overridden methods must be picked only once
+            final Collection<String> signatures = new HashSet<>();
+            for (Class<?> clazz = subscriberClass; clazz != null && !isSystemClass(clazz);
+                 clazz = clazz.getSuperclass()) {
+                for (final Method method : clazz.getDeclaredMethods()) {
+                    final int modifiers = method.getModifiers();
+                    final Class<?>[] parameters = method.getParameterTypes();
+                    final ThreadMode threadMode = threadMode(method.getName());
+                    if (threadMode == null || parameters.length != 1 || method.isBridge()
+                            || method.isSynthetic() || !Modifier.isPublic(modifiers)
+                            || Modifier.isStatic(modifiers) || Modifier.isAbstract(modifiers)) {
+                        continue;
+                    }
+                    final Class<?> eventType = parameters[0];
+                    if (signatures.add(method.getName() + '>' + eventType.getName())) {
+                        method.setAccessible(true);
+                        handlerMethods.add(new HandlerMethod(method, threadMode));
+                    }
+                }
+            }
+            final HandlerMethod[] methods = handlerMethods.toArray(
+                    new HandlerMethod[handlerMethods.size()]);
+            METHOD_CACHE.put(subscriberClass, methods);
+            return methods;
+        }
+    }
+
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ThreadLocal<PostingState> postingState = new ThreadLocal<PostingState>() {
+        @Override
+        protected PostingState initialValue() {
+            return new PostingState();
+        }
+    };
+    /**
+     * Precomputed dispatch table, maps event class to ordered array of subscriptions.
+     */
+    private final Map<Class<?>, Subscription[]> dispatchTable = new ConcurrentHashMap<>();
+    /**
+     * All subscriptions ordered by priority.
+     */
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private final Map<Object, Collection<Subscription>> subscribers = new IdentityHashMap<>();
+    @NonNull
+    private final Executor executor;
+    private final boolean logExceptions;
+
+    /**
+     * Constructs new EventRouter.
+     *
+     * @param executor      Executor to use for background delivery.
+     * @param logExceptions Whether exceptions thrown by handlers should be logged.
+     */
+    public EventRouter(@NonNull final Executor executor, final boolean logExceptions) {
+        this.executor = executor;
+        this.logExceptions = logExceptions;
+    }
+
+    public synchronized boolean isRegistered(@NonNull final Object subscriber) {
+        return subscribers.containsKey(subscriber);
+    }
+
+    /**
+     * Same as {@code register(subscriber, 0)}.
+     *
+     * @see #register(Object, int)
+     */
+    public void register(@NonNull final Object subscriber) {
+        register(subscriber, 0);
+    }
+
+    /**
+     * Registers subscriber to receive events.
+     * <p>
+     * Subscribers with higher priority receive events before subscribers with lower one.
+     *
+     * @param subscriber Subscriber object to register.
+     * @param priority   Subscriber priority.
+     */
+    public synchronized void register(@NonNull final Object subscriber, final int priority) {
+        if (subscribers.containsKey(subscriber)) {
+            return;
+        }
+        final EventHandler<?>[] handlers;
+        if (subscriber instanceof TypedSubscriber) {
+            handlers = ((TypedSubscriber) subscriber).getEventHandlers();
+        } else {
+            final HandlerMethod[] handlerMethods = findHandlerMethods(subscriber.getClass());
+            handlers = new EventHandler<?>[handlerMethods.length];
+            for (int i = 0; i < handlerMethods.length; i++) {
+                handlers[i] = new MethodHandler(subscriber, handlerMethods[i]);
+            }
+        }
+        if (handlers.length == 0) {
+            OPFLog.d("Subscriber has no event handlers: %s", subscriber);
+        }
+        final Collection<Subscription> newSubscriptions = new ArrayList<>(handlers.length);
+        for (final EventHandler<?> handler : handlers) {
+            final Subscription subscription = new Subscription(handler, priority);
+            int index = subscriptions.size();
+            while (index > 0 && subscriptions.get(index - 1).priority < priority) {
+                index--;
+            }
+            subscriptions.add(index, subscription);
+            newSubscriptions.add(subscription);
+        }
+        subscribers.put(subscriber, newSubscriptions);
+        dispatchTable.clear();
+    }
+
+    /**
+     * Unregisters subscriber from receiving any events, including already posted ones.
+     *
+     * @param subscriber Subscriber object to unregister.
+     */
+    public synchronized void unregister(@NonNull final Object subscriber) {
+        final Collection<Subscription> oldSubscriptions = subscribers.remove(subscriber);
+        if (oldSubscriptions == null) {
+            return;
+        }
+        for (final Subscription subscription : oldSubscriptions) {
+            subscription.active = false;
+        }
+        subscriptions.removeAll(oldSubscriptions);
+        dispatchTable.clear();
+    }
+
+    @NonNull
+    private Subscription[] getSubscriptions(@NonNull final Class<?> eventClass) {
+        final Subscription[] cached = dispatchTable.get(eventClass);
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (this) {
+            final Collection<Subscription> eventSubscriptions = new ArrayList<>();
+            for (final Subscription subscription : subscriptions) {
+                if (subscription.handler.eventType.isAssignableFrom(eventClass)) {
+                    eventSubscriptions.add(subscription);
+                }
+            }
+            final Subscription[] array = eventSubscriptions.toArray(
+                    new Subscription[eventSubscriptions.size()]);
+            dispatchTable.put(eventClass, array);
+            return array;
+        }
+    }
+
+    /**
+     * Checks if there's at least one handler for supplied event class.
+     *
+     * @param eventClass Class of the event.
+     *
+     * @return True if event of supplied class will be delivered to someone, false otherwise.
+     */
+    public boolean hasSubscriberForEvent(@NonNull final Class<?> eventClass) {
+        return getSubscriptions(eventClass).length > 0;
+    }
+
+    /**
+     * Posts event for delivery to all subscribers with suitable handlers.
+     *
+     * @param event Event object to deliver.
+     */
+    public void post(@NonNull final Object event) {
+        final PostingState state = postingState.get();
+        state.queue.add(event);
+        if (state.posting) {
+            // Event will be delivered after the current one
+            return;
+        }
+        state.posting = true;
+        try {
+            final boolean isMainThread = Looper.myLooper() == Looper.getMainLooper();
+            Object nextEvent;
+            while ((nextEvent = state.queue.poll()) != null) {
+                dispatch(nextEvent, isMainThread);
+            }
+        } finally {
+            state.queue.clear();
+            state.posting = false;
+        }
+    }
+
+    private void dispatch(@NonNull final Object event, final boolean isMainThread) {
+        for (final Subscription subscription : getSubscriptions(event.getClass())) {
+            switch (subscription.handler.threadMode) {
+                case POSTING:
+                    invoke(subscription, event);
+                    break;
+                case MAIN:
+                    if (isMainThread) {
+                        invoke(subscription, event);
+                    } else {
+                        handler.post(new Delivery(subscription, event));
+                    }
+                    break;
+                case BACKGROUND:
+                    if (isMainThread) {
+                        executor.execute(new Delivery(subscription, event));
+                    } else {
+                        invoke(subscription, event);
+                    }
+                    break;
+                case ASYNC:
+                    executor.execute(new Delivery(subscription, event));
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+    }
+
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private void invoke(@NonNull final Subscription subscription, @NonNull final Object event) {
+        if (!subscription.active) {
+            return;
+        }
+        try {
+            subscription.handler.onEvent(event);
+        } catch (RuntimeException | Error exception) {
+            if (logExceptions) {
+                OPFLog.e("Event handler failed: " + subscription.handler, exception);
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * Delivers event to a single subscription from another thread.
+     */
+    private final class Delivery implements Runnable {
+
+        @NonNull
+        private final Subscription subscription;
+        @NonNull
+        private final Object event;
+
+        Delivery(@NonNull final Subscription subscription, @NonNull final Object event) {
+            this.subscription = subscription;
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            invoke(subscription, event);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor which runs tasks on the main thread.
+ * <p>
+ * Tasks submitted from the main thread are executed immediately.
+ */
+public final class MainThreadExecutor implements Executor {
+
+    private static final MainThreadExecutor INSTANCE = new MainThreadExecutor();
+
+    @NonNull
+    public static MainThreadExecutor getInstance() {
+        return INSTANCE;
+    }
+
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private MainThreadExecutor() {
+        super();
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable command) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            command.run();
+        } else {
+            handler.post(command);
+        }
+    }
+}
@@ -109,7 +109,7 @@ public final class OPFIabUtils {
     public static <T> List<List<T>> partition(@NonNull final Collection<T> collection,
                                               final int batch) {
         final int size = collection.size();
-        final int batches = size / batch + size % batch == 0 ? 0 : 1;
+        final int batches = size / batch + (size % batch == 0 ? 0 : 1);
         final List<List<T>> partitioned = new ArrayList<>(batches);
         final List<T> list = new ArrayList<>(collection);
         for (int i = 0; i < batches; i++) {
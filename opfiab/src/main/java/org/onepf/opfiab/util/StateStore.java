@@ -0,0 +1,317 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfutils.OPFLog;
+import org.onepf.opfutils.OPFPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind wrapper around {@link OPFPreferences} intended to hold library and billing
+ * providers state.
+ * <p>
+ * All mutations are kept in memory and written to disk in batches from a separate thread, several
+ * mutations of the same key are coalesced into one. Reads always reflect the latest mutation, even
+ * if it's not yet written to disk. Pending mutations are also written once any activity is paused,
+ * values which can't be lost at all should be stored with {@link #commit(String, String)}.
+ * <p>
+ * Instances are shared, all callers using the same name work with the same data.
+ */
+public final class StateStore {
+
+    /**
+     * Delay before pending mutations are written to disk.
+     */
+    private static final long FLUSH_DELAY = 500L;
+    /**
+     * Marks removed keys in pending mutations.
+     */
+    private static final Object REMOVED = new Object();
+    /**
+     * Must use only one background thread to keep mutations order.
+     */
+    private static final ScheduledExecutorService EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor();
+    private static final Map<String, StateStore> STORES = new HashMap<>();
+    private static final Runnable FLUSH_ALL_TASK = new Runnable() {
+        @Override
+        public void run() {
+            flushAll();
+        }
+    };
+
+    /**
+     * Gets default state store.
+     *
+     * @param context Context object to get {@link SharedPreferences} from.
+     *
+     * @return StateStore object, can't be null.
+     */
+    @NonNull
+    public static StateStore getInstance(@NonNull final Context context) {
+        return getInstance(context, null);
+    }
+
+    /**
+     * Gets state store with supplied name.
+     *
+     * @param context Context object to get {@link SharedPreferences} from.
+     * @param name    Name of the store, same as {@link OPFPreferences} postfix. Can be null.
+     *
+     * @return StateStore object, can't be null.
+     */
+    @NonNull
+    public static StateStore getInstance(@NonNull final Context context,
+                                         @Nullable final String name) {
+        final String key = name == null ? "" : name;
+        synchronized (STORES) {
+            StateStore stateStore = STORES.get(key);
+            if (stateStore == null) {
+                final Context appContext = context.getApplicationContext();
+                final OPFPreferences preferences = name == null
+                        ? new OPFPreferences(appContext)
+                        : new OPFPreferences(appContext, name);
+                stateStore = new StateStore(preferences);
+                STORES.put(key, stateStore);
+            }
+            return stateStore;
+        }
+    }
+
+    /**
+     * Writes all pending mutations of all known stores to disk.
+     * <p>
+     * Blocking call, shouldn't be used from main thread.
+     */
+    public static void flushAll() {
+        synchronized (STORES) {
+            for (final StateStore stateStore : STORES.values()) {
+                stateStore.flush();
+            }
+        }
+    }
+
+    /**
+     * Schedules immediate write of all pending mutations of all known stores.
+     * <p>
+     * Can be called from any thread.
+     */
+    public static void flushAllAsync() {
+        EXECUTOR.execute(FLUSH_ALL_TASK);
+    }
+
+
+    /**
+     * Used to make sure only one batch is written at a time.
+     */
+    private final Object flushLock = new Object();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    @NonNull
+    private final OPFPreferences preferences;
+    /**
+     * Mutations which are not yet written to disk.
+     */
+    private final Map<String, Object> pending = new HashMap<>();
+    /**
+     * Mutations which are being written to disk at the moment.
+     */
+    private final Map<String, Object> flushing = new HashMap<>();
+    private boolean flushScheduled;
+
+    private StateStore(@NonNull final OPFPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    /**
+     * Looks for the latest in-memory mutation of supplied key.
+     *
+     * @return Mutated value, {@link #REMOVED} or null if key wasn't mutated.
+     */
+    @Nullable
+    private Object getMutation(@NonNull final String key) {
+        if (pending.containsKey(key)) {
+            return pending.get(key);
+        }
+        return flushing.get(key);
+    }
+
+    private static void applyMutations(@NonNull final Map<String, Object> values,
+                                       @NonNull final Map<String, Object> mutations) {
+        for (final Map.Entry<String, Object> entry : mutations.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                values.remove(entry.getKey());
+            } else {
+                values.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void mutate(@NonNull final String key, @NonNull final Object value) {
+        pending.put(key, value);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            EXECUTOR.schedule(flushTask, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized boolean contains(@NonNull final String key) {
+        final Object mutation = getMutation(key);
+        if (mutation != null) {
+            return mutation != REMOVED;
+        }
+        return preferences.contains(key);
+    }
+
+    @Nullable
+    public synchronized String getString(@NonNull final String key,
+                                         @Nullable final String defValue) {
+        final Object mutation = getMutation(key);
+        if (mutation == REMOVED) {
+            return defValue;
+        } else if (mutation instanceof String) {
+            return (String) mutation;
+        }
+        return preferences.getString(key, defValue);
+    }
+
+    @Nullable
+    public String getString(@NonNull final String key) {
+        return getString(key, null);
+    }
+
+    public synchronized int getInt(@NonNull final String key, final int defValue) {
+        final Object mutation = getMutation(key);
+        if (mutation == REMOVED) {
+            return defValue;
+        } else if (mutation instanceof Integer) {
+            return (Integer) mutation;
+        }
+        return preferences.getInt(key, defValue);
+    }
+
+    /**
+     * Gets all values from this store, including ones not yet written to disk.
+     *
+     * @return Map of all values, can't be null.
+     */
+    @NonNull
+    public synchronized Map<String, ?> getAll() {
+        final Map<String, Object> all = new HashMap<>(preferences.getPreferences().getAll());
+        applyMutations(all, flushing);
+        applyMutations(all, pending);
+        return all;
+    }
+
+    public synchronized void put(@NonNull final String key, @NonNull final String value) {
+        mutate(key, value);
+    }
+
+    public synchronized void put(@NonNull final String key, final int value) {
+        mutate(key, value);
+    }
+
+    public synchronized void remove(@NonNull final String key) {
+        mutate(key, REMOVED);
+    }
+
+    /**
+     * Removes all values from this store, including ones not yet written to disk.
+     * <p>
+     * Use this instead of clearing underlying {@link OPFPreferences} directly, otherwise pending
+     * mutations could write removed values back.
+     */
+    public synchronized void clear() {
+        for (final String key : getAll().keySet()) {
+            mutate(key, REMOVED);
+        }
+    }
+
+    /**
+     * Same as {@link #put(String, String)}, but returns only after value is written to disk.
+     * <p>
+     * Intended for values which must survive process death, e.g. unconfirmed purchases. Blocking
+     * call, shouldn't be used from main thread.
+     *
+     * @param key   Key to store value with.
+     * @param value Value to store.
+     */
+    public void commit(@NonNull final String key, @NonNull final String value) {
+        put(key, value);
+        flush();
+    }
+
+    /**
+     * Writes all pending mutations to disk in a single batch.
+     * <p>
+     * Blocking call, shouldn't be used from main thread.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final Map<String, Object> batch;
+            synchronized (this) {
+                flushScheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                // Keep flushing values visible for readers until they are committed
+                flushing.putAll(pending);
+                pending.clear();
+                batch = new HashMap<>(flushing);
+            }
+            final SharedPreferences.Editor editor = preferences.getPreferences().edit();
+            for (final Map.Entry<String, Object> entry : batch.entrySet()) {
+                final String key = entry.getKey();
+                final Object value = entry.getValue();
+                if (value == REMOVED) {
+                    editor.remove(key);
+                } else if (value instanceof Integer) {
+                    editor.putInt(key, (Integer) value);
+                } else {
+                    editor.putString(key, (String) value);
+                }
+            }
+            final boolean committed = editor.commit();
+            synchronized (this) {
+                if (!committed) {
+                    OPFLog.e("Failed to write state to disk, will retry later.");
+                    // Newer mutations take precedence over ones which failed to be written
+                    for (final Map.Entry<String, Object> entry : flushing.entrySet()) {
+                        if (!pending.containsKey(entry.getKey())) {
+                            mutate(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+                flushing.clear();
+            }
+        }
+    }
+}
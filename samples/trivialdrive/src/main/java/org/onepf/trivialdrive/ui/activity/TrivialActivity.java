@@ -50,8 +50,8 @@ import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.listener.OnSetupListener;
 import org.onepf.opfiab.model.event.SetupResponse;
 import org.onepf.opfiab.model.event.SetupStartedEvent;
+import org.onepf.opfiab.util.StateStore;
 import org.onepf.trivialdrive.R;
-import org.onepf.opfutils.OPFPreferences;
 import org.onepf.trivialdrive.Helper;
 import org.onepf.trivialdrive.OnProviderPickerListener;
 import org.onepf.trivialdrive.Provider;
@@ -338,8 +338,8 @@ abstract class TrivialActivity extends AppCompatActivity
         public void onClick(final View v) {
             if (v == btnForget) {
                 // strictly for demo purposes
-                // you probably shouldn't mess with OPFPreferences in real app
-                new OPFPreferences(getApplicationContext()).clear();
+                // you probably shouldn't mess with library state in real app
+                StateStore.getInstance(getApplicationContext()).clear();
             } else if (v == btnInit) {
                 final TrivialActivity context = TrivialActivity.this;
                 OPFIab.init(getApplication(), TrivialBilling.getRelevantConfiguration(context));
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.InventoryRequest;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.ResponseLinker;
+import org.onepf.opfiab.model.event.billing.Status;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.TEST_PROVIDER_NAME_FMT;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_BILLING_PROVIDER;
+
+/**
+ * Checks how {@link BillingBase} abandons requests which are not handled in time.
+ */
+public class BillingBaseTest {
+
+    private static final long REQUEST_TIMEOUT = 200L;
+
+
+    private final BlockingQueue<BillingResponse> responses = new LinkedBlockingQueue<>();
+    private final BillingBase billingBase = BillingBase.getInstance();
+
+    @Before
+    public void setUp() {
+        TestSetup.setupDexmaker();
+    }
+
+    /**
+     * Sets library up with provider which never responds.
+     *
+     * @param name           Unique name of the provider, so that its failures don't affect other
+     *                       tests.
+     * @param requestTimeout Request timeout to use.
+     *
+     * @return Name of the provider.
+     */
+    @NonNull
+    private String setupSilentProvider(@NonNull final String name, final long requestTimeout) {
+        final String providerName = String.format(TEST_PROVIDER_NAME_FMT, name);
+        TestSetup.setup(new Configuration.Builder()
+                                .addBillingProvider(TestSetup.silentProvider(providerName))
+                                .setRequestTimeout(requestTimeout)
+                                .setBillingListener(new SimpleBillingListener() {
+                                    @Override
+                                    public void onResponse(
+                                            @NonNull final BillingResponse billingResponse) {
+                                        responses.add(billingResponse);
+                                    }
+                                })
+                                .build());
+        return providerName;
+    }
+
+    @Nullable
+    private BillingResponse pollResponse() throws InterruptedException {
+        return responses.poll(WAIT_BILLING_PROVIDER, TimeUnit.MILLISECONDS);
+    }
+
+    private void assertAbandoned(@NonNull final BillingRequest billingRequest,
+                                 @NonNull final Status status) throws InterruptedException {
+        final BillingResponse billingResponse = pollResponse();
+        assertNotNull(billingResponse);
+        assertEquals(status, billingResponse.getStatus());
+        assertNull(billingResponse.getProviderName());
+        assertEquals(billingRequest.getRequestId(), billingResponse.getRequestId());
+        assertFalse(billingBase.isOutstanding(billingRequest.getRequestId()));
+        assertFalse(billingBase.isBusy());
+    }
+
+    private void assertLateResponseDropped(@NonNull final String providerName,
+                                           @NonNull final BillingRequest billingRequest)
+            throws InterruptedException {
+        final BillingResponse lateResponse = new InventoryResponse(Status.SUCCESS, providerName);
+        ResponseLinker.link(lateResponse, billingRequest.getRequestId());
+        OPFIab.post(lateResponse);
+        assertNull(pollResponse());
+    }
+
+    @Test
+    public void testDeadline() throws InterruptedException {
+        final String providerName = setupSilentProvider("deadline", REQUEST_TIMEOUT);
+        final BillingRequest billingRequest = new InventoryRequest(true);
+        billingBase.postRequest(billingRequest, null);
+
+        assertAbandoned(billingRequest, Status.TIMEOUT);
+        assertLateResponseDropped(providerName, billingRequest);
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        final String providerName = setupSilentProvider("cancel",
+                                                        Configuration.DEFAULT_REQUEST_TIMEOUT);
+        final BillingRequest billingRequest = new InventoryRequest(true);
+        billingBase.postRequest(billingRequest, null);
+        TestSetup.awaitIdle();
+        assertTrue(billingBase.isOutstanding(billingRequest.getRequestId()));
+
+        assertTrue(billingBase.cancel(billingRequest.getRequestId()));
+        assertAbandoned(billingRequest, Status.CANCELED);
+        assertFalse(billingBase.cancel(billingRequest.getRequestId()));
+        assertLateResponseDropped(providerName, billingRequest);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks when {@link CircuitBreaker} trips and when it's closed again.
+ */
+public class CircuitBreakerTest {
+
+    private static final int WINDOW = 10;
+    private static final int THRESHOLD = 5;
+    private static final long OPEN_DURATION = 200L;
+
+
+    @Test
+    public void testThreshold() {
+        final CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            assertFalse(breaker.record(true));
+        }
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.record(true));
+        assertTrue(breaker.isOpen());
+        // Only the failure which tripped breaker is reported
+        assertFalse(breaker.record(true));
+        assertFalse(breaker.trip());
+    }
+
+    @Test
+    public void testWindow() {
+        final CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            assertFalse(breaker.record(true));
+        }
+        // Old failures are pushed out of the window by successes
+        for (int i = 0; i < WINDOW; i++) {
+            assertFalse(breaker.record(false));
+        }
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            assertFalse(breaker.record(true));
+        }
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void testTrip() {
+        final CircuitBreaker breaker = new CircuitBreaker();
+        assertTrue(breaker.trip());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.trip());
+    }
+
+    @Test
+    public void testReopen() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(OPEN_DURATION);
+        assertTrue(breaker.trip());
+        assertTrue(breaker.isOpen());
+        Thread.sleep(OPEN_DURATION);
+        assertFalse(breaker.isOpen());
+
+        // Failures recorded before breaker was tripped are forgotten
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            assertFalse(breaker.record(true));
+        }
+        assertTrue(breaker.record(true));
+    }
+
+    @Test
+    public void testDefaultOpenDuration() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker();
+        assertTrue(breaker.trip());
+        // Stays open for a minute
+        Thread.sleep(OPEN_DURATION);
+        assertTrue(breaker.isOpen());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.model.event.SetupResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.opfiab_uitest.util.MockBillingProviderBuilder;
+import org.onepf.opfiab.verification.VerificationResult;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.SKU_CONSUMABLE;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.TEST_PROVIDER_NAME;
+
+/**
+ * Checks that concurrent updates of {@link EntitlementIndex} are not lost.
+ */
+public class EntitlementIndexTest {
+
+    private static final int THREADS = 4;
+    private static final int PURCHASES = 200;
+    private static final long WAIT_THREADS = 10000L;
+
+    @NonNull
+    private static Purchase purchase(final int thread, final int index) {
+        return new Purchase.Builder(SKU_CONSUMABLE)
+                .setType(SkuType.CONSUMABLE)
+                .setProviderName(TEST_PROVIDER_NAME)
+                .setToken(thread + "_" + index)
+                .build();
+    }
+
+
+    private EntitlementIndex entitlementIndex;
+
+    @Before
+    public void setUp() {
+        final BillingProvider billingProvider = new MockBillingProviderBuilder()
+                .setName(TEST_PROVIDER_NAME)
+                .build();
+        final Configuration configuration = new Configuration.Builder()
+                .addBillingProvider(billingProvider)
+                .build();
+        entitlementIndex = new EntitlementIndex();
+        entitlementIndex.onEvent(
+                new SetupResponse(configuration, SetupResponse.Status.SUCCESS, billingProvider));
+    }
+
+    private void runConcurrently(@NonNull final Update update) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < PURCHASES; j++) {
+                            update.apply(thread, j);
+                        }
+                    } catch (InterruptedException ignore) {
+                        return;
+                    }
+                    finish.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(finish.await(WAIT_THREADS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        runConcurrently(new Update() {
+            @Override
+            public void apply(final int thread, final int index) {
+                entitlementIndex.onEvent(new PurchaseResponse(
+                        Status.SUCCESS, TEST_PROVIDER_NAME, purchase(thread, index),
+                        VerificationResult.SUCCESS));
+            }
+        });
+        assertEquals(THREADS * PURCHASES, entitlementIndex.getCount(SKU_CONSUMABLE));
+
+        runConcurrently(new Update() {
+            @Override
+            public void apply(final int thread, final int index) {
+                if (index % 2 == 0) {
+                    entitlementIndex.onEvent(new ConsumeResponse(
+                            Status.SUCCESS, TEST_PROVIDER_NAME, purchase(thread, index)));
+                }
+            }
+        });
+        assertEquals(THREADS * PURCHASES / 2, entitlementIndex.getCount(SKU_CONSUMABLE));
+        assertEquals(THREADS * PURCHASES / 2,
+                     entitlementIndex.getPurchases(SKU_CONSUMABLE).length);
+    }
+
+    private interface Update {
+
+        void apply(int thread, int index);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.billing.Compatibility;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.event.SetupResponse;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.InventoryRequest;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.opfiab_uitest.util.MockBillingProviderBuilder;
+import org.onepf.opfiab.util.StateStore;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.TEST_PROVIDER_NAME_FMT;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_BILLING_PROVIDER;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_INIT;
+
+/**
+ * Checks that failing billing provider is replaced with standby one.
+ */
+public class FailoverTest {
+
+    /**
+     * Number of failures which trips {@link CircuitBreaker}.
+     */
+    private static final int THRESHOLD = 5;
+
+
+    private final BlockingQueue<SetupResponse> setupResponses = new LinkedBlockingQueue<>();
+    private final BlockingQueue<BillingResponse> responses = new LinkedBlockingQueue<>();
+    private final BillingBase billingBase = BillingBase.getInstance();
+
+    @Before
+    public void setUp() {
+        TestSetup.setupDexmaker();
+        // Previously used provider would be picked first
+        StateStore.getInstance(InstrumentationRegistry.getTargetContext()).clear();
+    }
+
+    @NonNull
+    private Configuration configuration(@NonNull final BillingProvider primary,
+                                        @NonNull final BillingProvider standby,
+                                        final boolean autoRecover) {
+        return new Configuration.Builder()
+                .addBillingProvider(primary)
+                .addBillingProvider(standby)
+                .setAutoRecover(autoRecover)
+                .setBillingListener(new SimpleBillingListener() {
+                    @Override
+                    public void onSetupResponse(@NonNull final SetupResponse setupResponse) {
+                        setupResponses.add(setupResponse);
+                    }
+
+                    @Override
+                    public void onResponse(@NonNull final BillingResponse billingResponse) {
+                        responses.add(billingResponse);
+                    }
+                })
+                .build();
+    }
+
+    @NonNull
+    private static BillingProvider failingProvider(@NonNull final String name) {
+        return new MockBillingProviderBuilder()
+                .setName(String.format(TEST_PROVIDER_NAME_FMT, name))
+                .setIsAvailable(true)
+                .setCompatibility(Compatibility.PREFERRED)
+                .setWillPostSuccess(false)
+                .setFailureStatus(Status.SERVICE_UNAVAILABLE)
+                .build();
+    }
+
+    @NonNull
+    private static BillingProvider healthyProvider(@NonNull final String name) {
+        return new MockBillingProviderBuilder()
+                .setName(String.format(TEST_PROVIDER_NAME_FMT, name))
+                .setIsAvailable(true)
+                .build();
+    }
+
+    @NonNull
+    private BillingResponse inventory() throws InterruptedException {
+        TestSetup.awaitIdle();
+        billingBase.postRequest(new InventoryRequest(true), null);
+        final BillingResponse billingResponse =
+                responses.poll(WAIT_BILLING_PROVIDER, TimeUnit.MILLISECONDS);
+        assertNotNull(billingResponse);
+        return billingResponse;
+    }
+
+    private void setup(@NonNull final Configuration configuration,
+                       @NonNull final BillingProvider expectedProvider)
+            throws InterruptedException {
+        final SetupResponse setupResponse = TestSetup.setup(configuration);
+        assertSame(expectedProvider, setupResponse.getBillingProvider());
+        setupResponses.poll(WAIT_INIT, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testFailover() throws InterruptedException {
+        final BillingProvider primary = failingProvider("failover_primary");
+        final BillingProvider standby = healthyProvider("failover_standby");
+        setup(configuration(primary, standby, true), primary);
+
+        for (int i = 0; i < THRESHOLD; i++) {
+            assertFalse(billingBase.isTripped(primary));
+            assertEquals(Status.SERVICE_UNAVAILABLE, inventory().getStatus());
+        }
+        assertTrue(billingBase.isTripped(primary));
+
+        final SetupResponse setupResponse =
+                setupResponses.poll(WAIT_INIT, TimeUnit.MILLISECONDS);
+        assertNotNull(setupResponse);
+        assertEquals(SetupResponse.Status.PROVIDER_CHANGED, setupResponse.getStatus());
+        assertSame(standby, setupResponse.getBillingProvider());
+
+        // Requests are now handled by standby provider
+        final BillingResponse billingResponse = inventory();
+        assertEquals(Status.SUCCESS, billingResponse.getStatus());
+        assertEquals(standby.getName(), billingResponse.getProviderName());
+    }
+
+    @Test
+    public void testNoAutoRecover() throws InterruptedException {
+        final BillingProvider primary = failingProvider("no_recover_primary");
+        final BillingProvider standby = healthyProvider("no_recover_standby");
+        setup(configuration(primary, standby, false), primary);
+
+        for (int i = 0; i < THRESHOLD; i++) {
+            assertEquals(Status.SERVICE_UNAVAILABLE, inventory().getStatus());
+        }
+        assertTrue(billingBase.isTripped(primary));
+        // Breaker trips, but provider stays in use
+        assertNull(setupResponses.poll(WAIT_BILLING_PROVIDER, TimeUnit.MILLISECONDS));
+        assertEquals(primary.getName(), inventory().getProviderName());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onepf.opfiab.api.FutureIabHelper;
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.event.billing.BillingEventType;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.opfiab_uitest.util.MockBillingProviderBuilder;
+import org.onepf.opfiab.util.BillingFuture;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.SKU_CONSUMABLE;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.TEST_PROVIDER_NAME_FMT;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_TEST_MANAGER;
+
+/**
+ * Checks that futures supplied by {@link FutureIabHelperImpl} are completed with responses from
+ * provider which doesn't set request ids.
+ */
+public class FutureIabHelperTest {
+
+    private static final long FUTURE_TIMEOUT = 100L;
+
+
+    private final BlockingQueue<BillingResponse> responses = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        TestSetup.setupDexmaker();
+    }
+
+    @NonNull
+    private FutureIabHelper setup(@NonNull final BillingProvider billingProvider) {
+        TestSetup.setup(new Configuration.Builder()
+                                .addBillingProvider(billingProvider)
+                                .setBillingListener(new SimpleBillingListener() {
+                                    @Override
+                                    public void onResponse(
+                                            @NonNull final BillingResponse billingResponse) {
+                                        responses.add(billingResponse);
+                                    }
+                                })
+                                .build());
+        return OPFIab.getFutureHelper();
+    }
+
+    @NonNull
+    private FutureIabHelper setupMock(@NonNull final String name) {
+        return setup(new MockBillingProviderBuilder()
+                             .setName(String.format(TEST_PROVIDER_NAME_FMT, name))
+                             .setIsAvailable(true)
+                             .build());
+    }
+
+    private void assertCanceled() throws InterruptedException {
+        // Nobody waits for response anymore, so request must be canceled
+        while (true) {
+            final BillingResponse billingResponse =
+                    responses.poll(WAIT_TEST_MANAGER, TimeUnit.MILLISECONDS);
+            assertNotNull(billingResponse);
+            if (billingResponse.getStatus() == Status.CANCELED) {
+                return;
+            }
+        }
+    }
+
+    @Test
+    public void testThen() throws Exception {
+        final FutureIabHelper helper = setupMock("future_then");
+        final BillingFuture<SkuDetailsResponse> future = helper.inventory(true).then(
+                new BillingFuture.Continuation<InventoryResponse, SkuDetailsResponse>() {
+                    @NonNull
+                    @Override
+                    public BillingFuture<SkuDetailsResponse> then(
+                            @Nullable final InventoryResponse result) {
+                        if (result == null || !result.isSuccessful()) {
+                            throw new IllegalStateException("Unexpected response: " + result);
+                        }
+                        return helper.skuDetails(SKU_CONSUMABLE);
+                    }
+                });
+
+        final SkuDetailsResponse response = future.get(WAIT_TEST_MANAGER, TimeUnit.MILLISECONDS);
+        assertNotNull(response);
+        assertEquals(Status.SUCCESS, response.getStatus());
+    }
+
+    @Test
+    public void testAll() throws Exception {
+        final FutureIabHelper helper = setupMock("future_all");
+        // Requests are queued while library is busy
+        final List<BillingFuture<? extends BillingResponse>> futures =
+                Arrays.<BillingFuture<? extends BillingResponse>>asList(
+                        helper.inventory(true),
+                        helper.skuDetails(SKU_CONSUMABLE),
+                        helper.purchase(SKU_CONSUMABLE));
+        final List<BillingResponse> results = BillingFuture.<BillingResponse>all(futures)
+                .get(WAIT_TEST_MANAGER, TimeUnit.MILLISECONDS);
+
+        assertNotNull(results);
+        assertEquals(futures.size(), results.size());
+        assertEquals(BillingEventType.INVENTORY, results.get(0).getType());
+        assertEquals(BillingEventType.SKU_DETAILS, results.get(1).getType());
+        assertEquals(BillingEventType.PURCHASE, results.get(2).getType());
+        for (final BillingResponse billingResponse : results) {
+            assertEquals(Status.SUCCESS, billingResponse.getStatus());
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final FutureIabHelper helper = setup(TestSetup.silentProvider(
+                String.format(TEST_PROVIDER_NAME_FMT, "future_timeout")));
+        final BillingFuture<InventoryResponse> future = helper.inventory(true)
+                .timeout(FUTURE_TIMEOUT, TimeUnit.MILLISECONDS);
+        try {
+            future.get(WAIT_TEST_MANAGER, TimeUnit.MILLISECONDS);
+            fail("Future must time out.");
+        } catch (ExecutionException exception) {
+            assertTrue(exception.getCause() instanceof TimeoutException);
+        }
+        assertCanceled();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final FutureIabHelper helper = setup(TestSetup.silentProvider(
+                String.format(TEST_PROVIDER_NAME_FMT, "future_cancel")));
+        final BillingFuture<InventoryResponse> future = helper.inventory(true);
+        TestSetup.awaitIdle();
+
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertCanceled();
+    }
+}
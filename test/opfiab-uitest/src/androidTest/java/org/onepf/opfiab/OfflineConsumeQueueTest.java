@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.app.Application;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.model.event.SetupResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryRequest;
+import org.onepf.opfiab.opfiab_uitest.util.MockBillingProviderBuilder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.TEST_PROVIDER_NAME;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_BILLING_PROVIDER;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_INIT;
+
+/**
+ * Checks that {@link OfflineConsumeQueue} defers consumption while offline and flushes it later.
+ */
+public class OfflineConsumeQueueTest {
+
+    private static final String FILE_NAME = "offline_consume_queue_test";
+
+    @NonNull
+    private static Purchase purchase(@NonNull final String token) {
+        return new Purchase.Builder("sku_" + token)
+                .setType(SkuType.CONSUMABLE)
+                .setProviderName(TEST_PROVIDER_NAME)
+                .setToken(token)
+                .build();
+    }
+
+
+    private final AtomicBoolean offline = new AtomicBoolean();
+    private File file;
+    private PurchaseJournal journal;
+    private OfflineConsumeQueue queue;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        file = new File(context.getCacheDir(), FILE_NAME);
+        tearDown();
+        journal = new PurchaseJournal(file);
+        queue = new OfflineConsumeQueue(context, journal) {
+            @Override
+            boolean isOffline() {
+                return offline.get();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void testDefer() {
+        final ConsumeRequest request = new ConsumeRequest(purchase("1"));
+        journal.journal(request);
+
+        offline.set(false);
+        assertFalse(queue.defer(request));
+
+        offline.set(true);
+        assertTrue(queue.defer(request));
+        assertFalse(queue.defer(new InventoryRequest(true)));
+        // Deferred purchase waits in journal
+        assertEquals(1, journal.getConsuming().size());
+        assertEquals(1, journal.getDeferred().size());
+    }
+
+    @Test
+    public void testFlush() throws InterruptedException {
+        final BillingProvider billingProvider = new MockBillingProviderBuilder()
+                .setName(TEST_PROVIDER_NAME)
+                .setIsAvailable(true)
+                .setSleepTime(WAIT_BILLING_PROVIDER / 10)
+                .build();
+        final CountDownLatch setupLatch = new CountDownLatch(1);
+        final CountDownLatch consumeLatch = new CountDownLatch(2);
+        final AtomicInteger consumed = new AtomicInteger();
+        final Configuration configuration = new Configuration.Builder()
+                .addBillingProvider(billingProvider)
+                .setBillingListener(new SimpleBillingListener() {
+                    @Override
+                    public void onSetupResponse(@NonNull final SetupResponse setupResponse) {
+                        if (setupResponse.isSuccessful()) {
+                            setupLatch.countDown();
+                        }
+                    }
+
+                    @Override
+                    public void onConsume(@NonNull final ConsumeResponse consumeResponse) {
+                        if (consumeResponse.isSuccessful()) {
+                            consumed.incrementAndGet();
+                            consumeLatch.countDown();
+                        }
+                    }
+                })
+                .build();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = InstrumentationRegistry.getTargetContext();
+                OPFIab.init((Application) context.getApplicationContext(), configuration);
+                OPFIab.setup();
+            }
+        });
+        assertTrue(setupLatch.await(WAIT_INIT, TimeUnit.MILLISECONDS));
+
+        // Consumption which reached provider must not be sent again
+        journal.journal(new ConsumeRequest(purchase("in_flight")));
+        offline.set(true);
+        for (final String token : new String[]{"1", "2"}) {
+            final ConsumeRequest request = new ConsumeRequest(purchase(token));
+            journal.journal(request);
+            assertTrue(queue.defer(request));
+        }
+        queue.flush();
+        assertFalse(consumeLatch.await(WAIT_BILLING_PROVIDER, TimeUnit.MILLISECONDS));
+
+        offline.set(false);
+        queue.flush();
+        assertTrue(consumeLatch.await(WAIT_BILLING_PROVIDER, TimeUnit.MILLISECONDS));
+        assertTrue(journal.getDeferred().isEmpty());
+        // Flushing again doesn't send anything
+        queue.flush();
+        Thread.sleep(WAIT_BILLING_PROVIDER);
+        assertEquals(2, consumed.get());
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SignedPurchase;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.model.event.billing.ConsumeRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that {@link PurchaseJournal} survives restarts and broken records.
+ */
+public class PurchaseJournalTest {
+
+    private static final String FILE_NAME = "purchase_journal_test";
+    private static final String PROVIDER_NAME = "Test provider";
+    private static final long WAIT_JOURNAL = 1000L;
+
+    @NonNull
+    private static Purchase purchase(@NonNull final String token) {
+        return new Purchase.Builder("sku_" + token)
+                .setType(SkuType.CONSUMABLE)
+                .setProviderName(PROVIDER_NAME)
+                .setToken(token)
+                .build();
+    }
+
+
+    private File file;
+
+    private int countLines() throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            int count = 0;
+            while (reader.readLine() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), FILE_NAME);
+        tearDown();
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void testReplay() {
+        final PurchaseJournal journal = new PurchaseJournal(file);
+        journal.journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase("1")));
+        journal.journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase("2")));
+        journal.journal(new ConsumeRequest(purchase("2")));
+
+        final PurchaseJournal replayed = new PurchaseJournal(file);
+        final List<Purchase> pending = replayed.getPending();
+        assertEquals(2, pending.size());
+        assertEquals("1", pending.get(0).getToken());
+        assertEquals("2", pending.get(1).getToken());
+        final List<Purchase> consuming = replayed.getConsuming();
+        assertEquals(1, consuming.size());
+        assertEquals("2", consuming.get(0).getToken());
+    }
+
+    @Test
+    public void testSignedPurchase() {
+        final SignedPurchase signedPurchase = new SignedPurchase.Builder("sku_signed")
+                .setType(SkuType.CONSUMABLE)
+                .setProviderName(PROVIDER_NAME)
+                .setToken("1")
+                .setSignature("signature")
+                .build();
+        new PurchaseJournal(file)
+                .journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, signedPurchase));
+
+        final List<Purchase> pending = new PurchaseJournal(file).getPending();
+        assertEquals(1, pending.size());
+        final Purchase purchase = pending.get(0);
+        assertTrue(purchase instanceof SignedPurchase);
+        assertEquals("signature", ((SignedPurchase) purchase).getSignature());
+        assertEquals("sku_signed", purchase.getSku());
+        assertEquals("1", purchase.getToken());
+    }
+
+    @Test
+    public void testLegacyRecord() throws IOException {
+        final FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            // Journal written by previous library version
+            outputStream.write(("P\t1\t{\"sku\":\"sku_1\",\"type\":\"CONSUMABLE\","
+                    + "\"provider_name\":\"" + PROVIDER_NAME + "\",\"token\":\"1\"}\n")
+                                       .getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+
+        final PurchaseJournal journal = new PurchaseJournal(file);
+        journal.journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase("2")));
+        final List<Purchase> pending = new PurchaseJournal(file).getPending();
+        assertEquals(2, pending.size());
+        assertEquals("sku_1", pending.get(0).getSku());
+        assertEquals(SkuType.CONSUMABLE, pending.get(0).getType());
+        assertEquals("2", pending.get(1).getToken());
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        new PurchaseJournal(file)
+                .journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase("1")));
+        final FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            // Process died in the middle of a record
+            outputStream.write("P\t2\t{\"sku\":".getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+
+        final PurchaseJournal journal = new PurchaseJournal(file);
+        assertEquals(1, journal.getPending().size());
+        journal.journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase("3")));
+
+        final List<Purchase> pending = new PurchaseJournal(file).getPending();
+        assertEquals(2, pending.size());
+        assertEquals("1", pending.get(0).getToken());
+        assertEquals("3", pending.get(1).getToken());
+    }
+
+    @Test
+    public void testSettle() {
+        final PurchaseJournal journal = new PurchaseJournal(file);
+        journal.journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase("1")));
+        journal.journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase("2")));
+        journal.journal(new ConsumeRequest(purchase("1")));
+        journal.journal(new ConsumeResponse(Status.SUCCESS, PROVIDER_NAME, purchase("1")));
+        // Failed consumption leaves purchase in journal
+        journal.journal(new ConsumeResponse(Status.UNKNOWN_ERROR, PROVIDER_NAME, purchase("2")));
+        assertEquals(1, journal.getPending().size());
+        assertTrue(journal.getConsuming().isEmpty());
+
+        final List<Purchase> pending = new PurchaseJournal(file).getPending();
+        assertEquals(1, pending.size());
+        assertEquals("2", pending.get(0).getToken());
+    }
+
+    @Test
+    public void testDeferred() {
+        final PurchaseJournal journal = new PurchaseJournal(file);
+        final ConsumeRequest deferredRequest = new ConsumeRequest(purchase("1"));
+        journal.journal(deferredRequest);
+        journal.journal(new ConsumeRequest(purchase("2")));
+        journal.defer(deferredRequest);
+        assertEquals(2, journal.getConsuming().size());
+        final List<Purchase> deferred = new PurchaseJournal(file).getDeferred();
+        assertEquals(1, deferred.size());
+        assertEquals("1", deferred.get(0).getToken());
+
+        // Other provider's purchases are left alone
+        assertTrue(journal.takeDeferred("Other provider").isEmpty());
+        final List<Purchase> taken = journal.takeDeferred(PROVIDER_NAME);
+        assertEquals(1, taken.size());
+        assertEquals("1", taken.get(0).getToken());
+        assertTrue(journal.getDeferred().isEmpty());
+        final PurchaseJournal replayed = new PurchaseJournal(file);
+        assertTrue(replayed.getDeferred().isEmpty());
+        assertEquals(2, replayed.getConsuming().size());
+
+        // Consumption sent again is no longer deferred
+        journal.defer(deferredRequest);
+        journal.journal(deferredRequest);
+        assertTrue(journal.getDeferred().isEmpty());
+        assertTrue(new PurchaseJournal(file).getDeferred().isEmpty());
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        final PurchaseJournal journal = new PurchaseJournal(file);
+        journal.journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase("kept")));
+        for (int i = 0; i < 100; i++) {
+            final Purchase purchase = purchase(String.valueOf(i));
+            journal.journal(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase));
+            journal.journal(new ConsumeResponse(Status.SUCCESS, PROVIDER_NAME, purchase));
+        }
+        // Closed records don't pile up
+        assertTrue(countLines() < 100);
+
+        final List<Purchase> pending = new PurchaseJournal(file).getPending();
+        assertEquals(1, pending.size());
+        assertEquals("kept", pending.get(0).getToken());
+    }
+
+    @Test
+    public void testJournalAsync() throws InterruptedException {
+        final PurchaseJournal journal = new PurchaseJournal(file);
+        journal.journalAsync(new PurchaseResponse(Status.SUCCESS, PROVIDER_NAME, purchase("1")));
+        final CountDownLatch latch = new CountDownLatch(1);
+        final int[] pending = new int[1];
+        PurchaseJournal.afterJournaled(new Runnable() {
+            @Override
+            public void run() {
+                pending[0] = new PurchaseJournal(file).getPending().size();
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(WAIT_JOURNAL, TimeUnit.MILLISECONDS));
+        // Task must see the record on disk
+        assertEquals(1, pending[0]);
+    }
+}
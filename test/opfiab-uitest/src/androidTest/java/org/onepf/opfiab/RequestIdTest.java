@@ -0,0 +1,209 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onepf.opfiab.billing.BaseBillingProvider;
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.billing.Compatibility;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryRequest;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseRequest;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
+import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.opfiab_uitest.util.MockBillingProviderBuilder;
+import org.onepf.opfiab.sku.SkuResolver;
+import org.onepf.opfiab.verification.PurchaseVerifier;
+import org.onepf.opfiab.verification.VerificationResult;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.SKU_CONSUMABLE;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.TEST_PROVIDER_NAME_FMT;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_BILLING_PROVIDER;
+
+/**
+ * Checks that every response reaches listeners linked with the request it was made for.
+ */
+public class RequestIdTest {
+
+    private final BlockingQueue<BillingResponse> responses = new LinkedBlockingQueue<>();
+    private final BillingBase billingBase = BillingBase.getInstance();
+
+    @Before
+    public void setUp() {
+        TestSetup.setupDexmaker();
+    }
+
+    private void setup(@NonNull final BillingProvider billingProvider) {
+        TestSetup.setup(new Configuration.Builder()
+                                .addBillingProvider(billingProvider)
+                                .setBillingListener(new SimpleBillingListener() {
+                                    @Override
+                                    public void onResponse(
+                                            @NonNull final BillingResponse billingResponse) {
+                                        responses.add(billingResponse);
+                                    }
+                                })
+                                .build());
+    }
+
+    @NonNull
+    private BillingResponse awaitResponse() throws InterruptedException {
+        final BillingResponse billingResponse =
+                responses.poll(WAIT_BILLING_PROVIDER, TimeUnit.MILLISECONDS);
+        assertNotNull(billingResponse);
+        return billingResponse;
+    }
+
+    private void assertLinked(@NonNull final BillingRequest billingRequest)
+            throws InterruptedException {
+        TestSetup.awaitIdle();
+        billingBase.postRequest(billingRequest, null);
+        final BillingResponse billingResponse = awaitResponse();
+        assertEquals(billingRequest.getType(), billingResponse.getType());
+        assertEquals(billingRequest.getRequestId(), billingResponse.getRequestId());
+        // Request must not linger until deadline
+        assertFalse(billingBase.isOutstanding(billingRequest.getRequestId()));
+    }
+
+    @Test
+    public void testProviderWithoutIds() throws InterruptedException {
+        // Mock responses always have id 0
+        setup(new MockBillingProviderBuilder()
+                      .setName(String.format(TEST_PROVIDER_NAME_FMT, "no_ids"))
+                      .setIsAvailable(true)
+                      .build());
+
+        assertLinked(new InventoryRequest(true));
+        assertLinked(new SkuDetailsRequest(SKU_CONSUMABLE));
+        assertLinked(new PurchaseRequest(SKU_CONSUMABLE));
+    }
+
+    @Test
+    public void testBaseProvider() throws InterruptedException {
+        final LinkingBillingProvider billingProvider =
+                new LinkingBillingProvider(InstrumentationRegistry.getTargetContext());
+        setup(billingProvider);
+
+        // Synchronous response
+        assertLinked(new InventoryRequest(true));
+        // Asynchronous response
+        assertLinked(new SkuDetailsRequest(SKU_CONSUMABLE));
+
+        // Response no request is waiting for is still delivered
+        TestSetup.awaitIdle();
+        billingProvider.pushPurchase();
+        final BillingResponse billingResponse = awaitResponse();
+        assertEquals(PurchaseResponse.class, billingResponse.getClass());
+        assertEquals(0L, billingResponse.getRequestId());
+    }
+
+    /**
+     * Provider which responds to inventory requests synchronously and to SKU details requests
+     * asynchronously.
+     */
+    private static final class LinkingBillingProvider
+            extends BaseBillingProvider<SkuResolver, PurchaseVerifier> {
+
+        private static final String NAME = String.format(TEST_PROVIDER_NAME_FMT, "linking");
+        private static final long DELAY = 50L;
+
+        LinkingBillingProvider(@NonNull final Context context) {
+            super(context, SkuResolver.DEFAULT, PurchaseVerifier.DEFAULT);
+        }
+
+        void pushPurchase() {
+            final Purchase purchase = new Purchase.Builder(SKU_CONSUMABLE)
+                    .setProviderName(NAME)
+                    .build();
+            postResponse(new PurchaseResponse(Status.SUCCESS, NAME, purchase,
+                                              VerificationResult.SUCCESS));
+        }
+
+        @Override
+        protected void skuDetails(@NonNull final SkuDetailsRequest request) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(DELAY);
+                    } catch (InterruptedException ignore) {
+                        return;
+                    }
+                    postResponse(new SkuDetailsResponse(Status.SUCCESS, NAME, null));
+                }
+            }).start();
+        }
+
+        @Override
+        protected void inventory(@NonNull final InventoryRequest request) {
+            postResponse(new InventoryResponse(Status.SUCCESS, NAME));
+        }
+
+        @Override
+        protected void purchase(@NonNull final PurchaseRequest request) {
+            postEmptyResponse(request, Status.USER_CANCELED);
+        }
+
+        @Override
+        protected void consume(@NonNull final ConsumeRequest request) {
+            postResponse(new ConsumeResponse(Status.SUCCESS, NAME, request.getPurchase()));
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        public void checkManifest() {
+            // Nothing to check
+        }
+
+        @NonNull
+        @Override
+        public Compatibility checkCompatibility() {
+            return Compatibility.COMPATIBLE;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+    }
+}
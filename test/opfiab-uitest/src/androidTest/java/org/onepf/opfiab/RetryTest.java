@@ -0,0 +1,266 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.onepf.opfiab.billing.BaseBillingProvider;
+import org.onepf.opfiab.billing.Compatibility;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.RetryPolicy;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeRequest;
+import org.onepf.opfiab.model.event.billing.InventoryRequest;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseRequest;
+import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.sku.SkuResolver;
+import org.onepf.opfiab.verification.PurchaseVerifier;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.SKU_CONSUMABLE;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.TEST_PROVIDER_NAME_FMT;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_BILLING_PROVIDER;
+
+/**
+ * Checks that {@link BaseBillingProvider} retries requests according to {@link RetryPolicy}.
+ */
+public class RetryTest {
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_DELAY = 100L;
+    private static final long MAX_DELAY = 200L;
+    /**
+     * Allowed scheduling lag between attempts.
+     */
+    private static final long SLACK = 100L;
+
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy.Builder()
+            .setMaxAttempts(MAX_ATTEMPTS)
+            .setDelay(INITIAL_DELAY, MAX_DELAY)
+            .build();
+
+
+    private final BlockingQueue<BillingResponse> responses = new LinkedBlockingQueue<>();
+    private final BillingBase billingBase = BillingBase.getInstance();
+
+    @NonNull
+    private FailingBillingProvider setup(@NonNull final String name, final int failures,
+                                         @NonNull final RetryPolicy retryPolicy) {
+        final FailingBillingProvider billingProvider = new FailingBillingProvider(
+                InstrumentationRegistry.getTargetContext(),
+                String.format(TEST_PROVIDER_NAME_FMT, name), failures);
+        TestSetup.setup(new Configuration.Builder()
+                                .addBillingProvider(billingProvider)
+                                .setRetryPolicy(retryPolicy)
+                                .setBillingListener(new SimpleBillingListener() {
+                                    @Override
+                                    public void onResponse(
+                                            @NonNull final BillingResponse billingResponse) {
+                                        responses.add(billingResponse);
+                                    }
+                                })
+                                .build());
+        return billingProvider;
+    }
+
+    @NonNull
+    private BillingResponse request(@NonNull final BillingRequest billingRequest)
+            throws InterruptedException {
+        TestSetup.awaitIdle();
+        billingBase.postRequest(billingRequest, null);
+        final BillingResponse billingResponse =
+                responses.poll(WAIT_BILLING_PROVIDER * MAX_ATTEMPTS, TimeUnit.MILLISECONDS);
+        assertNotNull(billingResponse);
+        assertEquals(billingRequest.getRequestId(), billingResponse.getRequestId());
+        return billingResponse;
+    }
+
+    @Test
+    public void testDelayBounds() {
+        for (int i = 0; i < 100; i++) {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                final long delay = Math.min(MAX_DELAY, INITIAL_DELAY << (attempt - 1));
+                final long actual = RETRY_POLICY.getDelay(attempt);
+                assertTrue(actual >= delay / 2);
+                assertTrue(actual <= delay);
+            }
+        }
+    }
+
+    @Test
+    public void testRetryCount() throws InterruptedException {
+        final FailingBillingProvider billingProvider = setup("retry_count", 2, RETRY_POLICY);
+        assertEquals(Status.SUCCESS, request(new InventoryRequest(true)).getStatus());
+        // Transient errors are not reported
+        assertNull(responses.poll(INITIAL_DELAY, TimeUnit.MILLISECONDS));
+        assertEquals(3, billingProvider.attempts.size());
+    }
+
+    @Test
+    public void testAttemptsExhausted() throws InterruptedException {
+        final FailingBillingProvider billingProvider =
+                setup("attempts_exhausted", Integer.MAX_VALUE, RETRY_POLICY);
+        final BillingResponse billingResponse = request(new SkuDetailsRequest(SKU_CONSUMABLE));
+        assertEquals(Status.SERVICE_UNAVAILABLE, billingResponse.getStatus());
+        assertEquals(MAX_ATTEMPTS, billingProvider.attempts.size());
+    }
+
+    @Test
+    public void testBackoff() throws InterruptedException {
+        final FailingBillingProvider billingProvider =
+                setup("backoff", MAX_ATTEMPTS - 1, RETRY_POLICY);
+        assertEquals(Status.SUCCESS, request(new InventoryRequest(true)).getStatus());
+        final List<Long> attempts = billingProvider.attempts;
+        assertEquals(MAX_ATTEMPTS, attempts.size());
+        for (int i = 1; i < attempts.size(); i++) {
+            final long delay = Math.min(MAX_DELAY, INITIAL_DELAY << (i - 1));
+            final long gap = attempts.get(i) - attempts.get(i - 1);
+            assertTrue("Retry came too early: " + gap, gap >= delay / 2);
+            assertTrue("Retry came too late: " + gap, gap <= delay + SLACK);
+        }
+    }
+
+    @Test
+    public void testPurchaseNotRetried() throws InterruptedException {
+        final FailingBillingProvider billingProvider = setup("purchase", 1, RETRY_POLICY);
+        final BillingResponse billingResponse = request(new PurchaseRequest(SKU_CONSUMABLE));
+        assertEquals(Status.SERVICE_UNAVAILABLE, billingResponse.getStatus());
+        assertEquals(1, billingProvider.attempts.size());
+    }
+
+    @Test
+    public void testAbandonStopsRetries() throws InterruptedException {
+        final long delay = WAIT_BILLING_PROVIDER;
+        final FailingBillingProvider billingProvider = setup(
+                "abandon", Integer.MAX_VALUE, new RetryPolicy.Builder()
+                        .setMaxAttempts(MAX_ATTEMPTS)
+                        .setDelay(delay, delay)
+                        .build());
+        TestSetup.awaitIdle();
+        final BillingRequest billingRequest = new InventoryRequest(true);
+        billingBase.postRequest(billingRequest, null);
+        final long deadline = SystemClock.elapsedRealtime() + WAIT_BILLING_PROVIDER;
+        while (billingProvider.attempts.isEmpty() && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(INITIAL_DELAY / 10);
+        }
+        assertEquals(1, billingProvider.attempts.size());
+
+        assertTrue(billingBase.cancel(billingRequest.getRequestId()));
+        final BillingResponse billingResponse =
+                responses.poll(WAIT_BILLING_PROVIDER, TimeUnit.MILLISECONDS);
+        assertNotNull(billingResponse);
+        assertEquals(Status.CANCELED, billingResponse.getStatus());
+        // Provider must stop waiting for the next attempt right away
+        TestSetup.awaitIdle();
+        Thread.sleep(delay + SLACK);
+        assertEquals(1, billingProvider.attempts.size());
+        assertNull(responses.poll(INITIAL_DELAY, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Provider which fails synchronously with {@link Status#SERVICE_UNAVAILABLE} supplied number
+     * of times before succeeding.
+     */
+    private static final class FailingBillingProvider
+            extends BaseBillingProvider<SkuResolver, PurchaseVerifier> {
+
+        /**
+         * Times of all attempts to handle requests.
+         */
+        final List<Long> attempts = new CopyOnWriteArrayList<>();
+        @NonNull
+        private final String name;
+        private final int failures;
+
+        FailingBillingProvider(@NonNull final Context context, @NonNull final String name,
+                               final int failures) {
+            super(context, SkuResolver.DEFAULT, PurchaseVerifier.DEFAULT);
+            this.name = name;
+            this.failures = failures;
+        }
+
+        private void handle(@NonNull final BillingRequest billingRequest) {
+            attempts.add(SystemClock.elapsedRealtime());
+            if (attempts.size() <= failures) {
+                postEmptyResponse(billingRequest, Status.SERVICE_UNAVAILABLE);
+            } else if (billingRequest instanceof InventoryRequest) {
+                postResponse(new InventoryResponse(Status.SUCCESS, name));
+            } else {
+                postEmptyResponse(billingRequest, Status.SUCCESS);
+            }
+        }
+
+        @Override
+        protected void skuDetails(@NonNull final SkuDetailsRequest request) {
+            handle(request);
+        }
+
+        @Override
+        protected void inventory(@NonNull final InventoryRequest request) {
+            handle(request);
+        }
+
+        @Override
+        protected void purchase(@NonNull final PurchaseRequest request) {
+            handle(request);
+        }
+
+        @Override
+        protected void consume(@NonNull final ConsumeRequest request) {
+            handle(request);
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void checkManifest() {
+            // Nothing to check
+        }
+
+        @NonNull
+        @Override
+        public Compatibility checkCompatibility() {
+            return Compatibility.COMPATIBLE;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+    }
+}
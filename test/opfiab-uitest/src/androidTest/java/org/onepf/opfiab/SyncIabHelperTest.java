@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onepf.opfiab.api.SyncIabHelper;
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.opfiab_uitest.util.MockBillingProviderBuilder;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.SKU_CONSUMABLE;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.TEST_PROVIDER_NAME_FMT;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_BILLING_PROVIDER;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_TEST_MANAGER;
+
+/**
+ * Checks that {@link SyncIabHelperImpl} returns responses from provider which doesn't set request
+ * ids to a worker thread.
+ */
+public class SyncIabHelperTest {
+
+    private static final long SYNC_TIMEOUT = 200L;
+
+
+    private final BlockingQueue<BillingResponse> responses = new LinkedBlockingQueue<>();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setUp() {
+        TestSetup.setupDexmaker();
+    }
+
+    @After
+    public void tearDown() {
+        worker.shutdownNow();
+    }
+
+    private void setup(@NonNull final BillingProvider billingProvider) {
+        TestSetup.setup(new Configuration.Builder()
+                                .addBillingProvider(billingProvider)
+                                .setBillingListener(new SimpleBillingListener() {
+                                    @Override
+                                    public void onResponse(
+                                            @NonNull final BillingResponse billingResponse) {
+                                        responses.add(billingResponse);
+                                    }
+                                })
+                                .build());
+    }
+
+    @NonNull
+    private <R> R onWorker(@NonNull final Callable<R> callable) throws Exception {
+        try {
+            return worker.submit(callable).get(WAIT_TEST_MANAGER, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException exception) {
+            final Throwable cause = exception.getCause();
+            throw cause instanceof Exception ? (Exception) cause : exception;
+        }
+    }
+
+    @Test
+    public void testWorkerThread() throws Exception {
+        setup(new MockBillingProviderBuilder()
+                      .setName(String.format(TEST_PROVIDER_NAME_FMT, "sync"))
+                      .setIsAvailable(true)
+                      .build());
+        final SyncIabHelper helper = OPFIab.getSyncHelper(WAIT_BILLING_PROVIDER);
+
+        final BillingResponse inventoryResponse = onWorker(new Callable<BillingResponse>() {
+            @Override
+            public BillingResponse call() throws Exception {
+                return helper.inventory(true);
+            }
+        });
+        assertEquals(Status.SUCCESS, inventoryResponse.getStatus());
+
+        final BillingResponse skuDetailsResponse = onWorker(new Callable<BillingResponse>() {
+            @Override
+            public BillingResponse call() throws Exception {
+                return helper.skuDetails(SKU_CONSUMABLE);
+            }
+        });
+        assertEquals(Status.SUCCESS, skuDetailsResponse.getStatus());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        setup(TestSetup.silentProvider(String.format(TEST_PROVIDER_NAME_FMT, "sync_timeout")));
+        final SyncIabHelper helper = OPFIab.getSyncHelper(SYNC_TIMEOUT);
+
+        final boolean timedOut = onWorker(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                try {
+                    helper.inventory(true);
+                    return false;
+                } catch (TimeoutException ignore) {
+                    return true;
+                }
+            }
+        });
+        assertTrue(timedOut);
+        // Nobody waits for response anymore, so request must be canceled
+        while (true) {
+            final BillingResponse billingResponse =
+                    responses.poll(WAIT_TEST_MANAGER, TimeUnit.MILLISECONDS);
+            assertNotNull(billingResponse);
+            if (billingResponse.getStatus() == Status.CANCELED) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.billing.Compatibility;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.event.SetupResponse;
+
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_INIT;
+
+/**
+ * Initializes library for tests which talk to {@link BillingBase} directly.
+ */
+final class TestSetup {
+
+    private static final long POLL_INTERVAL = 10L;
+
+    private TestSetup() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Workaround for Mockito and JB-MR2 incompatibility to avoid
+     * java.lang.IllegalArgumentException: dexcache == null
+     *
+     * @see <a href="https://code.google.com/p/dexmaker/issues/detail?id=2">
+     * https://code.google.com/p/dexmaker/issues/detail?id=2</a>
+     */
+    static void setupDexmaker() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        System.setProperty("dexmaker.dexcache", context.getCacheDir().getPath());
+    }
+
+    /**
+     * Creates billing provider which accepts every request and never responds.
+     *
+     * @param name Name of the provider, should be unique to keep failures of the provider from
+     *             affecting other tests.
+     *
+     * @return Mock billing provider.
+     */
+    @NonNull
+    static BillingProvider silentProvider(@NonNull final String name) {
+        final BillingProvider billingProvider = mock(BillingProvider.class);
+        when(billingProvider.getName()).thenReturn(name);
+        when(billingProvider.isAvailable()).thenReturn(true);
+        when(billingProvider.checkCompatibility()).thenReturn(Compatibility.COMPATIBLE);
+        return billingProvider;
+    }
+
+    /**
+     * Initializes library with supplied configuration and waits for successful setup.
+     *
+     * @param configuration Configuration to use.
+     *
+     * @return Setup response.
+     */
+    @NonNull
+    static SetupResponse setup(@NonNull final Configuration configuration) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = InstrumentationRegistry.getTargetContext();
+                OPFIab.init((Application) context.getApplicationContext(), configuration);
+                OPFIab.setup();
+            }
+        });
+        final SetupResponse setupResponse = awaitSetup();
+        assertTrue(setupResponse.isSuccessful());
+        return setupResponse;
+    }
+
+    /**
+     * Waits for setup which is currently in progress to finish.
+     *
+     * @return Setup response.
+     */
+    @NonNull
+    static SetupResponse awaitSetup() {
+        final long deadline = SystemClock.elapsedRealtime() + WAIT_INIT;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            final SetupResponse setupResponse = BillingBase.getInstance().getSetupResponse();
+            if (setupResponse != null) {
+                return setupResponse;
+            }
+            SystemClock.sleep(POLL_INTERVAL);
+        }
+        fail("Setup didn't finish in time.");
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Waits until library is done with request it's currently busy with.
+     */
+    static void awaitIdle() {
+        final long deadline = SystemClock.elapsedRealtime() + WAIT_INIT;
+        while (BillingBase.getInstance().isBusy()) {
+            if (SystemClock.elapsedRealtime() >= deadline) {
+                fail("Library is still busy.");
+            }
+            SystemClock.sleep(POLL_INTERVAL);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.model.billing;
+
+import org.junit.After;
+import org.junit.Test;
+import org.onepf.opfiab.model.Configuration;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that {@link StringPool} shares equal strings and stays within configured size.
+ */
+public class StringPoolTest {
+
+    private static final int CAPACITY = 64;
+    private static final int THREADS = 4;
+    private static final long WAIT_THREADS = 5000L;
+
+    @After
+    public void tearDown() {
+        StringPool.setCapacity(Configuration.DEFAULT_STRING_POOL_SIZE);
+    }
+
+    @Test
+    public void testSharing() {
+        final String sku = new String("org.onepf.opfiab.sku");
+        final String copy = new String(sku);
+        assertNotSame(sku, copy);
+        assertSame(StringPool.intern(sku), StringPool.intern(copy));
+
+        final Purchase purchase = new Purchase.Builder(new String("org.onepf.opfiab.shared"))
+                .setProviderName(new String("Test provider"))
+                .build();
+        final Purchase other = new Purchase.Builder(new String("org.onepf.opfiab.shared"))
+                .setProviderName(new String("Test provider"))
+                .build();
+        assertSame(purchase.getSku(), other.getSku());
+        assertSame(purchase.getProviderName(), other.getProviderName());
+    }
+
+    @Test
+    public void testBounded() throws InterruptedException {
+        StringPool.setCapacity(CAPACITY);
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < CAPACITY * 100; j++) {
+                        final String value = "sku_" + thread + "_" + j;
+                        assertEquals(value, StringPool.intern(value));
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        assertTrue(latch.await(WAIT_THREADS, TimeUnit.MILLISECONDS));
+        assertTrue(StringPool.size() <= CAPACITY);
+        assertTrue(StringPool.size() > 0);
+    }
+}
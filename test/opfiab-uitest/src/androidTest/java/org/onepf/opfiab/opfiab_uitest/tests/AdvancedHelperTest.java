@@ -34,8 +34,16 @@ import org.onepf.opfiab.listener.OnInventoryListener;
 import org.onepf.opfiab.listener.OnPurchaseListener;
 import org.onepf.opfiab.listener.OnSetupListener;
 import org.onepf.opfiab.listener.OnSkuDetailsListener;
+import org.onepf.opfiab.listener.SimpleBillingListener;
 import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.QueuePolicy;
+import org.onepf.opfiab.model.event.SetupResponse;
+import org.onepf.opfiab.model.event.billing.BillingEventType;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.InventoryRequest;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
 import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.opfiab_uitest.EmptyActivity;
 import org.onepf.opfiab.opfiab_uitest.manager.BillingManagerAdapter;
 import org.onepf.opfiab.opfiab_uitest.manager.TestManager;
@@ -52,12 +60,24 @@ import org.onepf.opfiab.opfiab_uitest.util.validators.SkuDetailsResponseValidato
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.onepf.opfiab.opfiab_uitest.util.Constants.SKU_CONSUMABLE;
 import static org.onepf.opfiab.opfiab_uitest.util.Constants.SKU_ENTITY;
 import static org.onepf.opfiab.opfiab_uitest.util.Constants.SKU_SUBSCRIPTION;
 import static org.onepf.opfiab.opfiab_uitest.util.Constants.TEST_PROVIDER_NAME;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_BILLING_PROVIDER;
+import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_INIT;
 import static org.onepf.opfiab.opfiab_uitest.util.Constants.WAIT_TEST_MANAGER;
 
 /**
@@ -454,6 +474,201 @@ public class AdvancedHelperTest {
         assertTrue(subscribeSensitiveManager.await(WAIT_TEST_MANAGER));
     }
 
+    @Test
+    public void testBroadcastRegister() throws Exception {
+        final BillingProvider billingProvider = new MockBillingProviderBuilder()
+                .setWillPostSuccess(true)
+                .setName(TEST_PROVIDER_NAME)
+                .setIsAvailable(true)
+                .build();
+
+        final TestManager senderManager = new TestManager.Builder()
+                .expectEvent(new PurchaseResponseValidator(TEST_PROVIDER_NAME, true))
+                .setTag("Sender")
+                .build();
+        final TestManager broadcastManager = new TestManager.Builder()
+                .expectEvent(new PurchaseResponseValidator(TEST_PROVIDER_NAME, true))
+                .setTag("Broadcast")
+                .build();
+        final TestManager targetedManager = new TestManager.Builder()
+                .setFailOnReceive(true)
+                .setSkipWrongEvents(false)
+                .setTag("Targeted")
+                .build();
+
+        final Configuration configuration = new Configuration.Builder()
+                .addBillingProvider(billingProvider)
+                .build();
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                OPFIab.init(activity.getApplication(), configuration);
+                final AdvancedIabHelper sender = OPFIab.getAdvancedHelper();
+                final AdvancedIabHelper broadcastHelper = OPFIab.getAdvancedHelper();
+                final AdvancedIabHelper targetedHelper = OPFIab.getAdvancedHelper();
+
+                sender.addPurchaseListener(new BillingManagerAdapter(senderManager));
+                broadcastHelper.addPurchaseListener(new BillingManagerAdapter(broadcastManager));
+                targetedHelper.addPurchaseListener(new BillingManagerAdapter(targetedManager));
+                sender.register();
+                broadcastHelper.register(true);
+                targetedHelper.register();
+
+                OPFIab.setup();
+                sender.purchase(SKU_CONSUMABLE);
+            }
+        });
+
+        assertTrue(senderManager.await(WAIT_TEST_MANAGER));
+        assertTrue(broadcastManager.await(WAIT_TEST_MANAGER));
+        assertTrue(targetedManager.await(WAIT_TEST_MANAGER));
+    }
+
+    @Test
+    public void testGlobalQueueOverflow() throws Exception {
+        final BillingProvider billingProvider = new MockBillingProviderBuilder()
+                .setWillPostSuccess(true)
+                .setName(TEST_PROVIDER_NAME)
+                .setIsAvailable(true)
+                .setSleepTime(WAIT_BILLING_PROVIDER)
+                .build();
+
+        final CountDownLatch setupLatch = new CountDownLatch(1);
+        final Configuration configuration = new Configuration.Builder()
+                .addBillingProvider(billingProvider)
+                .setQueuePolicy(new QueuePolicy.Builder()
+                                        .setLimits(Integer.MAX_VALUE, 2)
+                                        .setOverflow(QueuePolicy.Overflow.DROP_NEWEST)
+                                        .build())
+                .setBillingListener(new SimpleBillingListener() {
+                    @Override
+                    public void onSetupResponse(@NonNull final SetupResponse setupResponse) {
+                        setupLatch.countDown();
+                    }
+                })
+                .build();
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                OPFIab.init(activity.getApplication(), configuration);
+                OPFIab.setup();
+            }
+        });
+        assertTrue(setupLatch.await(WAIT_INIT, TimeUnit.MILLISECONDS));
+
+        final List<BillingResponse> hogBusy = new CopyOnWriteArrayList<>();
+        final List<BillingResponse> otherBusy = new CopyOnWriteArrayList<>();
+        final CountDownLatch busyLatch = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final AdvancedIabHelper hog = OPFIab.getAdvancedHelper();
+                final AdvancedIabHelper other = OPFIab.getAdvancedHelper();
+                hog.addBillingListener(new BusyListener(hogBusy, null));
+                other.addBillingListener(new BusyListener(otherBusy, busyLatch));
+                hog.register(false);
+                other.register(false);
+
+                // Keeps library busy while the rest is queued
+                hog.purchase(SKU_CONSUMABLE);
+                hog.inventory(true);
+                hog.skuDetails(SKU_CONSUMABLE);
+                // Global limit is reached, newest request is dropped on behalf of its own helper
+                other.inventory(true);
+            }
+        });
+
+        assertTrue(busyLatch.await(WAIT_TEST_MANAGER, TimeUnit.MILLISECONDS));
+        Thread.sleep(WAIT_TEST_MANAGER);
+        assertEquals(1, otherBusy.size());
+        assertEquals(BillingEventType.INVENTORY, otherBusy.get(0).getType());
+        assertTrue(hogBusy.isEmpty());
+    }
+
+    @Test
+    public void testSameRequestTwice() throws Exception {
+        final BillingProvider billingProvider = prepareMockProvider(TEST_PROVIDER_NAME);
+
+        final CountDownLatch setupLatch = new CountDownLatch(1);
+        final Configuration configuration = new Configuration.Builder()
+                .addBillingProvider(billingProvider)
+                .setBillingListener(new SimpleBillingListener() {
+                    @Override
+                    public void onSetupResponse(@NonNull final SetupResponse setupResponse) {
+                        setupLatch.countDown();
+                    }
+                })
+                .build();
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                OPFIab.init(activity.getApplication(), configuration);
+                OPFIab.setup();
+            }
+        });
+        assertTrue(setupLatch.await(WAIT_INIT, TimeUnit.MILLISECONDS));
+
+        final AdvancedIabHelper[] helpers = new AdvancedIabHelper[1];
+        final BlockingQueue<InventoryResponse> responses = new LinkedBlockingQueue<>();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                helpers[0] = OPFIab.getAdvancedHelper();
+                helpers[0].addInventoryListener(new OnInventoryListener() {
+                    @Override
+                    public void onInventory(@NonNull final InventoryResponse inventoryResponse) {
+                        responses.add(inventoryResponse);
+                    }
+                });
+                helpers[0].register();
+            }
+        });
+
+        for (int i = 1; i <= 2; i++) {
+            // Finished request must not be shared with identical new one
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    helpers[0].inventory(true);
+                }
+            });
+            final InventoryResponse response = responses.poll(WAIT_TEST_MANAGER,
+                                                              TimeUnit.MILLISECONDS);
+            assertNotNull(response);
+            assertEquals(Status.SUCCESS, response.getStatus());
+            verify(billingProvider, times(i)).onBillingRequest(any(InventoryRequest.class));
+        }
+        helpers[0].unregister();
+    }
+
+    /**
+     * Collects responses with {@link Status#BUSY} status.
+     */
+    private static final class BusyListener extends SimpleBillingListener {
+
+        private final List<BillingResponse> responses;
+        private final CountDownLatch latch;
+
+        BusyListener(final List<BillingResponse> responses, final CountDownLatch latch) {
+            super();
+            this.responses = responses;
+            this.latch = latch;
+        }
+
+        @Override
+        public void onResponse(@NonNull final BillingResponse billingResponse) {
+            if (billingResponse.getStatus() == Status.BUSY) {
+                responses.add(billingResponse);
+                if (latch != null) {
+                    latch.countDown();
+                }
+            }
+        }
+    }
+
     private final class TestRunnable implements Runnable {
 
         public static final int NUMBER_HELPERS = 5;
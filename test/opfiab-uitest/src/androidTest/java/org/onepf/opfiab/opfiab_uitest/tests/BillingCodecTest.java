@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.opfiab_uitest.tests;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.onepf.opfiab.model.billing.BillingModel;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SignedPurchase;
+import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.ResponseLinker;
+import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.util.BillingCodec;
+import org.onepf.opfiab.verification.VerificationResult;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+/**
+ * Checks that {@link BillingCodec} preserves every field of supported models and responses.
+ */
+public class BillingCodecTest {
+
+    private static final String PROVIDER = "Test provider";
+
+    @NonNull
+    static Purchase newPurchase(final int index) {
+        return new Purchase.Builder("sku." + index)
+                .setType(SkuType.CONSUMABLE)
+                .setProviderName(PROVIDER)
+                .setOriginalJson("{\"productId\":\"sku." + index + "\",\"unicode\":\"пр\"}")
+                .setToken("token." + index)
+                .setPurchaseTime(1435593621000L + index)
+                .build();
+    }
+
+    @NonNull
+    static SignedPurchase newSignedPurchase(final int index) {
+        return new SignedPurchase.Builder("signed.sku." + index)
+                .setType(SkuType.SUBSCRIPTION)
+                .setProviderName(PROVIDER)
+                .setToken("token." + index)
+                .setPurchaseTime(1435593621000L + index)
+                .setCanceled(true)
+                .setSignature("signature." + index)
+                .build();
+    }
+
+    @NonNull
+    static SkuDetails newSkuDetails(final int index) {
+        return new SkuDetails.Builder("sku." + index)
+                .setType(SkuType.ENTITLEMENT)
+                .setProviderName(PROVIDER)
+                .setPrice("$0.99")
+                .setTitle("Title " + index)
+                .build();
+    }
+
+    @NonNull
+    static InventoryResponse newInventoryResponse(final int size) {
+        final Map<Purchase, VerificationResult> inventory = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            inventory.put(i % 2 == 0 ? newPurchase(i) : newSignedPurchase(i),
+                          i % 3 == 0 ? null : VerificationResult.SUCCESS);
+        }
+        final InventoryResponse response = new InventoryResponse(Status.SUCCESS, PROVIDER,
+                                                                 inventory, true);
+        ResponseLinker.link(response, size);
+        return response;
+    }
+
+    private static void assertIdentical(@NonNull final Object expected,
+                                        @NonNull final Object actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected, actual);
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    private static void assertRoundTrip(@NonNull final BillingModel billingModel)
+            throws IOException {
+        assertIdentical(billingModel, BillingCodec.decode(BillingCodec.encode(billingModel),
+                                                          BillingModel.class));
+        assertIdentical(billingModel, parcel(billingModel));
+    }
+
+    private static void assertRoundTrip(@NonNull final BillingResponse billingResponse)
+            throws IOException {
+        final BillingResponse decoded = BillingCodec.decode(BillingCodec.encode(billingResponse),
+                                                            BillingResponse.class);
+        assertIdentical(billingResponse, decoded);
+        assertEquals(billingResponse.getRequestId(), decoded.getRequestId());
+
+        final BillingResponse parceled = parcel(billingResponse);
+        assertIdentical(billingResponse, parceled);
+        assertEquals(billingResponse.getRequestId(), parceled.getRequestId());
+    }
+
+    @NonNull
+    private static <T extends Parcelable> T parcel(@NonNull final T value) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(value, 0);
+            parcel.setDataPosition(0);
+            return parcel.readParcelable(BillingCodecTest.class.getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void testModels() throws IOException {
+        assertRoundTrip(newPurchase(0));
+        assertRoundTrip(newSignedPurchase(1));
+        assertRoundTrip(newSkuDetails(2));
+        assertRoundTrip(new Purchase("empty"));
+        assertRoundTrip(new SkuDetails("empty"));
+    }
+
+    @Test
+    public void testResponses() throws IOException {
+        final PurchaseResponse purchaseResponse = new PurchaseResponse(
+                Status.SUCCESS, PROVIDER, newSignedPurchase(0), VerificationResult.SUCCESS);
+        ResponseLinker.link(purchaseResponse, 1);
+        assertRoundTrip(purchaseResponse);
+        assertRoundTrip(new PurchaseResponse(Status.USER_CANCELED, null));
+
+        final ConsumeResponse consumeResponse = new ConsumeResponse(Status.SUCCESS, PROVIDER,
+                                                                    newPurchase(1));
+        assertRoundTrip(consumeResponse);
+        assertRoundTrip(new ConsumeBatchResponse(PROVIDER, Arrays.asList(
+                consumeResponse,
+                new ConsumeResponse(Status.ITEM_UNAVAILABLE, PROVIDER, newPurchase(2)))));
+
+        assertRoundTrip(new SkuDetailsResponse(Status.SUCCESS, PROVIDER, Arrays.asList(
+                newSkuDetails(0), newSkuDetails(1))));
+        assertRoundTrip(new SkuDetailsResponse(Status.BUSY, PROVIDER));
+
+        final InventoryResponse inventoryResponse = newInventoryResponse(10);
+        final InventoryResponse decoded = BillingCodec.decode(
+                BillingCodec.encode(inventoryResponse), InventoryResponse.class);
+        assertEquals(inventoryResponse.getInventory(), decoded.getInventory());
+        assertEquals(inventoryResponse.hasMore(), decoded.hasMore());
+        assertRoundTrip(new InventoryResponse(Status.SERVICE_UNAVAILABLE, null));
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        final byte[] data = BillingCodec.encode(newPurchase(0));
+        try {
+            BillingCodec.decode(Arrays.copyOf(data, data.length / 2), Purchase.class);
+            fail();
+        } catch (IOException ignore) {
+            // Expected
+        }
+        try {
+            BillingCodec.decode(data, SkuDetails.class);
+            fail();
+        } catch (IOException ignore) {
+            // Expected
+        }
+        data[0] = (byte) (BillingCodec.VERSION + 1);
+        try {
+            BillingCodec.decode(data, Purchase.class);
+            fail();
+        } catch (IOException ignore) {
+            // Expected
+        }
+        assertNull(BillingCodec.creator(Purchase.class).newArray(1)[0]);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.opfiab_uitest.tests;
+
+import org.junit.Test;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.sku.CompiledSkuResolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+/**
+ * Checks that tables written by {@link CompiledSkuResolver.Compiler} are read back intact and
+ * malformed ones are rejected.
+ */
+public class CompiledSkuResolverTest {
+
+    private static final int MAGIC = 0x4F534B55;
+    private static final int VERSION = 2;
+    private static final int SKU_COUNT = 100;
+
+    private static CompiledSkuResolver roundTrip(final CompiledSkuResolver.Compiler compiler)
+            throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        compiler.write(outputStream);
+        return CompiledSkuResolver.read(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final CompiledSkuResolver.Compiler compiler = new CompiledSkuResolver.Compiler();
+        final SkuType[] skuTypes = SkuType.values();
+        for (int i = 0; i < SKU_COUNT; i++) {
+            // Every third SKU is not mapped
+            compiler.add("sku_" + i, i % 3 == 0 ? null : "resolved_" + i,
+                         skuTypes[i % skuTypes.length]);
+        }
+        final CompiledSkuResolver resolver = roundTrip(compiler);
+
+        assertEquals(SKU_COUNT, resolver.size());
+        for (int i = 0; i < SKU_COUNT; i++) {
+            final String sku = "sku_" + i;
+            final String resolvedSku = i % 3 == 0 ? sku : "resolved_" + i;
+            final SkuType skuType = skuTypes[i % skuTypes.length];
+            assertEquals(resolvedSku, resolver.resolve(sku));
+            assertEquals(sku, resolver.revert(resolvedSku));
+            assertEquals(skuType, resolver.resolveType(sku));
+            assertEquals(skuType, resolver.resolveType(resolvedSku));
+        }
+        assertEquals("unknown", resolver.resolve("unknown"));
+        assertEquals("unknown", resolver.revert("unknown"));
+        assertEquals(SkuType.UNKNOWN, resolver.resolveType("unknown"));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        final CompiledSkuResolver resolver = roundTrip(new CompiledSkuResolver.Compiler());
+        assertEquals(0, resolver.size());
+        assertEquals("sku", resolver.resolve("sku"));
+        assertEquals(SkuType.UNKNOWN, resolver.resolveType("sku"));
+    }
+
+    @Test
+    public void testFullTable() throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeInt(1);
+        // Table without empty slots would make lookups of missing SKUs loop forever
+        output.writeInt(1);
+        for (final String string : new String[]{"sku", "resolved", SkuType.CONSUMABLE.name()}) {
+            output.writeUTF(string);
+        }
+        output.writeInt(1);
+        output.writeInt(1);
+        output.flush();
+        try {
+            CompiledSkuResolver.read(new ByteArrayInputStream(outputStream.toByteArray()));
+            fail("Table without empty slots must be rejected.");
+        } catch (IOException ignore) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testUnknownType() throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeInt(1);
+        output.writeInt(2);
+        for (final String string : new String[]{"sku", "resolved", "NO_SUCH_TYPE"}) {
+            output.writeUTF(string);
+        }
+        output.writeInt(1);
+        output.writeInt(0);
+        output.writeInt(1);
+        output.writeInt(0);
+        output.flush();
+        try {
+            CompiledSkuResolver.read(new ByteArrayInputStream(outputStream.toByteArray()));
+            fail("Unknown SKU type must be rejected.");
+        } catch (IOException ignore) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.opfiab_uitest.tests;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.onepf.opfiab.util.EventRouter;
+import org.onepf.opfiab.util.EventRouter.EventHandler;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.concurrent.Executors;
+
+import de.greenrobot.event.EventBus;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares per event dispatch cost of {@link EventRouter} and {@link EventBus}, which library used
+ * before.
+ * <p>
+ * Timings are logged. Typed dispatch used by library internals must beat {@link EventBus}, other
+ * tests fail only if events were not delivered properly.
+ */
+public class EventDispatchBenchmark {
+
+    private static final int SUBSCRIBERS = 8;
+    private static final int WARM_UP = 10000;
+    private static final int EVENTS = 100000;
+
+    public abstract static class BaseEvent {
+    }
+
+    public static class MiddleEvent extends BaseEvent {
+    }
+
+    public static class LeafEvent extends MiddleEvent {
+    }
+
+    public static class UnrelatedEvent {
+    }
+
+    public static class Subscriber {
+
+        private int baseEvents;
+        private int leafEvents;
+
+        public void onEvent(final BaseEvent event) {
+            baseEvents++;
+        }
+
+        public void onEvent(final LeafEvent event) {
+            leafEvents++;
+        }
+
+        public void onEvent(final UnrelatedEvent event) {
+            throw new IllegalStateException();
+        }
+    }
+
+    public static class TypedBenchmarkSubscriber extends Subscriber
+            implements EventRouter.TypedSubscriber {
+
+        @NonNull
+        @Override
+        public EventHandler<?>[] getEventHandlers() {
+            return new EventHandler<?>[]{
+                    new EventHandler<BaseEvent>(BaseEvent.class) {
+                        @Override
+                        public void onEvent(@NonNull final BaseEvent event) {
+                            TypedBenchmarkSubscriber.this.onEvent(event);
+                        }
+                    },
+                    new EventHandler<LeafEvent>(LeafEvent.class) {
+                        @Override
+                        public void onEvent(@NonNull final LeafEvent event) {
+                            TypedBenchmarkSubscriber.this.onEvent(event);
+                        }
+                    },
+                    new EventHandler<UnrelatedEvent>(UnrelatedEvent.class) {
+                        @Override
+                        public void onEvent(@NonNull final UnrelatedEvent event) {
+                            TypedBenchmarkSubscriber.this.onEvent(event);
+                        }
+                    },
+            };
+        }
+    }
+
+    private interface Bus {
+
+        void post(Object event);
+    }
+
+    /**
+     * Posts events and checks they were delivered.
+     *
+     * @return Time in nanoseconds spent per event.
+     */
+    private static long run(final Bus bus, final Subscriber[] subscribers, final String name) {
+        for (int i = 0; i < WARM_UP; i++) {
+            bus.post(new LeafEvent());
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            bus.post(i % 2 == 0 ? new LeafEvent() : new MiddleEvent());
+        }
+        final long time = (System.nanoTime() - start) / EVENTS;
+        OPFLog.i("%s: %d ns/event", name, time);
+
+        final int total = WARM_UP + EVENTS;
+        for (final Subscriber subscriber : subscribers) {
+            assertEquals(total, subscriber.baseEvents);
+            assertEquals(WARM_UP + EVENTS / 2, subscriber.leafEvents);
+        }
+        return time;
+    }
+
+    private static Subscriber[] newSubscribers(final boolean typed) {
+        final Subscriber[] subscribers = new Subscriber[SUBSCRIBERS];
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            subscribers[i] = typed ? new TypedBenchmarkSubscriber() : new Subscriber();
+        }
+        return subscribers;
+    }
+
+    private static long runEventRouter(final boolean typed) {
+        final EventRouter router = new EventRouter(Executors.newSingleThreadExecutor(), false);
+        final Subscriber[] subscribers = newSubscribers(typed);
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            router.register(subscribers[i], i);
+        }
+        return run(new Bus() {
+            @Override
+            public void post(final Object event) {
+                router.post(event);
+            }
+        }, subscribers, typed ? "Typed EventRouter" : "EventRouter");
+    }
+
+    private static long runEventBus() {
+        final EventBus eventBus = EventBus.builder()
+                .executorService(Executors.newSingleThreadExecutor())
+                .throwSubscriberException(true)
+                .eventInheritance(true)
+                .build();
+        final Subscriber[] subscribers = newSubscribers(false);
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            eventBus.register(subscribers[i], i);
+        }
+        return run(new Bus() {
+            @Override
+            public void post(final Object event) {
+                eventBus.post(event);
+            }
+        }, subscribers, "EventBus");
+    }
+
+    @Test
+    public void testEventRouter() {
+        runEventRouter(false);
+    }
+
+    @Test
+    public void testTypedEventRouter() {
+        runEventRouter(true);
+    }
+
+    @Test
+    public void testEventBus() {
+        runEventBus();
+    }
+
+    @Test
+    public void testTypedDispatchAgainstEventBus() {
+        final long baseline = runEventBus();
+        final long typed = runEventRouter(true);
+        // Wall-clock numbers are too noisy on shared devices to fail the build on
+        OPFLog.i("Typed dispatch: %d ns/event, EventBus: %d ns/event", typed, baseline);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.opfiab_uitest.tests;
+
+import android.os.Debug;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.onepf.opfiab.model.JsonFields;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Compares per purchase parsing cost of {@link JSONObject} and {@link JsonFields}.
+ * <p>
+ * Timings and allocations are only logged, test fails only if values were not parsed properly.
+ */
+public class JsonParsingBenchmark {
+
+    private static final int WARM_UP = 1000;
+    private static final int PURCHASES = 10000;
+
+    private static final String NAME_PRODUCT_ID = "productId";
+    private static final String NAME_PURCHASE_TOKEN = "purchaseToken";
+    private static final String NAME_PURCHASE_TIME = "purchaseTime";
+    private static final String NAME_PURCHASE_STATE = "purchaseState";
+    private static final String NAME_AUTO_RENEWING = "autoRenewing";
+    private static final String NAME_DEVELOPER_PAYLOAD = "developerPayload";
+    private static final Collection<String> NAMES = Arrays.asList(NAME_PRODUCT_ID,
+            NAME_PURCHASE_TOKEN, NAME_PURCHASE_TIME, NAME_PURCHASE_STATE, NAME_AUTO_RENEWING,
+            NAME_DEVELOPER_PAYLOAD);
+
+    private static final String JSON = "{"
+            + "\"orderId\":\"12999763169054705758.1371079406387615\","
+            + "\"packageName\":\"org.onepf.opfiab.trivialdrive\","
+            + "\"productId\":\"org.onepf.opfiab.premium\","
+            + "\"purchaseTime\":1435593621000,"
+            + "\"purchaseState\":0,"
+            + "\"purchaseToken\":\"ngbjjfilmeponbcafkmhhggc.AO-J1OzJm1u4Xkh5gnUJr2Vy3IKwq0\","
+            + "\"autoRenewing\":true,"
+            + "\"developerPayload\":null,"
+            + "\"extras\":{\"region\":\"EU\",\"flags\":[1,2,3],\"nested\":{\"empty\":[]}}"
+            + "}";
+
+    private interface Parser {
+
+        void parse(String json) throws JSONException;
+    }
+
+    private static void run(final Parser parser, final String name) throws JSONException {
+        for (int i = 0; i < WARM_UP; i++) {
+            parser.parse(JSON);
+        }
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        final long start = System.nanoTime();
+        for (int i = 0; i < PURCHASES; i++) {
+            parser.parse(JSON);
+        }
+        final long time = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        OPFLog.i("%s: %d ns/purchase, %d objects/purchase, %d bytes/purchase", name,
+                 time / PURCHASES,
+                 Debug.getThreadAllocCount() / PURCHASES,
+                 Debug.getThreadAllocSize() / PURCHASES);
+    }
+
+    @Test
+    public void testJsonObject() throws JSONException {
+        run(new Parser() {
+            @Override
+            public void parse(final String json) throws JSONException {
+                final JSONObject jsonObject = new JSONObject(json);
+                assertEquals("org.onepf.opfiab.premium", jsonObject.getString(NAME_PRODUCT_ID));
+                assertEquals(1435593621000L, jsonObject.getLong(NAME_PURCHASE_TIME));
+                assertEquals(0, jsonObject.getInt(NAME_PURCHASE_STATE));
+                assertEquals(true, jsonObject.optBoolean(NAME_AUTO_RENEWING, false));
+                assertFalse(jsonObject.isNull(NAME_PURCHASE_TOKEN));
+            }
+        }, "JSONObject");
+    }
+
+    @Test
+    public void testJsonFields() throws JSONException {
+        run(new Parser() {
+            @Override
+            public void parse(final String json) throws JSONException {
+                final JsonFields fields = JsonFields.parse(json, NAMES);
+                assertEquals("org.onepf.opfiab.premium", fields.getString(NAME_PRODUCT_ID));
+                assertEquals(1435593621000L, fields.getLong(NAME_PURCHASE_TIME));
+                assertEquals(0, fields.getInt(NAME_PURCHASE_STATE));
+                assertEquals(true, fields.optBoolean(NAME_AUTO_RENEWING, false));
+                assertFalse(fields.has("orderId"));
+                assertNull(fields.optString(NAME_DEVELOPER_PAYLOAD, null));
+            }
+        }, "JsonFields");
+    }
+}
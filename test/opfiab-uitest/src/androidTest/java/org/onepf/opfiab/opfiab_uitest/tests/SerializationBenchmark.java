@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.opfiab_uitest.tests;
+
+import android.os.Parcel;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.util.BillingCodec;
+import org.onepf.opfutils.OPFLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares size and round trip cost of {@link InventoryResponse} encoded with {@link BillingCodec},
+ * {@link Parcel}, Java serialization and JSON.
+ * <p>
+ * Results are only logged, test fails only if response was not restored properly.
+ */
+public class SerializationBenchmark {
+
+    private static final int INVENTORY_SIZE = 100;
+    private static final int WARM_UP = 20;
+    private static final int ROUNDS = 200;
+
+    private static final InventoryResponse RESPONSE =
+            BillingCodecTest.newInventoryResponse(INVENTORY_SIZE);
+
+    private interface Codec {
+
+        byte[] encode(InventoryResponse response) throws Exception;
+
+        InventoryResponse decode(byte[] data) throws Exception;
+    }
+
+    private static void run(final Codec codec, final String name) throws Exception {
+        byte[] data = null;
+        for (int i = 0; i < WARM_UP; i++) {
+            data = codec.encode(RESPONSE);
+            codec.decode(data);
+        }
+        final long start = System.nanoTime();
+        InventoryResponse decoded = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            data = codec.encode(RESPONSE);
+            decoded = codec.decode(data);
+        }
+        final long time = System.nanoTime() - start;
+        OPFLog.i("%s: %d bytes, %d us/round trip", name, data.length, time / ROUNDS / 1000);
+        if (decoded != null) {
+            assertEquals(RESPONSE.getInventory(), decoded.getInventory());
+        }
+    }
+
+    @Test
+    public void testBillingCodec() throws Exception {
+        run(new Codec() {
+            @Override
+            public byte[] encode(final InventoryResponse response) {
+                return BillingCodec.encode(response);
+            }
+
+            @Override
+            public InventoryResponse decode(final byte[] data) throws Exception {
+                return BillingCodec.decode(data, InventoryResponse.class);
+            }
+        }, "BillingCodec");
+    }
+
+    @Test
+    public void testParcel() throws Exception {
+        run(new Codec() {
+            @Override
+            public byte[] encode(final InventoryResponse response) {
+                final Parcel parcel = Parcel.obtain();
+                try {
+                    response.writeToParcel(parcel, 0);
+                    return parcel.marshall();
+                } finally {
+                    parcel.recycle();
+                }
+            }
+
+            @Override
+            public InventoryResponse decode(final byte[] data) {
+                final Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(data, 0, data.length);
+                    parcel.setDataPosition(0);
+                    return InventoryResponse.CREATOR.createFromParcel(parcel);
+                } finally {
+                    parcel.recycle();
+                }
+            }
+        }, "Parcel");
+    }
+
+    @Test
+    public void testSerializable() throws Exception {
+        run(new Codec() {
+            @Override
+            public byte[] encode(final InventoryResponse response) throws Exception {
+                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                final ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+                objectOutputStream.writeObject(response);
+                objectOutputStream.close();
+                return outputStream.toByteArray();
+            }
+
+            @Override
+            public InventoryResponse decode(final byte[] data) throws Exception {
+                final ObjectInputStream objectInputStream =
+                        new ObjectInputStream(new ByteArrayInputStream(data));
+                try {
+                    return (InventoryResponse) objectInputStream.readObject();
+                } finally {
+                    objectInputStream.close();
+                }
+            }
+        }, "Serializable");
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        // There's no JSON decoder for responses, only the tree is restored
+        run(new Codec() {
+            @Override
+            public byte[] encode(final InventoryResponse response) throws Exception {
+                return response.toJson().toString().getBytes("UTF-8");
+            }
+
+            @Override
+            public InventoryResponse decode(final byte[] data) throws Exception {
+                new JSONObject(new String(data, "UTF-8"));
+                return null;
+            }
+        }, "JSON");
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.opfiab_uitest.tests;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onepf.opfiab.util.StateStore;
+import org.onepf.opfutils.OPFPreferences;
+
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that {@link StateStore} reflects pending mutations and writes them to disk.
+ */
+public class StateStoreTest {
+
+    private static final String NAME = "state_store_test";
+    private static final String KEY = "key";
+    private static final String OTHER_KEY = "other_key";
+    /**
+     * Comfortably longer than the store write-behind delay.
+     */
+    private static final long WRITE_BEHIND_WAIT = 2000L;
+
+    private StateStore stateStore;
+    /**
+     * Same preferences store is backed by, used to check what actually reached disk.
+     */
+    private SharedPreferences preferences;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        stateStore = StateStore.getInstance(context, NAME);
+        preferences = new OPFPreferences(context, NAME).getPreferences();
+        stateStore.remove(KEY);
+        stateStore.remove(OTHER_KEY);
+        stateStore.flush();
+    }
+
+    @Test
+    public void testSharedInstance() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        assertSame(stateStore, StateStore.getInstance(context, NAME));
+    }
+
+    @Test
+    public void testPendingMutations() {
+        stateStore.put(KEY, "value");
+        stateStore.put(OTHER_KEY, 1);
+        assertTrue(stateStore.contains(KEY));
+        assertEquals("value", stateStore.getString(KEY));
+        assertEquals(1, stateStore.getInt(OTHER_KEY, 0));
+
+        stateStore.put(KEY, "new value");
+        assertEquals("new value", stateStore.getString(KEY));
+        final Map<String, ?> all = stateStore.getAll();
+        assertEquals("new value", all.get(KEY));
+        assertEquals(1, all.get(OTHER_KEY));
+
+        stateStore.remove(KEY);
+        assertFalse(stateStore.contains(KEY));
+        assertNull(stateStore.getString(KEY));
+        assertFalse(stateStore.getAll().containsKey(KEY));
+    }
+
+    @Test
+    public void testFlush() {
+        stateStore.put(KEY, "value");
+        stateStore.flush();
+        assertEquals("value", preferences.getString(KEY, null));
+
+        stateStore.remove(KEY);
+        stateStore.flush();
+        assertFalse(preferences.contains(KEY));
+    }
+
+    @Test
+    public void testCommit() {
+        stateStore.commit(KEY, "value");
+        assertEquals("value", preferences.getString(KEY, null));
+    }
+
+    @Test
+    public void testClear() {
+        stateStore.commit(KEY, "value");
+        stateStore.put(OTHER_KEY, "pending value");
+        stateStore.clear();
+        assertTrue(stateStore.getAll().isEmpty());
+        assertFalse(stateStore.contains(OTHER_KEY));
+
+        // Pending value must not be written back
+        stateStore.flush();
+        assertTrue(preferences.getAll().isEmpty());
+    }
+
+    @Test
+    public void testWriteBehind() throws InterruptedException {
+        stateStore.put(KEY, "value");
+        stateStore.put(KEY, "new value");
+        Thread.sleep(WRITE_BEHIND_WAIT);
+        assertEquals("new value", preferences.getString(KEY, null));
+    }
+
+    @Test
+    public void testFlushAll() throws InterruptedException {
+        stateStore.put(KEY, "value");
+        StateStore.flushAll();
+        assertEquals("value", preferences.getString(KEY, null));
+
+        stateStore.put(KEY, "new value");
+        StateStore.flushAllAsync();
+        Thread.sleep(WRITE_BEHIND_WAIT);
+        assertEquals("new value", preferences.getString(KEY, null));
+    }
+}
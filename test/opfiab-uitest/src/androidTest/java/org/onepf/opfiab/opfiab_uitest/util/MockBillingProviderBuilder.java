@@ -24,6 +24,8 @@ import org.onepf.opfiab.billing.Compatibility;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.event.RequestHandledEvent;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeBatchResponse;
 import org.onepf.opfiab.model.event.billing.ConsumeRequest;
 import org.onepf.opfiab.model.event.billing.ConsumeResponse;
 import org.onepf.opfiab.model.event.billing.InventoryRequest;
@@ -32,9 +34,13 @@ import org.onepf.opfiab.model.event.billing.PurchaseRequest;
 import org.onepf.opfiab.model.event.billing.PurchaseResponse;
 import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
 import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.util.BillingUtils;
 import org.onepf.opfiab.verification.VerificationResult;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
@@ -54,12 +60,18 @@ public class MockBillingProviderBuilder {
     private long sleepTime = DEFAULT_SLEEP_TIME;
     private boolean willPostSuccess = true;
     private Compatibility compatibility = Compatibility.COMPATIBLE;
+    private Status failureStatus = BILLING_UNAVAILABLE;
 
     public MockBillingProviderBuilder setWillPostSuccess(boolean willPostSuccess) {
         this.willPostSuccess = willPostSuccess;
         return this;
     }
 
+    public MockBillingProviderBuilder setFailureStatus(Status failureStatus) {
+        this.failureStatus = failureStatus;
+        return this;
+    }
+
     public MockBillingProviderBuilder setCompatibility(Compatibility compatibility) {
         this.compatibility = compatibility;
         return this;
@@ -104,6 +116,8 @@ public class MockBillingProviderBuilder {
             switch (billingRequest.getType()) {
                 case CONSUME:
                     return answerConsume((ConsumeRequest) billingRequest);
+                case CONSUME_BATCH:
+                    return answerConsumeBatch((ConsumeBatchRequest) billingRequest);
                 case PURCHASE:
                     return answerPurchase((PurchaseRequest) billingRequest);
                 case SKU_DETAILS:
@@ -122,7 +136,22 @@ public class MockBillingProviderBuilder {
                         new ConsumeResponse(SUCCESS, mock.getName(), request.getPurchase()));
             } else {
                 OPFIab.post(
-                        BillingUtils.emptyResponse(mock.getName(), request, BILLING_UNAVAILABLE));
+                        BillingUtils.emptyResponse(mock.getName(), request, failureStatus));
+            }
+            return null;
+        }
+
+        public Void answerConsumeBatch(ConsumeBatchRequest request) {
+            OPFIab.post(new RequestHandledEvent(request));
+            if (willPostSuccess) {
+                final List<ConsumeResponse> responses = new ArrayList<>();
+                for (final Purchase purchase : request.getPurchases()) {
+                    responses.add(new ConsumeResponse(SUCCESS, mock.getName(), purchase));
+                }
+                OPFIab.post(new ConsumeBatchResponse(mock.getName(), responses));
+            } else {
+                OPFIab.post(
+                        BillingUtils.emptyResponse(mock.getName(), request, failureStatus));
             }
             return null;
         }
@@ -135,7 +164,7 @@ public class MockBillingProviderBuilder {
                         VerificationResult.SUCCESS));
             } else {
                 OPFIab.post(
-                        BillingUtils.emptyResponse(mock.getName(), request, BILLING_UNAVAILABLE));
+                        BillingUtils.emptyResponse(mock.getName(), request, failureStatus));
             }
             return null;
         }
@@ -146,7 +175,7 @@ public class MockBillingProviderBuilder {
                 OPFIab.post(new SkuDetailsResponse(SUCCESS, mock.getName(), null));
             } else {
                 OPFIab.post(
-                        BillingUtils.emptyResponse(mock.getName(), request, BILLING_UNAVAILABLE));
+                        BillingUtils.emptyResponse(mock.getName(), request, failureStatus));
             }
             return null;
         }
@@ -157,7 +186,7 @@ public class MockBillingProviderBuilder {
                 OPFIab.post(new InventoryResponse(SUCCESS, mock.getName()));
             } else {
                 OPFIab.post(
-                        BillingUtils.emptyResponse(mock.getName(), request, BILLING_UNAVAILABLE));
+                        BillingUtils.emptyResponse(mock.getName(), request, failureStatus));
             }
             return null;
         }